@@ -423,6 +423,17 @@ public class HSSFCell implements Cell {
             _sheet.getSheet().replaceValueRecord(_record);
         }
         _cellType = cellType;
+        _book.getChangeTracker().onCellChanged(this);
+    }
+
+    /**
+     * Reports the change of the value of this cell to the change tracker of the workbook.
+     * The cached results of formula cells aren't tracked, as they're recalculated from the formula.
+     */
+    private void onValueChanged() {
+        if (_cellType != CellType.FORMULA) {
+            _book.getChangeTracker().onCellChanged(this);
+        }
     }
 
     /**
@@ -480,6 +491,7 @@ public class HSSFCell implements Cell {
                     ((FormulaRecordAggregate)_record).setCachedDoubleResult(value);
                     break;
             }
+            onValueChanged();
         }
 
     }
@@ -582,6 +594,7 @@ public class HSSFCell implements Cell {
         _stringValue = hvalue;
         _stringValue.setWorkbookReferences(_book.getWorkbook(), (( LabelSSTRecord ) _record));
         _stringValue.setUnicodeString(_book.getWorkbook().getSSTString(index));
+        onValueChanged();
     }
 
     public void setCellFormula(String formula) {
@@ -743,6 +756,7 @@ public class HSSFCell implements Cell {
                 ((FormulaRecordAggregate)_record).setCachedBooleanResult(value);
                 break;
         }
+        onValueChanged();
     }
 
     /**
@@ -783,6 +797,7 @@ public class HSSFCell implements Cell {
                 ((FormulaRecordAggregate)_record).setCachedErrorResult(error.getCode());
                 break;
         }
+        onValueChanged();
     }
 
 
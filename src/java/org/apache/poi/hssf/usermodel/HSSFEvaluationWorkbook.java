@@ -34,6 +34,7 @@ import org.apache.poi.ss.formula.ptg.NamePtg;
 import org.apache.poi.ss.formula.ptg.NameXPtg;
 import org.apache.poi.ss.formula.ptg.Ptg;
 import org.apache.poi.ss.formula.ptg.Ref3DPtg;
+import org.apache.poi.ss.formula.udf.AggregatingUDFFinder;
 import org.apache.poi.ss.formula.udf.UDFFinder;
 import org.apache.poi.ss.usermodel.Table;
 import org.apache.poi.ss.util.AreaReference;
@@ -47,6 +48,8 @@ import org.apache.poi.util.Internal;
 public final class HSSFEvaluationWorkbook implements FormulaRenderingWorkbook, EvaluationWorkbook, FormulaParsingWorkbook {
     private final HSSFWorkbook _uBook;
     private final InternalWorkbook _iBook;
+    /** own copy of the workbook's UDF finder, or <code>null</code> to use the workbook's one */
+    private UDFFinder _udfFinder;
 
     public static HSSFEvaluationWorkbook create(HSSFWorkbook book) {
         if (book == null) {
@@ -99,7 +102,7 @@ public final class HSSFEvaluationWorkbook implements FormulaRenderingWorkbook, E
     @Override
     public NameXPtg getNameXPtg(String name, SheetIdentifier sheet) {
         int sheetRefIndex = getSheetExtIx(sheet);
-        return _iBook.getNameXPtg(name, sheetRefIndex, _uBook.getUDFFinder());
+        return _iBook.getNameXPtg(name, sheetRefIndex, getUDFFinder());
     }
 
     /**
@@ -233,7 +236,16 @@ public final class HSSFEvaluationWorkbook implements FormulaRenderingWorkbook, E
 
     @Override
     public UDFFinder getUDFFinder(){
-        return _uBook.getUDFFinder();
+        return _udfFinder != null ? _udfFinder : _uBook.getUDFFinder();
+    }
+
+    /**
+     * Makes this evaluation workbook use its own copy of the workbook's UDF finder, which isn't
+     * thread-safe, so it can be used by another thread. Tool packs added to the workbook later
+     * on aren't seen by this evaluation workbook.
+     */
+    public void isolateUDFFinder() {
+        _udfFinder = ((AggregatingUDFFinder)_uBook.getUDFFinder()).copy();
     }
 
     private static final class Name implements EvaluationName {
@@ -17,10 +17,14 @@
 
 package org.apache.poi.hssf.usermodel;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.poi.ss.formula.BaseFormulaEvaluator;
+import org.apache.poi.ss.formula.CellChangeTracker;
 import org.apache.poi.ss.formula.CollaboratingWorkbooksEnvironment;
+import org.apache.poi.ss.formula.EvaluationWorkbook;
 import org.apache.poi.ss.formula.IStabilityClassifier;
 import org.apache.poi.ss.formula.WorkbookEvaluator;
 import org.apache.poi.ss.formula.eval.BoolEval;
@@ -192,6 +196,83 @@ public class HSSFFormulaEvaluator extends BaseFormulaEvaluator {
         evaluateAllFormulaCells(_book, this);
     }
 
+    /**
+     * Evaluates all formula cells of the workbook like {@link #evaluateAll()}, but spreads
+     *  the work over the threads of the given executor, e.g. {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+     * Formula cells which depend on each other are evaluated level by level, so the speedup
+     *  depends on the width of the dependency graph. Volatile formulas and circular references
+     *  are evaluated sequentially.
+     * The workbook must not be accessed by other threads until this method returns.
+     *  Afterwards, {@link #evaluateDirty()} only recalculates the cells affected by later changes.
+     *
+     * @param executor runs the evaluation tasks, it isn't shut down
+     */
+    public void evaluateAll(ExecutorService executor) {
+        evaluateAllFormulaCells(_book, this, executor);
+    }
+
+    /**
+     * Builds the dependency graph of all formula cells of the workbook. Afterwards, changes
+     *  reported to the notify~ methods only mark the affected formula cells as dirty, and
+     *  {@link #evaluateDirty()} only recalculates these.
+     * The formula results cached in the cells are expected to be up to date, e.g. as saved
+     *  by Excel, otherwise call {@link #evaluateDirty()} instead, which builds the graph and
+     *  evaluates all formula cells.
+     * Calling {@link #clearAllCachedResultValues()} discards the dependency graph.
+     */
+    public void buildDependencyGraph() {
+        buildDependencyGraph(_book, this, true);
+    }
+
+    /**
+     * Evaluates the formula cells affected by the cells reported to the notify~ methods
+     *  since the last call, in dependency order, and saves their results like
+     *  {@link #evaluateFormulaCell(Cell)}.
+     * If there's no dependency graph yet, it is built and all formula cells are evaluated.
+     *
+     * @return the formula cells whose result has changed
+     */
+    public List<Cell> evaluateDirty() {
+        return evaluateDirtyFormulaCells(_book, this);
+    }
+
+    /**
+     * Recalculates the formula cells affected by the changes since the last call like
+     *  {@link #evaluateDirty()}, and prepares the workbook to be saved with up to date results:
+     *  the uncalced flags of the sheets are removed, so Excel uses the saved results instead of
+     *  recalculating the sheets when the file is opened.
+     * The cells whose value or formula has been changed since the dependency graph was built
+     *  are recalculated, even if they haven't been reported to the notify~ methods. If there
+     *  were changes which can't be tracked per cell, like removing cells or shifting rows,
+     *  all formula cells are recalculated instead. Changes made directly to the underlying
+     *  records aren't tracked, call {@link #clearAllCachedResultValues()} after them.
+     * Call {@link #buildDependencyGraph()} after loading a workbook saved by Excel, so only
+     *  the formula cells affected by the changes are recalculated.
+     * The recalculation engine id of the workbook is kept, as Excel still recalculates a file
+     *  saved by an older calculation engine.
+     *
+     * @return the formula cells whose result has changed
+     */
+    public List<Cell> evaluateDirtyForSave() {
+        List<Cell> changedCells = evaluateChangedFormulaCells(_book, this);
+        for (int i = 0; i < _book.getNumberOfSheets(); i++) {
+            _book.getSheetAt(i).setForceFormulaRecalculation(false);
+        }
+        return changedCells;
+    }
+
+    @Override
+    protected CellChangeTracker getChangeTracker() {
+        return _book.getChangeTracker();
+    }
+
+    @Override
+    protected EvaluationWorkbook createEvaluationWorkbook() {
+        HSSFEvaluationWorkbook result = HSSFEvaluationWorkbook.create(_book);
+        result.isolateUDFFinder();
+        return result;
+    }
+
     /**
      * Returns a CellValue wrapper around the supplied ValueEval instance.
      * @param cell
@@ -224,6 +224,7 @@ public final class HSSFName implements Name {
     public void setRefersToFormula(String formulaText) {
         Ptg[] ptgs = HSSFFormulaParser.parse(formulaText, _book, FormulaType.NAMEDRANGE, getSheetIndex());
         _definedNameRec.setNameDefinition(ptgs);
+        _book.getChangeTracker().onUntrackedChange();
     }
 
     public String getRefersToFormula() {
@@ -285,6 +286,7 @@ public final class HSSFName implements Name {
         }
 
         _definedNameRec.setSheetNumber(index + 1);
+        _book.getChangeTracker().onUntrackedChange();
     }
 
     /**
@@ -168,6 +168,7 @@ public final class HSSFRow implements Row, Comparable<HSSFRow> {
         }
 
         cells[column]=null;
+        book.getChangeTracker().onUntrackedChange();
 
         if(alsoRemoveRecords) {
             CellValueRecordInterface cval = cell.getCellValueRecord();
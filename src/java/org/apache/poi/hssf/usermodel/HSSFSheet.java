@@ -317,6 +317,7 @@ public final class HSSFSheet implements org.apache.poi.ss.usermodel.Sheet {
                 _firstrow = findFirstRow(_firstrow);
             }
             _sheet.removeRow(hrow.getRowRecord());
+            _workbook.getChangeTracker().onUntrackedChange();
         }
     }
 
@@ -1657,6 +1658,7 @@ public final class HSSFSheet implements org.apache.poi.ss.usermodel.Sheet {
                 externSheetIndex, sheetName, startRow, endRow, n, SpreadsheetVersion.EXCEL97);
         // Update formulas that refer to rows that have been moved
         updateFormulasForShift(formulaShifter);
+        _workbook.getChangeTracker().onUntrackedChange();
     }
 
     private void updateFormulasForShift(FormulaShifter formulaShifter) {
@@ -1766,6 +1768,7 @@ public final class HSSFSheet implements org.apache.poi.ss.usermodel.Sheet {
                 externSheetIndex, sheetName, startColumn, endColumn, n, SpreadsheetVersion.EXCEL97);
         updateFormulasForShift(formulaShifter); 
         // add logic for hyperlinks etc, like in shiftRows() 
+        _workbook.getChangeTracker().onUntrackedChange();
     } 
 
     protected void insertChartRecords(List<Record> records) {
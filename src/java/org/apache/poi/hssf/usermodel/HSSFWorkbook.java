@@ -99,6 +99,7 @@ import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
 import org.apache.poi.poifs.filesystem.Ole10Native;
 import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.CellChangeTracker;
 import org.apache.poi.ss.formula.FormulaShifter;
 import org.apache.poi.ss.formula.FormulaType;
 import org.apache.poi.ss.formula.SheetNameFormatter;
@@ -209,6 +210,11 @@ public final class HSSFWorkbook extends POIDocument implements org.apache.poi.ss
      */
     private UDFFinder _udfFinder = new IndexedUDFFinder(AggregatingUDFFinder.DEFAULT);
 
+    /**
+     * The cells changed since a formula evaluator has built its dependency graph
+     */
+    private final CellChangeTracker _changeTracker = new CellChangeTracker();
+
     public static HSSFWorkbook create(InternalWorkbook book) {
     	return new HSSFWorkbook(book);
     }
@@ -520,6 +526,7 @@ public final class HSSFWorkbook extends POIDocument implements org.apache.poi.ss
         updateNamedRangesAfterSheetReorder(oldSheetIndex, pos);
         
         updateActiveSheetAfterSheetReorder(oldSheetIndex, pos);
+        _changeTracker.onUntrackedChange();
     }
     
     /**
@@ -725,6 +732,7 @@ public final class HSSFWorkbook extends POIDocument implements org.apache.poi.ss
         }
         validateSheetIndex(sheetIx);
         workbook.setSheetName(sheetIx, name);
+        _changeTracker.onUntrackedChange();
     }
 
     /**
@@ -1062,6 +1070,7 @@ public final class HSSFWorkbook extends POIDocument implements org.apache.poi.ss
 
         _sheets.remove(index);
         workbook.removeSheet(index);
+        _changeTracker.onUntrackedChange();
 
         // set the remaining active/selected sheet
         int nSheets = _sheets.size();
@@ -1764,6 +1773,7 @@ public final class HSSFWorkbook extends POIDocument implements org.apache.poi.ss
     public void removeName(int index){
         names.remove(index);
         workbook.removeName(index);
+        _changeTracker.onUntrackedChange();
     }
 
     /**
@@ -2170,6 +2180,14 @@ public final class HSSFWorkbook extends POIDocument implements org.apache.poi.ss
         return _udfFinder;
     }
 
+    /**
+     * Returns the tracker of the cells whose value or formula has changed, which is started
+     * when a formula evaluator builds its dependency graph.
+     */
+    /*package*/ CellChangeTracker getChangeTracker() {
+        return _changeTracker;
+    }
+
     /**
      * Register a new toolpack in this workbook.
      *
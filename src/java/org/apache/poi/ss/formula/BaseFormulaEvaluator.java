@@ -17,8 +17,20 @@
 
 package org.apache.poi.ss.formula;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
+import org.apache.poi.ss.formula.PlainCellCache.Loc;
+import org.apache.poi.ss.formula.eval.BoolEval;
+import org.apache.poi.ss.formula.eval.ErrorEval;
+import org.apache.poi.ss.formula.eval.NumericValueEval;
+import org.apache.poi.ss.formula.eval.StringValueEval;
+import org.apache.poi.ss.formula.eval.ValueEval;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.CellValue;
@@ -33,6 +45,9 @@ import org.apache.poi.util.Removal;
  * Common functionality across file formats for evaluating formula cells.<p>
  */
 public abstract class BaseFormulaEvaluator implements FormulaEvaluator, WorkbookEvaluatorProvider {
+    /** number of formula cells evaluated by one task of a parallel evaluation */
+    private static final int PARALLEL_BATCH_SIZE = 256;
+
     protected final WorkbookEvaluator _bookEvaluator;
 
     protected BaseFormulaEvaluator(WorkbookEvaluator bookEvaluator) {
@@ -59,6 +74,35 @@ public abstract class BaseFormulaEvaluator implements FormulaEvaluator, Workbook
         CollaboratingWorkbooksEnvironment.setupFormulaEvaluator(evaluators);
     }
 
+    /**
+     * Sets up this evaluator to open the workbooks referenced by formulas like
+     * "[MyData.xls]Sheet1!A1" when they are first needed, instead of opening all of them
+     * up front like {@link #setupReferencedWorkbooks(Map)}. Only the values of the cells
+     * referenced by the formulas are cached, and at most
+     * {@link CollaboratingWorkbooksEnvironment#DEFAULT_MAX_LOADED_WORKBOOKS} workbooks are kept
+     * open. If the loader doesn't find a workbook and {@link #setIgnoreMissingWorkbooks(boolean)}
+     * is set, the cached results of the formulas are used as usual.
+     *
+     * @param workbookName the name of this workbook, as used by the formulas of the other workbooks
+     * @param loader opens the other workbooks
+     */
+    public void setupReferencedWorkbooks(String workbookName, ExternalWorkbookLoader loader) {
+        setupReferencedWorkbooks(workbookName, loader, CollaboratingWorkbooksEnvironment.DEFAULT_MAX_LOADED_WORKBOOKS);
+    }
+
+    /**
+     * Like {@link #setupReferencedWorkbooks(String, ExternalWorkbookLoader)}, but closes the least
+     * recently used of the loaded workbooks, when more than the given number would be open.
+     * The cached results of the formulas of this workbook are kept, when a workbook is closed.
+     *
+     * @param maxLoadedWorkbooks the maximum number of workbooks opened by the loader, which are kept open
+     */
+    public void setupReferencedWorkbooks(String workbookName, ExternalWorkbookLoader loader, int maxLoadedWorkbooks) {
+        Map<String, WorkbookEvaluator> evaluators = new HashMap<>();
+        evaluators.put(workbookName, _bookEvaluator);
+        CollaboratingWorkbooksEnvironment.setup(evaluators, loader, maxLoadedWorkbooks);
+    }
+
     @Override
     public WorkbookEvaluator _getWorkbookEvaluator() {
         return _bookEvaluator;
@@ -77,6 +121,18 @@ public abstract class BaseFormulaEvaluator implements FormulaEvaluator, Workbook
         _bookEvaluator.clearAllCachedResultValues();
     }
 
+    /**
+     * Should be called before evaluating the formula cells again, when the results of volatile
+     * functions like NOW(), TODAY() or RAND() are expected to change, e.g. to regenerate a report
+     * at a later time. Opposed to {@link #clearAllCachedResultValues()}, only the formula cells
+     * calling volatile functions and the formula cells depending on them are recalculated.
+     *
+     * @return the number of volatile formula cells whose results were discarded
+     */
+    public int refreshVolatileFormulas() {
+        return _bookEvaluator.refreshVolatileFormulas();
+    }
+
     /**
      * If cell contains a formula, the formula is evaluated and returned,
      * else the CellValue simply copies the appropriate cell value from
@@ -150,6 +206,30 @@ public abstract class BaseFormulaEvaluator implements FormulaEvaluator, Workbook
 
     protected abstract CellValue evaluateFormulaCellValue(Cell cell);
 
+    /**
+     * Creates a new evaluation workbook for the evaluated workbook, which is used
+     *  by another thread during parallel evaluations, so it must not share any
+     *  mutable state like the UDF finder with the workbook.
+     * By default, parallel evaluations aren't supported, and the formula cells
+     *  are evaluated by the calling thread.
+     *
+     * @return the new evaluation workbook, or <code>null</code> if not supported
+     */
+    protected EvaluationWorkbook createEvaluationWorkbook() {
+        return null;
+    }
+
+    /**
+     * Returns the tracker of the changes of the evaluated workbook, which records the
+     *  changed cells once the dependency graph has been built.
+     * By default, the changes aren't tracked.
+     *
+     * @return the tracker, or <code>null</code> if not supported
+     */
+    protected CellChangeTracker getChangeTracker() {
+        return null;
+    }
+
     /**
      * If cell contains formula, it evaluates the formula,
      *  and saves the result of the formula. The cell
@@ -284,6 +364,195 @@ public abstract class BaseFormulaEvaluator implements FormulaEvaluator, Workbook
         }
     }
 
+    /**
+     * Evaluates all formula cells of the supplied workbook like
+     *  {@link #evaluateAllFormulaCells(Workbook, FormulaEvaluator)}, but spreads the work
+     *  over the threads of the given executor.
+     * The formula cells are split into levels by their dependencies. The cells of a level
+     *  are evaluated concurrently, each thread with its own evaluation workbook and cache,
+     *  and their results are saved by the calling thread before the next level is started.
+     * Volatile formulas, circular references and the formulas depending on them are
+     *  evaluated sequentially at the end.
+     * The workbook must not be accessed by other threads meanwhile. Afterwards, the
+     *  dependency graph can be used by {@link #evaluateDirtyFormulaCells(Workbook, BaseFormulaEvaluator)}.
+     * If the evaluator doesn't support parallel evaluations, all formula cells are
+     *  evaluated by the calling thread.
+     */
+    protected static void evaluateAllFormulaCells(Workbook wb, final BaseFormulaEvaluator evaluator, ExecutorService executor) {
+        final WorkbookEvaluator bookEvaluator = evaluator._bookEvaluator;
+        buildDependencyGraph(wb, evaluator, false);
+        if (evaluator.createEvaluationWorkbook() == null) {
+            evaluateDirtyFormulaCells(wb, evaluator);
+            return;
+        }
+
+        final EvaluationWorkers<WorkbookEvaluator> workers = new EvaluationWorkers<WorkbookEvaluator>() {
+            @Override
+            protected WorkbookEvaluator createWorker() {
+                return bookEvaluator.createWorker(evaluator.createEvaluationWorkbook());
+            }
+        };
+        for (List<Loc> level : bookEvaluator.getDirtyFormulaLevels()) {
+            List<Callable<ValueEval[]>> tasks = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += PARALLEL_BATCH_SIZE) {
+                final List<Loc> batch = level.subList(i, Math.min(i + PARALLEL_BATCH_SIZE, level.size()));
+                tasks.add(new Callable<ValueEval[]>() {
+                    @Override
+                    public ValueEval[] call() {
+                        WorkbookEvaluator worker = workers.getWorker();
+                        ValueEval[] results = new ValueEval[batch.size()];
+                        for (int j = 0; j < results.length; j++) {
+                            Loc loc = batch.get(j);
+                            results[j] = worker.evaluate(loc.getSheetIndex(), loc.getRowIndex(), loc.getColumnIndex());
+                        }
+                        return results;
+                    }
+                });
+            }
+
+            int locIndex = 0;
+            for (ValueEval[] results : EvaluationWorkers.invokeAll(executor, tasks)) {
+                for (ValueEval result : results) {
+                    Loc loc = level.get(locIndex++);
+                    Cell c = wb.getSheetAt(loc.getSheetIndex()).getRow(loc.getRowIndex()).getCell(loc.getColumnIndex());
+                    evaluator.setCellValue(c, toCellValue(result));
+                }
+            }
+            bookEvaluator.clearDirtyFormulaCells(level);
+        }
+
+        // whatever couldn't be evaluated concurrently
+        evaluateDirtyFormulaCells(wb, evaluator);
+    }
+
+    private static CellValue toCellValue(ValueEval eval) {
+        if (eval instanceof BoolEval) {
+            return CellValue.valueOf(((BoolEval)eval).getBooleanValue());
+        }
+        if (eval instanceof NumericValueEval) {
+            return new CellValue(((NumericValueEval)eval).getNumberValue());
+        }
+        if (eval instanceof StringValueEval) {
+            return new CellValue(((StringValueEval)eval).getStringValue());
+        }
+        if (eval instanceof ErrorEval) {
+            return CellValue.getError(((ErrorEval)eval).getErrorCode());
+        }
+        throw new RuntimeException("Unexpected eval class (" + eval.getClass().getName() + ")");
+    }
+
+    /**
+     * Builds the dependency graph of all formula cells of the supplied workbook from their
+     *  formula tokens. Afterwards, changes reported to the notify~ methods mark the affected
+     *  formula cells as dirty, and only these are recalculated by
+     *  {@link #evaluateDirtyFormulaCells(Workbook, BaseFormulaEvaluator)}.
+     *
+     * @param cachedResultsValid whether the formula results cached in the cells are up to date,
+     *  e.g. when the workbook has been saved by Excel. In this case, the cached results
+     *  of the unaffected formula cells are used instead of evaluating them.
+     */
+    protected static void buildDependencyGraph(Workbook wb, BaseFormulaEvaluator evaluator, boolean cachedResultsValid) {
+        WorkbookEvaluator bookEvaluator = evaluator._bookEvaluator;
+        bookEvaluator.createDependencyGraph();
+        CellChangeTracker tracker = evaluator.getChangeTracker();
+        if (tracker != null) {
+            tracker.startTracking(evaluator);
+        }
+        for(int i=0; i<wb.getNumberOfSheets(); i++) {
+            EvaluationSheet evalSheet = bookEvaluator.getSheet(i);
+
+            for(Row r : wb.getSheetAt(i)) {
+                for (Cell c : r) {
+                    if (c.getCellType() == CellType.FORMULA) {
+                        EvaluationCell evalCell = evalSheet.getCell(c.getRowIndex(), c.getColumnIndex());
+                        bookEvaluator.addToDependencyGraph(i, evalCell, !cachedResultsValid);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates the dirty formula cells of the supplied workbook in dependency order,
+     *  and saves their results like {@link #evaluateFormulaCell(Cell)}.
+     * If the dependency graph hasn't been built yet, it is built now and all formula
+     *  cells are evaluated.
+     *
+     * @return the formula cells whose result has changed
+     */
+    protected static List<Cell> evaluateDirtyFormulaCells(Workbook wb, BaseFormulaEvaluator evaluator) {
+        WorkbookEvaluator bookEvaluator = evaluator._bookEvaluator;
+        if (!bookEvaluator.hasDependencyGraph()) {
+            buildDependencyGraph(wb, evaluator, false);
+        }
+
+        List<Cell> changedCells = new ArrayList<>();
+        for (Loc loc : bookEvaluator.getDirtyFormulaCells()) {
+            Row r = wb.getSheetAt(loc.getSheetIndex()).getRow(loc.getRowIndex());
+            Cell c = (r == null) ? null : r.getCell(loc.getColumnIndex());
+            if (c == null || c.getCellType() != CellType.FORMULA) {
+                continue;
+            }
+            CellValue cv = evaluator.evaluateFormulaCellValue(c);
+            boolean changed = !isCachedFormulaResult(c, cv);
+            evaluator.setCellValue(c, cv);
+            if (changed) {
+                changedCells.add(c);
+            }
+        }
+        bookEvaluator.clearDirtyFormulaCells();
+        return changedCells;
+    }
+
+    /**
+     * Evaluates the formula cells affected by the changes since the last evaluation like
+     *  {@link #evaluateDirtyFormulaCells(Workbook, BaseFormulaEvaluator)}, including the
+     *  changes recorded by the change tracker of the workbook which haven't been reported to
+     *  the notify~ methods. If the changes haven't been tracked completely, all formula cells
+     *  are recalculated, so the results of all formula cells are up to date afterwards.
+     *
+     * @return the formula cells whose result has changed
+     */
+    protected static List<Cell> evaluateChangedFormulaCells(Workbook wb, BaseFormulaEvaluator evaluator) {
+        if (evaluator._bookEvaluator.hasDependencyGraph()) {
+            CellChangeTracker tracker = evaluator.getChangeTracker();
+            Collection<Cell> trackedCells = (tracker == null) ? null : tracker.getChangedCells(evaluator);
+            if (trackedCells == null) {
+                evaluator.clearAllCachedResultValues();
+            } else {
+                for (Cell c : trackedCells) {
+                    evaluator.notifyUpdateCell(c);
+                }
+            }
+        }
+        List<Cell> changedCells = evaluateDirtyFormulaCells(wb, evaluator);
+        CellChangeTracker tracker = evaluator.getChangeTracker();
+        if (tracker != null) {
+            // the reported changes are evaluated now
+            tracker.startTracking(evaluator);
+        }
+        return changedCells;
+    }
+
+    private static boolean isCachedFormulaResult(Cell cell, CellValue cv) {
+        CellType cachedType = cell.getCachedFormulaResultType();
+        if (cachedType != cv.getCellType()) {
+            return false;
+        }
+        switch (cachedType) {
+            case BOOLEAN:
+                return cell.getBooleanCellValue() == cv.getBooleanValue();
+            case ERROR:
+                return cell.getErrorCellValue() == cv.getErrorValue();
+            case NUMERIC:
+                return cell.getNumericCellValue() == cv.getNumberValue();
+            case STRING:
+                return cell.getRichStringCellValue().getString().equals(cv.getStringValue());
+            default:
+                return false;
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void setIgnoreMissingWorkbooks(boolean ignore){
@@ -21,6 +21,9 @@ import org.apache.poi.ss.formula.eval.AreaEval;
 import org.apache.poi.ss.formula.eval.AreaEvalBase;
 import org.apache.poi.ss.formula.eval.BlankEval;
 import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.functions.IndexedArea;
+import org.apache.poi.ss.formula.functions.LookupIndex;
+import org.apache.poi.ss.formula.functions.NumericValues;
 import org.apache.poi.ss.formula.ptg.AreaI;
 import org.apache.poi.ss.formula.ptg.AreaI.OffsetArea;
 import org.apache.poi.ss.util.CellReference;
@@ -29,21 +32,36 @@ import org.apache.poi.ss.util.CellReference;
  * @author Robert Hulbert
  * Provides holding structure for temporary values in arrays during the evaluation process.
  * As such, Row/Column references do not actually correspond to data in the file.
+ * The values of array operations are kept in primitive arrays, which the aggregate
+ * functions like SUM read without creating a value object per element.
  */
 
-public final class CacheAreaEval extends AreaEvalBase {
+public final class CacheAreaEval extends AreaEvalBase implements IndexedArea {
     
     /* Value Containter */
     private final ValueEval[] _values;
+    /* or the values in primitive arrays */
+    private final NumericValues _numericValues;
     
     public CacheAreaEval(AreaI ptg, ValueEval[] values) {
         super(ptg);
         _values = values;
+        _numericValues = null;
     }
     
     public CacheAreaEval(int firstRow, int firstColumn, int lastRow, int lastColumn, ValueEval[] values) {
         super(firstRow, firstColumn, lastRow, lastColumn);
         _values = values;
+        _numericValues = null;
+    }
+    
+    /**
+     * @param values the values row by row, which must not contain text
+     */
+    public CacheAreaEval(int firstRow, int firstColumn, NumericValues values) {
+        super(firstRow, firstColumn, firstRow + values.getHeight() - 1, firstColumn + values.getWidth() - 1);
+        _values = null;
+        _numericValues = values;
     }
     
     public ValueEval getRelativeValue(int relativeRowIndex, int relativeColumnIndex) {
@@ -52,9 +70,24 @@ public final class CacheAreaEval extends AreaEvalBase {
     
     public ValueEval getRelativeValue(int sheetIndex, int relativeRowIndex, int relativeColumnIndex) {
         int oneDimensionalIndex = relativeRowIndex * getWidth() + relativeColumnIndex;
+        if (_numericValues != null) {
+            return _numericValues.getValue(oneDimensionalIndex);
+        }
         return _values[oneDimensionalIndex];
     }
 
+    public LookupIndex getRowLookupIndex(int rowIndex) {
+        return null;
+    }
+
+    public LookupIndex getColumnLookupIndex(int columnIndex) {
+        return null;
+    }
+
+    public NumericValues getNumericValues() {
+        return _numericValues;
+    }
+
     public AreaEval offset(int relFirstRowIx, int relLastRowIx,
             int relFirstColIx, int relLastColIx) {
         
@@ -80,7 +113,7 @@ public final class CacheAreaEval extends AreaEvalBase {
                     temp = BlankEval.instance;
                 }
                 else {
-                    temp = _values[(startRow + j) * getWidth() + (startCol + i)];
+                    temp = getRelativeValue(startRow + j, startCol + i);
                 }
                 newVals[j * width + i] = temp;     
             }
@@ -17,6 +17,9 @@
 
 package org.apache.poi.ss.formula;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.poi.ss.formula.eval.BlankEval;
 import org.apache.poi.ss.formula.eval.BoolEval;
 import org.apache.poi.ss.formula.eval.ErrorEval;
@@ -85,6 +88,9 @@ abstract class CellCacheEntry implements ICacheEntry {
 		_consumingCells.add(cellLoc);
 
 	}
+	public final boolean hasConsumingCells() {
+		return !_consumingCells.isEmpty();
+	}
 	public final FormulaCellCacheEntry[] getConsumingCells() {
 		return _consumingCells.toArray();
 	}
@@ -95,42 +101,53 @@ abstract class CellCacheEntry implements ICacheEntry {
 		}
 	}
 	public final void recurseClearCachedFormulaResults(IEvaluationListener listener) {
-		if (listener == null) {
-			recurseClearCachedFormulaResults();
-		} else {
+		if (listener != null) {
 			listener.onClearCachedValue(this);
-			recurseClearCachedFormulaResults(listener, 1);
 		}
+		recurseClearCachedFormulaResults(listener, 1);
 	}
 
 	/**
 	 * Calls formulaCell.setFormulaResult(null, null) recursively all the way up the tree of
 	 * dependencies. Calls usedCell.clearConsumingCell(fc) for each child of a cell that is
-	 * cleared along the way.
-	 * @param formulaCells
+	 * cleared along the way.<p>
+	 *
+	 * The tree is traversed depth first with a work stack rather than by recursion, since
+	 * chains of dependent formulas may be very long.
+	 *
+	 * @param listener may be <code>null</code>
+	 * @param depth the depth of the consuming cells of this cell
 	 */
-	protected final void recurseClearCachedFormulaResults() {
-		FormulaCellCacheEntry[] formulaCells = getConsumingCells();
-
-		for (int i = 0; i < formulaCells.length; i++) {
+	protected final void recurseClearCachedFormulaResults(IEvaluationListener listener, int depth) {
+		List<FormulaCellCacheEntry[]> pendingCells = new ArrayList<>();
+		List<Integer> nextIndexes = new ArrayList<>();
+		pendingCells.add(getConsumingCells(this, listener));
+		nextIndexes.add(0);
+		while (!pendingCells.isEmpty()) {
+			int top = pendingCells.size() - 1;
+			FormulaCellCacheEntry[] formulaCells = pendingCells.get(top);
+			int i = nextIndexes.get(top);
+			if (i >= formulaCells.length) {
+				pendingCells.remove(top);
+				nextIndexes.remove(top);
+				continue;
+			}
+			nextIndexes.set(top, i + 1);
 			FormulaCellCacheEntry fc = formulaCells[i];
+			if (listener != null) {
+				listener.onClearDependentCachedValue(fc, depth + top);
+			}
 			fc.clearFormulaEntry();
-			fc.recurseClearCachedFormulaResults();
+			pendingCells.add(getConsumingCells(fc, listener));
+			nextIndexes.add(0);
 		}
 	}
 
-	/**
-	 * Identical to {@link #recurseClearCachedFormulaResults()} except for the listener call-backs
-	 */
-	protected final void recurseClearCachedFormulaResults(IEvaluationListener listener, int depth) {
-		FormulaCellCacheEntry[] formulaCells = getConsumingCells();
-
-		listener.sortDependentCachedValues(formulaCells);
-		for (int i = 0; i < formulaCells.length; i++) {
-			FormulaCellCacheEntry fc = formulaCells[i];
-			listener.onClearDependentCachedValue(fc, depth);
-			fc.clearFormulaEntry();
-			fc.recurseClearCachedFormulaResults(listener, depth+1);
+	private static FormulaCellCacheEntry[] getConsumingCells(CellCacheEntry cce, IEvaluationListener listener) {
+		FormulaCellCacheEntry[] result = cce.getConsumingCells();
+		if (listener != null) {
+			listener.sortDependentCachedValues(result);
 		}
+		return result;
 	}
 }
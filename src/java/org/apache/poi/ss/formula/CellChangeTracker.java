@@ -0,0 +1,92 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.util.Internal;
+
+/**
+ * Records the cells of a workbook whose value or formula has changed since an evaluator
+ * has built its dependency graph, so the affected formula cells can be recalculated
+ * even if the changes weren't reported to the notify~ methods of the evaluator.
+ * Changes which can't be recorded per cell, like removing rows or renaming sheets, are
+ * only flagged, as well as too many changed cells. Nothing is recorded until the tracking
+ * has been started.
+ */
+@Internal
+public final class CellChangeTracker {
+
+    /**
+     * maximum number of changed cells recorded, recalculating all formulas is likely to be
+     * faster if there are more
+     */
+    private static final int MAX_CHANGED_CELL_COUNT = 1 << 16;
+
+    /** the evaluator which started the tracking */
+    private Object _owner;
+    /** the changed cells, or <code>null</code> if the changes aren't tracked */
+    private Set<Cell> _changedCells;
+    private boolean _hasUntrackedChanges;
+
+    /**
+     * Discards the recorded changes and starts tracking the changes for the given evaluator.
+     */
+    public void startTracking(Object owner) {
+        _owner = owner;
+        _changedCells = new HashSet<>();
+        _hasUntrackedChanges = false;
+    }
+
+    /**
+     * Should be called when the value or the formula of the given cell has changed.
+     */
+    public void onCellChanged(Cell cell) {
+        if (_changedCells != null && !_hasUntrackedChanges) {
+            _changedCells.add(cell);
+            if (_changedCells.size() > MAX_CHANGED_CELL_COUNT) {
+                onUntrackedChange();
+            }
+        }
+    }
+
+    /**
+     * Should be called on changes which may affect the results of formulas, but can't be
+     * reported per cell, e.g. when rows are removed or shifted.
+     */
+    public void onUntrackedChange() {
+        _hasUntrackedChanges = true;
+        if (_changedCells != null) {
+            _changedCells.clear();
+        }
+    }
+
+    /**
+     * @return the cells changed since the given evaluator started the tracking, or
+     *  <code>null</code> if the changes haven't been tracked for it or can't be reported per cell
+     */
+    public Collection<Cell> getChangedCells(Object owner) {
+        if (_owner != owner || _hasUntrackedChanges) {
+            return null;
+        }
+        return _changedCells;
+    }
+}
@@ -16,16 +16,21 @@
 ==================================================================== */
 package org.apache.poi.ss.formula;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.util.Internal;
+import org.apache.poi.util.POILogFactory;
+import org.apache.poi.util.POILogger;
 
 /**
  * Manages a collection of {@link WorkbookEvaluator}s, in order to support 
@@ -42,17 +47,53 @@ public final class CollaboratingWorkbooksEnvironment {
         WorkbookNotFoundException(String msg) {
             super(msg);
         }
+
+        WorkbookNotFoundException(String msg, Throwable cause) {
+            super(msg, cause);
+        }
+    }
+
+    /**
+     * A workbook opened by the {@link ExternalWorkbookLoader}, which is closed when it's evicted
+     */
+    private static final class LoadedWorkbook {
+        private final Workbook _workbook;
+        private final WorkbookEvaluator _evaluator;
+
+        LoadedWorkbook(Workbook workbook, WorkbookEvaluator evaluator) {
+            _workbook = workbook;
+            _evaluator = evaluator;
+        }
     }
 
+    private static final POILogger LOG = POILogFactory.getLogger(CollaboratingWorkbooksEnvironment.class);
+
+    /** the default maximum number of workbooks opened by the loader, which are kept open at the same time */
+    public static final int DEFAULT_MAX_LOADED_WORKBOOKS = 8;
+
     public static final CollaboratingWorkbooksEnvironment EMPTY = new CollaboratingWorkbooksEnvironment();
 
     private final Map<String, WorkbookEvaluator> _evaluatorsByName;
     private final WorkbookEvaluator[] _evaluators;
+    /** opens the workbooks missing in {@link #_evaluatorsByName}, or <code>null</code> */
+    private final ExternalWorkbookLoader _loader;
+    /** shared by all evaluators, including the loaded ones */
+    private final EvaluationCache _cache;
+    /** workbooks opened by the loader, in the order of their last use */
+    private final Map<String, LoadedWorkbook> _loadedWorkbooks;
+    private final int _maxLoadedWorkbooks;
+    /** workbook indexes of the loaded workbooks, which are kept when a workbook is loaded again */
+    private final Map<String, Integer> _loadedIndexes;
 
     private boolean _unhooked;
     private CollaboratingWorkbooksEnvironment() {
         _evaluatorsByName = Collections.emptyMap();
         _evaluators = new WorkbookEvaluator[0];
+        _loader = null;
+        _cache = null;
+        _loadedWorkbooks = Collections.emptyMap();
+        _maxLoadedWorkbooks = 0;
+        _loadedIndexes = Collections.emptyMap();
     }
 
     public static void setup(String[] workbookNames, WorkbookEvaluator[] evaluators) {
@@ -67,14 +108,40 @@ public final class CollaboratingWorkbooksEnvironment {
         new CollaboratingWorkbooksEnvironment(workbookNames, evaluators, nItems);
     }
     public static void setup(Map<String,WorkbookEvaluator> evaluatorsByName) {
+        setup(evaluatorsByName, null, DEFAULT_MAX_LOADED_WORKBOOKS);
+    }
+    /**
+     * @param loader opens the referenced workbooks missing in <code>evaluatorsByName</code>
+     *  when they are first needed, may be <code>null</code>
+     * @param maxLoadedWorkbooks the maximum number of workbooks opened by the loader, which are
+     *  kept open. The least recently used workbook is closed when another one is opened.
+     */
+    public static void setup(Map<String,WorkbookEvaluator> evaluatorsByName, ExternalWorkbookLoader loader,
+            int maxLoadedWorkbooks) {
         if (evaluatorsByName.size() < 1) {
             throw new IllegalArgumentException("Must provide at least one collaborating worbook");
         }
+        if (maxLoadedWorkbooks < 1) {
+            throw new IllegalArgumentException("At least one loaded workbook must be kept open, but the maximum is "
+                    + maxLoadedWorkbooks);
+        }
         WorkbookEvaluator[] evaluators = 
                 evaluatorsByName.values().toArray(new WorkbookEvaluator[evaluatorsByName.size()]); 
-        new CollaboratingWorkbooksEnvironment(evaluatorsByName, evaluators);
+        new CollaboratingWorkbooksEnvironment(evaluatorsByName, evaluators, loader, maxLoadedWorkbooks);
     }
     public static void setupFormulaEvaluator(Map<String,FormulaEvaluator> evaluators) {
+        setup(toWorkbookEvaluators(evaluators));
+    }
+    /**
+     * @param loader opens the referenced workbooks missing in <code>evaluators</code>
+     *  when they are first needed, may be <code>null</code>
+     * @param maxLoadedWorkbooks the maximum number of workbooks opened by the loader, which are kept open
+     */
+    public static void setupFormulaEvaluator(Map<String,FormulaEvaluator> evaluators, ExternalWorkbookLoader loader,
+            int maxLoadedWorkbooks) {
+        setup(toWorkbookEvaluators(evaluators), loader, maxLoadedWorkbooks);
+    }
+    private static Map<String, WorkbookEvaluator> toWorkbookEvaluators(Map<String,FormulaEvaluator> evaluators) {
         Map<String, WorkbookEvaluator> evaluatorsByName = new HashMap<>(evaluators.size());
         for (Map.Entry<String,FormulaEvaluator> swb : evaluators.entrySet()) {
             String wbName = swb.getKey();
@@ -86,11 +153,11 @@ public final class CollaboratingWorkbooksEnvironment {
                                                    " provides no WorkbookEvaluator access");
             }
         }
-        setup(evaluatorsByName);
+        return evaluatorsByName;
     }
 
     private CollaboratingWorkbooksEnvironment(String[] workbookNames, WorkbookEvaluator[] evaluators, int nItems) {
-        this(toUniqueMap(workbookNames, evaluators, nItems), evaluators);
+        this(toUniqueMap(workbookNames, evaluators, nItems), evaluators, null, DEFAULT_MAX_LOADED_WORKBOOKS);
     }
     private static Map<String, WorkbookEvaluator> toUniqueMap(String[] workbookNames, WorkbookEvaluator[] evaluators, int nItems) {
         Map<String, WorkbookEvaluator> evaluatorsByName = new HashMap<>(nItems * 3 / 2);
@@ -104,7 +171,8 @@ public final class CollaboratingWorkbooksEnvironment {
         }
         return evaluatorsByName;
     }
-    private CollaboratingWorkbooksEnvironment(Map<String, WorkbookEvaluator> evaluatorsByName, WorkbookEvaluator[] evaluators) {
+    private CollaboratingWorkbooksEnvironment(Map<String, WorkbookEvaluator> evaluatorsByName, WorkbookEvaluator[] evaluators,
+            ExternalWorkbookLoader loader, int maxLoadedWorkbooks) {
         IdentityHashMap<WorkbookEvaluator, String> uniqueEvals = new IdentityHashMap<>(evaluators.length);
         for (Map.Entry<String, WorkbookEvaluator> me : evaluatorsByName.entrySet()) {
             String uniEval = uniqueEvals.put(me.getValue(), me.getKey());
@@ -115,13 +183,18 @@ public final class CollaboratingWorkbooksEnvironment {
             }
         }
         unhookOldEnvironments(evaluators);
-        hookNewEnvironment(evaluators, this);
+        _cache = hookNewEnvironment(evaluators, this);
         _unhooked = false;
         _evaluators = evaluators.clone();
         _evaluatorsByName = evaluatorsByName;
+        _loader = loader;
+        // access order, so the first workbook is the least recently used
+        _loadedWorkbooks = new LinkedHashMap<>(16, 0.75f, true);
+        _maxLoadedWorkbooks = maxLoadedWorkbooks;
+        _loadedIndexes = new HashMap<>();
     }
 
-    private static void hookNewEnvironment(WorkbookEvaluator[] evaluators, CollaboratingWorkbooksEnvironment env) {
+    private static EvaluationCache hookNewEnvironment(WorkbookEvaluator[] evaluators, CollaboratingWorkbooksEnvironment env) {
         // All evaluators will need to share the same cache.
         // but the cache takes an optional evaluation listener.
         int nItems = evaluators.length;
@@ -138,6 +211,7 @@ public final class CollaboratingWorkbooksEnvironment {
         for(int i=0; i<nItems; i++) {
             evaluators[i].attachToEnvironment(env, cache, i);
         }
+        return cache;
     }
 
     /**
@@ -166,6 +240,11 @@ public final class CollaboratingWorkbooksEnvironment {
         for (int i = 0; i < _evaluators.length; i++) {
             _evaluators[i].detachFromEnvironment();
         }
+        for (LoadedWorkbook loaded : _loadedWorkbooks.values()) {
+            loaded._evaluator.detachFromEnvironment();
+            closeLoadedWorkbook(loaded);
+        }
+        _loadedWorkbooks.clear();
         _unhooked = true;
     }
 
@@ -174,6 +253,9 @@ public final class CollaboratingWorkbooksEnvironment {
             throw new IllegalStateException("This environment has been unhooked");
         }
         WorkbookEvaluator result = _evaluatorsByName.get(workbookName);
+        if (result == null && _loader != null) {
+            result = getLoadedWorkbookEvaluator(workbookName);
+        }
         if (result == null) {
             StringBuffer sb = new StringBuffer(256);
             sb.append("Could not resolve external workbook name '").append(workbookName).append("'.");
@@ -195,4 +277,73 @@ public final class CollaboratingWorkbooksEnvironment {
         }
         return result;
     }
+
+    /**
+     * @return the evaluator of a workbook opened by the loader, which is opened again if
+     *  it has been evicted, or <code>null</code> if the loader doesn't find the workbook
+     */
+    private WorkbookEvaluator getLoadedWorkbookEvaluator(String workbookName) throws WorkbookNotFoundException {
+        LoadedWorkbook loaded = _loadedWorkbooks.get(workbookName);
+        if (loaded != null) {
+            return loaded._evaluator;
+        }
+
+        Workbook workbook;
+        try {
+            workbook = _loader.loadWorkbook(workbookName);
+        } catch (IOException e) {
+            throw new WorkbookNotFoundException("Could not load external workbook '" + workbookName + "'", e);
+        }
+        if (workbook == null) {
+            return null;
+        }
+        FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        if (!(evaluator instanceof WorkbookEvaluatorProvider)) {
+            throw new IllegalArgumentException("Formula Evaluator " + evaluator +
+                                               " provides no WorkbookEvaluator access");
+        }
+        WorkbookEvaluator result = ((WorkbookEvaluatorProvider) evaluator)._getWorkbookEvaluator();
+        if (result.getEvaluationListener() != _evaluators[0].getEvaluationListener()) {
+            // This would be very complex to support
+            throw new RuntimeException("Workbook evaluators must all have the same evaluation listener");
+        }
+        if (_loadedWorkbooks.size() >= _maxLoadedWorkbooks) {
+            evictLoadedWorkbook(_loadedWorkbooks.keySet().iterator().next());
+        }
+        Integer workbookIx = _loadedIndexes.get(workbookName);
+        if (workbookIx == null) {
+            workbookIx = Integer.valueOf(_evaluators.length + _loadedIndexes.size());
+            _loadedIndexes.put(workbookName, workbookIx);
+        }
+        result.attachToEnvironment(this, _cache, workbookIx.intValue());
+        _loadedWorkbooks.put(workbookName, new LoadedWorkbook(workbook, result));
+        return result;
+    }
+
+    /**
+     * Removes the cells of a loaded workbook from the shared cache and closes the workbook.
+     * The cached results of the other workbooks are kept, so the workbook is only loaded
+     * again if a formula using it needs to be evaluated again.
+     */
+    private void evictLoadedWorkbook(String workbookName) {
+        LoadedWorkbook loaded = _loadedWorkbooks.remove(workbookName);
+        _cache.removeWorkbook(_loadedIndexes.get(workbookName).intValue());
+        loaded._evaluator.detachFromEnvironment();
+        closeLoadedWorkbook(loaded);
+    }
+
+    private static void closeLoadedWorkbook(LoadedWorkbook loaded) {
+        try {
+            loaded._workbook.close();
+        } catch (IOException e) {
+            LOG.log(POILogger.WARN, "Could not close loaded external workbook", e);
+        }
+    }
+
+    /**
+     * @return the names of the workbooks opened by the loader, which are currently open
+     */
+    /* package */ Set<String> getLoadedWorkbookNames() {
+        return Collections.unmodifiableSet(_loadedWorkbooks.keySet());
+    }
 }
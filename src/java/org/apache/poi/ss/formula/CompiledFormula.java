@@ -0,0 +1,435 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.poi.ss.formula.eval.AreaEval;
+import org.apache.poi.ss.formula.eval.BlankEval;
+import org.apache.poi.ss.formula.eval.BoolEval;
+import org.apache.poi.ss.formula.eval.ErrorEval;
+import org.apache.poi.ss.formula.eval.EvaluationException;
+import org.apache.poi.ss.formula.eval.FunctionEval;
+import org.apache.poi.ss.formula.eval.MissingArgEval;
+import org.apache.poi.ss.formula.eval.NotImplementedException;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.RefListEval;
+import org.apache.poi.ss.formula.eval.StringEval;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.function.FunctionMetadataRegistry;
+import org.apache.poi.ss.formula.functions.ArrayMode;
+import org.apache.poi.ss.formula.functions.Choose;
+import org.apache.poi.ss.formula.functions.Function;
+import org.apache.poi.ss.formula.functions.IfFunc;
+import org.apache.poi.ss.formula.ptg.AbstractFunctionPtg;
+import org.apache.poi.ss.formula.ptg.AreaErrPtg;
+import org.apache.poi.ss.formula.ptg.AreaPtg;
+import org.apache.poi.ss.formula.ptg.AttrPtg;
+import org.apache.poi.ss.formula.ptg.BoolPtg;
+import org.apache.poi.ss.formula.ptg.ControlPtg;
+import org.apache.poi.ss.formula.ptg.DeletedArea3DPtg;
+import org.apache.poi.ss.formula.ptg.DeletedRef3DPtg;
+import org.apache.poi.ss.formula.ptg.ErrPtg;
+import org.apache.poi.ss.formula.ptg.FuncVarPtg;
+import org.apache.poi.ss.formula.ptg.IntPtg;
+import org.apache.poi.ss.formula.ptg.MemAreaPtg;
+import org.apache.poi.ss.formula.ptg.MemErrPtg;
+import org.apache.poi.ss.formula.ptg.MemFuncPtg;
+import org.apache.poi.ss.formula.ptg.MissingArgPtg;
+import org.apache.poi.ss.formula.ptg.NumberPtg;
+import org.apache.poi.ss.formula.ptg.OperationPtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.RefErrorPtg;
+import org.apache.poi.ss.formula.ptg.RefPtg;
+import org.apache.poi.ss.formula.ptg.StringPtg;
+import org.apache.poi.ss.formula.ptg.UnionPtg;
+
+/**
+ * A formula compiled from its RPN tokens into a tree of operations, which can be evaluated
+ * repeatedly without interpreting the tokens again.<p>
+ *
+ * The operator and function implementations, constant values and cell references are resolved
+ * once, when the formula is compiled. The results are the same as of
+ * {@link WorkbookEvaluator#evaluateFormula(OperationEvaluationContext, Ptg[])}: Optimized IF and
+ * CHOOSE functions only evaluate the selected argument and the operands are evaluated in the
+ * order of the tokens, so evaluation listeners see the same events.<p>
+ *
+ * Token arrays which can't be compiled are kept and evaluated by the interpreter.
+ */
+final class CompiledFormula {
+
+    private final Ptg[] _ptgs;
+    private final Node _root;
+
+    private CompiledFormula(Ptg[] ptgs, Node root) {
+        _ptgs = ptgs;
+        _root = root;
+    }
+
+    /**
+     * @return the tokens the formula has been compiled from
+     */
+    public Ptg[] getTokens() {
+        return _ptgs;
+    }
+
+    /**
+     * @return <code>false</code> if the tokens couldn't be compiled and need to be interpreted
+     */
+    public boolean isCompiled() {
+        return _root != null;
+    }
+
+    /**
+     * Evaluates the compiled formula without dereferencing the result
+     */
+    public ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec) {
+        return _root.evaluate(evaluator, ec);
+    }
+
+    /**
+     * Compiles the given formula tokens. Unsupported token sequences don't fail here, as the
+     * interpreter reports the errors when the formula is evaluated.
+     */
+    public static CompiledFormula compile(Ptg[] ptgs) {
+        return new CompiledFormula(ptgs, buildTree(ptgs));
+    }
+
+    private static Node buildTree(Ptg[] ptgs) {
+        List<Node> stack = new ArrayList<>();
+        // the conditions of IF and CHOOSE functions, which are encoded with jumps
+        Set<Node> ifConditions = new HashSet<>();
+        Set<Node> chooseIndexes = new HashSet<>();
+
+        for (int i = 0; i < ptgs.length; i++) {
+            Ptg ptg = ptgs[i];
+            if (ptg instanceof AttrPtg) {
+                AttrPtg attrPtg = (AttrPtg) ptg;
+                if (attrPtg.isSum()) {
+                    ptg = FuncVarPtg.SUM;
+                } else if (stack.isEmpty()) {
+                    // ignore
+                } else if (attrPtg.isOptimizedIf()) {
+                    ifConditions.add(stack.get(stack.size() - 1));
+                } else if (attrPtg.isOptimizedChoose()) {
+                    chooseIndexes.add(stack.get(stack.size() - 1));
+                }
+            }
+            if (ptg instanceof ControlPtg
+                    || ptg instanceof MemFuncPtg || ptg instanceof MemAreaPtg || ptg instanceof MemErrPtg) {
+                continue;
+            }
+
+            Node node;
+            if (ptg instanceof UnionPtg) {
+                if (stack.size() < 2) {
+                    return null;
+                }
+                Node n2 = stack.remove(stack.size() - 1);
+                Node n1 = stack.remove(stack.size() - 1);
+                node = new UnionNode(n1, n2);
+            } else if (ptg instanceof OperationPtg) {
+                OperationPtg optg = (OperationPtg) ptg;
+                int numops = optg.getNumberOfOperands();
+                if (stack.size() < numops) {
+                    return null;
+                }
+                List<Node> opsList = stack.subList(stack.size() - numops, stack.size());
+                Node[] ops = opsList.toArray(new Node[numops]);
+                opsList.clear();
+                node = createOperationNode(optg, ops, ptgs, i, ifConditions, chooseIndexes);
+            } else {
+                node = createOperandNode(ptg);
+            }
+            stack.add(node);
+        }
+        return stack.size() == 1 ? stack.get(0) : null;
+    }
+
+    private static Node createOperationNode(OperationPtg optg, Node[] ops, Ptg[] ptgs, int index,
+            Set<Node> ifConditions, Set<Node> chooseIndexes) {
+        if (optg instanceof AbstractFunctionPtg && ops.length > 1) {
+            int functionIndex = ((AbstractFunctionPtg) optg).getFunctionIndex();
+            if (functionIndex == FunctionMetadataRegistry.FUNCTION_INDEX_IF
+                    && ops.length <= 3 && ifConditions.contains(ops[0])) {
+                return new IfNode(ops[0], ops[1], ops.length == 3 ? ops[2] : null);
+            }
+            if (functionIndex == FunctionMetadataRegistry.FUNCTION_INDEX_CHOOSE
+                    && chooseIndexes.contains(ops[0])) {
+                Node[] choices = new Node[ops.length - 1];
+                System.arraycopy(ops, 1, choices, 0, choices.length);
+                return new ChooseNode(ops[0], choices);
+            }
+        }
+
+        Function function;
+        try {
+            function = OperationEvaluatorFactory.getFunction(optg);
+        } catch (NotImplementedException e) {
+            // reported when evaluated
+            function = null;
+        }
+        return new OperationNode(optg, function, ops, isArrayModeFunctionNext(ptgs, index));
+    }
+
+    /**
+     * The interpreter evaluates operations with area operands in array mode,
+     * if the next variable argument function supports it.
+     */
+    private static boolean isArrayModeFunctionNext(Ptg[] ptgs, int startIndex) {
+        for (int i = startIndex; i < ptgs.length; i++) {
+            if (ptgs[i] instanceof FuncVarPtg) {
+                FuncVarPtg f = (FuncVarPtg) ptgs[i];
+                try {
+                    Function func = FunctionEval.getBasicFunction(f.getFunctionIndex());
+                    return func instanceof ArrayMode;
+                } catch (NotImplementedException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Node createOperandNode(Ptg ptg) {
+        if (ptg instanceof IntPtg) {
+            return new ConstantNode(new NumberEval(((IntPtg) ptg).getValue()));
+        }
+        if (ptg instanceof NumberPtg) {
+            return new ConstantNode(new NumberEval(((NumberPtg) ptg).getValue()));
+        }
+        if (ptg instanceof StringPtg) {
+            return new ConstantNode(new StringEval(((StringPtg) ptg).getValue()));
+        }
+        if (ptg instanceof BoolPtg) {
+            return new ConstantNode(BoolEval.valueOf(((BoolPtg) ptg).getValue()));
+        }
+        if (ptg instanceof ErrPtg) {
+            return new ConstantNode(ErrorEval.valueOf(((ErrPtg) ptg).getErrorCode()));
+        }
+        if (ptg instanceof MissingArgPtg) {
+            return new ConstantNode(MissingArgEval.instance);
+        }
+        if (ptg instanceof AreaErrPtg || ptg instanceof RefErrorPtg
+                || ptg instanceof DeletedArea3DPtg || ptg instanceof DeletedRef3DPtg) {
+            return new ConstantNode(ErrorEval.REF_INVALID);
+        }
+        if (ptg instanceof RefPtg) {
+            RefPtg rptg = (RefPtg) ptg;
+            return new RefNode(rptg.getRow(), rptg.getColumn());
+        }
+        if (ptg instanceof AreaPtg) {
+            AreaPtg aptg = (AreaPtg) ptg;
+            return new AreaNode(aptg.getFirstRow(), aptg.getFirstColumn(), aptg.getLastRow(), aptg.getLastColumn());
+        }
+        // names, 3D references and arrays depend on the current sheets and names of the workbook
+        return new PtgNode(ptg);
+    }
+
+    /**
+     * Excel converts missing arguments to blank when a jump skips the remaining arguments
+     */
+    private static ValueEval skipped(ValueEval result) {
+        return result == MissingArgEval.instance ? BlankEval.instance : result;
+    }
+
+    private static abstract class Node {
+        abstract ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec);
+    }
+
+    private static final class ConstantNode extends Node {
+        private final ValueEval _value;
+
+        ConstantNode(ValueEval value) {
+            _value = value;
+        }
+
+        @Override
+        ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec) {
+            return _value;
+        }
+    }
+
+    private static final class RefNode extends Node {
+        private final int _row;
+        private final int _column;
+
+        RefNode(int row, int column) {
+            _row = row;
+            _column = column;
+        }
+
+        @Override
+        ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec) {
+            return ec.getRefEval(_row, _column);
+        }
+    }
+
+    private static final class AreaNode extends Node {
+        private final int _firstRow;
+        private final int _firstColumn;
+        private final int _lastRow;
+        private final int _lastColumn;
+
+        AreaNode(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+            _firstRow = firstRow;
+            _firstColumn = firstColumn;
+            _lastRow = lastRow;
+            _lastColumn = lastColumn;
+        }
+
+        @Override
+        ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec) {
+            return ec.getAreaEval(_firstRow, _firstColumn, _lastRow, _lastColumn);
+        }
+    }
+
+    private static final class PtgNode extends Node {
+        private final Ptg _ptg;
+
+        PtgNode(Ptg ptg) {
+            _ptg = ptg;
+        }
+
+        @Override
+        ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec) {
+            return evaluator.getEvalForPtg(_ptg, ec);
+        }
+    }
+
+    private static final class UnionNode extends Node {
+        private final Node _first;
+        private final Node _second;
+
+        UnionNode(Node first, Node second) {
+            _first = first;
+            _second = second;
+        }
+
+        @Override
+        ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec) {
+            ValueEval v1 = _first.evaluate(evaluator, ec);
+            ValueEval v2 = _second.evaluate(evaluator, ec);
+            return new RefListEval(v1, v2);
+        }
+    }
+
+    private static final class OperationNode extends Node {
+        private final OperationPtg _ptg;
+        /** <code>null</code> if the function is looked up on each evaluation */
+        private final Function _function;
+        private final Node[] _operands;
+        private final boolean _isArrayModeFunctionNext;
+
+        OperationNode(OperationPtg ptg, Function function, Node[] operands, boolean isArrayModeFunctionNext) {
+            _ptg = ptg;
+            _function = function;
+            _operands = operands;
+            _isArrayModeFunctionNext = isArrayModeFunctionNext;
+        }
+
+        @Override
+        ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec) {
+            ValueEval[] ops = new ValueEval[_operands.length];
+            boolean areaArg = false;
+            for (int i = 0; i < ops.length; i++) {
+                ops[i] = _operands[i].evaluate(evaluator, ec);
+                if (ops[i] instanceof AreaEval) {
+                    areaArg = true;
+                }
+            }
+
+            ec.setArrayMode(areaArg && _isArrayModeFunctionNext);
+            IEvaluationListener listener = evaluator.getEvaluationListener();
+            if (listener != null) {
+                listener.onStartFunction(_ptg);
+            }
+            ValueEval result = (_function == null)
+                    ? OperationEvaluatorFactory.evaluate(_ptg, ops, ec)
+                    : OperationEvaluatorFactory.evaluate(_function, ops, ec);
+            if (listener != null) {
+                listener.onEndFunction(_ptg, result);
+            }
+            ec.setArrayMode(false);
+
+            if (result == null) {
+                throw new RuntimeException("Evaluation result must not be null");
+            }
+            return result;
+        }
+    }
+
+    private static final class IfNode extends Node {
+        private final Node _condition;
+        private final Node _whenTrue;
+        /** <code>null</code> if the IF function has no third argument */
+        private final Node _whenFalse;
+
+        IfNode(Node condition, Node whenTrue, Node whenFalse) {
+            _condition = condition;
+            _whenTrue = whenTrue;
+            _whenFalse = whenFalse;
+        }
+
+        @Override
+        ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec) {
+            ValueEval arg0 = _condition.evaluate(evaluator, ec);
+            boolean evaluatedPredicate;
+            try {
+                evaluatedPredicate = IfFunc.evaluateFirstArg(arg0, ec.getRowIndex(), ec.getColumnIndex());
+            } catch (EvaluationException e) {
+                return e.getErrorEval();
+            }
+            if (evaluatedPredicate) {
+                return skipped(_whenTrue.evaluate(evaluator, ec));
+            }
+            if (_whenFalse == null) {
+                return BoolEval.FALSE;
+            }
+            return skipped(_whenFalse.evaluate(evaluator, ec));
+        }
+    }
+
+    private static final class ChooseNode extends Node {
+        private final Node _index;
+        private final Node[] _choices;
+
+        ChooseNode(Node index, Node[] choices) {
+            _index = index;
+            _choices = choices;
+        }
+
+        @Override
+        ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec) {
+            ValueEval arg0 = _index.evaluate(evaluator, ec);
+            int switchIndex;
+            try {
+                switchIndex = Choose.evaluateFirstArg(arg0, ec.getRowIndex(), ec.getColumnIndex());
+            } catch (EvaluationException e) {
+                return e.getErrorEval();
+            }
+            if (switchIndex < 1 || switchIndex > _choices.length) {
+                return ErrorEval.VALUE_INVALID;
+            }
+            return skipped(_choices[switchIndex - 1].evaluate(evaluator, ec));
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.apache.poi.ss.formula;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -72,6 +73,106 @@ public class ConditionalFormattingEvaluator {
      */
     private final Map<CellReference, List<EvaluationConditionalFormatRule>> values = new HashMap<>();
 
+    /**
+     * Regions of the rules by sheet name, to find the rules applying to a cell without checking
+     * all regions of the sheet. Discarded with the rules.
+     */
+    private final Map<String, RuleIndex> indexes = new HashMap<>();
+
+    /**
+     * The regions of the rules of a sheet, indexed by column
+     */
+    private static final class RuleIndex {
+        /** regions spanning more columns are checked for every cell instead of being indexed by column */
+        private static final int MAX_INDEXED_COLUMNS = 64;
+
+        private final List<EvaluationConditionalFormatRule> rules;
+        private final Map<Integer, List<RegionEntry>> columnEntries = new HashMap<>();
+        private final List<RegionEntry> wideEntries = new ArrayList<>();
+        private int firstRow = Integer.MAX_VALUE;
+        private int lastRow = -1;
+
+        RuleIndex(List<EvaluationConditionalFormatRule> rules) {
+            this.rules = rules;
+            for (int i = 0; i < rules.size(); i++) {
+                CellRangeAddress[] regions = rules.get(i).getRegions();
+                for (int j = 0; j < regions.length; j++) {
+                    CellRangeAddress region = regions[j];
+                    RegionEntry entry = new RegionEntry(i, j, region);
+                    firstRow = Math.min(firstRow, region.getFirstRow());
+                    lastRow = Math.max(lastRow, region.getLastRow());
+                    if (region.getFirstColumn() < 0
+                            || region.getLastColumn() - region.getFirstColumn() >= MAX_INDEXED_COLUMNS) {
+                        wideEntries.add(entry);
+                        continue;
+                    }
+                    for (int c = region.getFirstColumn(); c <= region.getLastColumn(); c++) {
+                        List<RegionEntry> entries = columnEntries.get(Integer.valueOf(c));
+                        if (entries == null) {
+                            entries = new ArrayList<>();
+                            columnEntries.put(Integer.valueOf(c), entries);
+                        }
+                        entries.add(entry);
+                    }
+                }
+            }
+        }
+
+        boolean containsRow(int rowIndex) {
+            return firstRow <= rowIndex && rowIndex <= lastRow;
+        }
+
+        /**
+         * @return the rules whose regions contain the cell, in priority order,
+         *  each with its first region containing the cell
+         */
+        List<RegionEntry> getEntries(int rowIndex, int columnIndex) {
+            List<RegionEntry> result = new ArrayList<>();
+            addEntries(columnEntries.get(Integer.valueOf(columnIndex)), rowIndex, columnIndex, result);
+            addEntries(wideEntries, rowIndex, columnIndex, result);
+            if (result.size() > 1) {
+                Collections.sort(result);
+                for (int i = result.size() - 1; i > 0; i--) {
+                    if (result.get(i).ruleIndex == result.get(i - 1).ruleIndex) {
+                        result.remove(i);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static void addEntries(List<RegionEntry> entries, int rowIndex, int columnIndex, List<RegionEntry> result) {
+            if (entries == null) {
+                return;
+            }
+            for (RegionEntry entry : entries) {
+                if (entry.region.isInRange(rowIndex, columnIndex)) {
+                    result.add(entry);
+                }
+            }
+        }
+    }
+
+    private static final class RegionEntry implements Comparable<RegionEntry> {
+        /** position of the rule in the priority order */
+        final int ruleIndex;
+        /** position of the region within the regions of the rule */
+        final int regionIndex;
+        final CellRangeAddress region;
+
+        RegionEntry(int ruleIndex, int regionIndex, CellRangeAddress region) {
+            this.ruleIndex = ruleIndex;
+            this.regionIndex = regionIndex;
+            this.region = region;
+        }
+
+        @Override
+        public int compareTo(RegionEntry o) {
+            int cmp = Integer.compare(ruleIndex, o.ruleIndex);
+            return cmp != 0 ? cmp : Integer.compare(regionIndex, o.regionIndex);
+        }
+    }
+
     public ConditionalFormattingEvaluator(Workbook wb, WorkbookEvaluatorProvider provider) {
         this.workbook = wb;
         this.workbookEvaluator = provider._getWorkbookEvaluator();
@@ -87,6 +188,7 @@ public class ConditionalFormattingEvaluator {
      */
     public void clearAllCachedFormats() {
         formats.clear();
+        indexes.clear();
     }
     
     /**
@@ -98,6 +200,11 @@ public class ConditionalFormattingEvaluator {
      */
     public void clearAllCachedValues() {
         values.clear();
+        for (List<EvaluationConditionalFormatRule> rules : formats.values()) {
+            for (EvaluationConditionalFormatRule rule : rules) {
+                rule.clearRegionValues();
+            }
+        }
     }
 
     /**
@@ -131,6 +238,38 @@ public class ConditionalFormattingEvaluator {
         }
         return Collections.unmodifiableList(rules);
     }
+
+    private RuleIndex getIndex(Sheet sheet) {
+        RuleIndex index = indexes.get(sheet.getSheetName());
+        if (index == null) {
+            index = new RuleIndex(getRules(sheet));
+            indexes.put(sheet.getSheetName(), index);
+        }
+        return index;
+    }
+
+    /**
+     * Checks the rules whose regions contain the cell, in priority order
+     */
+    private List<EvaluationConditionalFormatRule> evaluateRules(RuleIndex index, CellReference cellRef) {
+        /*
+         * Per Excel help:
+         * https://support.office.com/en-us/article/Manage-conditional-formatting-rule-precedence-e09711a3-48df-4bcb-b82c-9d8b8b22463d#__toc269129417
+         * stopIfTrue is true for all rules from HSSF files, and an explicit value for XSSF files.
+         * thus the explicit ordering of the rule lists in #getFormattingRulesForSheet(Sheet)
+         */
+        List<EvaluationConditionalFormatRule> rules = new ArrayList<>();
+        for (RegionEntry entry : index.getEntries(cellRef.getRow(), cellRef.getCol())) {
+            EvaluationConditionalFormatRule rule = index.rules.get(entry.ruleIndex);
+            if (rule.matches(cellRef, entry.region)) {
+                rules.add(rule);
+                if (rule.getRule().getStopIfTrue()) {
+                    break; // this rule wants no more evaluations
+                }
+            }
+        }
+        return rules;
+    }
     
     /**
      * This checks all applicable {@link ConditionalFormattingRule}s for the cell's sheet, 
@@ -159,8 +298,6 @@ public class ConditionalFormattingEvaluator {
         
         if (rules == null) {
             // compute and cache them
-            rules = new ArrayList<>();
-            
             final Sheet sheet;
             if (cellRef.getSheetName() != null) {
                 sheet = workbook.getSheet(cellRef.getSheetName());
@@ -168,30 +305,47 @@ public class ConditionalFormattingEvaluator {
                 sheet = workbook.getSheetAt(workbook.getActiveSheetIndex());
             }
             
-            /*
-             * Per Excel help:
-             * https://support.office.com/en-us/article/Manage-conditional-formatting-rule-precedence-e09711a3-48df-4bcb-b82c-9d8b8b22463d#__toc269129417
-             * stopIfTrue is true for all rules from HSSF files, and an explicit value for XSSF files.
-             * thus the explicit ordering of the rule lists in #getFormattingRulesForSheet(Sheet)
-             */
-            boolean stopIfTrue = false;
-            for (EvaluationConditionalFormatRule rule : getRules(sheet)) {
-                
-                if (stopIfTrue) {
-                    continue; // a previous rule matched and wants no more evaluations
-                }
-
-                if (rule.matches(cellRef)) {
-                    rules.add(rule);
-                    stopIfTrue = rule.getRule().getStopIfTrue();
-                }
-            }
-            Collections.sort(rules);
+            rules = evaluateRules(getIndex(sheet), cellRef);
             values.put(cellRef, rules);
         }
         
         return Collections.unmodifiableList(rules);
     }
+
+    /**
+     * Evaluates the conditional formatting of all existing cells of the sheet in one pass, e.g. to
+     * render the whole sheet. Only the rules whose regions contain a cell are checked for it, and
+     * the values of the regions needed by rules like top 10 or above average are computed once
+     * per region. The results are cached like those of {@link #getConditionalFormattingForCell(Cell)}.
+     * <p>
+     * As with {@link #getConditionalFormattingForCell(Cell)}, the cached results of formula cells
+     * should be up to date.
+     *
+     * @param sheet The sheet to evaluate
+     * @return unmodifiable map from the references of the cells with at least one applying rule
+     *         (as returned by {@link #getRef(Cell)}) to the rules in priority order, in row order
+     */
+    public Map<CellReference, List<EvaluationConditionalFormatRule>> getConditionalFormattingForSheet(Sheet sheet) {
+        final RuleIndex index = getIndex(sheet);
+        final Map<CellReference, List<EvaluationConditionalFormatRule>> result = new LinkedHashMap<>();
+        for (Row row : sheet) {
+            if (!index.containsRow(row.getRowNum())) {
+                continue; // no regions in this row
+            }
+            for (Cell cell : row) {
+                CellReference ref = getRef(cell);
+                List<EvaluationConditionalFormatRule> rules = values.get(ref);
+                if (rules == null) {
+                    rules = evaluateRules(index, ref);
+                    values.put(ref, rules);
+                }
+                if (!rules.isEmpty()) {
+                    result.put(ref, Collections.unmodifiableList(rules));
+                }
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
     
     /**
      * This checks all applicable {@link ConditionalFormattingRule}s for the cell's sheet, 
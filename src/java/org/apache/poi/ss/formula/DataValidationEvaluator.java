@@ -20,8 +20,10 @@ package org.apache.poi.ss.formula;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.poi.ss.formula.eval.BlankEval;
 import org.apache.poi.ss.formula.eval.BoolEval;
@@ -30,12 +32,16 @@ import org.apache.poi.ss.formula.eval.NumberEval;
 import org.apache.poi.ss.formula.eval.RefEval;
 import org.apache.poi.ss.formula.eval.StringEval;
 import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.ptg.AbstractFunctionPtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.RefPtgBase;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.DataValidation;
 import org.apache.poi.ss.usermodel.DataValidationConstraint;
 import org.apache.poi.ss.usermodel.DataValidationConstraint.OperatorType;
 import org.apache.poi.ss.usermodel.DataValidationConstraint.ValidationType;
+import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.CellRangeAddressBase;
@@ -249,6 +255,319 @@ public class DataValidationEvaluator {
         return ValidationEnum.isValid(cell, context);
     }
 
+    /**
+     * Checks all existing cells of the sheet against the validations of their regions, e.g. to
+     * validate an uploaded workbook. Each constraint is prepared once per region: constant bounds
+     * are parsed once, list values are collected into hash sets, and formulas are parsed once.
+     * <p>
+     * Only existing cells are checked, so missing cells are not reported even if the validation
+     * doesn't allow empty cells. As with {@link #isValidCell(CellReference)}, the cached results of
+     * formula cells are checked, so they should be up to date.
+     *
+     * @param sheet The sheet to validate
+     * @return the contexts of the cells failing their validation, in row order
+     */
+    public List<DataValidationContext> validateSheet(Sheet sheet) {
+        return validate(sheet, -1);
+    }
+
+    /**
+     * Checks the existing cells of a column like {@link #validateSheet(Sheet)}.
+     *
+     * @param sheet The sheet to validate
+     * @param columnIndex 0-based index of the column to validate
+     * @return the contexts of the cells failing their validation, in row order
+     */
+    public List<DataValidationContext> validateColumn(Sheet sheet, int columnIndex) {
+        if (columnIndex < 0) {
+            throw new IllegalArgumentException("Invalid column index " + columnIndex);
+        }
+        return validate(sheet, columnIndex);
+    }
+
+    private List<DataValidationContext> validate(Sheet sheet, int columnIndex) {
+        final List<DataValidationContext> violations = new ArrayList<>();
+        final List<? extends DataValidation> dataValidations = getValidations(sheet);
+        if (dataValidations == null || dataValidations.isEmpty()) return violations;
+
+        // in the order of getValidationContextForCell(), which uses the first matching region
+        final List<CompiledConstraint> constraints = new ArrayList<>();
+        for (DataValidation dv : dataValidations) {
+            final CellRangeAddressList regions = dv.getRegions();
+            if (regions == null) break;
+            for (CellRangeAddressBase range : regions.getCellRangeAddresses()) {
+                constraints.add(new CompiledConstraint(dv, range));
+            }
+        }
+        final Map<Integer, List<CompiledConstraint>> columnConstraints = new HashMap<>();
+
+        for (Row row : sheet) {
+            if (columnIndex >= 0) {
+                final Cell cell = row.getCell(columnIndex);
+                if (cell != null) {
+                    validate(sheet, cell, constraints, columnConstraints, violations);
+                }
+            } else {
+                for (Cell cell : row) {
+                    validate(sheet, cell, constraints, columnConstraints, violations);
+                }
+            }
+        }
+        return violations;
+    }
+
+    private void validate(Sheet sheet, Cell cell, List<CompiledConstraint> constraints,
+            Map<Integer, List<CompiledConstraint>> columnConstraints, List<DataValidationContext> violations) {
+        final Integer column = Integer.valueOf(cell.getColumnIndex());
+        List<CompiledConstraint> candidates = columnConstraints.get(column);
+        if (candidates == null) {
+            candidates = new ArrayList<>();
+            for (CompiledConstraint constraint : constraints) {
+                final CellRangeAddressBase region = constraint.region;
+                if (region.getFirstColumn() <= cell.getColumnIndex() && cell.getColumnIndex() <= region.getLastColumn()) {
+                    candidates.add(constraint);
+                }
+            }
+            columnConstraints.put(column, candidates);
+        }
+        for (CompiledConstraint constraint : candidates) {
+            if (constraint.region.isInRange(cell)) {
+                final CellReference ref = new CellReference(sheet.getSheetName(), cell.getRowIndex(), cell.getColumnIndex(), false, false);
+                if (!constraint.isValid(cell, ref)) {
+                    violations.add(new DataValidationContext(constraint.dv, this, constraint.region, ref));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * A validation constraint of one region, prepared for checking many cells.
+     * Constraints, which depend on the position of the cell, are checked like {@link #isValidCell(CellReference)}.
+     */
+    private final class CompiledConstraint {
+        private final DataValidation dv;
+        private final CellRangeAddressBase region;
+        private final int validationType;
+        private final int operator;
+
+        private boolean compiled;
+        /** numeric types: bounds which are constants, so no formula is evaluated */
+        private boolean constantBounds;
+        /** numeric types: a blank bound, which allows any number */
+        private boolean anyNumber;
+        private double bound1;
+        private double bound2;
+        /** list type: the values, if they don't depend on the position of the cell */
+        private ListValues listValues;
+
+        CompiledConstraint(DataValidation dv, CellRangeAddressBase region) {
+            this.dv = dv;
+            this.region = region;
+            final DataValidationConstraint constraint = dv.getValidationConstraint();
+            this.validationType = constraint.getValidationType();
+            this.operator = constraint.getOperator();
+        }
+
+        boolean isValid(Cell cell, CellReference ref) {
+            if (   isType(cell, CellType.BLANK)
+                || (isType(cell, CellType.STRING)
+                    && (cell.getStringCellValue() == null || cell.getStringCellValue().isEmpty())
+                   )
+               ) {
+                return dv.getEmptyCellAllowed();
+            }
+            if (!compiled) {
+                compile(ref);
+                compiled = true;
+            }
+            switch (validationType) {
+                case ValidationType.ANY:
+                    return true;
+                case ValidationType.INTEGER:
+                    if (!constantBounds) break;
+                    if (!isType(cell, CellType.NUMERIC)) return false;
+                    final double value = cell.getNumericCellValue();
+                    return isValidNumber(value) && Double.compare(value, (int) value) == 0;
+                case ValidationType.DECIMAL:
+                case ValidationType.DATE:
+                case ValidationType.TIME:
+                    if (!constantBounds) break;
+                    return isType(cell, CellType.NUMERIC) && isValidNumber(cell.getNumericCellValue());
+                case ValidationType.TEXT_LENGTH:
+                    if (!constantBounds) break;
+                    return isType(cell, CellType.STRING) && isValidNumber(cell.getStringCellValue().length());
+                case ValidationType.LIST:
+                    if (listValues == null) break;
+                    return listValues.contains(cell);
+                default:
+                    break;
+            }
+            return ValidationEnum.isValid(cell, new DataValidationContext(dv, DataValidationEvaluator.this, region, ref));
+        }
+
+        private void compile(CellReference ref) {
+            final DataValidationConstraint constraint = dv.getValidationConstraint();
+            switch (validationType) {
+                case ValidationType.INTEGER:
+                case ValidationType.DECIMAL:
+                case ValidationType.DATE:
+                case ValidationType.TIME:
+                case ValidationType.TEXT_LENGTH:
+                    compileBounds(constraint);
+                    break;
+                case ValidationType.LIST:
+                    compileList(constraint, ref);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Same as {@link ValidationEnum#isValidNumericValue(Double, DataValidationContext)} for constant bounds
+         */
+        private void compileBounds(DataValidationConstraint constraint) {
+            final String formula1 = constraint.getFormula1();
+            if (formula1 == null || formula1.trim().isEmpty()) {
+                constantBounds = anyNumber = true;
+                return;
+            }
+            try {
+                bound1 = Double.parseDouble(formula1);
+                if (operator == OperatorType.BETWEEN || operator == OperatorType.NOT_BETWEEN) {
+                    final String formula2 = constraint.getFormula2();
+                    if (formula2 == null || formula2.trim().isEmpty()) {
+                        anyNumber = true;
+                    } else {
+                        bound2 = Double.parseDouble(formula2);
+                    }
+                }
+                constantBounds = true;
+            } catch (NumberFormatException e) {
+                // an expression, evaluated for each cell
+            }
+        }
+
+        private boolean isValidNumber(double value) {
+            if (anyNumber) return true;
+            switch (operator) {
+                case OperatorType.BETWEEN:
+                    return Double.compare(value, bound1) >= 0 && Double.compare(value, bound2) <= 0;
+                case OperatorType.NOT_BETWEEN:
+                    return Double.compare(value, bound1) < 0 || Double.compare(value, bound2) > 0;
+                case OperatorType.EQUAL:
+                    return Double.compare(value, bound1) == 0;
+                case OperatorType.NOT_EQUAL:
+                    return Double.compare(value, bound1) != 0;
+                case OperatorType.GREATER_THAN:
+                    return Double.compare(value, bound1) > 0;
+                case OperatorType.LESS_THAN:
+                    return Double.compare(value, bound1) < 0;
+                case OperatorType.GREATER_OR_EQUAL:
+                    return Double.compare(value, bound1) >= 0;
+                case OperatorType.LESS_OR_EQUAL:
+                    return Double.compare(value, bound1) <= 0;
+                default:
+                    return OperatorEnum.values()[operator].isValid(Double.valueOf(value), Double.valueOf(bound1), Double.valueOf(bound2));
+            }
+        }
+
+        /**
+         * Collects the values of explicit lists, and of formulas without relative cell references,
+         * whose values are the same for all cells of the region
+         */
+        private void compileList(DataValidationConstraint constraint, CellReference ref) {
+            final String formula = constraint.getFormula1();
+            final boolean explicitList = constraint.getExplicitListValues() != null && constraint.getExplicitListValues().length > 0;
+            if (!explicitList) {
+                if (formula == null) {
+                    listValues = new ListValues();
+                    return;
+                }
+                if (formula.indexOf('[') >= 0) return; // structured references may depend on the row
+                final int sheetIndex = workbookEvaluator.getSheetIndex(ref.getSheetName());
+                final Ptg[] ptgs = workbookEvaluator.getParsedFormula(formula, sheetIndex, ref.getRow(), FormulaType.DATAVALIDATION_LIST);
+                for (Ptg ptg : ptgs) {
+                    if (ptg instanceof RefPtgBase && (((RefPtgBase) ptg).isRowRelative() || ((RefPtgBase) ptg).isColRelative())) {
+                        return;
+                    }
+                    if (ptg instanceof AbstractFunctionPtg) {
+                        return; // e.g. ROW() or OFFSET()
+                    }
+                }
+            }
+            final DataValidationContext context = new DataValidationContext(dv, DataValidationEvaluator.this, region, ref);
+            final List<ValueEval> values = getValidationValuesForConstraint(context);
+            listValues = new ListValues();
+            for (ValueEval value : values) {
+                listValues.add(value instanceof RefEval ? ((RefEval) value).getInnerValueEval(context.getSheetIndex()) : value);
+            }
+        }
+    }
+
+    /**
+     * The values of a list validation, checked like {@link ValidationEnum#LIST}
+     */
+    private static final class ListValues {
+        /** any value is valid if the list contains a blank value per Excel help */
+        private boolean anyValue;
+        private boolean trueValue;
+        private boolean falseValue;
+        private final Set<Double> numbers = new HashSet<>();
+        /** case folded, as Excel validation is case insensitive */
+        private final Set<String> strings = new HashSet<>();
+
+        void add(ValueEval value) {
+            if (value instanceof BlankEval) {
+                anyValue = true;
+            } else if (value instanceof BoolEval) {
+                if (((BoolEval) value).getBooleanValue()) {
+                    trueValue = true;
+                } else {
+                    falseValue = true;
+                }
+            } else if (value instanceof NumberEval) {
+                numbers.add(getKey(((NumberEval) value).getNumberValue()));
+            } else if (value instanceof StringEval) {
+                strings.add(foldCase(((StringEval) value).getStringValue()));
+            }
+            // errors never match
+        }
+
+        boolean contains(Cell cell) {
+            if (anyValue) return true;
+            if (isType(cell, CellType.BOOLEAN)) {
+                return cell.getBooleanCellValue() ? trueValue : falseValue;
+            }
+            if (isType(cell, CellType.NUMERIC)) {
+                return numbers.contains(getKey(cell.getNumericCellValue()));
+            }
+            if (isType(cell, CellType.STRING)) {
+                return strings.contains(foldCase(cell.getStringCellValue()));
+            }
+            return false;
+        }
+
+        /**
+         * @return the number with -0.0 as 0.0, since the values are compared with ==
+         */
+        private static Double getKey(double value) {
+            return Double.valueOf(value + 0.0);
+        }
+
+        /**
+         * @return the string with the characters mapped like {@link String#equalsIgnoreCase(String)} compares them
+         */
+        private static String foldCase(String value) {
+            final char[] chars = value.toCharArray();
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+            }
+            return new String(chars);
+        }
+    }
+
     /**
     * Note that this assumes the cell cached value is up to date and in sync with data edits
      *
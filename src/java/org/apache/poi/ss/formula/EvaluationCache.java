@@ -17,6 +17,15 @@
 
 package org.apache.poi.ss.formula;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.apache.poi.ss.formula.FormulaCellCache.IEntryOperation;
 import org.apache.poi.ss.formula.FormulaUsedBlankCellSet.BookSheetKey;
 import org.apache.poi.ss.formula.PlainCellCache.Loc;
@@ -26,6 +35,8 @@ import org.apache.poi.ss.formula.eval.ErrorEval;
 import org.apache.poi.ss.formula.eval.NumberEval;
 import org.apache.poi.ss.formula.eval.StringEval;
 import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.functions.LookupIndex;
+import org.apache.poi.ss.formula.functions.NumericValues;
 import org.apache.poi.ss.usermodel.CellType;
 
 /**
@@ -37,24 +48,140 @@ import org.apache.poi.ss.usermodel.CellType;
  */
 final class EvaluationCache {
 
+	private static final int MIN_AREA_ENTRIES_PRUNE_SIZE = 64;
+	/**
+	 * maximum number of cell values cached in primitive arrays for all the areas together,
+	 * which take 9 bytes each
+	 */
+	private static final int MAX_NUMERIC_VALUE_COUNT = 1 << 22;
+
 	private final PlainCellCache _plainCellCache;
 	private final FormulaCellCache _formulaCellCache;
-	/** only used for testing. <code>null</code> otherwise */
-	final IEvaluationListener _evaluationListener;
+	private final Map<AreaKey, AreaCacheEntry> _areaEntries;
+	/** number of area entries, which triggers the next removal of the unused ones */
+	private int _areaEntriesPruneSize = MIN_AREA_ENTRIES_PRUNE_SIZE;
+	/** number of cell values cached in primitive arrays by the area entries */
+	private int _numericValueCount;
+	/** only used for testing and profiling. <code>null</code> otherwise */
+	IEvaluationListener _evaluationListener;
 
 	/* package */EvaluationCache(IEvaluationListener evaluationListener) {
 		_evaluationListener = evaluationListener;
 		_plainCellCache = new PlainCellCache();
 		_formulaCellCache = new FormulaCellCache();
+		_areaEntries = new HashMap<>();
+	}
+
+	/**
+	 * The cached values of an area of cells used by lookup and aggregate functions.
+	 * The cache entry consumes the cells like a formula, so it's cleared when any of them
+	 * changes, and formulas using the values only depend on the cache entry.
+	 */
+	static final class AreaCacheEntry {
+		private final FormulaCellCacheEntry _cacheEntry = new FormulaCellCacheEntry();
+		private LookupIndex _lookupIndex;
+		private NumericValues _numericValues;
+		private int _readCount;
+
+		public FormulaCellCacheEntry getCacheEntry() {
+			return _cacheEntry;
+		}
+
+		/**
+		 * @return <code>null</code> if the index needs to be built
+		 */
+		public LookupIndex getLookupIndex() {
+			return _cacheEntry.getValue() == null ? null : _lookupIndex;
+		}
+
+		public void setLookupIndex(LookupIndex lookupIndex) {
+			_lookupIndex = lookupIndex;
+		}
+
+		/**
+		 * Counts the reads of the cells by lookup and aggregate functions, as their values
+		 * are only cached once they are read repeatedly
+		 *
+		 * @return the number of reads including this one
+		 */
+		public int countRead() {
+			return ++_readCount;
+		}
+
+		/**
+		 * @return <code>null</code> if the values need to be read
+		 */
+		public NumericValues getNumericValues() {
+			return _cacheEntry.getValue() == null ? null : _numericValues;
+		}
+
+		/**
+		 * @return the number of discarded numeric values
+		 */
+		private int clearValues() {
+			int result = _numericValues == null ? 0 : _numericValues.getSize();
+			_lookupIndex = null;
+			_numericValues = null;
+			return result;
+		}
+
+		/**
+		 * @return <code>true</code> if the values have been discarded, or if no formula uses them
+		 * any more, because the formulas have been changed or discarded
+		 */
+		public boolean isUnused() {
+			return _cacheEntry.getValue() == null || !_cacheEntry.hasConsumingCells();
+		}
+	}
+
+	private static final class AreaKey {
+		private final int _bookIndex;
+		private final int _sheetIndex;
+		private final int _firstRowIndex;
+		private final int _firstColumnIndex;
+		private final int _lastRowIndex;
+		private final int _lastColumnIndex;
+
+		public AreaKey(int bookIndex, int sheetIndex, int firstRowIndex, int firstColumnIndex,
+				int lastRowIndex, int lastColumnIndex) {
+			_bookIndex = bookIndex;
+			_sheetIndex = sheetIndex;
+			_firstRowIndex = firstRowIndex;
+			_firstColumnIndex = firstColumnIndex;
+			_lastRowIndex = lastRowIndex;
+			_lastColumnIndex = lastColumnIndex;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = _bookIndex;
+			result = 31 * result + _sheetIndex;
+			result = 31 * result + _firstRowIndex;
+			result = 31 * result + _firstColumnIndex;
+			result = 31 * result + _lastRowIndex;
+			result = 31 * result + _lastColumnIndex;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof AreaKey)) {
+				return false;
+			}
+			AreaKey other = (AreaKey) obj;
+			return _bookIndex == other._bookIndex && _sheetIndex == other._sheetIndex
+					&& _firstRowIndex == other._firstRowIndex && _firstColumnIndex == other._firstColumnIndex
+					&& _lastRowIndex == other._lastRowIndex && _lastColumnIndex == other._lastColumnIndex;
+		}
 	}
 
 	public void notifyUpdateCell(int bookIndex, int sheetIndex, EvaluationCell cell) {
+		pruneAreaEntries();
 		FormulaCellCacheEntry fcce = _formulaCellCache.get(cell);
 
 		int rowIndex = cell.getRowIndex();
 		int columnIndex = cell.getColumnIndex();
-		Loc loc = new Loc(bookIndex, sheetIndex, rowIndex, columnIndex);
-		PlainValueCellCacheEntry pcce = _plainCellCache.get(loc);
+		PlainValueCellCacheEntry pcce = _plainCellCache.get(bookIndex, sheetIndex, rowIndex, columnIndex);
 
 		if (cell.getCellType() == CellType.FORMULA) {
 			if (fcce == null) {
@@ -67,17 +194,19 @@ final class EvaluationCache {
 					updateAnyBlankReferencingFormulas(bookIndex, sheetIndex, rowIndex,
 							columnIndex);
 				}
-				_formulaCellCache.put(cell, fcce);
+				_formulaCellCache.put(bookIndex, cell, fcce);
 			} else {
 				fcce.recurseClearCachedFormulaResults(_evaluationListener);
 				fcce.clearFormulaEntry();
+				// the formula may have changed as well
+				fcce.setCompiledFormula(null);
 			}
 			if (pcce == null) {
 				// was formula cell before - no change of type
 			} else {
 				// changing from plain cell to formula cell
 				pcce.recurseClearCachedFormulaResults(_evaluationListener);
-				_plainCellCache.remove(loc);
+				_plainCellCache.remove(bookIndex, sheetIndex, rowIndex, columnIndex);
 			}
 		} else {
 			ValueEval value = WorkbookEvaluator.getValueFromNonFormulaCell(cell);
@@ -94,14 +223,14 @@ final class EvaluationCache {
 						updateAnyBlankReferencingFormulas(bookIndex, sheetIndex,
 								rowIndex, columnIndex);
 					}
-					_plainCellCache.put(loc, pcce);
+					_plainCellCache.put(bookIndex, sheetIndex, rowIndex, columnIndex, pcce);
 				}
 			} else {
 				if (pcce.updateValue(value)) {
 					pcce.recurseClearCachedFormulaResults(_evaluationListener);
 				}
 				if (value == BlankEval.instance) {
-					_plainCellCache.remove(loc);
+					_plainCellCache.remove(bookIndex, sheetIndex, rowIndex, columnIndex);
 				}
 			}
 			if (fcce == null) {
@@ -124,16 +253,54 @@ final class EvaluationCache {
 				entry.notifyUpdatedBlankCell(bsk, rowIndex, columnIndex, _evaluationListener);
 			}
 		});
+		Iterator<AreaCacheEntry> it = _areaEntries.values().iterator();
+		while (it.hasNext()) {
+			AreaCacheEntry entry = it.next();
+			if (entry.isUnused()) {
+				removeAreaEntry(it, entry);
+			} else {
+				entry.getCacheEntry().notifyUpdatedBlankCell(bsk, rowIndex, columnIndex, _evaluationListener);
+			}
+		}
+	}
+
+	/**
+	 * Removes the area entries, which aren't used by any formula, once the number of entries
+	 * has doubled since the last time. Must not be called while formulas are evaluated, as the
+	 * entries being evaluated have no value yet.
+	 */
+	private void pruneAreaEntries() {
+		if (_areaEntries.size() < _areaEntriesPruneSize) {
+			return;
+		}
+		Iterator<AreaCacheEntry> it = _areaEntries.values().iterator();
+		while (it.hasNext()) {
+			AreaCacheEntry entry = it.next();
+			if (entry.isUnused()) {
+				removeAreaEntry(it, entry);
+			}
+		}
+		_areaEntriesPruneSize = Math.max(MIN_AREA_ENTRIES_PRUNE_SIZE, _areaEntries.size() * 2);
+	}
+
+	private void removeAreaEntry(Iterator<AreaCacheEntry> it, AreaCacheEntry entry) {
+		it.remove();
+		_numericValueCount -= entry.clearValues();
+		// no longer consumes the cells of the area
+		entry.getCacheEntry().clearFormulaEntry();
+	}
+
+	/* package */ int getAreaEntryCount() {
+		return _areaEntries.size();
 	}
 
 	public PlainValueCellCacheEntry getPlainValueEntry(int bookIndex, int sheetIndex,
 			int rowIndex, int columnIndex, ValueEval value) {
 
-		Loc loc = new Loc(bookIndex, sheetIndex, rowIndex, columnIndex);
-		PlainValueCellCacheEntry result = _plainCellCache.get(loc);
+		PlainValueCellCacheEntry result = _plainCellCache.get(bookIndex, sheetIndex, rowIndex, columnIndex);
 		if (result == null) {
 			result = new PlainValueCellCacheEntry(value);
-			_plainCellCache.put(loc, result);
+			_plainCellCache.put(bookIndex, sheetIndex, rowIndex, columnIndex, result);
 			if (_evaluationListener != null) {
 				_evaluationListener.onReadPlainValue(sheetIndex, rowIndex, columnIndex, result);
 			}
@@ -175,16 +342,178 @@ final class EvaluationCache {
 		throw new IllegalStateException("Unexpected value class (" + cls.getName() + ")");
 	}
 
-	public FormulaCellCacheEntry getOrCreateFormulaCellEntry(EvaluationCell cell) {
+	public FormulaCellCacheEntry getOrCreateFormulaCellEntry(int bookIndex, EvaluationCell cell) {
 		FormulaCellCacheEntry result = _formulaCellCache.get(cell);
 		if (result == null) {
 
 			result = new FormulaCellCacheEntry();
-			_formulaCellCache.put(cell, result);
+			_formulaCellCache.put(bookIndex, cell, result);
+		}
+		return result;
+	}
+
+	public AreaCacheEntry getOrCreateAreaEntry(int bookIndex, int sheetIndex,
+			int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex) {
+		AreaKey key = new AreaKey(bookIndex, sheetIndex,
+				firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex);
+		AreaCacheEntry result = _areaEntries.get(key);
+		if (result == null) {
+			result = new AreaCacheEntry();
+			_areaEntries.put(key, result);
 		}
 		return result;
 	}
 
+	/**
+	 * Discards the values of the previous evaluation of the cells of an area, which are
+	 * stale once the cells are evaluated again for either kind of values
+	 */
+	public void clearAreaValues(AreaCacheEntry entry) {
+		_numericValueCount -= entry.clearValues();
+	}
+
+	/**
+	 * @return <code>true</code> if the values of so many cells can be cached in primitive arrays
+	 *  without exceeding the limit for all the areas
+	 */
+	public boolean canCacheNumericValues(int count) {
+		return _numericValueCount + count <= MAX_NUMERIC_VALUE_COUNT;
+	}
+
+	/**
+	 * Caches the values of an area in primitive arrays, unless this would exceed the limit
+	 * for all the areas
+	 */
+	public void setNumericValues(AreaCacheEntry entry, NumericValues numericValues) {
+		if (canCacheNumericValues(numericValues.getSize())) {
+			_numericValueCount += numericValues.getSize();
+			entry._numericValues = numericValues;
+		}
+	}
+
+	/* package */ int getNumericValueCount() {
+		return _numericValueCount;
+	}
+
+	/**
+	 * @return the cached results of the evaluated formula cells, by the identity keys of the cells
+	 */
+	public Map<Object, ValueEval> getCachedFormulaValues() {
+		return _formulaCellCache.getCachedValues();
+	}
+
+	/**
+	 * @param inputCells locations of plain value cells
+	 * @return the cached results of the evaluated formula cells, which don't depend on any of
+	 *  the given cells, by the identity keys of the cells
+	 */
+	public Map<Object, ValueEval> getCachedFormulaValues(Collection<Loc> inputCells) {
+		final Set<CellCacheEntry> dependentEntries = new HashSet<>();
+		final List<CellCacheEntry> pendingEntries = new ArrayList<>();
+		final List<Loc> blankInputCells = new ArrayList<>();
+		for (Loc loc : inputCells) {
+			PlainValueCellCacheEntry pcce = _plainCellCache.get(loc.getBookIndex(), loc.getSheetIndex(),
+					loc.getRowIndex(), loc.getColumnIndex());
+			if (pcce == null) {
+				// dependencies on blank cells are managed by the formulas using them
+				blankInputCells.add(loc);
+			} else {
+				pendingEntries.add(pcce);
+			}
+		}
+		if (!blankInputCells.isEmpty()) {
+			final List<FormulaCellCacheEntry> entries = new ArrayList<>();
+			_formulaCellCache.applyOperation(new IEntryOperation() {
+
+				public void processEntry(FormulaCellCacheEntry entry) {
+					entries.add(entry);
+				}
+			});
+			for (AreaCacheEntry entry : _areaEntries.values()) {
+				entries.add(entry.getCacheEntry());
+			}
+			for (FormulaCellCacheEntry entry : entries) {
+				for (Loc loc : blankInputCells) {
+					BookSheetKey bsk = new BookSheetKey(loc.getBookIndex(), loc.getSheetIndex());
+					if (entry.isUsingBlankCell(bsk, loc.getRowIndex(), loc.getColumnIndex())) {
+						dependentEntries.add(entry);
+						pendingEntries.add(entry);
+						break;
+					}
+				}
+			}
+		}
+		while (!pendingEntries.isEmpty()) {
+			CellCacheEntry entry = pendingEntries.remove(pendingEntries.size() - 1);
+			for (FormulaCellCacheEntry consumer : entry.getConsumingCells()) {
+				if (dependentEntries.add(consumer)) {
+					pendingEntries.add(consumer);
+				}
+			}
+		}
+		return _formulaCellCache.getCachedValues(dependentEntries);
+	}
+
+	/**
+	 * Discards the cached result of the given formula cell and of all formulas depending on it.
+	 */
+	public void clearFormulaCellEntry(EvaluationCell cell) {
+		FormulaCellCacheEntry fcce = _formulaCellCache.get(cell);
+		if (fcce != null) {
+			fcce.clearFormulaEntry();
+			fcce.recurseClearCachedFormulaResults(_evaluationListener);
+		}
+	}
+
+	/**
+	 * Discards the cached results of the evaluated formula cells calling volatile functions,
+	 * and of all formulas depending on them.
+	 *
+	 * @return the number of volatile formula cells whose results were discarded
+	 */
+	public int clearVolatileFormulaEntries() {
+		final List<FormulaCellCacheEntry> volatileEntries = new ArrayList<>();
+		_formulaCellCache.applyOperation(new IEntryOperation() {
+
+			public void processEntry(FormulaCellCacheEntry entry) {
+				if (entry.isVolatile() && entry.getValue() != null) {
+					volatileEntries.add(entry);
+				}
+			}
+		});
+		for (FormulaCellCacheEntry fcce : volatileEntries) {
+			fcce.clearFormulaEntry();
+			fcce.recurseClearCachedFormulaResults(_evaluationListener);
+		}
+		return volatileEntries.size();
+	}
+
+	/**
+	 * Removes the entries of the cells of the given workbook, which is no longer referenced by the
+	 * cache afterwards. The cached results of the formulas of the other workbooks using the cells
+	 * are kept, as the workbook must not have been modified.
+	 */
+	public void removeWorkbook(int bookIndex) {
+		for (FormulaCellCacheEntry fcce : _formulaCellCache.removeWorkbook(bookIndex)) {
+			// no longer consumes the cells of the other workbooks
+			fcce.setSensitiveInputCells(null);
+		}
+		_plainCellCache.removeWorkbook(bookIndex);
+		Iterator<Map.Entry<AreaKey, AreaCacheEntry>> it = _areaEntries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<AreaKey, AreaCacheEntry> e = it.next();
+			if (e.getKey()._bookIndex == bookIndex) {
+				it.remove();
+				_numericValueCount -= e.getValue().clearValues();
+				e.getValue().getCacheEntry().clearFormulaEntry();
+			}
+		}
+	}
+
+	/* package */ void setEvaluationListener(IEvaluationListener evaluationListener) {
+		_evaluationListener = evaluationListener;
+	}
+
 	/**
 	 * Should be called whenever there are changes to input cells in the evaluated workbook.
 	 */
@@ -194,8 +523,12 @@ final class EvaluationCache {
 		}
 		_plainCellCache.clear();
 		_formulaCellCache.clear();
+		_areaEntries.clear();
+		_areaEntriesPruneSize = MIN_AREA_ENTRIES_PRUNE_SIZE;
+		_numericValueCount = 0;
 	}
 	public void notifyDeleteCell(int bookIndex, int sheetIndex, EvaluationCell cell) {
+		pruneAreaEntries();
 
 		if (cell.getCellType() == CellType.FORMULA) {
 			FormulaCellCacheEntry fcce = _formulaCellCache.remove(cell);
@@ -206,8 +539,8 @@ final class EvaluationCache {
 				fcce.recurseClearCachedFormulaResults(_evaluationListener);
 			}
 		} else {
-			Loc loc = new Loc(bookIndex, sheetIndex, cell.getRowIndex(), cell.getColumnIndex());
-			PlainValueCellCacheEntry pcce = _plainCellCache.get(loc);
+			PlainValueCellCacheEntry pcce = _plainCellCache.get(bookIndex, sheetIndex,
+					cell.getRowIndex(), cell.getColumnIndex());
 
 			if (pcce == null) {
 				// cache entry doesn't exist. nothing to do
@@ -304,7 +304,15 @@ public class EvaluationConditionalFormatRule implements Comparable<EvaluationCon
             // cell not in range of this rule
             return false;
         }
-        
+        return matches(ref, region);
+    }
+
+    /**
+     * @param ref the cell to check
+     * @param region the first region of this rule containing the cell
+     * @return true if this rule evaluates to true for the given cell
+     */
+    /* package */ boolean matches(CellReference ref, CellRangeAddress region) {
         final ConditionType ruleType = getRule().getConditionType();
         
         // these rules apply to all cells in a region. Specific condition criteria
@@ -609,6 +617,14 @@ public class EvaluationConditionalFormatRule implements Comparable<EvaluationCon
         }
     }
     
+    /**
+     * Discards the values of the regions computed for rules like top 10 or above average,
+     * as the cell values have changed
+     */
+    /* package */ void clearRegionValues() {
+        meaningfulRegionValues.clear();
+    }
+
     /**
      * from testing, Excel only operates on numbers and dates (which are stored as numbers) in the range.
      * numbers stored as text are ignored, but numbers formatted as text are treated as numbers.
@@ -0,0 +1,610 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.ptg.AbstractFunctionPtg;
+import org.apache.poi.ss.formula.ptg.OperationPtg;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * Records where the time of formula evaluations goes: the evaluation times of the formula cells
+ * and of the functions, the number of cache hits and misses, the dependency depths of the
+ * formula cells and the chains of formula cells which took longest to evaluate.<p>
+ *
+ * The times include the evaluation of all formula cells, which had to be evaluated in turn,
+ * because their results weren't cached. The self times exclude them, and for functions
+ * also the nested function calls.<p>
+ *
+ * A profiler is attached to a single formula evaluator, which must not be used by
+ * several threads while the profiler is attached. The evaluations of parallel
+ * recalculations on other threads are not recorded, nor are evaluations which end
+ * with an exception.<p>
+ *
+ * <pre>
+ * EvaluationProfiler profiler = EvaluationProfiler.attach(evaluator);
+ * evaluator.evaluateAll();
+ * profiler.detach();
+ * System.out.println(profiler.formatReport(20));
+ * </pre>
+ */
+public final class EvaluationProfiler implements IEvaluationListener {
+
+    /**
+     * The evaluation statistics of a formula cell
+     */
+    public static final class CellStatistics {
+        private final String _sheetName;
+        private final int _rowIndex;
+        private final int _columnIndex;
+        private int _evaluationCount;
+        private long _totalTime;
+        private long _selfTime;
+        private long _maxTime;
+        private int _dependencyDepth;
+        /** the dependency which took longest to evaluate during the slowest evaluation */
+        private CellStatistics _slowestDependency;
+
+        /* package */ CellStatistics(String sheetName, int rowIndex, int columnIndex) {
+            _sheetName = sheetName;
+            _rowIndex = rowIndex;
+            _columnIndex = columnIndex;
+        }
+
+        /**
+         * @return the name of the sheet, or <code>null</code> if the cell is in another workbook
+         */
+        public String getSheetName() {
+            return _sheetName;
+        }
+        public int getRowIndex() {
+            return _rowIndex;
+        }
+        public int getColumnIndex() {
+            return _columnIndex;
+        }
+        public CellReference getCellReference() {
+            return new CellReference(_sheetName, _rowIndex, _columnIndex, false, false);
+        }
+        /**
+         * @return the number of times the formula has been evaluated, i.e. the number of cache misses
+         */
+        public int getEvaluationCount() {
+            return _evaluationCount;
+        }
+        /**
+         * @return the time of all evaluations in nanoseconds
+         */
+        public long getTotalTime() {
+            return _totalTime;
+        }
+        /**
+         * @return the time of all evaluations in nanoseconds, without the evaluation of
+         *  the formula cells which the formula depends on
+         */
+        public long getSelfTime() {
+            return _selfTime;
+        }
+        /**
+         * @return the time of the slowest evaluation in nanoseconds
+         */
+        public long getMaxTime() {
+            return _maxTime;
+        }
+        /**
+         * @return the length of the longest chain of formula cells evaluated for this cell,
+         *  including this cell, i.e. 1 if no other formula cell had to be evaluated
+         */
+        public int getDependencyDepth() {
+            return _dependencyDepth;
+        }
+
+        @Override
+        public String toString() {
+            return getCellReference().formatAsString();
+        }
+    }
+
+    /**
+     * The evaluation statistics of a function or operator
+     */
+    public static final class FunctionStatistics {
+        private final String _name;
+        private int _invocationCount;
+        private long _totalTime;
+        private long _selfTime;
+
+        /* package */ FunctionStatistics(String name) {
+            _name = name;
+        }
+
+        /**
+         * @return the name of the function, e.g. "VLOOKUP", or the symbol of the operator, e.g. "+"
+         */
+        public String getName() {
+            return _name;
+        }
+        public int getInvocationCount() {
+            return _invocationCount;
+        }
+        /**
+         * @return the time of all invocations in nanoseconds
+         */
+        public long getTotalTime() {
+            return _totalTime;
+        }
+        /**
+         * @return the time of all invocations in nanoseconds, without nested function
+         *  invocations and formula cell evaluations
+         */
+        public long getSelfTime() {
+            return _selfTime;
+        }
+
+        @Override
+        public String toString() {
+            return _name;
+        }
+    }
+
+    /**
+     * An evaluation of a formula cell or a function invocation in progress
+     */
+    private static final class Frame {
+        final Object _key;
+        final CellStatistics _cell;
+        final FunctionStatistics _function;
+        final long _startTime;
+        long _childTime;
+        int _dependencyDepth;
+        CellStatistics _slowestDependency;
+        long _slowestDependencyTime;
+
+        Frame(Object key, CellStatistics cell, FunctionStatistics function) {
+            _key = key;
+            _cell = cell;
+            _function = function;
+            _startTime = System.nanoTime();
+        }
+    }
+
+    private static final Comparator<CellStatistics> BY_TOTAL_TIME = new Comparator<CellStatistics>() {
+        @Override
+        public int compare(CellStatistics a, CellStatistics b) {
+            int result = Long.compare(b._totalTime, a._totalTime);
+            // cells depending on others first, in case the timer is too coarse
+            return result != 0 ? result : Integer.compare(b._dependencyDepth, a._dependencyDepth);
+        }
+    };
+
+    private final WorkbookEvaluator _evaluator;
+    private final Map<Object, CellStatistics> _cellStatistics;
+    private final Map<String, FunctionStatistics> _functionStatistics;
+    private final Map<OperationPtg, FunctionStatistics> _functionStatisticsByPtg;
+    private final List<Frame> _frames;
+
+    private int _cacheHitCount;
+    private int _plainValueReadCount;
+    private int _formulaEvaluationCount;
+    private int _clearedValueCount;
+    private int _wholeCacheClearCount;
+    private int _maxDependencyDepth;
+    private long _evaluationTime;
+
+    private EvaluationProfiler(WorkbookEvaluator evaluator) {
+        _evaluator = evaluator;
+        _cellStatistics = new HashMap<>();
+        _functionStatistics = new HashMap<>();
+        _functionStatisticsByPtg = new IdentityHashMap<>();
+        _frames = new ArrayList<>();
+    }
+
+    /**
+     * Attaches a new profiler to the given evaluator, replacing any previously attached profiler.
+     *
+     * @param evaluator a formula evaluator of this package, e.g. an HSSF or XSSF formula evaluator
+     */
+    public static EvaluationProfiler attach(FormulaEvaluator evaluator) {
+        if (!(evaluator instanceof WorkbookEvaluatorProvider)) {
+            throw new IllegalArgumentException("Unexpected formula evaluator class ("
+                    + evaluator.getClass().getName() + ")");
+        }
+        WorkbookEvaluator bookEvaluator = ((WorkbookEvaluatorProvider) evaluator)._getWorkbookEvaluator();
+        EvaluationProfiler result = new EvaluationProfiler(bookEvaluator);
+        bookEvaluator.setEvaluationListener(result);
+        return result;
+    }
+
+    /**
+     * Stops recording evaluations. The recorded statistics remain available.
+     */
+    public void detach() {
+        if (_evaluator.getEvaluationListener() == this) {
+            _evaluator.setEvaluationListener(null);
+        }
+    }
+
+    /**
+     * Discards all recorded statistics
+     */
+    public void reset() {
+        _cellStatistics.clear();
+        _functionStatistics.clear();
+        _functionStatisticsByPtg.clear();
+        _frames.clear();
+        _cacheHitCount = 0;
+        _plainValueReadCount = 0;
+        _formulaEvaluationCount = 0;
+        _clearedValueCount = 0;
+        _wholeCacheClearCount = 0;
+        _maxDependencyDepth = 0;
+        _evaluationTime = 0;
+    }
+
+    @Override
+    public void onCacheHit(int sheetIndex, int rowIndex, int columnIndex, ValueEval result) {
+        _cacheHitCount++;
+    }
+
+    @Override
+    public void onReadPlainValue(int sheetIndex, int rowIndex, int columnIndex, ICacheEntry entry) {
+        _plainValueReadCount++;
+    }
+
+    @Override
+    public void onStartEvaluate(EvaluationCell cell, ICacheEntry entry) {
+        _formulaEvaluationCount++;
+        CellStatistics stats = _cellStatistics.get(cell.getIdentityKey());
+        if (stats == null) {
+            EvaluationWorkbook workbook = _evaluator.getWorkbook();
+            int sheetIndex = workbook.getSheetIndex(cell.getSheet());
+            String sheetName = sheetIndex < 0 ? null : workbook.getSheetName(sheetIndex);
+            stats = new CellStatistics(sheetName, cell.getRowIndex(), cell.getColumnIndex());
+            _cellStatistics.put(cell.getIdentityKey(), stats);
+        }
+        _frames.add(new Frame(entry, stats, null));
+    }
+
+    @Override
+    public void onEndEvaluate(ICacheEntry entry, ValueEval result) {
+        Frame frame = popFrame(entry);
+        if (frame == null) {
+            return;
+        }
+        long time = System.nanoTime() - frame._startTime;
+        CellStatistics stats = frame._cell;
+        int depth = frame._dependencyDepth + 1;
+        stats._evaluationCount++;
+        stats._totalTime += time;
+        stats._selfTime += time - frame._childTime;
+        if (time >= stats._maxTime) {
+            stats._maxTime = time;
+            stats._slowestDependency = frame._slowestDependency;
+        }
+        stats._dependencyDepth = Math.max(stats._dependencyDepth, depth);
+        _maxDependencyDepth = Math.max(_maxDependencyDepth, depth);
+
+        Frame parent = peekFrame();
+        if (parent == null) {
+            _evaluationTime += time;
+        } else {
+            parent._childTime += time;
+            parent._dependencyDepth = Math.max(parent._dependencyDepth, depth);
+            if (time >= parent._slowestDependencyTime) {
+                parent._slowestDependency = stats;
+                parent._slowestDependencyTime = time;
+            }
+        }
+    }
+
+    @Override
+    public void onStartFunction(OperationPtg ptg) {
+        FunctionStatistics stats = _functionStatisticsByPtg.get(ptg);
+        if (stats == null) {
+            String name = getFunctionName(ptg);
+            stats = _functionStatistics.get(name);
+            if (stats == null) {
+                stats = new FunctionStatistics(name);
+                _functionStatistics.put(name, stats);
+            }
+            _functionStatisticsByPtg.put(ptg, stats);
+        }
+        _frames.add(new Frame(ptg, null, stats));
+    }
+
+    @Override
+    public void onEndFunction(OperationPtg ptg, ValueEval result) {
+        Frame frame = popFrame(ptg);
+        if (frame == null) {
+            return;
+        }
+        long time = System.nanoTime() - frame._startTime;
+        FunctionStatistics stats = frame._function;
+        stats._invocationCount++;
+        stats._totalTime += time;
+        stats._selfTime += time - frame._childTime;
+
+        // function invocations are part of the evaluation of the enclosing formula cell
+        Frame parent = peekFrame();
+        if (parent != null) {
+            parent._childTime += time;
+            parent._dependencyDepth = Math.max(parent._dependencyDepth, frame._dependencyDepth);
+            if (frame._slowestDependency != null && frame._slowestDependencyTime >= parent._slowestDependencyTime) {
+                parent._slowestDependency = frame._slowestDependency;
+                parent._slowestDependencyTime = frame._slowestDependencyTime;
+            }
+        }
+    }
+
+    private static String getFunctionName(OperationPtg ptg) {
+        if (ptg instanceof AbstractFunctionPtg) {
+            return ((AbstractFunctionPtg) ptg).getName();
+        }
+        String[] operands = new String[ptg.getNumberOfOperands()];
+        Arrays.fill(operands, "");
+        return ptg.toFormulaString(operands).trim();
+    }
+
+    /**
+     * Removes the frame of the given cache entry or function from the stack, together with
+     * the frames of evaluations above it, which have ended with an exception.
+     *
+     * @return <code>null</code> if there is no frame for the key
+     */
+    private Frame popFrame(Object key) {
+        for (int i = _frames.size() - 1; i >= 0; i--) {
+            if (_frames.get(i)._key == key) {
+                Frame result = _frames.get(i);
+                _frames.subList(i, _frames.size()).clear();
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private Frame peekFrame() {
+        return _frames.isEmpty() ? null : _frames.get(_frames.size() - 1);
+    }
+
+    @Override
+    public void onClearWholeCache() {
+        _wholeCacheClearCount++;
+    }
+
+    @Override
+    public void onClearCachedValue(ICacheEntry entry) {
+        _clearedValueCount++;
+    }
+
+    @Override
+    public void sortDependentCachedValues(ICacheEntry[] formulaCells) {
+        // the order doesn't matter
+    }
+
+    @Override
+    public void onClearDependentCachedValue(ICacheEntry formulaCell, int depth) {
+        _clearedValueCount++;
+    }
+
+    @Override
+    public void onChangeFromBlankValue(int sheetIndex, int rowIndex, int columnIndex,
+            EvaluationCell cell, ICacheEntry entry) {
+        // not relevant for the statistics
+    }
+
+    /**
+     * @return the number of cell values read from the cache
+     */
+    public int getCacheHitCount() {
+        return _cacheHitCount;
+    }
+
+    /**
+     * @return the number of plain cell values read into the cache
+     */
+    public int getPlainValueReadCount() {
+        return _plainValueReadCount;
+    }
+
+    /**
+     * @return the number of formula cell evaluations, i.e. the number of formula results
+     *  which weren't cached
+     */
+    public int getFormulaEvaluationCount() {
+        return _formulaEvaluationCount;
+    }
+
+    /**
+     * @return the number of cached values cleared because of changed cells
+     */
+    public int getClearedValueCount() {
+        return _clearedValueCount;
+    }
+
+    /**
+     * @return the number of times the whole cache has been cleared
+     */
+    public int getWholeCacheClearCount() {
+        return _wholeCacheClearCount;
+    }
+
+    /**
+     * @return the length of the longest chain of formula cells evaluated for any formula cell
+     */
+    public int getMaxDependencyDepth() {
+        return _maxDependencyDepth;
+    }
+
+    /**
+     * @return the time of all recorded evaluations in nanoseconds
+     */
+    public long getEvaluationTime() {
+        return _evaluationTime;
+    }
+
+    /**
+     * @return the statistics of all evaluated formula cells, the slowest first
+     */
+    public List<CellStatistics> getCellStatistics() {
+        List<CellStatistics> result = new ArrayList<>(_cellStatistics.values());
+        Collections.sort(result, BY_TOTAL_TIME);
+        return result;
+    }
+
+    /**
+     * @param cellRef the reference of the cell including the sheet name
+     * @return the statistics of the given formula cell, or <code>null</code> if it hasn't been evaluated
+     */
+    public CellStatistics getCellStatistics(CellReference cellRef) {
+        for (CellStatistics stats : _cellStatistics.values()) {
+            if (stats._rowIndex == cellRef.getRow() && stats._columnIndex == cellRef.getCol()
+                    && stats._sheetName != null && stats._sheetName.equalsIgnoreCase(cellRef.getSheetName())) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the statistics of all invoked functions and operators, the slowest first
+     */
+    public List<FunctionStatistics> getFunctionStatistics() {
+        List<FunctionStatistics> result = new ArrayList<>(_functionStatistics.values());
+        Collections.sort(result, new Comparator<FunctionStatistics>() {
+            @Override
+            public int compare(FunctionStatistics a, FunctionStatistics b) {
+                return Long.compare(b._totalTime, a._totalTime);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Gets the chains of formula cells, which took longest to evaluate. Each chain starts with
+     * one of the slowest formula cells, which isn't part of a slower chain, followed by the
+     * dependency, which took longest to evaluate during the slowest evaluation of the cell,
+     * followed by its slowest dependency and so on.
+     *
+     * @param maxChains the maximum number of chains
+     * @return the chains, the slowest first
+     */
+    public List<List<CellStatistics>> getSlowestChains(int maxChains) {
+        List<List<CellStatistics>> result = new ArrayList<>();
+        Set<CellStatistics> chainedCells = Collections.newSetFromMap(new IdentityHashMap<CellStatistics, Boolean>());
+        for (CellStatistics stats : getCellStatistics()) {
+            if (result.size() >= maxChains) {
+                break;
+            }
+            if (chainedCells.contains(stats)) {
+                continue;
+            }
+            List<CellStatistics> chain = new ArrayList<>();
+            Set<CellStatistics> visited = Collections.newSetFromMap(new IdentityHashMap<CellStatistics, Boolean>());
+            // the dependencies may change between evaluations, so check for cycles
+            for (CellStatistics cell = stats; cell != null && visited.add(cell); cell = cell._slowestDependency) {
+                chain.add(cell);
+            }
+            chainedCells.addAll(chain);
+            result.add(chain);
+        }
+        return result;
+    }
+
+    /**
+     * Exports the counters and times as metrics, e.g. for a metrics registry. The function
+     * metrics are named <tt>function.<i>NAME</i>.count</tt> and <tt>function.<i>NAME</i>.time</tt>.
+     * All times are in nanoseconds.
+     */
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> result = new LinkedHashMap<>();
+        result.put("cache.hits", _cacheHitCount);
+        result.put("cache.misses", _formulaEvaluationCount);
+        result.put("cache.plainValueReads", _plainValueReadCount);
+        result.put("cache.clearedValues", _clearedValueCount);
+        result.put("cache.wholeCacheClears", _wholeCacheClearCount);
+        result.put("evaluation.time", _evaluationTime);
+        result.put("evaluation.formulaCells", _cellStatistics.size());
+        result.put("evaluation.maxDependencyDepth", _maxDependencyDepth);
+        for (FunctionStatistics stats : getFunctionStatistics()) {
+            result.put("function." + stats._name + ".count", stats._invocationCount);
+            result.put("function." + stats._name + ".time", stats._totalTime);
+        }
+        return result;
+    }
+
+    /**
+     * @param maxEntries the maximum number of cells, functions and chains listed
+     * @return a plain text report of the recorded statistics
+     */
+    public String formatReport(int maxEntries) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Evaluation time: ").append(formatTime(_evaluationTime)).append('\n');
+        sb.append("Formula evaluations (cache misses): ").append(_formulaEvaluationCount).append('\n');
+        sb.append("Cache hits: ").append(_cacheHitCount).append('\n');
+        sb.append("Plain value reads: ").append(_plainValueReadCount).append('\n');
+        sb.append("Cleared values: ").append(_clearedValueCount)
+            .append(", whole cache clears: ").append(_wholeCacheClearCount).append('\n');
+        sb.append("Max dependency depth: ").append(_maxDependencyDepth).append('\n');
+
+        sb.append("\nSlowest cells (total / self / evaluations / depth):\n");
+        List<CellStatistics> cells = getCellStatistics();
+        for (CellStatistics stats : cells.subList(0, Math.min(maxEntries, cells.size()))) {
+            sb.append("  ").append(stats).append(": ").append(formatTime(stats._totalTime))
+                .append(" / ").append(formatTime(stats._selfTime))
+                .append(" / ").append(stats._evaluationCount)
+                .append(" / ").append(stats._dependencyDepth).append('\n');
+        }
+
+        sb.append("\nSlowest functions (total / self / invocations):\n");
+        List<FunctionStatistics> functions = getFunctionStatistics();
+        for (FunctionStatistics stats : functions.subList(0, Math.min(maxEntries, functions.size()))) {
+            sb.append("  ").append(stats._name).append(": ").append(formatTime(stats._totalTime))
+                .append(" / ").append(formatTime(stats._selfTime))
+                .append(" / ").append(stats._invocationCount).append('\n');
+        }
+
+        sb.append("\nSlowest chains:\n");
+        for (List<CellStatistics> chain : getSlowestChains(maxEntries)) {
+            sb.append("  ").append(formatTime(chain.get(0)._maxTime)).append(": ");
+            for (int i = 0; i < chain.size(); i++) {
+                if (i > 0) {
+                    sb.append(" <- ");
+                }
+                sb.append(chain.get(i));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String formatTime(long nanos) {
+        return (nanos / 1000) + "us";
+    }
+}
@@ -73,6 +73,13 @@ final class EvaluationTracker {
 		return true;
 	}
 
+	/**
+	 * @return the number of formula cells currently being evaluated
+	 */
+	public int getEvaluationDepth() {
+		return _evaluationFrames.size();
+	}
+
 	public void updateCacheResult(ValueEval result) {
 
 		int nFrames = _evaluationFrames.size();
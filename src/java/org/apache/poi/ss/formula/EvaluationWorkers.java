@@ -0,0 +1,99 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.poi.util.Internal;
+
+/**
+ * The workers of the threads of an executor, which evaluate formulas concurrently.
+ * Each thread creates its own worker, e.g. an evaluator, when it runs its first task,
+ * and reuses it for its later tasks.
+ *
+ * @param <W> the type of the workers
+ */
+@Internal
+public abstract class EvaluationWorkers<W> {
+
+    private final Map<Thread, W> _workers = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the worker of the current thread, which must not share any mutable state
+     * with the workers of the other threads
+     */
+    protected abstract W createWorker();
+
+    /**
+     * @return the worker of the current thread
+     */
+    public W getWorker() {
+        W worker = _workers.get(Thread.currentThread());
+        if (worker == null) {
+            worker = createWorker();
+            _workers.put(Thread.currentThread(), worker);
+        }
+        return worker;
+    }
+
+    /**
+     * Runs the tasks on the executor and waits until all of them are done.
+     * If a task has failed, its exception is rethrown.
+     *
+     * @return the results of the tasks, in the order of the tasks
+     */
+    public static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) {
+        List<Future<T>> futures;
+        try {
+            futures = executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating formulas", e);
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        for (Future<T> future : futures) {
+            results.add(getResult(future));
+        }
+        return results;
+    }
+
+    private static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating formulas", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import java.io.IOException;
+
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Opens the workbooks referenced by formulas like "[MyData.xls]Sheet1!A1" when they are
+ * first needed, see {@link BaseFormulaEvaluator#setupReferencedWorkbooks(String, ExternalWorkbookLoader)}.
+ * <p>
+ * The returned workbooks are owned by the evaluator. Only a limited number of them is kept open,
+ * the least recently used workbook is closed when the limit is exceeded, and it's loaded again
+ * when a formula using it has to be evaluated again.
+ */
+public interface ExternalWorkbookLoader {
+    /**
+     * @param workbookName the name of the workbook, as used in the formulas (no square brackets)
+     * @return a newly opened workbook, which isn't modified while it's open, or <code>null</code>
+     *  if there is no such workbook
+     * @throws IOException if the workbook can't be read
+     */
+    Workbook loadWorkbook(String workbookName) throws IOException;
+}
@@ -17,9 +17,14 @@
 
 package org.apache.poi.ss.formula;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import org.apache.poi.ss.formula.eval.ValueEval;
 
 /**
  * 
@@ -31,43 +36,183 @@ final class FormulaCellCache {
 		void processEntry(FormulaCellCacheEntry entry);
 	}
 
-	private final Map<Object, FormulaCellCacheEntry> _formulaEntriesByCell;
+	private static final int INITIAL_CAPACITY = 64;
+
+	/*
+	 * Open addressing hash table with linear probing, keyed by EvaluationCell.getIdentityKey(),
+	 * which avoids an entry object per formula cell. A slot is empty when its key is null.
+	 */
+	private Object[] _keys;
+	/** indexes of the workbooks containing the cells */
+	private int[] _bookIndexes;
+	private FormulaCellCacheEntry[] _entries;
+	private int _size;
 
 	public FormulaCellCache() {
 		// assumes the object returned by EvaluationCell.getIdentityKey() has a well behaved hashCode+equals
-		_formulaEntriesByCell = new HashMap<>();
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		_keys = new Object[capacity];
+		_bookIndexes = new int[capacity];
+		_entries = new FormulaCellCacheEntry[capacity];
 	}
 
 	public CellCacheEntry[] getCacheEntries() {
 
-		FormulaCellCacheEntry[] result = new FormulaCellCacheEntry[_formulaEntriesByCell.size()];
-		_formulaEntriesByCell.values().toArray(result);
+		FormulaCellCacheEntry[] result = new FormulaCellCacheEntry[_size];
+		int j = 0;
+		for (int i = 0; i < _keys.length; i++) {
+			if (_keys[i] != null) {
+				result[j++] = _entries[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the cached results of the evaluated formula cells, by the identity keys of the cells
+	 */
+	public Map<Object, ValueEval> getCachedValues() {
+		return getCachedValues(Collections.<CellCacheEntry>emptySet());
+	}
+
+	/**
+	 * @param excludedEntries the entries whose values are left out
+	 */
+	public Map<Object, ValueEval> getCachedValues(Set<? extends CellCacheEntry> excludedEntries) {
+		Map<Object, ValueEval> result = new HashMap<>();
+		for (int i = 0; i < _keys.length; i++) {
+			if (_keys[i] != null && _entries[i].getValue() != null && !excludedEntries.contains(_entries[i])) {
+				result.put(_keys[i], _entries[i].getValue());
+			}
+		}
 		return result;
 	}
 
 	public void clear() {
-		_formulaEntriesByCell.clear();
+		if (_size > 0) {
+			allocate(INITIAL_CAPACITY);
+			_size = 0;
+		}
 	}
 
 	/**
 	 * @return <code>null</code> if not found
 	 */
 	public FormulaCellCacheEntry get(EvaluationCell cell) {
-		return _formulaEntriesByCell.get(cell.getIdentityKey());
+		return _entries[findSlot(cell.getIdentityKey())];
 	}
 
-	public void put(EvaluationCell cell, FormulaCellCacheEntry entry) {
-		_formulaEntriesByCell.put(cell.getIdentityKey(), entry);
+	public void put(int bookIndex, EvaluationCell cell, FormulaCellCacheEntry entry) {
+		Object key = cell.getIdentityKey();
+		int slot = findSlot(key);
+		if (_keys[slot] == null) {
+			if ((_size + 1) * 4 > _keys.length * 3) {
+				rehash(_keys.length * 2);
+				slot = findSlot(key);
+			}
+			_keys[slot] = key;
+			_bookIndexes[slot] = bookIndex;
+			_size++;
+		}
+		_entries[slot] = entry;
 	}
 
 	public FormulaCellCacheEntry remove(EvaluationCell cell) {
-		return _formulaEntriesByCell.remove(cell.getIdentityKey());
+		int slot = findSlot(cell.getIdentityKey());
+		FormulaCellCacheEntry result = _entries[slot];
+		if (_keys[slot] == null) {
+			return null;
+		}
+		_keys[slot] = null;
+		_entries[slot] = null;
+		_size--;
+		// shift back the following entries of the probe sequence, which would be unreachable otherwise
+		int mask = _keys.length - 1;
+		int gap = slot;
+		for (int i = (slot + 1) & mask; _keys[i] != null; i = (i + 1) & mask) {
+			int home = hash(_keys[i]) & mask;
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				_keys[gap] = _keys[i];
+				_bookIndexes[gap] = _bookIndexes[i];
+				_entries[gap] = _entries[i];
+				_keys[i] = null;
+				_entries[i] = null;
+				gap = i;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Removes the entries of the cells of the given workbook
+	 *
+	 * @return the removed entries
+	 */
+	public List<FormulaCellCacheEntry> removeWorkbook(int bookIndex) {
+		List<FormulaCellCacheEntry> result = new ArrayList<>();
+		Object[] keys = _keys;
+		int[] bookIndexes = _bookIndexes;
+		FormulaCellCacheEntry[] entries = _entries;
+		allocate(keys.length);
+		_size = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == null) {
+				continue;
+			}
+			if (bookIndexes[i] == bookIndex) {
+				result.add(entries[i]);
+			} else {
+				int slot = findSlot(keys[i]);
+				_keys[slot] = keys[i];
+				_bookIndexes[slot] = bookIndexes[i];
+				_entries[slot] = entries[i];
+				_size++;
+			}
+		}
+		return result;
 	}
 
 	public void applyOperation(IEntryOperation operation) {
-		Iterator<FormulaCellCacheEntry> i = _formulaEntriesByCell.values().iterator();
-		while (i.hasNext()) {
-			operation.processEntry(i.next());
+		FormulaCellCacheEntry[] entries = _entries;
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i] != null) {
+				operation.processEntry(entries[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return the slot of the key, or the empty slot where it would be inserted
+	 */
+	private int findSlot(Object key) {
+		int mask = _keys.length - 1;
+		int i = hash(key) & mask;
+		while (_keys[i] != null && !_keys[i].equals(key)) {
+			i = (i + 1) & mask;
 		}
+		return i;
+	}
+
+	private void rehash(int capacity) {
+		Object[] keys = _keys;
+		int[] bookIndexes = _bookIndexes;
+		FormulaCellCacheEntry[] entries = _entries;
+		allocate(capacity);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				int slot = findSlot(keys[i]);
+				_keys[slot] = keys[i];
+				_bookIndexes[slot] = bookIndexes[i];
+				_entries[slot] = entries[i];
+			}
+		}
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
 	}
 }
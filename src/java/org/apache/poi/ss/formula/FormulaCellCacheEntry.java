@@ -39,10 +39,37 @@ final class FormulaCellCacheEntry extends CellCacheEntry {
 
 	private FormulaUsedBlankCellSet _usedBlankCellGroup;
 
+	/**
+	 * The formula of the cell, compiled on the first evaluation.
+	 * Kept when the result is cleared, until the cell itself is changed
+	 */
+	private CompiledFormula _compiledFormula;
+
+	/**
+	 * Whether the formula calls a volatile function, set when the formula is compiled
+	 */
+	private boolean _isVolatile;
+
 	public FormulaCellCacheEntry() {
 		// leave fields un-set
 	}
 	
+	public CompiledFormula getCompiledFormula() {
+		return _compiledFormula;
+	}
+
+	public void setCompiledFormula(CompiledFormula compiledFormula) {
+		_compiledFormula = compiledFormula;
+	}
+
+	public boolean isVolatile() {
+		return _isVolatile;
+	}
+
+	public void setVolatile(boolean isVolatile) {
+		_isVolatile = isVolatile;
+	}
+
 	public boolean isInputSensitive() {
 		if (_sensitiveInputCells != null) {
 			if (_sensitiveInputCells.length > 0 ) {
@@ -56,8 +83,8 @@ final class FormulaCellCacheEntry extends CellCacheEntry {
 		// need to tell all cells that were previously used, but no longer are, 
 		// that they are not consumed by this cell any more
 	    if (sensitiveInputCells == null) {
-            _sensitiveInputCells = null;
 	        changeConsumingCells(CellCacheEntry.EMPTY_ARRAY);
+            _sensitiveInputCells = null;
 	    } else {
 	        _sensitiveInputCells = sensitiveInputCells.clone();
 	        changeConsumingCells(_sensitiveInputCells);
@@ -113,12 +140,14 @@ final class FormulaCellCacheEntry extends CellCacheEntry {
 		_usedBlankCellGroup = usedBlankAreas;
 	}
 
+	public boolean isUsingBlankCell(BookSheetKey bsk, int rowIndex, int columnIndex) {
+		return _usedBlankCellGroup != null && _usedBlankCellGroup.containsCell(bsk, rowIndex, columnIndex);
+	}
+
 	public void notifyUpdatedBlankCell(BookSheetKey bsk, int rowIndex, int columnIndex, IEvaluationListener evaluationListener) {
-		if (_usedBlankCellGroup != null) {
-			if (_usedBlankCellGroup.containsCell(bsk, rowIndex, columnIndex)) {
-				clearFormulaEntry();
-				recurseClearCachedFormulaResults(evaluationListener);
-			}
+		if (isUsingBlankCell(bsk, rowIndex, columnIndex)) {
+			clearFormulaEntry();
+			recurseClearCachedFormulaResults(evaluationListener);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,552 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.poi.ss.formula.EvaluationWorkbook.ExternalSheet;
+import org.apache.poi.ss.formula.EvaluationWorkbook.ExternalSheetRange;
+import org.apache.poi.ss.formula.PlainCellCache.Loc;
+import org.apache.poi.ss.formula.function.FunctionMetadataRegistry;
+import org.apache.poi.ss.formula.ptg.AbstractFunctionPtg;
+import org.apache.poi.ss.formula.ptg.Area3DPtg;
+import org.apache.poi.ss.formula.ptg.Area3DPxg;
+import org.apache.poi.ss.formula.ptg.AreaPtg;
+import org.apache.poi.ss.formula.ptg.AreaPtgBase;
+import org.apache.poi.ss.formula.ptg.ExpPtg;
+import org.apache.poi.ss.formula.ptg.NamePtg;
+import org.apache.poi.ss.formula.ptg.NameXPtg;
+import org.apache.poi.ss.formula.ptg.NameXPxg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.Pxg3D;
+import org.apache.poi.ss.formula.ptg.Ref3DPtg;
+import org.apache.poi.ss.formula.ptg.Ref3DPxg;
+import org.apache.poi.ss.formula.ptg.RefPtg;
+import org.apache.poi.ss.formula.ptg.RefPtgBase;
+import org.apache.poi.ss.formula.ptg.TblPtg;
+
+/**
+ * Workbook-wide graph of the cells referenced by each formula cell, built from the formula tokens.<p>
+ *
+ * Opposed to the {@link EvaluationCache}, which only knows the inputs of the formulas evaluated so far,
+ * the graph can tell which formula cells are affected by a change before any of them are evaluated.
+ * Changed cells are collected until the next query, and then all formula cells depending on them
+ * (directly or indirectly) are marked dirty. Dirty cells stay dirty until their results have been saved.<p>
+ *
+ * Formulas whose references can't be determined from the tokens (e.g. INDIRECT, OFFSET, external
+ * names or workbooks) and volatile functions are treated as dirty after any change.<p>
+ *
+ * The graph isn't synchronized, but it may be queried by several threads, as long as it isn't modified.
+ */
+final class FormulaDependencyGraph {
+
+    /** areas spanning more columns are checked on every lookup instead of being indexed by column */
+    private static final int MAX_INDEXED_COLUMNS = 64;
+
+    /** limit for names referring to other names */
+    private static final int MAX_NAME_DEPTH = 32;
+
+    /** functions whose references are only known when evaluated */
+    private static final Set<Integer> DYNAMIC_REFERENCE_FUNCTIONS = new HashSet<>();
+    static {
+        String[] names = { "INDIRECT", "OFFSET", };
+        for (String name : names) {
+            DYNAMIC_REFERENCE_FUNCTIONS.add(Integer.valueOf(FunctionMetadataRegistry.lookupIndexByName(name)));
+        }
+    }
+
+    /**
+     * A formula cell of the graph
+     */
+    private static final class Node {
+        final Loc _loc;
+        final List<Precedent> _precedents = new ArrayList<>();
+        boolean _isVolatile;
+        boolean _isDirty;
+        /** number of dirty precedents not yet sorted - only used while sorting */
+        int _pendingPrecedents;
+
+        Node(Loc loc) {
+            _loc = loc;
+        }
+    }
+
+    /**
+     * A cell or area referenced by a formula
+     */
+    private static final class Precedent {
+        final Node _formula;
+        final int _firstSheet;
+        final int _lastSheet;
+        final int _firstRow;
+        final int _lastRow;
+        final int _firstColumn;
+        final int _lastColumn;
+
+        Precedent(Node formula, int firstSheet, int lastSheet, int firstRow, int lastRow, int firstColumn, int lastColumn) {
+            _formula = formula;
+            _firstSheet = Math.min(firstSheet, lastSheet);
+            _lastSheet = Math.max(firstSheet, lastSheet);
+            _firstRow = Math.min(firstRow, lastRow);
+            _lastRow = Math.max(firstRow, lastRow);
+            _firstColumn = Math.min(firstColumn, lastColumn);
+            _lastColumn = Math.max(firstColumn, lastColumn);
+        }
+
+        boolean isSingleCell() {
+            return _firstSheet == _lastSheet && _firstRow == _lastRow && _firstColumn == _lastColumn;
+        }
+
+        boolean isWide() {
+            return _lastColumn - _firstColumn >= MAX_INDEXED_COLUMNS;
+        }
+
+        boolean containsRow(int rowIndex) {
+            return _firstRow <= rowIndex && rowIndex <= _lastRow;
+        }
+
+        boolean contains(int sheetIndex, int rowIndex, int columnIndex) {
+            return _firstSheet <= sheetIndex && sheetIndex <= _lastSheet
+                && containsRow(rowIndex)
+                && _firstColumn <= columnIndex && columnIndex <= _lastColumn;
+        }
+    }
+
+    private final EvaluationWorkbook _workbook;
+
+    private final Map<Loc, Node> _nodes = new HashMap<>();
+    /** single cell references, by referenced cell */
+    private final Map<Loc, List<Precedent>> _cellPrecedents = new HashMap<>();
+    /** area references, by referenced sheet and column */
+    private final Map<Long, List<Precedent>> _columnPrecedents = new HashMap<>();
+    private final List<Precedent> _widePrecedents = new ArrayList<>();
+    private final Set<Node> _volatileNodes = new LinkedHashSet<>();
+
+    private final Set<Loc> _changedCells = new LinkedHashSet<>();
+    private final Set<Node> _dirtyNodes = new LinkedHashSet<>();
+
+    FormulaDependencyGraph(EvaluationWorkbook workbook) {
+        _workbook = workbook;
+    }
+
+    /**
+     * Adds or replaces the formula of the given cell
+     *
+     * @param isDirty <code>false</code> if the cached result of the formula cell is up to date
+     */
+    public void addFormula(int sheetIndex, int rowIndex, int columnIndex, Ptg[] ptgs, boolean isDirty) {
+        Loc loc = new Loc(0, sheetIndex, rowIndex, columnIndex);
+        Node node = _nodes.get(loc);
+        if (node != null) {
+            removeNode(node);
+        }
+        node = new Node(loc);
+        _nodes.put(loc, node);
+        addPrecedents(node, sheetIndex, ptgs, 0);
+        if (node._isVolatile) {
+            _volatileNodes.add(node);
+        }
+        if (isDirty) {
+            node._isDirty = true;
+            _dirtyNodes.add(node);
+        }
+    }
+
+    /**
+     * Removes the formula of the given cell, if there is any
+     */
+    public void removeFormula(int sheetIndex, int rowIndex, int columnIndex) {
+        Node node = _nodes.remove(new Loc(0, sheetIndex, rowIndex, columnIndex));
+        if (node != null) {
+            removeNode(node);
+        }
+    }
+
+    /**
+     * Records a changed value or formula cell. The dependent formula cells are marked dirty
+     * on the next call to {@link #flushChanges()}
+     */
+    public void notifyChanged(int sheetIndex, int rowIndex, int columnIndex) {
+        _changedCells.add(new Loc(0, sheetIndex, rowIndex, columnIndex));
+    }
+
+    /**
+     * Marks all formula cells depending on the changed cells as dirty.
+     *
+     * @return all formula cells affected by the changes, including the ones which have already
+     * been dirty, so that any intermediate results can be discarded
+     */
+    public Collection<Loc> flushChanges() {
+        if (_changedCells.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Set<Node> affected = new LinkedHashSet<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        for (Loc loc : _changedCells) {
+            Node node = _nodes.get(loc);
+            if (node != null && affected.add(node)) {
+                // the formula itself has changed
+                queue.add(node);
+            }
+            collectDependents(loc, affected, queue);
+        }
+        _changedCells.clear();
+
+        for (Node node : _volatileNodes) {
+            if (affected.add(node)) {
+                queue.add(node);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            collectDependents(queue.poll()._loc, affected, queue);
+        }
+
+        List<Loc> result = new ArrayList<>(affected.size());
+        for (Node node : affected) {
+            if (!node._isDirty) {
+                node._isDirty = true;
+                _dirtyNodes.add(node);
+            }
+            result.add(node._loc);
+        }
+        return result;
+    }
+
+    /**
+     * @return <code>true</code> if the cell is a known formula cell, which isn't affected by
+     * any change and therefore its cached formula result can be used instead of evaluating it
+     */
+    public boolean isCachedResultValid(int sheetIndex, int rowIndex, int columnIndex) {
+        Node node = _nodes.get(new Loc(0, sheetIndex, rowIndex, columnIndex));
+        return node != null && !node._isDirty && !node._isVolatile;
+    }
+
+    /**
+     * @return the dirty formula cells, sorted so that each cell comes after the dirty cells it
+     * depends on. Cells with circular references are appended at the end.
+     */
+    public List<Loc> getDirtyFormulaCells() {
+        Map<Node, Set<Node>> dependents = getDirtyDependents();
+
+        List<Loc> result = new ArrayList<>(_dirtyNodes.size());
+        Set<Node> sorted = new HashSet<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        for (Node node : _dirtyNodes) {
+            if (node._pendingPrecedents == 0) {
+                queue.add(node);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            sorted.add(node);
+            result.add(node._loc);
+            for (Node dependent : dependents.get(node)) {
+                if (--dependent._pendingPrecedents == 0) {
+                    queue.add(dependent);
+                }
+            }
+        }
+
+        // the remaining cells are part of or depend on a cycle
+        for (Node node : _dirtyNodes) {
+            if (!sorted.contains(node)) {
+                result.add(node._loc);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits the dirty formula cells into levels, so that the cells of a level only depend on
+     * the cells of the previous levels. Once the results of the previous levels have been saved,
+     * the cells of a level can be evaluated in any order or concurrently.<p>
+     *
+     * Volatile cells, cells with circular references and all cells depending on them aren't
+     * included, as their inputs aren't known in advance. They remain dirty after the returned
+     * cells have been cleared, and need to be evaluated in the order of {@link #getDirtyFormulaCells()}.
+     */
+    public List<List<Loc>> getDirtyFormulaLevels() {
+        Map<Node, Set<Node>> dependents = getDirtyDependents();
+
+        List<List<Loc>> result = new ArrayList<>();
+        List<Node> level = new ArrayList<>();
+        for (Node node : _dirtyNodes) {
+            if (node._pendingPrecedents == 0 && !node._isVolatile) {
+                level.add(node);
+            }
+        }
+        while (!level.isEmpty()) {
+            List<Loc> locs = new ArrayList<>(level.size());
+            List<Node> nextLevel = new ArrayList<>();
+            for (Node node : level) {
+                locs.add(node._loc);
+                for (Node dependent : dependents.get(node)) {
+                    // dependents of volatile cells never get here
+                    if (--dependent._pendingPrecedents == 0 && !dependent._isVolatile) {
+                        nextLevel.add(dependent);
+                    }
+                }
+            }
+            result.add(locs);
+            level = nextLevel;
+        }
+        return result;
+    }
+
+    /**
+     * @return the dirty dependents of each dirty formula cell. The number of dirty precedents
+     * is stored in each node.
+     */
+    private Map<Node, Set<Node>> getDirtyDependents() {
+        Map<Node, Set<Node>> dependents = new HashMap<>();
+        for (Node node : _dirtyNodes) {
+            node._pendingPrecedents = 0;
+        }
+        for (Node node : _dirtyNodes) {
+            Set<Node> dirtyDependents = new LinkedHashSet<>();
+            collectDependents(node._loc, dirtyDependents, null);
+            dirtyDependents.remove(node);
+            for (Node dependent : dirtyDependents) {
+                // all dependents of a dirty cell are dirty as well
+                dependent._pendingPrecedents++;
+            }
+            dependents.put(node, dirtyDependents);
+        }
+        return dependents;
+    }
+
+    /**
+     * Marks all formula cells as clean, after their results have been saved
+     */
+    public void clearDirtyFormulaCells() {
+        for (Node node : _dirtyNodes) {
+            node._isDirty = false;
+        }
+        _dirtyNodes.clear();
+    }
+
+    /**
+     * Marks the given formula cells as clean, after their results have been saved
+     */
+    public void clearDirtyFormulaCells(Collection<Loc> locs) {
+        for (Loc loc : locs) {
+            Node node = _nodes.get(loc);
+            if (node != null && node._isDirty) {
+                node._isDirty = false;
+                _dirtyNodes.remove(node);
+            }
+        }
+    }
+
+    /**
+     * Adds the formula cells referencing the given cell, which are not yet in the result.
+     *
+     * @param queue if not <code>null</code>, the added cells are queued as well
+     */
+    private void collectDependents(Loc loc, Set<Node> result, Deque<Node> queue) {
+        int sheetIndex = loc.getSheetIndex();
+        int rowIndex = loc.getRowIndex();
+        int columnIndex = loc.getColumnIndex();
+
+        List<Precedent> cellPrecedents = _cellPrecedents.get(loc);
+        if (cellPrecedents != null) {
+            for (Precedent p : cellPrecedents) {
+                addDependent(p._formula, result, queue);
+            }
+        }
+        List<Precedent> columnPrecedents = _columnPrecedents.get(Loc.toBookSheetColumn(0, sheetIndex, columnIndex));
+        if (columnPrecedents != null) {
+            for (Precedent p : columnPrecedents) {
+                if (p.containsRow(rowIndex)) {
+                    addDependent(p._formula, result, queue);
+                }
+            }
+        }
+        for (Precedent p : _widePrecedents) {
+            if (p.contains(sheetIndex, rowIndex, columnIndex)) {
+                addDependent(p._formula, result, queue);
+            }
+        }
+    }
+
+    private static void addDependent(Node node, Set<Node> result, Deque<Node> queue) {
+        if (result.add(node) && queue != null) {
+            queue.add(node);
+        }
+    }
+
+    private void addPrecedents(Node node, int sheetIndex, Ptg[] ptgs, int nameDepth) {
+        for (Ptg ptg : ptgs) {
+            if (ptg instanceof RefPtg) {
+                RefPtg rptg = (RefPtg) ptg;
+                addPrecedent(new Precedent(node, sheetIndex, sheetIndex,
+                    rptg.getRow(), rptg.getRow(), rptg.getColumn(), rptg.getColumn()));
+            } else if (ptg instanceof AreaPtg) {
+                AreaPtg aptg = (AreaPtg) ptg;
+                addPrecedent(new Precedent(node, sheetIndex, sheetIndex,
+                    aptg.getFirstRow(), aptg.getLastRow(), aptg.getFirstColumn(), aptg.getLastColumn()));
+            } else if (ptg instanceof Ref3DPtg || ptg instanceof Ref3DPxg) {
+                RefPtgBase rptg = (RefPtgBase) ptg;
+                ExternalSheet sheet = getExternalSheet(ptg);
+                int[] sheets = getSheetRange(sheet);
+                if (sheets == null) {
+                    node._isVolatile = true;
+                } else {
+                    addPrecedent(new Precedent(node, sheets[0], sheets[1],
+                        rptg.getRow(), rptg.getRow(), rptg.getColumn(), rptg.getColumn()));
+                }
+            } else if (ptg instanceof Area3DPtg || ptg instanceof Area3DPxg) {
+                AreaPtgBase aptg = (AreaPtgBase) ptg;
+                ExternalSheet sheet = getExternalSheet(ptg);
+                int[] sheets = getSheetRange(sheet);
+                if (sheets == null) {
+                    node._isVolatile = true;
+                } else {
+                    addPrecedent(new Precedent(node, sheets[0], sheets[1],
+                        aptg.getFirstRow(), aptg.getLastRow(), aptg.getFirstColumn(), aptg.getLastColumn()));
+                }
+            } else if (ptg instanceof NamePtg) {
+                EvaluationName name = _workbook.getName((NamePtg) ptg);
+                if (name == null || name.isFunctionName() || nameDepth >= MAX_NAME_DEPTH) {
+                    // user defined function or unresolvable name
+                    node._isVolatile = true;
+                } else if (name.hasFormula()) {
+                    addPrecedents(node, sheetIndex, name.getNameDefinition(), nameDepth + 1);
+                }
+            } else if (ptg instanceof AbstractFunctionPtg) {
+                int functionIndex = ((AbstractFunctionPtg) ptg).getFunctionIndex();
+                if (DYNAMIC_REFERENCE_FUNCTIONS.contains(Integer.valueOf(functionIndex))
+                        || WorkbookEvaluator.isVolatileFunction(functionIndex)) {
+                    node._isVolatile = true;
+                }
+            } else if (ptg instanceof NameXPtg || ptg instanceof NameXPxg
+                    || ptg instanceof ExpPtg || ptg instanceof TblPtg
+                    || ptg instanceof RefPtgBase || ptg instanceof AreaPtgBase) {
+                // external names, add-in functions, shared formulas, data tables
+                // and relative references can't be resolved here
+                node._isVolatile = true;
+            }
+        }
+    }
+
+    /**
+     * @return <code>null</code> if the sheet can't be resolved
+     */
+    private ExternalSheet getExternalSheet(Ptg ptg) {
+        try {
+            if (ptg instanceof Pxg3D) {
+                Pxg3D pxg = (Pxg3D) ptg;
+                if (pxg.getExternalWorkbookNumber() > 0) {
+                    return null;
+                }
+                return _workbook.getExternalSheet(pxg.getSheetName(), pxg.getLastSheetName(), 0);
+            }
+            return _workbook.getExternalSheet(((ExternSheetReferenceToken) ptg).getExternSheetIndex());
+        } catch (RuntimeException e) {
+            // e.g. broken link tables
+            return null;
+        }
+    }
+
+    /**
+     * @return the first and last sheet index of a sheet (range) in this workbook,
+     * or <code>null</code> for other workbooks and unknown sheets
+     */
+    private int[] getSheetRange(ExternalSheet sheet) {
+        if (sheet == null || sheet.getWorkbookName() != null) {
+            return null;
+        }
+        int firstSheet = _workbook.getSheetIndex(sheet.getSheetName());
+        int lastSheet = firstSheet;
+        if (sheet instanceof ExternalSheetRange) {
+            lastSheet = _workbook.getSheetIndex(((ExternalSheetRange) sheet).getLastSheetName());
+        }
+        if (firstSheet < 0 || lastSheet < 0) {
+            return null;
+        }
+        return new int[] { firstSheet, lastSheet };
+    }
+
+    private void addPrecedent(Precedent p) {
+        p._formula._precedents.add(p);
+        if (p.isSingleCell()) {
+            Loc key = new Loc(0, p._firstSheet, p._firstRow, p._firstColumn);
+            List<Precedent> list = _cellPrecedents.get(key);
+            if (list == null) {
+                list = new ArrayList<>(2);
+                _cellPrecedents.put(key, list);
+            }
+            list.add(p);
+        } else if (p.isWide()) {
+            _widePrecedents.add(p);
+        } else {
+            for (int sheetIndex = p._firstSheet; sheetIndex <= p._lastSheet; sheetIndex++) {
+                for (int columnIndex = p._firstColumn; columnIndex <= p._lastColumn; columnIndex++) {
+                    Long key = Loc.toBookSheetColumn(0, sheetIndex, columnIndex);
+                    List<Precedent> list = _columnPrecedents.get(key);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        _columnPrecedents.put(key, list);
+                    }
+                    list.add(p);
+                }
+            }
+        }
+    }
+
+    private void removeNode(Node node) {
+        for (Precedent p : node._precedents) {
+            if (p.isSingleCell()) {
+                removePrecedent(_cellPrecedents, new Loc(0, p._firstSheet, p._firstRow, p._firstColumn), p);
+            } else if (p.isWide()) {
+                _widePrecedents.remove(p);
+            } else {
+                for (int sheetIndex = p._firstSheet; sheetIndex <= p._lastSheet; sheetIndex++) {
+                    for (int columnIndex = p._firstColumn; columnIndex <= p._lastColumn; columnIndex++) {
+                        removePrecedent(_columnPrecedents, Loc.toBookSheetColumn(0, sheetIndex, columnIndex), p);
+                    }
+                }
+            }
+        }
+        node._precedents.clear();
+        _volatileNodes.remove(node);
+        _dirtyNodes.remove(node);
+    }
+
+    private static <K> void removePrecedent(Map<K, List<Precedent>> index, K key, Precedent p) {
+        List<Precedent> list = index.get(key);
+        if (list != null) {
+            list.remove(p);
+            if (list.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
@@ -20,7 +20,6 @@ package org.apache.poi.ss.formula;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.regex.Pattern;
 
 import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.formula.constant.ErrorConstant;
@@ -73,7 +72,6 @@ import org.apache.poi.ss.usermodel.Name;
 import org.apache.poi.ss.usermodel.Table;
 import org.apache.poi.ss.util.AreaReference;
 import org.apache.poi.ss.util.CellReference;
-import org.apache.poi.ss.util.CellReference.NameType;
 import org.apache.poi.util.Internal;
 import org.apache.poi.util.POILogFactory;
 import org.apache.poi.util.POILogger;
@@ -309,13 +307,12 @@ public final class FormulaParser {
 
     /** Get a Number */
     private String GetNum() {
-        StringBuilder value = new StringBuilder();
-
+        int start = _pointer - Character.charCount(look);
         while (IsDigit(this.look)){
-            value.appendCodePoint(this.look);
             GetChar();
         }
-        return value.length() == 0 ? null : value.toString();
+        int end = _pointer - Character.charCount(look);
+        return end == start ? null : _formulaString.substring(start, end);
     }
 
     private ParseNode parseRangeExpression() {
@@ -575,7 +572,7 @@ public final class FormulaParser {
             }
             return createAreaRefParseNode(sheetIden, part1, part2);
         }
-        if (part1.isCell() && isValidCellReference(part1.getRep())) {
+        if (part1.isCell()) {
             return createAreaRefParseNode(sheetIden, part1, null);
         }
         if (sheetIden != null) {
@@ -919,19 +916,18 @@ public final class FormulaParser {
     }
     
     private String parseAsName() {
-        StringBuilder sb = new StringBuilder();
-
         // defined names may begin with a letter or underscore or backslash
         if (!Character.isLetter(look) && look != '_' && look != '\\') {
             throw expected("number, string, defined name, or data table");
         }
+        int start = _pointer - Character.charCount(look);
         while (isValidDefinedNameChar(look)) {
-            sb.appendCodePoint(look);
             GetChar();
         }
+        String name = _formulaString.substring(start, _pointer - Character.charCount(look));
         SkipWhite();
         
-        return sb.toString();
+        return name;
     }
 
     /**
@@ -968,11 +964,10 @@ public final class FormulaParser {
             SimpleRangePart part2) throws FormulaParseException {
         Ptg ptg;
         if (part2 == null) {
-            CellReference cr = part1.getCellReference();
             if (sheetIden == null) {
-                ptg = new RefPtg(cr);
+                ptg = part1.createRefPtg();
             } else {
-                ptg = _book.get3DReferencePtg(cr, sheetIden);
+                ptg = _book.get3DReferencePtg(part1.getCellReference(), sheetIden);
             }
         } else {
             AreaReference areaRef = createAreaRef(part1, part2);
@@ -1000,71 +995,99 @@ public final class FormulaParser {
         return new AreaReference(part1.getCellReference(), part2.getCellReference(), _ssVersion);
     }
 
-    /**
-     * Matches a zero or one letter-runs followed by zero or one digit-runs.
-     * Either or both runs man optionally be prefixed with a single '$'.
-     * (copied+modified from {@link org.apache.poi.ss.util.CellReference#CELL_REF_PATTERN})
-     */
-    private static final Pattern CELL_REF_PATTERN = Pattern.compile("(\\$?[A-Za-z]+)?(\\$?[0-9]+)?");
-
     /**
      * Parses out a potential LHS or RHS of a ':' intended to produce a plain AreaRef.  Normally these are
      * proper cell references but they could also be row or column refs like "$AC" or "10"
+     * <p>
+     * The reference is recognised in a single pass over the formula text: zero or one letter-runs
+     * followed by zero or one digit-runs, either optionally prefixed with a single '$'.  The column
+     * and row indexes are accumulated while scanning, so the reference never needs to be parsed again.
      * @return <code>null</code> (and leaves {@link #_pointer} unchanged if a proper range part does not parse out
      */
     private SimpleRangePart parseSimpleRangePart() {
-        int ptr = _pointer-1; // TODO avoid StringIndexOutOfBounds
-        boolean hasDigits = false;
-        boolean hasLetters = false;
+        final int start = _pointer-1; // TODO avoid StringIndexOutOfBounds
+        int ptr = start;
+        boolean isAbsolute = ptr < _formulaLength && _formulaString.charAt(ptr) == '$';
+        if (isAbsolute) {
+            ptr++;
+        }
+        int column = 0;
+        int lettersStart = ptr;
         while (ptr < _formulaLength) {
             char ch = _formulaString.charAt(ptr);
-            if (Character.isDigit(ch)) {
-                hasDigits = true;
-            } else if (Character.isLetter(ch)) {
-                hasLetters = true;
-            } else if (ch =='$' || ch =='_') {
-                //
+            int letter;
+            if (ch >= 'A' && ch <= 'Z') {
+                letter = ch - 'A' + 1;
+            } else if (ch >= 'a' && ch <= 'z') {
+                letter = ch - 'a' + 1;
             } else {
                 break;
             }
+            // stop accumulating once well out of range, the bounds check below rejects it
+            if (column <= MAX_SCANNED_INDEX) {
+                column = column * 26 + letter;
+            }
             ptr++;
         }
-        if (ptr <= _pointer-1) {
+        boolean hasLetters = ptr > lettersStart;
+        boolean isColAbsolute = false;
+        if (hasLetters) {
+            isColAbsolute = isAbsolute;
+            isAbsolute = ptr < _formulaLength && _formulaString.charAt(ptr) == '$';
+            if (isAbsolute) {
+                ptr++;
+            }
+        }
+        int row = 0;
+        int digitsStart = ptr;
+        while (ptr < _formulaLength) {
+            char ch = _formulaString.charAt(ptr);
+            if (ch < '0' || ch > '9') {
+                break;
+            }
+            if (row <= MAX_SCANNED_INDEX) {
+                row = row * 10 + (ch - '0');
+            }
+            ptr++;
+        }
+        boolean hasDigits = ptr > digitsStart;
+        if (isAbsolute && !hasDigits) {
+            // dangling '$'
             return null;
         }
-        String rep = _formulaString.substring(_pointer-1, ptr);
-        if (!CELL_REF_PATTERN.matcher(rep).matches()) {
+        if (!hasLetters && !hasDigits) {
             return null;
         }
-        // Check range bounds against grid max
-        if (hasLetters && hasDigits) {
-            if (!isValidCellReference(rep)) {
-                return null;
-            }
-        } else if (hasLetters) {
-            if (!CellReference.isColumnWithinRange(rep.replace("$", ""), _ssVersion)) {
-                return null;
-            }
-        } else if (hasDigits) {
-            int i;
-            try {
-                i = Integer.parseInt(rep.replace("$", ""));
-            } catch (NumberFormatException e) {
-                return null;
-            }
-            if (i<1 || i>_ssVersion.getMaxRows()) {
+        if (ptr < _formulaLength) {
+            // the reference has to span the whole run of name-like characters, "A1B" or "A_1" are not references
+            char ch = _formulaString.charAt(ptr);
+            if (Character.isLetterOrDigit(ch) || ch == '$' || ch == '_') {
                 return null;
             }
-        } else {
-            // just dollars ? can this happen?
-            return null;
         }
 
+        // Check range bounds against grid max
+        if (hasLetters && column - 1 > _ssVersion.getLastColumnIndex()) {
+            return null;
+        }
+        if (hasDigits && (row < 1 || row > _ssVersion.getMaxRows())) {
+            return null;
+        }
+        if (hasLetters && hasDigits && isFunctionCall(start, ptr)) {
+            return null;
+        }
 
+        String rep = _formulaString.substring(start, ptr);
         resetPointer(ptr+1); // stepping forward
-        return new SimpleRangePart(rep, hasLetters, hasDigits);
+        return new SimpleRangePart(rep, hasLetters, hasDigits, row - 1, column - 1, isAbsolute, isColAbsolute);
     }
 
+    /**
+     * Upper bound for the column and row indexes accumulated by {@link #parseSimpleRangePart()},
+     * comfortably above the grid max of any spreadsheet version and small enough not to overflow
+     */
+    private static final int MAX_SCANNED_INDEX = 0x1000000;
+
 
     /**
      * A1, $A1, A$1, $A$1, A, 1
@@ -1086,10 +1109,19 @@ public final class FormulaParser {
 
         private final Type _type;
         private final String _rep;
+        private final int _row;
+        private final int _column;
+        private final boolean _isRowAbsolute;
+        private final boolean _isColAbsolute;
 
-        public SimpleRangePart(String rep, boolean hasLetters, boolean hasNumbers) {
+        public SimpleRangePart(String rep, boolean hasLetters, boolean hasNumbers,
+                int row, int column, boolean isRowAbsolute, boolean isColAbsolute) {
             _rep = rep;
             _type = Type.get(hasLetters, hasNumbers);
+            _row = row;
+            _column = column;
+            _isRowAbsolute = isRowAbsolute;
+            _isColAbsolute = isColAbsolute;
         }
 
         public boolean isCell() {
@@ -1104,7 +1136,14 @@ public final class FormulaParser {
             if (_type != Type.CELL) {
                 throw new IllegalStateException("Not applicable to this type");
             }
-            return new CellReference(_rep);
+            return new CellReference(_row, _column, _isRowAbsolute, _isColAbsolute);
+        }
+
+        public RefPtg createRefPtg() {
+            if (_type != Type.CELL) {
+                throw new IllegalStateException("Not applicable to this type");
+            }
+            return new RefPtg(_row, _column, !_isRowAbsolute, !_isColAbsolute);
         }
 
         public boolean isColumn() {
@@ -1191,21 +1230,22 @@ public final class FormulaParser {
 
         // unquoted sheet names must start with underscore or a letter
         if (look =='_' || Character.isLetter(look)) {
-            StringBuilder sb = new StringBuilder();
+            int start = _pointer - Character.charCount(look);
             // can concatenate idens with dots
             while (isUnquotedSheetNameChar(look)) {
-                sb.appendCodePoint(look);
                 GetChar();
             }
-            NameIdentifier iden = new NameIdentifier(sb.toString(), false);
+            int end = _pointer - Character.charCount(look);
             SkipWhite();
+            // most identifiers are cell references or function names, so only
+            // build the sheet identifier once it is known to be one
             if (look == '!') {
                 GetChar();
-                return new SheetIdentifier(bookName, iden);
+                return new SheetIdentifier(bookName, new NameIdentifier(_formulaString.substring(start, end), false));
             }
             // See if it's a multi-sheet range, eg Sheet1:Sheet3!A1
             if (look == ':') {
-                return parseSheetRange(bookName, iden);
+                return parseSheetRange(bookName, new NameIdentifier(_formulaString.substring(start, end), false));
             }
             return null;
         }
@@ -1252,32 +1292,26 @@ public final class FormulaParser {
     }
 
     /**
-     * @return <code>true</code> if the specified name is a valid cell reference
+     * Check if the cell reference between <tt>start</tt> and <tt>end</tt> is actually a function call.
+     * Certain names can be either a cell reference or a function name depending on the context.
+     * Compare the following examples in Excel 2007:
+     * (a) LOG10(100) + 1
+     * (b) LOG10 + 1
+     * In (a) LOG10 is a name of a built-in function. In (b) LOG10 is a cell reference
+     *
+     * @return <code>true</code> if the text is a built-in function name followed by an open bracket
      */
-    private boolean isValidCellReference(String str) {
-        //check range bounds against grid max
-        boolean result = CellReference.classifyCellReference(str, _ssVersion) == NameType.CELL;
-
-        if(result){
-            /*
-             * Check if the argument is a function. Certain names can be either a cell reference or a function name
-             * depending on the contenxt. Compare the following examples in Excel 2007:
-             * (a) LOG10(100) + 1
-             * (b) LOG10 + 1
-             * In (a) LOG10 is a name of a built-in function. In (b) LOG10 is a cell reference
-             */
-            boolean isFunc = FunctionMetadataRegistry.getFunctionByName(str.toUpperCase(Locale.ROOT)) != null;
-            if(isFunc){
-                int savePointer = _pointer;
-                resetPointer(_pointer + str.length());
-                SkipWhite();
-                // open bracket indicates that the argument is a function,
-                // the returning value should be false, i.e. "not a valid cell reference"
-                result = look != '(';
-                resetPointer(savePointer);
-            }
+    private boolean isFunctionCall(int start, int end) {
+        int ptr = end;
+        while (ptr < _formulaLength && IsWhite(_formulaString.charAt(ptr))) {
+            ptr++;
         }
-        return result;
+        // the bracket is checked first, as it rules out most cell references without a lookup
+        if (ptr >= _formulaLength || _formulaString.charAt(ptr) != '(') {
+            return false;
+        }
+        String name = _formulaString.substring(start, end).toUpperCase(Locale.ROOT);
+        return FunctionMetadataRegistry.getFunctionByName(name) != null;
     }
 
 
@@ -1292,7 +1326,9 @@ public final class FormulaParser {
      */
     private ParseNode function(String name) {
         Ptg nameToken = null;
-        if(!AbstractFunctionPtg.isBuiltInFunctionName(name)) {
+        // looked up once here and handed on, the name is not resolved again for built-in functions
+        FunctionMetadata fm = FunctionMetadataRegistry.getFunctionByName(name.toUpperCase(Locale.ROOT));
+        if(fm == null) {
             // user defined function
             // in the token tree, the name is more or less the first argument
 
@@ -1343,7 +1379,7 @@ public final class FormulaParser {
         ParseNode[] args = Arguments();
         Match(')');
 
-        return getFunction(name, nameToken, args);
+        return getFunction(name, fm, nameToken, args);
     }
     
     /**
@@ -1361,12 +1397,11 @@ public final class FormulaParser {
      * Generates the variable function ptg for the formula.
      * <p>
      * For IF Formulas, additional PTGs are added to the tokens
-     * @param name a {@link NamePtg} or {@link NameXPtg} or <code>null</code>
+     * @param fm the metadata of the built-in function or <code>null</code> for external functions
+     * @param namePtg a {@link NamePtg} or {@link NameXPtg} or <code>null</code>
      * @return Ptg a null is returned if we're in an IF formula, it needs extreme manipulation and is handled in this function
      */
-    private ParseNode getFunction(String name, Ptg namePtg, ParseNode[] args) {
-
-        FunctionMetadata fm = FunctionMetadataRegistry.getFunctionByName(name.toUpperCase(Locale.ROOT));
+    private ParseNode getFunction(String name, FunctionMetadata fm, Ptg namePtg, ParseNode[] args) {
         int numArgs = args.length;
         if(fm == null) {
             if (namePtg == null) {
@@ -18,6 +18,7 @@
 package org.apache.poi.ss.formula;
 
 import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.ptg.OperationPtg;
 
 /**
  * Tests can implement this class to track the internal working of the {@link WorkbookEvaluator}.<br>
@@ -40,6 +41,13 @@ interface IEvaluationListener {
 	void onReadPlainValue(int sheetIndex, int rowIndex, int columnIndex, ICacheEntry entry);
 	void onStartEvaluate(EvaluationCell cell, ICacheEntry entry);
 	void onEndEvaluate(ICacheEntry entry, ValueEval result);
+	/**
+	 * Called before a function or operator is invoked with its evaluated operands.
+	 * Formula cells referenced by the operands may be evaluated in between the calls to
+	 * this method and {@link #onEndFunction(OperationPtg, ValueEval)}.
+	 */
+	void onStartFunction(OperationPtg ptg);
+	void onEndFunction(OperationPtg ptg, ValueEval result);
 	void onClearWholeCache();
 	void onClearCachedValue(ICacheEntry entry);
 	/**
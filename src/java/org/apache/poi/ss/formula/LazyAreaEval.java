@@ -20,6 +20,9 @@ package org.apache.poi.ss.formula;
 import org.apache.poi.ss.formula.eval.AreaEval;
 import org.apache.poi.ss.formula.eval.AreaEvalBase;
 import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.functions.IndexedArea;
+import org.apache.poi.ss.formula.functions.LookupIndex;
+import org.apache.poi.ss.formula.functions.NumericValues;
 import org.apache.poi.ss.formula.ptg.AreaI;
 import org.apache.poi.ss.formula.ptg.AreaI.OffsetArea;
 import org.apache.poi.ss.util.CellReference;
@@ -27,7 +30,7 @@ import org.apache.poi.ss.util.CellReference;
 /**
  * Provides Lazy Evaluation to 3D Ranges
  */
-final class LazyAreaEval extends AreaEvalBase {
+final class LazyAreaEval extends AreaEvalBase implements IndexedArea {
 	private final SheetRangeEvaluator _evaluator;
 
 	LazyAreaEval(AreaI ptg, SheetRangeEvaluator evaluator) {
@@ -74,6 +77,31 @@ final class LazyAreaEval extends AreaEvalBase {
 		return new LazyAreaEval(getFirstRow(), absColIx, getLastRow(), absColIx, _evaluator);
 	}
 
+	public LookupIndex getRowLookupIndex(int rowIndex) {
+		if (getFirstSheetIndex() != getLastSheetIndex()) {
+			return null;
+		}
+		int absRowIx = getFirstRow() + rowIndex;
+		return _evaluator.getSheetEvaluator(getFirstSheetIndex())
+				.getLookupIndex(absRowIx, getFirstColumn(), absRowIx, getLastColumn());
+	}
+	public LookupIndex getColumnLookupIndex(int columnIndex) {
+		if (getFirstSheetIndex() != getLastSheetIndex()) {
+			return null;
+		}
+		int absColIx = getFirstColumn() + columnIndex;
+		return _evaluator.getSheetEvaluator(getFirstSheetIndex())
+				.getLookupIndex(getFirstRow(), absColIx, getLastRow(), absColIx);
+	}
+
+	public NumericValues getNumericValues() {
+		if (getFirstSheetIndex() != getLastSheetIndex()) {
+			return null;
+		}
+		return _evaluator.getSheetEvaluator(getFirstSheetIndex())
+				.getNumericValues(getFirstRow(), getFirstColumn(), getLastRow(), getLastColumn());
+	}
+
 	public String toString() {
 		CellReference crA = new CellReference(getFirstRow(), getFirstColumn());
 		CellReference crB = new CellReference(getLastRow(), getLastColumn());
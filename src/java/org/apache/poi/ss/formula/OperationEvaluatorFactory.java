@@ -115,37 +115,60 @@ final class OperationEvaluatorFactory {
 		if(ptg == null) {
 			throw new IllegalArgumentException("ptg must not be null");
 		}
-		Function result = _instancesByPtgClass.get(ptg);
-		FreeRefFunction udfFunc = null;
-		if (result == null) {
-			if (ptg instanceof AbstractFunctionPtg) {
-				AbstractFunctionPtg fptg = (AbstractFunctionPtg)ptg;
-				int functionIndex = fptg.getFunctionIndex();
-				switch (functionIndex) {
-					case FunctionMetadataRegistry.FUNCTION_INDEX_INDIRECT:
-						udfFunc = Indirect.instance;
-						break;
-					case FunctionMetadataRegistry.FUNCTION_INDEX_EXTERNAL:
-						udfFunc = UserDefinedFunction.instance;
-						break;
-					default:
-						result = FunctionEval.getBasicFunction(functionIndex);
-						break;
-				}
-			}
-		}
+		Function result = getFunction(ptg);
 		if (result != null) {
+			return evaluate(result, args, ec);
+		}
+		FreeRefFunction udfFunc = getFreeRefFunction(ptg);
+		if (udfFunc != null){
+			return  udfFunc.evaluate(args, ec);
+		}
+
+		throw new RuntimeException("Unexpected operation ptg class (" + ptg.getClass().getName() + ")");
+	}
+
+	/**
+	 * Evaluates a function previously looked up by {@link #getFunction(OperationPtg)}
+	 */
+	/* package */ static ValueEval evaluate(Function function, ValueEval[] args,
+			OperationEvaluationContext ec) {
+		if (function instanceof ArrayFunction) {
 			EvaluationSheet evalSheet = ec.getWorkbook().getSheet(ec.getSheetIndex());
 			EvaluationCell evalCell = evalSheet.getCell(ec.getRowIndex(), ec.getColumnIndex());
 
-		    if (evalCell != null && (evalCell.isPartOfArrayFormulaGroup() || ec.isArraymode()) && result instanceof ArrayFunction)
-		        return ((ArrayFunction) result).evaluateArray(args, ec.getRowIndex(), ec.getColumnIndex());
-		                
-			return  result.evaluate(args, ec.getRowIndex(), ec.getColumnIndex());
-		} else if (udfFunc != null){
-			return  udfFunc.evaluate(args, ec);
+			if (evalCell != null && (evalCell.isPartOfArrayFormulaGroup() || ec.isArraymode()))
+				return ((ArrayFunction) function).evaluateArray(args, ec.getRowIndex(), ec.getColumnIndex());
 		}
 
-		throw new RuntimeException("Unexpected operation ptg class (" + ptg.getClass().getName() + ")");
+		return  function.evaluate(args, ec.getRowIndex(), ec.getColumnIndex());
+	}
+
+	/**
+	 * @return the function evaluating the supplied operationPtg, or <code>null</code>
+	 * for INDIRECT and external functions, which need the evaluation context
+	 * @throws org.apache.poi.ss.formula.eval.NotImplementedException if the function isn't supported
+	 */
+	/* package */ static Function getFunction(OperationPtg ptg) {
+		Function result = _instancesByPtgClass.get(ptg);
+		if (result == null && ptg instanceof AbstractFunctionPtg) {
+			int functionIndex = ((AbstractFunctionPtg)ptg).getFunctionIndex();
+			if (functionIndex != FunctionMetadataRegistry.FUNCTION_INDEX_INDIRECT
+					&& functionIndex != FunctionMetadataRegistry.FUNCTION_INDEX_EXTERNAL) {
+				result = FunctionEval.getBasicFunction(functionIndex);
+			}
+		}
+		return result;
+	}
+
+	private static FreeRefFunction getFreeRefFunction(OperationPtg ptg) {
+		if (ptg instanceof AbstractFunctionPtg) {
+			switch (((AbstractFunctionPtg)ptg).getFunctionIndex()) {
+				case FunctionMetadataRegistry.FUNCTION_INDEX_INDIRECT:
+					return Indirect.instance;
+				case FunctionMetadataRegistry.FUNCTION_INDEX_EXTERNAL:
+					return UserDefinedFunction.instance;
+			}
+		}
+		return null;
 	}
 }
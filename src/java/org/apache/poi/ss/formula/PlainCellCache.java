@@ -17,9 +17,9 @@
 
 package org.apache.poi.ss.formula;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * Caches the entries of plain value cells by their location
+ */
 final class PlainCellCache {
 
 	public static final class Loc {
@@ -75,21 +75,140 @@ final class PlainCellCache {
         }
 	}
 
-	private Map<Loc, PlainValueCellCacheEntry> _plainValueEntriesByLoc;
+	private static final int INITIAL_CAPACITY = 64;
+
+	/*
+	 * Open addressing hash table with linear probing, which is keyed by the packed
+	 * book/sheet/column and the row, so that lookups don't allocate a Loc per cell.
+	 * A slot is empty when its entry is null.
+	 */
+	private long[] _bookSheetColumns;
+	private int[] _rowIndexes;
+	private PlainValueCellCacheEntry[] _entries;
+	private int _size;
 
 	public PlainCellCache() {
-		_plainValueEntriesByLoc = new HashMap<>();
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		_bookSheetColumns = new long[capacity];
+		_rowIndexes = new int[capacity];
+		_entries = new PlainValueCellCacheEntry[capacity];
 	}
+
 	public void put(Loc key, PlainValueCellCacheEntry cce) {
-		_plainValueEntriesByLoc.put(key, cce);
+		put(key.getBookIndex(), key.getSheetIndex(), key.getRowIndex(), key.getColumnIndex(), cce);
+	}
+	public void put(int bookIndex, int sheetIndex, int rowIndex, int columnIndex, PlainValueCellCacheEntry cce) {
+		if (cce == null) {
+			throw new IllegalArgumentException("cce must not be null");
+		}
+		long bookSheetColumn = Loc.toBookSheetColumn(bookIndex, sheetIndex, columnIndex);
+		int slot = findSlot(bookSheetColumn, rowIndex);
+		if (_entries[slot] == null) {
+			if ((_size + 1) * 4 > _entries.length * 3) {
+				rehash(_entries.length * 2);
+				slot = findSlot(bookSheetColumn, rowIndex);
+			}
+			_bookSheetColumns[slot] = bookSheetColumn;
+			_rowIndexes[slot] = rowIndex;
+			_size++;
+		}
+		_entries[slot] = cce;
 	}
 	public void clear() {
-		_plainValueEntriesByLoc.clear();
+		if (_size > 0) {
+			allocate(INITIAL_CAPACITY);
+			_size = 0;
+		}
 	}
 	public PlainValueCellCacheEntry get(Loc key) {
-		return _plainValueEntriesByLoc.get(key);
+		return get(key.getBookIndex(), key.getSheetIndex(), key.getRowIndex(), key.getColumnIndex());
+	}
+	/**
+	 * @return <code>null</code> if not found
+	 */
+	public PlainValueCellCacheEntry get(int bookIndex, int sheetIndex, int rowIndex, int columnIndex) {
+		return _entries[findSlot(Loc.toBookSheetColumn(bookIndex, sheetIndex, columnIndex), rowIndex)];
 	}
 	public void remove(Loc key) {
-		_plainValueEntriesByLoc.remove(key);
+		remove(key.getBookIndex(), key.getSheetIndex(), key.getRowIndex(), key.getColumnIndex());
+	}
+	public void remove(int bookIndex, int sheetIndex, int rowIndex, int columnIndex) {
+		int slot = findSlot(Loc.toBookSheetColumn(bookIndex, sheetIndex, columnIndex), rowIndex);
+		if (_entries[slot] == null) {
+			return;
+		}
+		_entries[slot] = null;
+		_size--;
+		// shift back the following entries of the probe sequence, which would be unreachable otherwise
+		int mask = _entries.length - 1;
+		int gap = slot;
+		for (int i = (slot + 1) & mask; _entries[i] != null; i = (i + 1) & mask) {
+			int home = hash(_bookSheetColumns[i], _rowIndexes[i]) & mask;
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				_bookSheetColumns[gap] = _bookSheetColumns[i];
+				_rowIndexes[gap] = _rowIndexes[i];
+				_entries[gap] = _entries[i];
+				_entries[i] = null;
+				gap = i;
+			}
+		}
+	}
+
+	/**
+	 * Removes the entries of the cells of the given workbook
+	 */
+	public void removeWorkbook(int bookIndex) {
+		long[] bookSheetColumns = _bookSheetColumns;
+		int[] rowIndexes = _rowIndexes;
+		PlainValueCellCacheEntry[] entries = _entries;
+		allocate(entries.length);
+		_size = 0;
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i] != null && new Loc(bookSheetColumns[i], rowIndexes[i]).getBookIndex() != bookIndex) {
+				int slot = findSlot(bookSheetColumns[i], rowIndexes[i]);
+				_bookSheetColumns[slot] = bookSheetColumns[i];
+				_rowIndexes[slot] = rowIndexes[i];
+				_entries[slot] = entries[i];
+				_size++;
+			}
+		}
+	}
+
+	/**
+	 * @return the slot of the key, or the empty slot where it would be inserted
+	 */
+	private int findSlot(long bookSheetColumn, int rowIndex) {
+		int mask = _entries.length - 1;
+		int i = hash(bookSheetColumn, rowIndex) & mask;
+		while (_entries[i] != null
+				&& (_bookSheetColumns[i] != bookSheetColumn || _rowIndexes[i] != rowIndex)) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void rehash(int capacity) {
+		long[] bookSheetColumns = _bookSheetColumns;
+		int[] rowIndexes = _rowIndexes;
+		PlainValueCellCacheEntry[] entries = _entries;
+		allocate(capacity);
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i] != null) {
+				int slot = findSlot(bookSheetColumns[i], rowIndexes[i]);
+				_bookSheetColumns[slot] = bookSheetColumns[i];
+				_rowIndexes[slot] = rowIndexes[i];
+				_entries[slot] = entries[i];
+			}
+		}
+	}
+
+	private static int hash(long bookSheetColumn, int rowIndex) {
+		long h = (bookSheetColumn ^ (bookSheetColumn >>> 32)) * 31 + rowIndex;
+		// spread the bits, as consecutive rows and columns would cluster otherwise
+		h *= 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
 	}
 }
@@ -18,6 +18,8 @@
 package org.apache.poi.ss.formula;
 
 import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.functions.LookupIndex;
+import org.apache.poi.ss.formula.functions.NumericValues;
 import org.apache.poi.ss.formula.ptg.FuncVarPtg;
 import org.apache.poi.ss.formula.ptg.Ptg;
 import org.apache.poi.ss.usermodel.CellType;
@@ -48,6 +50,30 @@ final class SheetRefEvaluator {
 		return _bookEvaluator.evaluateReference(getSheet(), _sheetIndex, rowIndex, columnIndex, _tracker);
 	}
 
+	/**
+	 * @return the cached values of the given row or column of cells,
+	 * <code>null</code> if the cells aren't indexed
+	 */
+	public LookupIndex getLookupIndex(int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex) {
+		if (_tracker == null) {
+			return null;
+		}
+		return _bookEvaluator.getLookupIndex(getSheet(), _sheetIndex,
+				firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex, _tracker);
+	}
+
+	/**
+	 * @return the cached values of the given area of cells,
+	 * <code>null</code> if the cells aren't cached
+	 */
+	public NumericValues getNumericValues(int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex) {
+		if (_tracker == null) {
+			return null;
+		}
+		return _bookEvaluator.getNumericValues(getSheet(), _sheetIndex,
+				firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex, _tracker);
+	}
+
 	private EvaluationSheet getSheet() {
 		if (_sheet == null) {
 			_sheet = _bookEvaluator.getSheet(_sheetIndex);
@@ -17,16 +17,24 @@
 
 package org.apache.poi.ss.formula;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.TreeSet;
 
 import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.formula.CollaboratingWorkbooksEnvironment.WorkbookNotFoundException;
+import org.apache.poi.ss.formula.EvaluationCache.AreaCacheEntry;
+import org.apache.poi.ss.formula.PlainCellCache.Loc;
 import org.apache.poi.ss.formula.atp.AnalysisToolPak;
 import org.apache.poi.ss.formula.eval.*;
 import org.apache.poi.ss.formula.function.FunctionMetadataRegistry;
@@ -57,12 +65,41 @@ public final class WorkbookEvaluator {
     
     private static final POILogger LOG = POILogFactory.getLogger(WorkbookEvaluator.class);
 
+    /** lookups and aggregations of fewer cells read the cells directly */
+    private static final int MIN_CACHED_AREA_SIZE = 16;
+
+    /** number of reads of the same cells by lookup and aggregate functions, from which their values are cached */
+    private static final int MIN_CACHED_READ_COUNT = 2;
+
+    /**
+     * nesting depth of formula cell evaluations, from which the cells referenced by a formula
+     * are evaluated iteratively before the formula itself
+     */
+    private static final int MAX_RECURSIVE_EVALUATION_DEPTH = 64;
+
+    /** limit for names referring to other names when looking for volatile functions */
+    private static final int MAX_NAME_DEPTH = 32;
+
+    /** functions whose results may change without any change of their arguments */
+    private static final Set<Integer> VOLATILE_FUNCTIONS = new HashSet<>();
+    static {
+        String[] names = { "NOW", "TODAY", "RAND", "CELL", "INFO", };
+        for (String name : names) {
+            VOLATILE_FUNCTIONS.add(Integer.valueOf(FunctionMetadataRegistry.lookupIndexByName(name)));
+        }
+    }
+    /** limit for the formulas of conditional formats and data validations, whose tokens are kept */
+    private static final int MAX_PARSED_FORMULAS = 256;
+
+    /** volatile add-in functions */
+    private static final Set<String> VOLATILE_ADDIN_FUNCTIONS = Collections.singleton("RANDBETWEEN");
+
     private final EvaluationWorkbook _workbook;
     private EvaluationCache _cache;
     /** part of cache entry key (useful when evaluating multiple workbooks) */
     private int _workbookIx;
 
-    private final IEvaluationListener _evaluationListener;
+    private IEvaluationListener _evaluationListener;
     private final Map<EvaluationSheet, Integer> _sheetIndexesBySheet;
     private final Map<String, Integer> _sheetIndexesByName;
     private CollaboratingWorkbooksEnvironment _collaboratingWorkbookEnvironment;
@@ -71,6 +108,42 @@ public final class WorkbookEvaluator {
 
     private boolean _ignoreMissingWorkbooks;
 
+    /** <code>null</code> unless formula dependencies are tracked for incremental recalculation */
+    private FormulaDependencyGraph _dependencyGraph;
+
+    /** constant results of formula cells by their identity keys, <code>null</code> if there are none */
+    private Map<Object, ValueEval> _sharedFormulaResults;
+
+    /** parsed formulas of conditional formats and data validations, which are evaluated for many cells */
+    private final Map<ParsedFormulaKey, Ptg[]> _parsedFormulas = new HashMap<>();
+
+    private static final class ParsedFormulaKey {
+        private final String _formula;
+        private final int _sheetIndex;
+        private final FormulaType _formulaType;
+
+        ParsedFormulaKey(String formula, int sheetIndex, FormulaType formulaType) {
+            _formula = formula;
+            _sheetIndex = sheetIndex;
+            _formulaType = formulaType;
+        }
+
+        @Override
+        public int hashCode() {
+            return (_formula.hashCode() * 31 + _sheetIndex) * 31 + _formulaType.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ParsedFormulaKey)) {
+                return false;
+            }
+            ParsedFormulaKey other = (ParsedFormulaKey) obj;
+            return _formula.equals(other._formula) && _sheetIndex == other._sheetIndex
+                    && _formulaType == other._formulaType;
+        }
+    }
+
     /**
      * whether print detailed messages about the next formula evaluation
      */
@@ -106,6 +179,36 @@ public final class WorkbookEvaluator {
         _udfFinder = defaultToolkit;
     }
 
+    /**
+     * Creates an evaluator for another thread, which shares the configuration and the dependency
+     * graph with the given evaluator, but uses its own evaluation workbook and cache.
+     */
+    private WorkbookEvaluator(EvaluationWorkbook workbook, WorkbookEvaluator parent) {
+        _workbook = workbook;
+        _evaluationListener = null;
+        _cache = new EvaluationCache(null);
+        _sheetIndexesBySheet = new IdentityHashMap<>();
+        _sheetIndexesByName = new IdentityHashMap<>();
+        _collaboratingWorkbookEnvironment = CollaboratingWorkbooksEnvironment.EMPTY;
+        _workbookIx = 0;
+        _stabilityClassifier = parent._stabilityClassifier;
+        // the finder of the given evaluation workbook, since the parent's one isn't thread-safe
+        _udfFinder = (AggregatingUDFFinder)workbook.getUDFFinder();
+        _ignoreMissingWorkbooks = parent._ignoreMissingWorkbooks;
+        _dependencyGraph = parent._dependencyGraph;
+    }
+
+    /**
+     * Creates an evaluator, which can evaluate the formula cells of the dirty formula levels
+     * on another thread, while this evaluator isn't used.
+     *
+     * @param workbook a new evaluation workbook of the same workbook, which is only used by
+     *  the other thread, with its own UDF finder
+     */
+    /* package */ WorkbookEvaluator createWorker(EvaluationWorkbook workbook) {
+        return new WorkbookEvaluator(workbook, this);
+    }
+
     /**
      * also for debug use. Used in toString methods
      */
@@ -170,6 +273,17 @@ public final class WorkbookEvaluator {
         return _evaluationListener;
     }
 
+    /**
+     * Replaces the listener of this evaluator and of its cache, e.g. to attach an
+     * {@link EvaluationProfiler}. Must not be called during an evaluation.
+     *
+     * @param evaluationListener <code>null</code> to remove the current listener
+     */
+    /* package */ void setEvaluationListener(IEvaluationListener evaluationListener) {
+        _evaluationListener = evaluationListener;
+        _cache.setEvaluationListener(evaluationListener);
+    }
+
     /**
      * Should be called whenever there are changes to input cells in the evaluated workbook.
      * Failure to call this method after changing cell values will cause incorrect behaviour
@@ -178,7 +292,59 @@ public final class WorkbookEvaluator {
     public void clearAllCachedResultValues() {
         _cache.clear();
         _sheetIndexesBySheet.clear();
+        _parsedFormulas.clear();
         _workbook.clearAllCachedResultValues();
+        // any cell might have changed
+        _dependencyGraph = null;
+    }
+
+    /**
+     * Discards the cached results of the formula cells calling volatile functions like NOW(),
+     * TODAY() or RAND(), and of all formula cells depending on them, so that only these cells are
+     * recalculated by the next evaluation. The results of the other cells are kept.<p>
+     *
+     * INDIRECT and OFFSET aren't treated as volatile, as the cells they refer to are recorded
+     * as inputs of the formula when it is evaluated, like any other reference.
+     *
+     * @return the number of volatile formula cells whose results were discarded
+     */
+    public int refreshVolatileFormulas() {
+        return _cache.clearVolatileFormulaEntries();
+    }
+
+    /**
+     * @return <code>true</code> if the function with the given index is volatile
+     */
+    /* package */ static boolean isVolatileFunction(int functionIndex) {
+        return VOLATILE_FUNCTIONS.contains(Integer.valueOf(functionIndex));
+    }
+
+    /**
+     * @return <code>true</code> if the formula calls a volatile function, directly or by a name
+     */
+    private boolean isVolatileFormula(Ptg[] ptgs, int nameDepth) {
+        for (Ptg ptg : ptgs) {
+            String addInName = null;
+            if (ptg instanceof AbstractFunctionPtg) {
+                if (isVolatileFunction(((AbstractFunctionPtg) ptg).getFunctionIndex())) {
+                    return true;
+                }
+            } else if (ptg instanceof NamePtg) {
+                EvaluationName name = _workbook.getName((NamePtg) ptg);
+                if (name != null && name.hasFormula() && nameDepth < MAX_NAME_DEPTH
+                        && isVolatileFormula(name.getNameDefinition(), nameDepth + 1)) {
+                    return true;
+                }
+            } else if (ptg instanceof NameXPtg) {
+                addInName = _workbook.resolveNameXText((NameXPtg) ptg);
+            } else if (ptg instanceof NameXPxg) {
+                addInName = ((NameXPxg) ptg).getNameName();
+            }
+            if (addInName != null && VOLATILE_ADDIN_FUNCTIONS.contains(addInName.toUpperCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -188,6 +354,15 @@ public final class WorkbookEvaluator {
     public void notifyUpdateCell(EvaluationCell cell) {
         int sheetIndex = getSheetIndex(cell.getSheet());
         _cache.notifyUpdateCell(_workbookIx, sheetIndex, cell);
+        if (_dependencyGraph != null) {
+            if (cell.getCellType() == CellType.FORMULA) {
+                _dependencyGraph.addFormula(sheetIndex, cell.getRowIndex(), cell.getColumnIndex(),
+                        _workbook.getFormulaTokens(cell), true);
+            } else {
+                _dependencyGraph.removeFormula(sheetIndex, cell.getRowIndex(), cell.getColumnIndex());
+            }
+            _dependencyGraph.notifyChanged(sheetIndex, cell.getRowIndex(), cell.getColumnIndex());
+        }
     }
     /**
      * Should be called to tell the cell value cache that the specified cell has just been
@@ -196,6 +371,93 @@ public final class WorkbookEvaluator {
     public void notifyDeleteCell(EvaluationCell cell) {
         int sheetIndex = getSheetIndex(cell.getSheet());
         _cache.notifyDeleteCell(_workbookIx, sheetIndex, cell);
+        if (_dependencyGraph != null) {
+            _dependencyGraph.removeFormula(sheetIndex, cell.getRowIndex(), cell.getColumnIndex());
+            _dependencyGraph.notifyChanged(sheetIndex, cell.getRowIndex(), cell.getColumnIndex());
+        }
+    }
+
+    /**
+     * Starts tracking the dependencies between the cells of this workbook, so that only the formula
+     * cells affected by the cells reported to {@link #notifyUpdateCell(EvaluationCell)} and
+     * {@link #notifyDeleteCell(EvaluationCell)} need to be recalculated.
+     * The formula cells need to be added with {@link #addToDependencyGraph(int, EvaluationCell, boolean)}.
+     * <p>
+     * The dependency graph is discarded by {@link #clearAllCachedResultValues()}.
+     */
+    /* package */ void createDependencyGraph() {
+        _dependencyGraph = new FormulaDependencyGraph(_workbook);
+    }
+
+    /**
+     * @return the number of cached areas of lookup and aggregate functions, for testing
+     */
+    /* package */ int getAreaEntryCount() {
+        return _cache.getAreaEntryCount();
+    }
+
+    /* package */ int getNumericValueCount() {
+        return _cache.getNumericValueCount();
+    }
+
+    /* package */ boolean hasDependencyGraph() {
+        return _dependencyGraph != null;
+    }
+
+    /**
+     * Adds the references of the given formula cell to the dependency graph.
+     *
+     * @param isDirty <code>false</code> if the cached formula result of the cell is up to date
+     *  and can be used until one of its inputs changes
+     */
+    /* package */ void addToDependencyGraph(int sheetIndex, EvaluationCell formulaCell, boolean isDirty) {
+        _dependencyGraph.addFormula(sheetIndex, formulaCell.getRowIndex(), formulaCell.getColumnIndex(),
+                _workbook.getFormulaTokens(formulaCell), isDirty);
+    }
+
+    /**
+     * @return the formula cells which need to be recalculated, in evaluation order
+     */
+    /* package */ List<Loc> getDirtyFormulaCells() {
+        flushDependencyGraphChanges();
+        return _dependencyGraph.getDirtyFormulaCells();
+    }
+
+    /**
+     * @return the dirty formula cells in levels, which can be evaluated concurrently
+     * @see FormulaDependencyGraph#getDirtyFormulaLevels()
+     */
+    /* package */ List<List<Loc>> getDirtyFormulaLevels() {
+        flushDependencyGraphChanges();
+        return _dependencyGraph.getDirtyFormulaLevels();
+    }
+
+    /**
+     * Should be called after the results of the given dirty formula cells have been saved.
+     */
+    /* package */ void clearDirtyFormulaCells(Collection<Loc> locs) {
+        _dependencyGraph.clearDirtyFormulaCells(locs);
+    }
+
+    /**
+     * Should be called after the results of the dirty formula cells have been saved.
+     */
+    /* package */ void clearDirtyFormulaCells() {
+        flushDependencyGraphChanges();
+        _dependencyGraph.clearDirtyFormulaCells();
+    }
+
+    /**
+     * Marks the formula cells affected by the reported changes as dirty, and discards
+     * their intermediate results.
+     */
+    private void flushDependencyGraphChanges() {
+        for (Loc loc : _dependencyGraph.flushChanges()) {
+            EvaluationCell cell = _workbook.getSheet(loc.getSheetIndex()).getCell(loc.getRowIndex(), loc.getColumnIndex());
+            if (cell != null) {
+                _cache.clearFormulaCellEntry(cell);
+            }
+        }
     }
     
     private int getSheetIndex(EvaluationSheet sheet) {
@@ -211,11 +473,63 @@ public final class WorkbookEvaluator {
         return result.intValue();
     }
 
+    /**
+     * Returns the results of all formula cells, which have been evaluated since their inputs
+     * changed the last time. These can be passed to {@link #setSharedFormulaResults(Map)}
+     * of another evaluator of the same workbook.
+     *
+     * @return the formula results by the identity keys of the cells (see {@link EvaluationCell#getIdentityKey()})
+     */
+    public Map<Object, ValueEval> getCachedFormulaResults() {
+        return _cache.getCachedFormulaValues();
+    }
+
+    /**
+     * Returns the results of the evaluated formula cells, which don't depend on any of the given
+     * cells. Unlike updating the cells, this keeps the cached results of the dependent cells.
+     *
+     * @param inputCells the plain value cells to exclude, including the sheet names
+     * @return the formula results by the identity keys of the cells (see {@link EvaluationCell#getIdentityKey()})
+     */
+    public Map<Object, ValueEval> getCachedFormulaResults(Collection<CellReference> inputCells) {
+        List<Loc> locs = new ArrayList<>(inputCells.size());
+        for (CellReference cr : inputCells) {
+            int sheetIndex = getSheetIndex(cr.getSheetName());
+            if (sheetIndex >= 0) {
+                locs.add(new Loc(_workbookIx, sheetIndex, cr.getRow(), cr.getCol()));
+            }
+        }
+        return _cache.getCachedFormulaValues(locs);
+    }
+
+    /**
+     * Sets the results of formula cells, which are used instead of evaluating the cells.
+     * The results must not change, while this evaluator is used, i.e. the formula cells
+     * must not depend on any cell updated by this evaluator. This evaluator doesn't modify
+     * the map, so it can be shared by the evaluators of several threads, which may add
+     * further results if the map is thread-safe, like a {@link java.util.concurrent.ConcurrentHashMap}.
+     * As this discards all cached results, the map should be set once, before the evaluator is used.
+     *
+     * @param results formula results by the identity keys of the cells, or <code>null</code> for none
+     */
+    public void setSharedFormulaResults(Map<Object, ValueEval> results) {
+        _sharedFormulaResults = results;
+        _cache.clear();
+    }
+
     public ValueEval evaluate(EvaluationCell srcCell) {
         int sheetIndex = getSheetIndex(srcCell.getSheet());
         return evaluateAny(srcCell, sheetIndex, srcCell.getRowIndex(), srcCell.getColumnIndex(), new EvaluationTracker(_cache));
     }
 
+    /**
+     * Evaluates the cell at the given location, without looking up the sheet index
+     */
+    /* package */ ValueEval evaluate(int sheetIndex, int rowIndex, int columnIndex) {
+        EvaluationCell srcCell = getSheet(sheetIndex).getCell(rowIndex, columnIndex);
+        return evaluateAny(srcCell, sheetIndex, rowIndex, columnIndex, new EvaluationTracker(_cache));
+    }
+
     /**
      * Case-insensitive.
      * @return -1 if sheet with specified name does not exist
@@ -255,7 +569,31 @@ public final class WorkbookEvaluator {
             return result;
         }
 
-        FormulaCellCacheEntry cce = _cache.getOrCreateFormulaCellEntry(srcCell);
+        if (_sharedFormulaResults != null) {
+            ValueEval result = _sharedFormulaResults.get(srcCell.getIdentityKey());
+            if (result != null) {
+                // constant, so there is no dependency to record
+                return result;
+            }
+        }
+
+        FormulaCellCacheEntry cce = _cache.getOrCreateFormulaCellEntry(_workbookIx, srcCell);
+        if (_dependencyGraph != null) {
+            flushDependencyGraphChanges();
+            if (_dependencyGraph.isCachedResultValid(sheetIndex, rowIndex, columnIndex)) {
+                // not affected by any change since the result has been saved. The saved result
+                // is cached without inputs, and recorded as an input of the consuming formula
+                // or area, so that they are cleared as well when the graph marks the cell dirty
+                if (cce.getValue() == null) {
+                    cce.updateFormulaResult(getCachedFormulaResult(srcCell), CellCacheEntry.EMPTY_ARRAY, null);
+                }
+                if (shouldCellDependencyBeRecorded) {
+                    tracker.acceptFormulaDependency(cce);
+                }
+                return cce.getValue();
+            }
+        }
+
         if (shouldCellDependencyBeRecorded || cce.isInputSensitive()) {
             tracker.acceptFormulaDependency(cce);
         }
@@ -268,44 +606,31 @@ public final class WorkbookEvaluator {
 
             try {
 
-                Ptg[] ptgs = _workbook.getFormulaTokens(srcCell);
+                CompiledFormula formula = getCompiledFormula(srcCell, cce);
+                if (tracker.getEvaluationDepth() > MAX_RECURSIVE_EVALUATION_DEPTH) {
+                    evaluateReferencedCells(sheetIndex, formula, tracker);
+                }
                 OperationEvaluationContext ec = new OperationEvaluationContext
                         (this, _workbook, sheetIndex, rowIndex, columnIndex, tracker);
                 if (evalListener == null) {
-                    result = evaluateFormula(ec, ptgs);
+                    result = evaluateFormula(ec, formula);
                 } else {
                     evalListener.onStartEvaluate(srcCell, cce);
-                    result = evaluateFormula(ec, ptgs);
+                    result = evaluateFormula(ec, formula);
                     evalListener.onEndEvaluate(cce, result);
                 }
 
                 tracker.updateCacheResult(result);
             }
              catch (NotImplementedException e) {
+                // compile again, in case the formula is changed
+                cce.setCompiledFormula(null);
                 throw addExceptionInfo(e, sheetIndex, rowIndex, columnIndex);
              } catch (RuntimeException re) {
+                 cce.setCompiledFormula(null);
                  if (re.getCause() instanceof WorkbookNotFoundException && _ignoreMissingWorkbooks) {
                      logInfo(re.getCause().getMessage() + " - Continuing with cached value!");
-                     switch(srcCell.getCachedFormulaResultType()) {
-                         case NUMERIC:
-                             result = new NumberEval(srcCell.getNumericCellValue());
-                             break;
-                         case STRING:
-                             result =  new StringEval(srcCell.getStringCellValue());
-                             break;
-                         case BLANK:
-                             result = BlankEval.instance;
-                             break;
-                         case BOOLEAN:
-                             result =  BoolEval.valueOf(srcCell.getBooleanCellValue());
-                             break;
-                         case ERROR:
-                            result =  ErrorEval.valueOf(srcCell.getErrorCellValue());
-                            break;
-                         case FORMULA:
-                        default:
-                            throw new RuntimeException("Unexpected cell type '" + srcCell.getCellType()+"' found!");
-                     }
+                     result = getCachedFormulaResult(srcCell);
                  } else {
                      throw re;
                  }
@@ -330,6 +655,184 @@ public final class WorkbookEvaluator {
         return result;
     }
 
+    private CompiledFormula getCompiledFormula(EvaluationCell srcCell, FormulaCellCacheEntry cce) {
+        CompiledFormula formula = cce.getCompiledFormula();
+        if (formula == null) {
+            formula = CompiledFormula.compile(_workbook.getFormulaTokens(srcCell));
+            cce.setCompiledFormula(formula);
+            cce.setVolatile(isVolatileFormula(formula.getTokens(), 0));
+        }
+        return formula;
+    }
+
+    /**
+     * A formula cell, whose referenced cells are evaluated by
+     * {@link WorkbookEvaluator#evaluateReferencedCells(int, CompiledFormula, EvaluationTracker)}
+     */
+    private static final class PendingCell {
+        final EvaluationCell _cell;
+        final int _sheetIndex;
+        final Ptg[] _tokens;
+        int _nextTokenIndex;
+
+        PendingCell(EvaluationCell cell, int sheetIndex, Ptg[] tokens) {
+            _cell = cell;
+            _sheetIndex = sheetIndex;
+            _tokens = tokens;
+        }
+    }
+
+    /**
+     * Evaluates the formula cells directly referenced by the given formula, the cells referenced
+     * by their formulas and so on, with a work stack instead of recursion. The referenced cells
+     * are evaluated before the cells referencing them, so their results are cached and the
+     * nesting depth of the evaluations stays small, even for long chains of formulas like
+     * running balances.<p>
+     *
+     * Only single cell references, which are evaluated whenever the formula is evaluated, are
+     * followed. Cells referenced by areas, by functions like INDIRECT or in the arguments of IF
+     * and CHOOSE, which may not be taken, are still evaluated recursively, when the formula is
+     * evaluated.<p>
+     *
+     * The cells are evaluated in a frame of their own, so they are only recorded as inputs of the
+     * formulas which read their results, and not of the formula being evaluated.
+     */
+    private void evaluateReferencedCells(int sheetIndex, CompiledFormula formula, EvaluationTracker tracker) {
+        List<PendingCell> pendingCells = new ArrayList<>();
+        Set<Object> visitedCells = new HashSet<>();
+        pendingCells.add(new PendingCell(null, sheetIndex, formula.getTokens()));
+        // never gets a result, so the inputs recorded in its frame are discarded
+        FormulaCellCacheEntry referencedCellsEntry = new FormulaCellCacheEntry();
+        tracker.startEvaluate(referencedCellsEntry);
+        try {
+            while (!pendingCells.isEmpty()) {
+                PendingCell pending = pendingCells.get(pendingCells.size() - 1);
+                PendingCell next = null;
+                while (next == null && pending._nextTokenIndex < pending._tokens.length) {
+                    int tokenIndex = pending._nextTokenIndex++;
+                    Ptg ptg = pending._tokens[tokenIndex];
+                    if (ptg instanceof AttrPtg) {
+                        pending._nextTokenIndex = getEndOfConditionalArguments(pending._tokens, tokenIndex) + 1;
+                    } else {
+                        next = getPendingCell(ptg, pending._sheetIndex, visitedCells);
+                    }
+                }
+                if (next != null) {
+                    pendingCells.add(next);
+                    continue;
+                }
+                pendingCells.remove(pendingCells.size() - 1);
+                if (pending._cell != null) {
+                    EvaluationCell cell = pending._cell;
+                    try {
+                        evaluateAny(cell, pending._sheetIndex, cell.getRowIndex(), cell.getColumnIndex(), tracker);
+                    } catch (RuntimeException e) {
+                        // the exception is thrown again when the formula is evaluated
+                    }
+                }
+            }
+        } finally {
+            tracker.endEvaluate(referencedCellsEntry);
+        }
+    }
+
+    /**
+     * @return the index of the IF or CHOOSE function token, if the given token starts its
+     *  optional arguments, the index of the last token, if the skip distances don't fit the
+     *  tokens, or else the given index
+     */
+    private static int getEndOfConditionalArguments(Ptg[] ptgs, int attrIndex) {
+        AttrPtg attrPtg = (AttrPtg) ptgs[attrIndex];
+        try {
+            if (attrPtg.isOptimizedIf()) {
+                // skips the true argument to the tAttrSkip token, which skips the false argument
+                int i = attrIndex + countTokensToBeSkipped(ptgs, attrIndex, attrPtg.getData());
+                return i + countTokensToBeSkipped(ptgs, i, ((AttrPtg) ptgs[i]).getData() + 1);
+            }
+            if (attrPtg.isOptimizedChoose()) {
+                int dist = attrPtg.getChooseFuncOffset() + 4 - (attrPtg.getJumpTable().length * 2 + 2);
+                return attrIndex + countTokensToBeSkipped(ptgs, attrIndex, dist);
+            }
+        } catch (RuntimeException e) {
+            // the references of the remaining tokens are evaluated with the formula
+            return ptgs.length - 1;
+        }
+        return attrIndex;
+    }
+
+    /**
+     * @return the formula cell referenced by the given token, if its result has to be evaluated
+     *  and it hasn't been visited yet, otherwise <code>null</code>
+     */
+    private PendingCell getPendingCell(Ptg ptg, int sheetIndex, Set<Object> visitedCells) {
+        int refSheetIndex;
+        if (ptg instanceof RefPtg) {
+            refSheetIndex = sheetIndex;
+        } else if (ptg instanceof Ref3DPtg) {
+            int externSheetIndex = ((Ref3DPtg) ptg).getExternSheetIndex();
+            EvaluationWorkbook.ExternalSheet externalSheet = _workbook.getExternalSheet(externSheetIndex);
+            if (externalSheet != null && externalSheet.getWorkbookName() != null) {
+                // in another workbook
+                return null;
+            }
+            refSheetIndex = _workbook.convertFromExternSheetIndex(externSheetIndex);
+        } else if (ptg instanceof Ref3DPxg) {
+            Ref3DPxg pxg = (Ref3DPxg) ptg;
+            if (pxg.getExternalWorkbookNumber() > 0) {
+                return null;
+            }
+            refSheetIndex = getSheetIndex(pxg.getSheetName());
+        } else {
+            return null;
+        }
+        if (refSheetIndex < 0) {
+            return null;
+        }
+        RefPtgBase ref = (RefPtgBase) ptg;
+        EvaluationCell cell = _workbook.getSheet(refSheetIndex).getCell(ref.getRow(), ref.getColumn());
+        if (cell == null || cell.getCellType() != CellType.FORMULA || !visitedCells.add(cell.getIdentityKey())) {
+            return null;
+        }
+        if (_sharedFormulaResults != null && _sharedFormulaResults.containsKey(cell.getIdentityKey())) {
+            return null;
+        }
+        if (_dependencyGraph != null
+                && _dependencyGraph.isCachedResultValid(refSheetIndex, ref.getRow(), ref.getColumn())) {
+            return null;
+        }
+        FormulaCellCacheEntry cce = _cache.getOrCreateFormulaCellEntry(_workbookIx, cell);
+        if (cce.getValue() != null) {
+            return null;
+        }
+        try {
+            return new PendingCell(cell, refSheetIndex, getCompiledFormula(cell, cce).getTokens());
+        } catch (RuntimeException e) {
+            // unsupported formula, which fails again if the cell is evaluated
+            return null;
+        }
+    }
+
+    /**
+     * Gets the result of the last evaluation, which has been saved in the formula cell.
+     */
+    private static ValueEval getCachedFormulaResult(EvaluationCell srcCell) {
+        switch(srcCell.getCachedFormulaResultType()) {
+            case NUMERIC:
+                return new NumberEval(srcCell.getNumericCellValue());
+            case STRING:
+                return new StringEval(srcCell.getStringCellValue());
+            case BLANK:
+                return BlankEval.instance;
+            case BOOLEAN:
+                return BoolEval.valueOf(srcCell.getBooleanCellValue());
+            case ERROR:
+                return ErrorEval.valueOf(srcCell.getErrorCellValue());
+            case FORMULA:
+            default:
+                throw new RuntimeException("Unexpected cell type '" + srcCell.getCellType()+"' found!");
+        }
+    }
+
     /**
      * Adds the current cell reference to the exception for easier debugging.
      * Would be nice to get the formula text as well, but that seems to require
@@ -376,6 +879,18 @@ public final class WorkbookEvaluator {
     }
 
 
+    /**
+     * Evaluates the formula tree, unless the tokens couldn't be compiled or
+     * the evaluation steps are logged
+     */
+    private ValueEval evaluateFormula(OperationEvaluationContext ec, CompiledFormula formula) {
+        if (!formula.isCompiled() || dbgEvaluationOutputForNextEval || dbgEvaluationOutputIndent > 0) {
+            return evaluateFormula(ec, formula.getTokens());
+        }
+        ValueEval value = formula.evaluate(this, ec);
+        return ec.isSingleValue() ? dereferenceResult(value, ec) : value;
+    }
+
     // visibility raised for testing
     @Internal
     /* package */ ValueEval evaluateFormula(OperationEvaluationContext ec, Ptg[] ptgs) {
@@ -531,7 +1046,13 @@ public final class WorkbookEvaluator {
                 ec.setArrayMode(arrayMode);
 
 //                logDebug("invoke " + operation + " (nAgs=" + numops + ")");
-                opResult = OperationEvaluatorFactory.evaluate(optg, ops, ec);
+                if (_evaluationListener == null) {
+                    opResult = OperationEvaluatorFactory.evaluate(optg, ops, ec);
+                } else {
+                    _evaluationListener.onStartFunction(optg);
+                    opResult = OperationEvaluatorFactory.evaluate(optg, ops, ec);
+                    _evaluationListener.onEndFunction(optg, opResult);
+                }
 
                 ec.setArrayMode(false);
 
@@ -662,7 +1183,7 @@ public final class WorkbookEvaluator {
      * StringPtg, BoolPtg <br/>special Note: OperationPtg subtypes cannot be
      * passed here!
      */
-    private ValueEval getEvalForPtg(Ptg ptg, OperationEvaluationContext ec) {
+    /* package */ ValueEval getEvalForPtg(Ptg ptg, OperationEvaluationContext ec) {
         //  consider converting all these (ptg instanceof XxxPtg) expressions to (ptg.getClass() == XxxPtg.class)
 
         if (ptg instanceof NamePtg) {
@@ -772,6 +1293,140 @@ public final class WorkbookEvaluator {
       return evaluateFormula(ec, ptgs);
     }
 
+    /**
+     * Returns the cached values of a row or column of cells, which are evaluated once for all
+     * the lookups into the same cells. The currently evaluated formula depends on all the cells.
+     * The cells are only indexed once they are looked up repeatedly, as a single lookup may
+     * read only some of them.
+     *
+     * @return <code>null</code> if the cells are too few to be worth indexing, or haven't been
+     *  read before, or a cell can't be evaluated. The cells have to be read one by one then.
+     */
+    /* package */ LookupIndex getLookupIndex(EvaluationSheet sheet, int sheetIndex, int firstRowIndex,
+            int firstColumnIndex, int lastRowIndex, int lastColumnIndex, EvaluationTracker tracker) {
+        int size = (lastRowIndex - firstRowIndex + 1) * (lastColumnIndex - firstColumnIndex + 1);
+        if (size < MIN_CACHED_AREA_SIZE || (firstRowIndex != lastRowIndex && firstColumnIndex != lastColumnIndex)) {
+            return null;
+        }
+
+        AreaCacheEntry entry = _cache.getOrCreateAreaEntry(_workbookIx, sheetIndex,
+                firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex);
+        LookupIndex index = entry.getLookupIndex();
+        if (index != null) {
+            tracker.acceptFormulaDependency(entry.getCacheEntry());
+            return index;
+        }
+        if (entry.countRead() < MIN_CACHED_READ_COUNT) {
+            return null;
+        }
+        ValueEval[] values;
+        try {
+            values = evaluateArea(entry, sheet, sheetIndex,
+                    firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex, tracker);
+        } catch (RuntimeException e) {
+            // e.g. an unsupported function in a cell, which a lookup reading the cells
+            // one by one may never reach
+            return null;
+        }
+        if (values == null) {
+            // a cell of the index performs a lookup into it
+            return null;
+        }
+        tracker.acceptFormulaDependency(entry.getCacheEntry());
+        index = new LookupIndex(values);
+        if (!containsCircularReference(values)) {
+            entry.setLookupIndex(index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the cached values of an area of cells in primitive arrays, which are evaluated
+     * once for all the aggregate functions over the same cells. The currently evaluated formula
+     * depends on all the cells. The values are only cached once the cells are read repeatedly,
+     * e.g. not for running totals, and as long as the cached values of all areas don't exceed
+     * a limit.
+     *
+     * @return <code>null</code> if the cells are too few to be worth caching, or haven't been
+     *  read before, or the limit is reached. The cells have to be read one by one then.
+     */
+    /* package */ NumericValues getNumericValues(EvaluationSheet sheet, int sheetIndex, int firstRowIndex,
+            int firstColumnIndex, int lastRowIndex, int lastColumnIndex, EvaluationTracker tracker) {
+        int height = lastRowIndex - firstRowIndex + 1;
+        int width = lastColumnIndex - firstColumnIndex + 1;
+        if (height * width < MIN_CACHED_AREA_SIZE) {
+            return null;
+        }
+
+        AreaCacheEntry entry = _cache.getOrCreateAreaEntry(_workbookIx, sheetIndex,
+                firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex);
+        NumericValues result = entry.getNumericValues();
+        if (result != null) {
+            tracker.acceptFormulaDependency(entry.getCacheEntry());
+            return result;
+        }
+        if (entry.countRead() < MIN_CACHED_READ_COUNT || !_cache.canCacheNumericValues(height * width)) {
+            return null;
+        }
+        ValueEval[] values = evaluateArea(entry, sheet, sheetIndex,
+                firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex, tracker);
+        if (values == null) {
+            // a cell of the area aggregates it
+            return null;
+        }
+        tracker.acceptFormulaDependency(entry.getCacheEntry());
+        result = new NumericValues(height, width);
+        for (int i = 0; i < values.length; i++) {
+            result.setValue(i, values[i]);
+        }
+        if (!containsCircularReference(values)) {
+            _cache.setNumericValues(entry, result);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the cells of an area row by row, and records them as the inputs of the area cache entry.
+     *
+     * @return <code>null</code> if the area is already being evaluated
+     */
+    private ValueEval[] evaluateArea(AreaCacheEntry entry, EvaluationSheet sheet, int sheetIndex,
+            int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex,
+            EvaluationTracker tracker) {
+        FormulaCellCacheEntry cce = entry.getCacheEntry();
+        if (!tracker.startEvaluate(cce)) {
+            return null;
+        }
+        try {
+            int width = lastColumnIndex - firstColumnIndex + 1;
+            ValueEval[] values = new ValueEval[(lastRowIndex - firstRowIndex + 1) * width];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = evaluateReference(sheet, sheetIndex,
+                        firstRowIndex + i / width, firstColumnIndex + i % width, tracker);
+            }
+            // the values built from the previous evaluation of the cells are stale
+            _cache.clearAreaValues(entry);
+            // the cells are recorded as inputs, even if the values can't be reused
+            tracker.updateCacheResult(BoolEval.TRUE);
+            return values;
+        } finally {
+            tracker.endEvaluate(cce);
+        }
+    }
+
+    /**
+     * Cells of a circular reference may have a different value for other formulas,
+     * so their values must not be cached for the area.
+     */
+    private static boolean containsCircularReference(ValueEval[] values) {
+        for (ValueEval value : values) {
+            if (value == ErrorEval.CIRCULAR_REF_ERROR) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Used by the lazy ref evals whenever they need to get the value of a contained cell.
      */
@@ -856,7 +1511,7 @@ public final class WorkbookEvaluator {
         if (sheetName == null) throw new IllegalArgumentException("Sheet name is required");
         
         final int sheetIndex = getWorkbook().getSheetIndex(sheetName);
-        Ptg[] ptgs = FormulaParser.parse(formula, (FormulaParsingWorkbook) getWorkbook(), formulaType, sheetIndex, target.getRow());
+        Ptg[] ptgs = getParsedFormula(formula, sheetIndex, target.getRow(), formulaType);
 
         adjustRegionRelativeReference(ptgs, target, region);
         
@@ -864,6 +1519,34 @@ public final class WorkbookEvaluator {
         return evaluateNameFormula(ptgs, ec);
     }
     
+    /**
+     * Parses the formula once for all cells of a conditional format or data validation region.
+     *
+     * @return the tokens, whose references can be adjusted, as the cell references are copies
+     */
+    /* package */ Ptg[] getParsedFormula(String formula, int sheetIndex, int rowIndex, FormulaType formulaType) {
+        if (formula.indexOf('[') >= 0) {
+            // structured references to the current table row depend on the row
+            return FormulaParser.parse(formula, (FormulaParsingWorkbook) getWorkbook(), formulaType, sheetIndex, rowIndex);
+        }
+        ParsedFormulaKey key = new ParsedFormulaKey(formula, sheetIndex, formulaType);
+        Ptg[] ptgs = _parsedFormulas.get(key);
+        if (ptgs == null) {
+            ptgs = FormulaParser.parse(formula, (FormulaParsingWorkbook) getWorkbook(), formulaType, sheetIndex, rowIndex);
+            if (_parsedFormulas.size() >= MAX_PARSED_FORMULAS) {
+                _parsedFormulas.clear();
+            }
+            _parsedFormulas.put(key, ptgs);
+        }
+        Ptg[] result = ptgs.clone();
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] instanceof RefPtgBase) {
+                result[i] = ((RefPtgBase) result[i]).copy();
+            }
+        }
+        return result;
+    }
+
     /**
      * Adjust formula relative references by the offset between the start of the given region and the given target cell.
      * That is, treat the region top-left cell as "A1" for the purposes of evaluating relative reference components (row and/or column),
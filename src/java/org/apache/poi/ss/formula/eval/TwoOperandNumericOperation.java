@@ -17,11 +17,12 @@
 
 package org.apache.poi.ss.formula.eval;
 
+import org.apache.poi.ss.formula.CacheAreaEval;
 import org.apache.poi.ss.formula.functions.ArrayFunction;
 import org.apache.poi.ss.formula.functions.Fixed2ArgFunction;
 import org.apache.poi.ss.formula.functions.Function;
-import org.apache.poi.ss.formula.functions.MatrixFunction.MutableValueCollector;
-import org.apache.poi.ss.formula.functions.MatrixFunction.TwoArrayArg;
+import org.apache.poi.ss.formula.functions.IndexedArea;
+import org.apache.poi.ss.formula.functions.NumericValues;
 
 /**
  * @author Josh Micich
@@ -33,11 +34,147 @@ public abstract class TwoOperandNumericOperation extends Fixed2ArgFunction imple
 		return OperandResolver.coerceValueToDouble(ve);
 	}
 	
+	/**
+	 * Applies the operation to whole arrays, which are kept in primitive arrays with the types
+	 * of their values, e.g. <tt>{=SUM(A1:A100000*B1:B100000)}</tt> reads the cached values of
+	 * both areas and passes the products to SUM without creating a value object per cell.<p>
+	 *
+	 * Like Excel, each element is evaluated like a single operand, so an error only affects its
+	 * own element. An operand with a single row or column is repeated to the size of the other
+	 * operand, and the elements beyond the smaller operand are #N/A.
+	 */
 	public ValueEval evaluateArray(ValueEval args[], int srcRowIndex, int srcColumnIndex) {
 	    if (args.length != 2) {
 	        return ErrorEval.VALUE_INVALID;
 	    }
-	    return new ArrayEval().evaluate(srcRowIndex, srcColumnIndex, args[0], args[1]);
+	    NumericValues values0 = getArrayValues(args[0]);
+	    NumericValues values1 = getArrayValues(args[1]);
+	    if (values0 == null || values1 == null) {
+	        // e.g. a 3D reference, which is evaluated like a single operand
+	        return evaluate(srcRowIndex, srcColumnIndex, args[0], args[1]);
+	    }
+	    int height0 = values0.getHeight();
+	    int width0 = values0.getWidth();
+	    int height1 = values1.getHeight();
+	    int width1 = values1.getWidth();
+	    int height = Math.max(height0, height1);
+	    int width = Math.max(width0, width1);
+	    double[] numbers0 = values0.getNumbers();
+	    byte[] types0 = values0.getTypes();
+	    double[] numbers1 = values1.getNumbers();
+	    byte[] types1 = values1.getTypes();
+
+	    NumericValues result = new NumericValues(height, width);
+	    int idx = 0;
+	    for (int r = 0; r < height; r++) {
+	        int r0 = height0 == 1 ? 0 : r;
+	        int r1 = height1 == 1 ? 0 : r;
+	        for (int c = 0; c < width; c++, idx++) {
+	            int c0 = width0 == 1 ? 0 : c;
+	            int c1 = width1 == 1 ? 0 : c;
+	            if (r0 >= height0 || c0 >= width0 || r1 >= height1 || c1 >= width1) {
+	                result.setError(idx, ErrorEval.NA);
+	                continue;
+	            }
+	            int i0 = r0 * width0 + c0;
+	            int i1 = r1 * width1 + c1;
+	            try {
+	                double d0 = types0[i0] == NumericValues.NUMBER ? numbers0[i0]
+	                        : coerceElement(values0, args[0], r0, c0);
+	                double d1 = types1[i1] == NumericValues.NUMBER ? numbers1[i1]
+	                        : coerceElement(values1, args[1], r1, c1);
+	                double d = evaluate(d0, d1);
+	                if (Double.isNaN(d) || Double.isInfinite(d)) {
+	                    result.setError(idx, ErrorEval.NUM_ERROR);
+	                } else if (d == 0.0 && !(this instanceof SubtractEvalClass)) {
+	                    result.setNumber(idx, 0.0);
+	                } else {
+	                    result.setNumber(idx, d);
+	                }
+	            } catch (EvaluationException e) {
+	                result.setError(idx, e.getErrorEval());
+	            }
+	        }
+	    }
+	    if (result.getSize() == 1) {
+	        return result.getValue(0);
+	    }
+	    ValueEval anchor = args[0] instanceof AreaEval ? args[0] : args[1];
+	    return createArrayResult(anchor, result, srcRowIndex, srcColumnIndex);
+	}
+
+	/**
+	 * @return the values of an operand, or <code>null</code> if it spans several sheets
+	 */
+	private static NumericValues getArrayValues(ValueEval arg) {
+	    if (arg instanceof AreaEval) {
+	        AreaEval ae = (AreaEval) arg;
+	        if (ae.getFirstSheetIndex() != ae.getLastSheetIndex()) {
+	            return null;
+	        }
+	        if (ae instanceof IndexedArea) {
+	            // the evaluator caches the values of large areas
+	            NumericValues values = ((IndexedArea) ae).getNumericValues();
+	            if (values != null) {
+	                return values;
+	            }
+	        }
+	        int height = ae.getHeight();
+	        int width = ae.getWidth();
+	        NumericValues values = new NumericValues(height, width);
+	        for (int r = 0, idx = 0; r < height; r++) {
+	            for (int c = 0; c < width; c++, idx++) {
+	                values.setValue(idx, ae.getRelativeValue(r, c));
+	            }
+	        }
+	        return values;
+	    }
+	    ValueEval value = arg;
+	    if (arg instanceof RefEval) {
+	        RefEval re = (RefEval) arg;
+	        if (re.getNumberOfSheets() != 1) {
+	            return null;
+	        }
+	        value = re.getInnerValueEval(re.getFirstSheetIndex());
+	    }
+	    if (!(value instanceof NumberEval || value instanceof BoolEval || value instanceof StringEval
+	            || value instanceof ErrorEval || value == BlankEval.instance)) {
+	        return null;
+	    }
+	    NumericValues values = new NumericValues(1, 1);
+	    values.setValue(0, value);
+	    return values;
+	}
+
+	/**
+	 * Converts an element, which isn't a number, like a single operand: blank is zero,
+	 * booleans are one or zero, text is parsed and errors are thrown.
+	 */
+	private static double coerceElement(NumericValues values, ValueEval arg, int rowIndex, int columnIndex)
+	        throws EvaluationException {
+	    int idx = rowIndex * values.getWidth() + columnIndex;
+	    switch (values.getTypes()[idx]) {
+	        case NumericValues.ERROR:
+	            throw new EvaluationException(values.getError(idx));
+	        case NumericValues.STRING:
+	            // the text isn't kept with the numbers
+	            ValueEval ve = arg instanceof AreaEval ? ((AreaEval) arg).getRelativeValue(rowIndex, columnIndex)
+	                    : OperandResolver.getSingleValue(arg, 0, 0);
+	            return OperandResolver.coerceValueToDouble(ve);
+	        default:
+	            return values.getNumbers()[idx];
+	    }
+	}
+
+	/**
+	 * The result is placed at the area operand, or at the evaluated cell if both operands are single values
+	 */
+	private static ValueEval createArrayResult(ValueEval arg, NumericValues result, int srcRowIndex, int srcColumnIndex) {
+	    if (arg instanceof AreaEval) {
+	        AreaEval ae = (AreaEval) arg;
+	        return new CacheAreaEval(ae.getFirstRow(), ae.getFirstColumn(), result);
+	    }
+	    return new CacheAreaEval(srcRowIndex, srcColumnIndex, result);
 	}
 	
 	public ValueEval evaluate(int srcRowIndex, int srcColumnIndex, ValueEval arg0, ValueEval arg1) {
@@ -63,29 +200,6 @@ public abstract class TwoOperandNumericOperation extends Fixed2ArgFunction imple
 
 	protected abstract double evaluate(double d0, double d1) throws EvaluationException;
 
-	private final class ArrayEval extends TwoArrayArg {
-	    private final MutableValueCollector instance = new MutableValueCollector(true, true);
-        
-        protected double[] collectValues(ValueEval arg) throws EvaluationException {
-            return instance.collectValues(arg);
-        }
-	    
-	    protected double[][] evaluate(double[][] d1, double[][] d2) throws IllegalArgumentException, EvaluationException {
-	        int width = (d1[0].length < d2[0].length) ? d1[0].length : d2[0].length;
-	        int height = (d1.length < d2.length) ? d1.length : d2.length;
-	        
-	        double result[][] = new double[height][width];
-	        
-	        for (int j = 0; j < height; j++) {
-	            for (int i = 0; i < width; i++) {
-	                result[j][i] = TwoOperandNumericOperation.this.evaluate(d1[j][i], d2[j][i]);
-	            }
-	        }
-	        
-	        return result;
-	    }
-	}
-	
 	public static final Function AddEval = new TwoOperandNumericOperation() {
 		protected double evaluate(double d0, double d1) {
 			return d0+d1;
@@ -0,0 +1,206 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula.eval.forked;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.poi.ss.formula.IStabilityClassifier;
+import org.apache.poi.ss.formula.eval.BlankEval;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.udf.UDFFinder;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * Evaluates a workbook, which is no longer modified, for many concurrent requests. Each request
+ * may override the values of some of the input cells declared when the evaluator is created,
+ * without affecting the other requests.<p>
+ *
+ * The results of the formula cells which don't depend on any input cell are shared by all
+ * requests: once a request has evaluated such a cell, its result is published to a concurrent
+ * map, which is read by the other requests without locking. The formula cells depending on the
+ * input cells are evaluated by each request, with a {@link ForkedEvaluator} taken from a pool, so
+ * the parsed formulas, the values of the plain cells and the results of the cells depending on
+ * input cells, which have the same values as in the previous request of the evaluator, are reused
+ * by later requests.<p>
+ *
+ * The workbook must not be modified while the evaluator is used. As with {@link ScenarioEvaluator},
+ * volatile functions like NOW() or RAND() are evaluated only once, unless they depend on an input
+ * cell.
+ */
+public final class ConcurrentEvaluator {
+
+    private final Workbook _workbook;
+    private final IStabilityClassifier _stabilityClassifier;
+    private final UDFFinder _udfFinder;
+    private final CellReference[] _inputCells;
+    /** indexes of the input cells, by their references without '$' flags */
+    private final Map<CellReference, Integer> _inputIndexes;
+    /** values of the input cells in the workbook */
+    private final ValueEval[] _defaultValues;
+    /**
+     * results of the formula cells which don't depend on the input cells. The map is passed to
+     * each evaluator when it is created, and results are only added, never changed or removed.
+     */
+    private final Map<Object, ValueEval> _sharedResults;
+    /** evaluators which are not used by a request at the moment */
+    private final Queue<ForkedEvaluator> _idleEvaluators;
+
+    private ConcurrentEvaluator(Workbook wb, CellReference[] inputCells,
+            IStabilityClassifier stabilityClassifier, UDFFinder udfFinder) {
+        _workbook = wb;
+        _stabilityClassifier = stabilityClassifier;
+        _udfFinder = udfFinder;
+        _inputCells = inputCells.clone();
+        _inputIndexes = new HashMap<>();
+        for (int i = 0; i < _inputCells.length; i++) {
+            CellReference cr = _inputCells[i];
+            checkInputCell(wb, cr);
+            if (_inputIndexes.put(getKey(cr), Integer.valueOf(i)) != null) {
+                throw new IllegalArgumentException("Duplicate input cell '" + cr.formatAsString() + "'");
+            }
+        }
+        _sharedResults = new ConcurrentHashMap<>();
+        _idleEvaluators = new ConcurrentLinkedQueue<>();
+
+        ForkedEvaluator evaluator = createEvaluator();
+        _defaultValues = new ValueEval[_inputCells.length];
+        for (int i = 0; i < _inputCells.length; i++) {
+            CellReference cr = _inputCells[i];
+            ValueEval value = evaluator.evaluate(cr.getSheetName(), cr.getRow(), cr.getCol());
+            _defaultValues[i] = value == null ? BlankEval.instance : value;
+        }
+        _idleEvaluators.add(evaluator);
+    }
+
+    /**
+     * @param inputCells the cells, whose values may be overridden by the requests. The cells must
+     *  exist in the workbook and must not contain formulas, and their references must include the
+     *  sheet names.
+     * @param udfFinder pass <code>null</code> for default (AnalysisToolPak only)
+     */
+    public static ConcurrentEvaluator create(Workbook wb, CellReference[] inputCells,
+            IStabilityClassifier stabilityClassifier, UDFFinder udfFinder) {
+        return new ConcurrentEvaluator(wb, inputCells, stabilityClassifier, udfFinder);
+    }
+
+    private static void checkInputCell(Workbook wb, CellReference cr) {
+        checkSheetName(cr);
+        Sheet sheet = wb.getSheet(cr.getSheetName());
+        Row row = sheet == null ? null : sheet.getRow(cr.getRow());
+        Cell cell = row == null ? null : row.getCell(cr.getCol());
+        if (cell == null) {
+            throw new IllegalArgumentException("Input cell '" + cr.formatAsString() + "' is missing in the workbook");
+        }
+        if (cell.getCellType() == CellType.FORMULA) {
+            throw new IllegalArgumentException("Input cell '" + cr.formatAsString() + "' must not contain a formula");
+        }
+    }
+
+    private static void checkSheetName(CellReference cr) {
+        if (cr.getSheetName() == null) {
+            throw new IllegalArgumentException("Cell reference '" + cr.formatAsString() + "' has no sheet name");
+        }
+    }
+
+    private static CellReference getKey(CellReference cr) {
+        return new CellReference(cr.getSheetName(), cr.getRow(), cr.getCol(), false, false);
+    }
+
+    /**
+     * Creates an evaluator with its own UDF finder, so the evaluators can be created and used
+     * by several threads at the same time without touching the workbook's finder
+     */
+    private ForkedEvaluator createEvaluator() {
+        ForkedEvaluator evaluator = ForkedEvaluator.createIsolated(_workbook, _stabilityClassifier, _udfFinder);
+        evaluator.setSharedFormulaResults(_sharedResults);
+        return evaluator;
+    }
+
+    /**
+     * Evaluates the output cells for the given values of the input cells. May be called by
+     * several threads at the same time.
+     *
+     * @param inputValues the values of the input cells overridden by this request, by the
+     *  references of the input cells. The other input cells keep their values in the workbook.
+     * @param outputCells the cells to evaluate, including the sheet names
+     * @return the values of the output cells, in the order of the output cells. Like
+     *  {@link ForkedEvaluator#evaluate(String, int, int)}, blank cells are <code>null</code>.
+     */
+    public ValueEval[] evaluate(Map<CellReference, ValueEval> inputValues, CellReference[] outputCells) {
+        ValueEval[] values = _defaultValues.clone();
+        for (Map.Entry<CellReference, ValueEval> e : inputValues.entrySet()) {
+            Integer index = _inputIndexes.get(getKey(e.getKey()));
+            if (index == null) {
+                throw new IllegalArgumentException("'" + e.getKey().formatAsString() + "' is not an input cell");
+            }
+            if (e.getValue() == null) {
+                throw new IllegalArgumentException("Value of input cell '" + e.getKey().formatAsString()
+                        + "' must not be null, use BlankEval for blank cells");
+            }
+            values[index.intValue()] = e.getValue();
+        }
+        for (CellReference cr : outputCells) {
+            checkSheetName(cr);
+        }
+
+        ForkedEvaluator evaluator = _idleEvaluators.poll();
+        if (evaluator == null) {
+            evaluator = createEvaluator();
+        }
+        // if the evaluation fails, the evaluator isn't returned to the pool, as its state is unknown
+        for (int i = 0; i < _inputCells.length; i++) {
+            // only discards the results depending on the cell, if the value differs from the previous request
+            CellReference cr = _inputCells[i];
+            evaluator.updateCell(cr.getSheetName(), cr.getRow(), cr.getCol(), values[i]);
+        }
+        ValueEval[] result = new ValueEval[outputCells.length];
+        for (int i = 0; i < result.length; i++) {
+            CellReference cr = outputCells[i];
+            result[i] = evaluator.evaluate(cr.getSheetName(), cr.getRow(), cr.getCol());
+        }
+        publishIndependentResults(evaluator);
+        _idleEvaluators.add(evaluator);
+        return result;
+    }
+
+    /**
+     * Shares the results of the formula cells, which don't depend on the input cells, with the
+     * other evaluators. The results of the dependent cells are kept, so they are only discarded
+     * by the next request if it changes their inputs.
+     */
+    private void publishIndependentResults(ForkedEvaluator evaluator) {
+        _sharedResults.putAll(evaluator.getCachedFormulaResults(Arrays.asList(_inputCells)));
+    }
+
+    /**
+     * @return the number of formula cells, whose results are shared by all requests so far
+     */
+    public int getSharedResultCount() {
+        return _sharedResults.size();
+    }
+}
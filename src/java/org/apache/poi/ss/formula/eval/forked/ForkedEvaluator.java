@@ -25,6 +25,8 @@ import org.apache.poi.ss.formula.eval.ValueEval;
 import org.apache.poi.ss.formula.udf.UDFFinder;
 
 import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
 
 import org.apache.poi.hssf.usermodel.HSSFEvaluationWorkbook;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
@@ -34,6 +36,7 @@ import org.apache.poi.ss.formula.EvaluationWorkbook;
 import org.apache.poi.ss.formula.IStabilityClassifier;
 import org.apache.poi.ss.formula.WorkbookEvaluator;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
 
 /**
  * An alternative workbook evaluator that saves memory in situations where a single workbook is
@@ -52,16 +55,24 @@ public final class ForkedEvaluator {
 		_sewb = new ForkedEvaluationWorkbook(masterWorkbook);
 		_evaluator = new WorkbookEvaluator(_sewb, stabilityClassifier, udfFinder);
 	}
-	private static EvaluationWorkbook createEvaluationWorkbook(Workbook wb) {
+	private static EvaluationWorkbook createEvaluationWorkbook(Workbook wb, boolean isolateUDFFinder) {
 		if (wb instanceof HSSFWorkbook) {
-			return HSSFEvaluationWorkbook.create((HSSFWorkbook) wb);
+			HSSFEvaluationWorkbook result = HSSFEvaluationWorkbook.create((HSSFWorkbook) wb);
+			if (isolateUDFFinder) {
+				result.isolateUDFFinder();
+			}
+			return result;
 		} else {
 		    try {
 		        // TODO: check if this is Java 9 compatible ...
 		        Class<?> evalWB = Class.forName("org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook");
 		        Class<?> xssfWB = Class.forName("org.apache.poi.xssf.usermodel.XSSFWorkbook");
 		        Method createM = evalWB.getDeclaredMethod("create", xssfWB);
-		        return (EvaluationWorkbook)createM.invoke(null, wb);
+		        EvaluationWorkbook result = (EvaluationWorkbook)createM.invoke(null, wb);
+		        if (isolateUDFFinder) {
+		            evalWB.getMethod("isolateUDFFinder").invoke(result);
+		        }
+		        return result;
 		    } catch (Exception e) {
 		        throw new IllegalArgumentException("Unexpected workbook type (" + wb.getClass().getName() + ") - check for poi-ooxml and poi-ooxml schemas jar in the classpath", e);
 		    }
@@ -72,7 +83,18 @@ public final class ForkedEvaluator {
 	 * @param udfFinder pass <code>null</code> for default (AnalysisToolPak only)
 	 */
 	public static ForkedEvaluator create(Workbook wb, IStabilityClassifier stabilityClassifier, UDFFinder udfFinder) {
-		return new ForkedEvaluator(createEvaluationWorkbook(wb), stabilityClassifier, udfFinder);
+		return new ForkedEvaluator(createEvaluationWorkbook(wb, false), stabilityClassifier, udfFinder);
+	}
+
+	/**
+	 * Creates an evaluator with its own copy of the workbook's UDF finder, which isn't thread-safe,
+	 * so it can be created and used by another thread than the other evaluators of the workbook.
+	 * The given UDF finder is only added to the copy.
+	 *
+	 * @param udfFinder pass <code>null</code> for default (AnalysisToolPak only)
+	 */
+	/* package */ static ForkedEvaluator createIsolated(Workbook wb, IStabilityClassifier stabilityClassifier, UDFFinder udfFinder) {
+		return new ForkedEvaluator(createEvaluationWorkbook(wb, true), stabilityClassifier, udfFinder);
 	}
 
 	/**
@@ -97,6 +119,16 @@ public final class ForkedEvaluator {
 		_sewb.copyUpdatedCells(workbook);
 	}
 
+	/**
+	 * Discards the results of the formula cells calling volatile functions like NOW() or RAND(),
+	 * and of the formula cells depending on them, so they are recalculated by the next evaluation.
+	 *
+	 * @return the number of volatile formula cells whose results were discarded
+	 */
+	public int refreshVolatileFormulas() {
+		return _evaluator.refreshVolatileFormulas();
+	}
+
 	/**
 	 * If cell contains a formula, the formula is evaluated and returned,
 	 * else the CellValue simply copies the appropriate cell value from
@@ -129,6 +161,30 @@ public final class ForkedEvaluator {
 				throw new IllegalStateException("Bad cell type (" + cell.getCellType() + ")");
 		}
 	}
+	/**
+	 * @return the results of the formula cells evaluated since their inputs have been updated,
+	 * by the identity keys of the master cells
+	 */
+	/* package */ Map<Object, ValueEval> getCachedFormulaResults() {
+		return _evaluator.getCachedFormulaResults();
+	}
+
+	/**
+	 * @return the results of the evaluated formula cells, which don't depend on any of the given
+	 * cells, by the identity keys of the master cells
+	 */
+	/* package */ Map<Object, ValueEval> getCachedFormulaResults(Collection<CellReference> inputCells) {
+		return _evaluator.getCachedFormulaResults(inputCells);
+	}
+
+	/**
+	 * Uses the given results instead of evaluating the formula cells, which must not depend on
+	 * the cells updated by this evaluator
+	 */
+	/* package */ void setSharedFormulaResults(Map<Object, ValueEval> results) {
+		_evaluator.setSharedFormulaResults(results);
+	}
+
 	/**
 	 * Coordinates several formula evaluators together so that formulas that involve external
 	 * references can be evaluated.
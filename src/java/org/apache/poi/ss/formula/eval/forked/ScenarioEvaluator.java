@@ -0,0 +1,190 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula.eval.forked;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.poi.ss.formula.EvaluationWorkers;
+import org.apache.poi.ss.formula.IStabilityClassifier;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.StringEval;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.udf.UDFFinder;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * Evaluates the same output cells of a workbook for many sets of values of the same input cells
+ * (scenarios), without modifying the workbook.<p>
+ *
+ * The formula cells which don't depend on any of the input cells are evaluated only once, when
+ * the scenario evaluator is created, and their results are shared by all scenarios. The scenarios
+ * are evaluated concurrently by the threads of an executor, each thread with its own
+ * {@link ForkedEvaluator}, whose cached results are reused between the scenarios of the thread.<p>
+ *
+ * The workbook must not be modified while the scenario evaluator is used.
+ */
+public final class ScenarioEvaluator {
+
+    /** number of scenarios evaluated by one task */
+    private static final int SCENARIO_BATCH_SIZE = 16;
+
+    private final Workbook _workbook;
+    private final IStabilityClassifier _stabilityClassifier;
+    private final UDFFinder _udfFinder;
+    private final CellReference[] _inputCells;
+    private final CellReference[] _outputCells;
+    /** results of the formula cells which don't depend on the input cells */
+    private final Map<Object, ValueEval> _sharedResults;
+
+    private ScenarioEvaluator(Workbook wb, CellReference[] inputCells, CellReference[] outputCells,
+            IStabilityClassifier stabilityClassifier, UDFFinder udfFinder) {
+        _workbook = wb;
+        _stabilityClassifier = stabilityClassifier;
+        _udfFinder = udfFinder;
+        _inputCells = inputCells.clone();
+        _outputCells = outputCells.clone();
+        for (CellReference cr : _inputCells) {
+            checkSheetName(cr);
+        }
+        for (CellReference cr : _outputCells) {
+            checkSheetName(cr);
+        }
+        _sharedResults = Collections.unmodifiableMap(evaluateIndependentCells());
+    }
+
+    /**
+     * @param inputCells the cells, whose values are set by the scenarios. The cells must exist
+     *  in the workbook, and their references must include the sheet names.
+     * @param outputCells the cells evaluated for each scenario, including the sheet names
+     * @param udfFinder pass <code>null</code> for default (AnalysisToolPak only)
+     */
+    public static ScenarioEvaluator create(Workbook wb, CellReference[] inputCells, CellReference[] outputCells,
+            IStabilityClassifier stabilityClassifier, UDFFinder udfFinder) {
+        return new ScenarioEvaluator(wb, inputCells, outputCells, stabilityClassifier, udfFinder);
+    }
+
+    private static void checkSheetName(CellReference cr) {
+        if (cr.getSheetName() == null) {
+            throw new IllegalArgumentException("Cell reference '" + cr.formatAsString() + "' has no sheet name");
+        }
+    }
+
+    /**
+     * Evaluates the output cells for the current values of the input cells, and then changes
+     * the input cells, which discards the cached results of all cells depending on them.
+     *
+     * @return the remaining cached results
+     */
+    private Map<Object, ValueEval> evaluateIndependentCells() {
+        ForkedEvaluator evaluator = createEvaluator();
+        evaluateOutputCells(evaluator);
+        for (CellReference cr : _inputCells) {
+            // two values of different types, one of which must differ from the current value
+            evaluator.updateCell(cr.getSheetName(), cr.getRow(), cr.getCol(), NumberEval.ZERO);
+            evaluator.updateCell(cr.getSheetName(), cr.getRow(), cr.getCol(), new StringEval(""));
+        }
+        return evaluator.getCachedFormulaResults();
+    }
+
+    /**
+     * Creates an evaluator with its own UDF finder, as the evaluators are created and used
+     * concurrently by the threads of the executor
+     */
+    private ForkedEvaluator createEvaluator() {
+        return ForkedEvaluator.createIsolated(_workbook, _stabilityClassifier, _udfFinder);
+    }
+
+    private ValueEval[] evaluateOutputCells(ForkedEvaluator evaluator) {
+        ValueEval[] result = new ValueEval[_outputCells.length];
+        for (int i = 0; i < result.length; i++) {
+            CellReference cr = _outputCells[i];
+            result[i] = evaluator.evaluate(cr.getSheetName(), cr.getRow(), cr.getCol());
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of formula cells, whose results are shared by all scenarios
+     */
+    public int getSharedResultCount() {
+        return _sharedResults.size();
+    }
+
+    /**
+     * Evaluates the output cells for each scenario.
+     *
+     * @param scenarios the values of the input cells for each scenario,
+     *  in the order of the input cells
+     * @param executor runs the evaluation of the scenarios, e.g. a fixed thread pool
+     * @return the values of the output cells for each scenario, in the order of the output
+     *  cells. Like {@link ForkedEvaluator#evaluate(String, int, int)}, blank cells are
+     *  <code>null</code>.
+     */
+    public ValueEval[][] evaluate(final ValueEval[][] scenarios, ExecutorService executor) {
+        for (ValueEval[] inputValues : scenarios) {
+            if (inputValues.length != _inputCells.length) {
+                throw new IllegalArgumentException("Expected " + _inputCells.length
+                        + " input values but got " + inputValues.length);
+            }
+        }
+
+        final EvaluationWorkers<ForkedEvaluator> evaluators = new EvaluationWorkers<ForkedEvaluator>() {
+            @Override
+            protected ForkedEvaluator createWorker() {
+                ForkedEvaluator evaluator = createEvaluator();
+                evaluator.setSharedFormulaResults(_sharedResults);
+                return evaluator;
+            }
+        };
+        List<Callable<ValueEval[][]>> tasks = new ArrayList<>();
+        for (int i = 0; i < scenarios.length; i += SCENARIO_BATCH_SIZE) {
+            final int first = i;
+            final int last = Math.min(i + SCENARIO_BATCH_SIZE, scenarios.length);
+            tasks.add(new Callable<ValueEval[][]>() {
+                @Override
+                public ValueEval[][] call() {
+                    ForkedEvaluator evaluator = evaluators.getWorker();
+                    ValueEval[][] results = new ValueEval[last - first][];
+                    for (int j = first; j < last; j++) {
+                        for (int k = 0; k < _inputCells.length; k++) {
+                            CellReference cr = _inputCells[k];
+                            evaluator.updateCell(cr.getSheetName(), cr.getRow(), cr.getCol(), scenarios[j][k]);
+                        }
+                        results[j - first] = evaluateOutputCells(evaluator);
+                    }
+                    return results;
+                }
+            });
+        }
+
+        ValueEval[][] result = new ValueEval[scenarios.length][];
+        int scenarioIndex = 0;
+        for (ValueEval[][] batchResults : EvaluationWorkers.invokeAll(executor, tasks)) {
+            for (ValueEval[] outputValues : batchResults) {
+                result[scenarioIndex++] = outputValues;
+            }
+        }
+        return result;
+    }
+}
@@ -67,7 +67,10 @@ import org.apache.poi.ss.formula.functions.Countif.ErrorMatcher;
             validateCriteriaRanges(sumRange, ae);
             validateCriteria(mp);
 
-            double result = aggregateMatchingCells(sumRange, ae, mp);
+            Double result = aggregateIndexedValues(sumRange, ae, mp);
+            if (result == null) {
+                result = aggregateMatchingCells(sumRange, ae, mp);
+            }
             return new NumberEval(result);
         } catch (EvaluationException e) {
             return e.getErrorEval();
@@ -116,6 +119,65 @@ import org.apache.poi.ss.formula.functions.Countif.ErrorMatcher;
     }
 
 
+    /**
+     * Aggregates the cached values of single row or column ranges, which the evaluator shares
+     * between all formulas using the same ranges. Only the values at the positions of equal
+     * values are tested for criteria which only match equal values.
+     *
+     * @param sumRange  the range to sum, if used (uses 1 for each match if not present)
+     * @param ranges  criteria ranges
+     * @param predicates  array of predicates, a predicate for each value in <code>ranges</code>
+     * @return the computed value, or <code>null</code> if the ranges aren't indexed, e.g. because a cell
+     *  can't be evaluated, which {@link #aggregateMatchingCells(AreaEval, AreaEval[], I_MatchPredicate[])}
+     *  may not read
+     */
+    private static Double aggregateIndexedValues(AreaEval sumRange, AreaEval[] ranges, I_MatchPredicate[] predicates) {
+        for (I_MatchPredicate mp : predicates) {
+            // Bugs 60858 and 56420 show predicate can be null
+            if (mp == null) {
+                return null;
+            }
+        }
+        double[] numbers = null;
+        if (sumRange != null) {
+            LookupIndex sumIndex = CountUtils.getVectorIndex(sumRange);
+            if (sumIndex == null) {
+                return null;
+            }
+            numbers = sumIndex.getNumbers();
+        }
+        LookupIndex[] indexes = new LookupIndex[ranges.length];
+        int[] positions = null;
+        for (int i = 0; i < ranges.length; i++) {
+            indexes[i] = CountUtils.getVectorIndex(ranges[i]);
+            if (indexes[i] == null) {
+                return null;
+            }
+            // test the fewest candidates
+            int[] candidates = CountUtils.getCandidatePositions(indexes[i], predicates[i]);
+            if (candidates != null && (positions == null || candidates.length < positions.length)) {
+                positions = candidates;
+            }
+        }
+
+        double result = 0.0;
+        int size = positions == null ? indexes[0].getSize() : positions.length;
+        for (int j = 0; j < size; j++) {
+            int pos = positions == null ? j : positions[j];
+            boolean matches = true;
+            for (int i = 0; i < indexes.length; i++) {
+                if (!predicates[i].matches(indexes[i].getItem(pos))) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                result += numbers == null ? 1.0 : numbers[pos];
+            }
+        }
+        return result;
+    }
+
     /**
      * @param sumRange  the range to sum, if used (uses 1 for each match if not present)
      * @param ranges  criteria ranges
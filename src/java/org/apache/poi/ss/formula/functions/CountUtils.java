@@ -43,6 +43,52 @@ final class CountUtils {
         boolean matches(TwoDEval x, int rowIndex, int columnIndex);
     }
 
+    /**
+     * @return the cached values of a single row or column range,
+     *  or <code>null</code> if the range isn't indexed by the evaluator
+     */
+    public static LookupIndex getVectorIndex(ValueEval eval) {
+        if (!(eval instanceof IndexedArea)) {
+            return null;
+        }
+        IndexedArea area = (IndexedArea) eval;
+        if (area.getWidth() == 1) {
+            return area.getColumnLookupIndex(0);
+        }
+        if (area.getHeight() == 1) {
+            return area.getRowLookupIndex(0);
+        }
+        return null;
+    }
+
+    /**
+     * Finds the positions of the values, which may match the criteria. For criteria which
+     * only match equal values, these are looked up in the index, otherwise all positions
+     * have to be tested.
+     *
+     * @return the ascending positions, or <code>null</code> for all positions
+     */
+    public static int[] getCandidatePositions(LookupIndex index, I_MatchPredicate criteriaPredicate) {
+        ValueEval equalityValue = Countif.getEqualityValue(criteriaPredicate);
+        return equalityValue == null ? null : index.getPositionsOf(equalityValue);
+    }
+
+    /**
+     * @return the number of values in the index that match the specified criteria
+     */
+    public static int countMatchingValues(LookupIndex index, I_MatchPredicate criteriaPredicate) {
+        int[] positions = getCandidatePositions(index, criteriaPredicate);
+        int result = 0;
+        int size = positions == null ? index.getSize() : positions.length;
+        for (int i = 0; i < size; i++) {
+            int pos = positions == null ? i : positions[i];
+            if (criteriaPredicate.matches(index.getItem(pos))) {
+                result++;
+            }
+        }
+        return result;
+    }
+
     /**
      * @return the number of evaluated cells in the range that match the specified criteria
      */
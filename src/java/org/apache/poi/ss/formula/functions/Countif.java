@@ -157,6 +157,12 @@ public final class Countif extends Fixed2ArgFunction {
         protected final int getCode() {
             return _operator.getCode();
         }
+        /**
+         * @return <code>true</code> if only values equal to the criteria value can match
+         */
+        protected final boolean isEquality() {
+            return getCode() == CmpOp.NONE || getCode() == CmpOp.EQ;
+        }
         protected final boolean evaluate(int cmpResult) {
             return _operator.evaluate(cmpResult);
         }
@@ -179,6 +185,10 @@ public final class Countif extends Fixed2ArgFunction {
 
         private final double _value;
 
+        public double getValue() {
+            return _value;
+        }
+
         public NumberMatcher(double value, CmpOp operator) {
             super(operator);
             _value = value;
@@ -235,6 +245,10 @@ public final class Countif extends Fixed2ArgFunction {
 
         private final int _value;
 
+        public boolean getValue() {
+            return _value == 1;
+        }
+
         public BooleanMatcher(boolean value, CmpOp operator) {
             super(operator);
             _value = boolToInt(value);
@@ -341,6 +355,14 @@ public final class Countif extends Fixed2ArgFunction {
             return _pattern.pattern();
         }
 
+        public String getValue() {
+            return _value;
+        }
+
+        public boolean hasPattern() {
+            return _pattern != null;
+        }
+
         @Override
         public boolean matches(ValueEval x) {
             if (x instanceof BlankEval) {
@@ -452,6 +474,10 @@ public final class Countif extends Fixed2ArgFunction {
      */
     private double countMatchingCellsInArea(ValueEval rangeArg, I_MatchPredicate criteriaPredicate) {
 
+        LookupIndex index = CountUtils.getVectorIndex(rangeArg);
+        if (index != null) {
+            return CountUtils.countMatchingValues(index, criteriaPredicate);
+        }
         if (rangeArg instanceof RefEval) {
             return CountUtils.countMatchingCellsInRef((RefEval) rangeArg, criteriaPredicate);
         } else if (rangeArg instanceof ThreeDEval) {
@@ -489,6 +515,34 @@ public final class Countif extends Fixed2ArgFunction {
                 + evaluatedCriteriaArg.getClass().getName() + ")");
     }
 
+    /**
+     * Gets the value of a criteria, which only matches values equal to it (or text which
+     * can be parsed as the criteria number), so the matching values can be looked up in
+     * a {@link LookupIndex}.
+     *
+     * @return <code>null</code> if the criteria compares, uses wildcards or matches blanks
+     */
+    /* package */ static ValueEval getEqualityValue(I_MatchPredicate criteriaPredicate) {
+        if (!(criteriaPredicate instanceof MatcherBase) || !((MatcherBase)criteriaPredicate).isEquality()) {
+            return null;
+        }
+        if (criteriaPredicate instanceof NumberMatcher) {
+            return new NumberEval(((NumberMatcher)criteriaPredicate).getValue());
+        }
+        if (criteriaPredicate instanceof BooleanMatcher) {
+            return BoolEval.valueOf(((BooleanMatcher)criteriaPredicate).getValue());
+        }
+        if (criteriaPredicate instanceof StringMatcher) {
+            StringMatcher sm = (StringMatcher)criteriaPredicate;
+            // the empty string also matches blank cells
+            if (sm.hasPattern() || sm.getValue().length() == 0) {
+                return null;
+            }
+            return new StringEval(sm.getValue());
+        }
+        return null;
+    }
+
     /**
      *
      * @return the de-referenced criteria arg (possibly {@link ErrorEval})
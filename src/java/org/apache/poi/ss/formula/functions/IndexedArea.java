@@ -0,0 +1,44 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula.functions;
+
+import org.apache.poi.ss.formula.TwoDEval;
+
+/**
+ * An area of cells, whose values can be cached by the evaluator for repeated
+ * lookups, e.g. by VLOOKUP or MATCH, and aggregations, e.g. by SUM.
+ */
+public interface IndexedArea extends TwoDEval {
+
+    /**
+     * @param rowIndex relative row index (zero based)
+     * @return the cached values of the row, or <code>null</code> if it isn't indexed
+     */
+    LookupIndex getRowLookupIndex(int rowIndex);
+
+    /**
+     * @param columnIndex relative column index (zero based)
+     * @return the cached values of the column, or <code>null</code> if it isn't indexed
+     */
+    LookupIndex getColumnLookupIndex(int columnIndex);
+
+    /**
+     * @return the cached values of the whole area, or <code>null</code> if they aren't cached
+     */
+    NumericValues getNumericValues();
+}
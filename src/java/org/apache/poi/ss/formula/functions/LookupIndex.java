@@ -0,0 +1,191 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula.functions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.formula.eval.BoolEval;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.OperandResolver;
+import org.apache.poi.ss.formula.eval.StringEval;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.functions.LookupUtils.ValueVector;
+import org.apache.poi.util.IntList;
+
+/**
+ * The evaluated values of a single row or column of cells, which are cached by the
+ * evaluator and shared by all lookups into the same range, until one of the cells changes.<p>
+ *
+ * Exact matches are found with a hash index, which is built on the first exact lookup.
+ * Like {@link LookupUtils.LookupValueComparer}, values only match values of the same type
+ * and strings are compared case-insensitively.<p>
+ *
+ * For the criteria of COUNTIF and SUMIFS, the positions of equal values are grouped
+ * and the numbers are kept in a primitive array, both built on first use.
+ */
+public final class LookupIndex implements ValueVector {
+
+    private final ValueEval[] _values;
+    /** the index of the first occurrence of each value, built on demand */
+    private Map<Object, Integer> _firstIndexes;
+    /** the positions of each value, text which is a number is also grouped with the number */
+    private Map<Object, int[]> _positions;
+    private double[] _numbers;
+
+    public LookupIndex(ValueEval[] values) {
+        _values = values.clone();
+    }
+
+    @Override
+    public ValueEval getItem(int index) {
+        return _values[index];
+    }
+
+    @Override
+    public int getSize() {
+        return _values.length;
+    }
+
+    /**
+     * Finds the first exact occurrence of the value, without wildcard matching.
+     *
+     * @param lookupValue a number, string or boolean
+     * @return zero based index, -1 if the value cannot be found
+     */
+    public int indexOfExactValue(ValueEval lookupValue) {
+        if (_firstIndexes == null) {
+            Map<Object, Integer> firstIndexes = new HashMap<>(_values.length * 4 / 3 + 1);
+            for (int i = _values.length - 1; i >= 0; i--) {
+                Object key = toKey(_values[i]);
+                if (key != null) {
+                    firstIndexes.put(key, i);
+                }
+            }
+            _firstIndexes = firstIndexes;
+        }
+        Object key = toKey(lookupValue);
+        Integer index = (key == null) ? null : _firstIndexes.get(key);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * Finds the positions of the values which might be equal to the given criteria value.
+     * Apart from the exact matches, this includes text which can be parsed as the number,
+     * so the caller still has to test the values.
+     *
+     * @param value a number, string or boolean
+     * @return the ascending zero based positions, empty if no value can match
+     */
+    /* package */ int[] getPositionsOf(ValueEval value) {
+        if (_positions == null) {
+            Map<Object, IntList> positions = new HashMap<>();
+            for (int i = 0; i < _values.length; i++) {
+                ValueEval ve = _values[i];
+                addPosition(positions, toGroupKey(toKey(ve)), i);
+                if (ve instanceof StringEval) {
+                    Double number = OperandResolver.parseDouble(((StringEval) ve).getStringValue());
+                    if (number != null) {
+                        addPosition(positions, toGroupKey(number), i);
+                    }
+                }
+            }
+            Map<Object, int[]> result = new HashMap<>(positions.size() * 4 / 3 + 1);
+            for (Map.Entry<Object, IntList> me : positions.entrySet()) {
+                result.put(me.getKey(), me.getValue().toArray());
+            }
+            _positions = result;
+        }
+        Object key = toGroupKey(toKey(value));
+        int[] result = (key == null) ? null : _positions.get(key);
+        return (result == null) ? new int[0] : result;
+    }
+
+    private static void addPosition(Map<Object, IntList> positions, Object key, int position) {
+        if (key == null) {
+            return;
+        }
+        IntList list = positions.get(key);
+        if (list == null) {
+            list = new IntList(4);
+            positions.put(key, list);
+        }
+        list.add(position);
+    }
+
+    /**
+     * Text is compared with '==' when matched against a number criteria, so zero and
+     * negative zero share a group
+     */
+    private static Object toGroupKey(Object key) {
+        if (key instanceof Double && ((Double) key).doubleValue() == 0.0) {
+            return Double.valueOf(0.0);
+        }
+        return key;
+    }
+
+    /**
+     * @return the numeric values, with zero for all values which aren't numbers
+     */
+    /* package */ double[] getNumbers() {
+        if (_numbers == null) {
+            double[] numbers = new double[_values.length];
+            for (int i = 0; i < _values.length; i++) {
+                if (_values[i] instanceof NumberEval) {
+                    numbers[i] = ((NumberEval) _values[i]).getNumberValue();
+                }
+            }
+            _numbers = numbers;
+        }
+        return _numbers;
+    }
+
+    /**
+     * @return a key, which is equal for values which match each other
+     *  in exact lookups, or <code>null</code> for values which never match
+     */
+    private static Object toKey(ValueEval value) {
+        if (value == null) {
+            return null;
+        }
+        Class<?> cls = value.getClass();
+        if (cls == NumberEval.class) {
+            // same equality as Double.compare()
+            return Double.valueOf(((NumberEval) value).getNumberValue());
+        }
+        if (cls == StringEval.class) {
+            return toCaseInsensitiveKey(((StringEval) value).getStringValue());
+        }
+        if (cls == BoolEval.class) {
+            return Boolean.valueOf(((BoolEval) value).getBooleanValue());
+        }
+        return null;
+    }
+
+    /**
+     * Folds the case of each char like {@link String#compareToIgnoreCase(String)},
+     * so that two strings compare equal exactly when their keys are equal
+     */
+    private static String toCaseInsensitiveKey(String value) {
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+}
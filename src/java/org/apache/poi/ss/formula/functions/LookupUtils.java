@@ -73,6 +73,12 @@ final class LookupUtils {
 		public int getSize() {
 			return _size;
 		}
+		public LookupIndex getLookupIndex() {
+			if (_tableArray instanceof IndexedArea) {
+				return ((IndexedArea)_tableArray).getRowLookupIndex(_rowIndex);
+			}
+			return null;
+		}
 	}
 
 	private static final class ColumnVector implements ValueVector {
@@ -102,6 +108,12 @@ final class LookupUtils {
 		public int getSize() {
 			return _size;
 		}
+		public LookupIndex getLookupIndex() {
+			if (_tableArray instanceof IndexedArea) {
+				return ((IndexedArea)_tableArray).getColumnLookupIndex(_columnIndex);
+			}
+			return null;
+		}
 	}
 
     private static final class SheetVector implements ValueVector {
@@ -149,6 +161,20 @@ final class LookupUtils {
 	    return new SheetVector(re);
 	}
 
+	/**
+	 * @return the cached values of the vector for exact lookups, if the evaluator indexes
+	 * its cells, otherwise the vector itself
+	 */
+	public static ValueVector getIndexedVector(ValueVector vector) {
+		LookupIndex index = null;
+		if (vector instanceof ColumnVector) {
+			index = ((ColumnVector)vector).getLookupIndex();
+		} else if (vector instanceof RowVector) {
+			index = ((RowVector)vector).getLookupIndex();
+		}
+		return index == null ? vector : index;
+	}
+
 	/**
 	 * Enumeration to support <b>4</b> valued comparison results.<p>
 	 * Excel lookup functions have complex behaviour in the case where the lookup array has mixed
@@ -478,9 +504,10 @@ final class LookupUtils {
 		LookupValueComparer lookupComparer = createLookupComparer(lookupValue, isRangeLookup, false);
 		int result;
 		if(isRangeLookup) {
+			// the binary search reads only a few cells
 			result = performBinarySearch(vector, lookupComparer);
 		} else {
-			result = lookupIndexOfExactValue(lookupComparer, vector);
+			result = lookupIndexOfExactValue(lookupValue, lookupComparer, getIndexedVector(vector));
 		}
 		if(result < 0) {
 			throw new EvaluationException(ErrorEval.NA);
@@ -491,12 +518,25 @@ final class LookupUtils {
 
 	/**
 	 * Finds first (lowest index) exact occurrence of specified value.
-	 * @param lookupComparer the value to be found in column or row vector
+	 * @param lookupValue the value to be found
+	 * @param lookupComparer the comparer created for the lookup value
 	 * @param vector the values to be searched. For VLOOKUP this is the first column of the
 	 * 	tableArray. For HLOOKUP this is the first row of the tableArray.
 	 * @return zero based index into the vector, -1 if value cannot be found
 	 */
-	private static int lookupIndexOfExactValue(LookupValueComparer lookupComparer, ValueVector vector) {
+	static int lookupIndexOfExactValue(ValueEval lookupValue, LookupValueComparer lookupComparer, ValueVector vector) {
+
+		if (vector instanceof LookupIndex) {
+			if (lookupValue == BlankEval.instance) {
+				// see createLookupComparer()
+				return ((LookupIndex)vector).indexOfExactValue(NumberEval.ZERO);
+			}
+			if (!(lookupValue instanceof StringEval)
+					|| Countif.StringMatcher.getWildCardPattern(((StringEval)lookupValue).getStringValue()) == null) {
+				return ((LookupIndex)vector).indexOfExactValue(lookupValue);
+			}
+			// wildcards are matched one by one
+		}
 
 		// find first occurrence of lookup value
 		int size = vector.getSize();
@@ -189,15 +189,14 @@ public final class Match extends Var2or3ArgFunction {
 			boolean matchExact, boolean findLargestLessThanOrEqual) throws EvaluationException {
 
 		LookupValueComparer lookupComparer = createLookupComparer(lookupValue, matchExact);
-
 		int size = lookupRange.getSize();
 		if(matchExact) {
-			for (int i = 0; i < size; i++) {
-				if(lookupComparer.compareTo(lookupRange.getItem(i)).isEqual()) {
-					return i;
-				}
+			int index = LookupUtils.lookupIndexOfExactValue(lookupValue, lookupComparer,
+					LookupUtils.getIndexedVector(lookupRange));
+			if (index < 0) {
+				throw new EvaluationException(ErrorEval.NA);
 			}
-			throw new EvaluationException(ErrorEval.NA);
+			return index;
 		}
 
 		if(findLargestLessThanOrEqual) {
@@ -80,6 +80,12 @@ public abstract class MultiOperandNumericFunction implements Function {
 			_array[_count] = value;
 			_count++;
 		}
+
+		public void addAll(double[] values) {
+			ensureCapacity(_count + values.length);
+			System.arraycopy(values, 0, _array, _count, values.length);
+			_count += values.length;
+		}
 	}
 
 	private static final int DEFAULT_MAX_NUM_OPERANDS = SpreadsheetVersion.EXCEL2007.getMaxFunctionArgs();
@@ -142,6 +148,13 @@ public abstract class MultiOperandNumericFunction implements Function {
 	 * Collects values from a single argument
 	 */
 	private void collectValues(ValueEval operand, DoubleList temp) throws EvaluationException {
+        if (operand instanceof IndexedArea && isSubtotalCounted()) {
+            NumericValues values = ((IndexedArea) operand).getNumericValues();
+            if (values != null) {
+                collectNumericValues(values, temp);
+                return;
+            }
+        }
         if (operand instanceof ThreeDEval) {
             ThreeDEval ae = (ThreeDEval) operand;
             for (int sIx=ae.getFirstSheetIndex(); sIx <= ae.getLastSheetIndex(); sIx++) {
@@ -179,6 +192,38 @@ public abstract class MultiOperandNumericFunction implements Function {
 		}
 		collectValue(operand, false, temp);
 	}
+	/**
+	 * Collects the cached values of an area, like {@link #collectValue} does for each referenced value
+	 */
+	private void collectNumericValues(NumericValues values, DoubleList temp) throws EvaluationException {
+		double[] numbers = values.getNumbers();
+		if (values.isNumericOrBlank() && _isBlankCounted) {
+			temp.addAll(numbers);
+			return;
+		}
+		byte[] types = values.getTypes();
+		for (int i = 0; i < numbers.length; i++) {
+			switch (types[i]) {
+				case NumericValues.NUMBER:
+					temp.add(numbers[i]);
+					break;
+				case NumericValues.BOOLEAN:
+					if (_isReferenceBoolCounted) {
+						temp.add(numbers[i]);
+					}
+					break;
+				case NumericValues.ERROR:
+					throw new EvaluationException(values.getError(i));
+				case NumericValues.BLANK:
+					if (_isBlankCounted) {
+						temp.add(0.0);
+					}
+					break;
+				default:
+					// ignore all ref strings
+			}
+		}
+	}
 	private void collectValue(ValueEval ve, boolean isViaReference, DoubleList temp)  throws EvaluationException {
 		if (ve == null) {
 			throw new IllegalArgumentException("ve must not be null");
@@ -0,0 +1,159 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula.functions;
+
+import org.apache.poi.ss.formula.eval.BlankEval;
+import org.apache.poi.ss.formula.eval.BoolEval;
+import org.apache.poi.ss.formula.eval.ErrorEval;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.StringEval;
+import org.apache.poi.ss.formula.eval.ValueEval;
+
+/**
+ * The evaluated values of an area of cells in primitive arrays, which are cached by the
+ * evaluator and shared by all aggregate functions over the same area, until one of the
+ * cells changes.<p>
+ *
+ * The values are stored row by row. The type of each value tells how to interpret its
+ * number: the value of a number, 1 or 0 for a boolean, the error code for an error and
+ * zero for text and blank cells.<p>
+ *
+ * The results of array formulas are also stored this way, see
+ * {@link org.apache.poi.ss.formula.eval.TwoOperandNumericOperation}.
+ */
+public final class NumericValues {
+
+    public static final byte BLANK = 0;
+    public static final byte NUMBER = 1;
+    public static final byte BOOLEAN = 2;
+    public static final byte STRING = 3;
+    public static final byte ERROR = 4;
+
+    private final int _width;
+    private final double[] _numbers;
+    private final byte[] _types;
+    /** the number of values, which are neither numbers nor blank */
+    private int _otherCount;
+
+    public NumericValues(int height, int width) {
+        _width = width;
+        _numbers = new double[height * width];
+        _types = new byte[height * width];
+    }
+
+    /**
+     * @param index the zero based index of the value, i.e. <tt>rowIndex * width + columnIndex</tt>
+     */
+    public void setValue(int index, ValueEval value) {
+        byte type;
+        double number;
+        if (value instanceof NumberEval) {
+            type = NUMBER;
+            number = ((NumberEval) value).getNumberValue();
+        } else if (value instanceof BoolEval) {
+            type = BOOLEAN;
+            number = ((BoolEval) value).getNumberValue();
+        } else if (value instanceof StringEval) {
+            type = STRING;
+            number = 0;
+        } else if (value instanceof ErrorEval) {
+            type = ERROR;
+            number = ((ErrorEval) value).getErrorCode();
+        } else if (value == null || value == BlankEval.instance) {
+            type = BLANK;
+            number = 0;
+        } else {
+            throw new IllegalArgumentException("Unexpected value class (" + value.getClass().getName() + ")");
+        }
+        set(index, type, number);
+    }
+
+    public void setNumber(int index, double number) {
+        set(index, NUMBER, number);
+    }
+
+    public void setError(int index, ErrorEval error) {
+        set(index, ERROR, error.getErrorCode());
+    }
+
+    private void set(int index, byte type, double number) {
+        if ((_types[index] == NUMBER || _types[index] == BLANK) != (type == NUMBER || type == BLANK)) {
+            _otherCount += (type == NUMBER || type == BLANK) ? -1 : 1;
+        }
+        _types[index] = type;
+        _numbers[index] = number;
+    }
+
+    /**
+     * @return the value at the given index, which must not be text, as text isn't kept
+     */
+    public ValueEval getValue(int index) {
+        switch (_types[index]) {
+            case NUMBER:
+                return new NumberEval(_numbers[index]);
+            case BOOLEAN:
+                return BoolEval.valueOf(_numbers[index] != 0);
+            case ERROR:
+                return getError(index);
+            case BLANK:
+                return BlankEval.instance;
+            default:
+                throw new IllegalStateException("The text of the value at " + index + " isn't kept");
+        }
+    }
+
+    public int getWidth() {
+        return _width;
+    }
+
+    public int getHeight() {
+        return _width == 0 ? 0 : _numbers.length / _width;
+    }
+
+    public int getSize() {
+        return _numbers.length;
+    }
+
+    /**
+     * @return the numbers of all values, which must not be modified
+     */
+    public double[] getNumbers() {
+        return _numbers;
+    }
+
+    /**
+     * @return the types of all values, which must not be modified
+     */
+    public byte[] getTypes() {
+        return _types;
+    }
+
+    /**
+     * @return <code>true</code> if all values are numbers or blank
+     */
+    public boolean isNumericOrBlank() {
+        return _otherCount == 0;
+    }
+
+    /**
+     * @return the error of an {@link #ERROR} value
+     */
+    public ErrorEval getError(int index) {
+        return ErrorEval.valueOf((int) _numbers[index]);
+    }
+}
@@ -148,6 +148,11 @@ public final class Sumproduct implements Function {
 			return ErrorEval.VALUE_INVALID;
 		}
 
+		NumericValues[] values = getNumericValues(args);
+		if (values != null) {
+			return new NumberEval(sumProducts(values));
+		}
+
 		double acc = 0;
 
 		for (int rrIx=0; rrIx<height; rrIx++) {
@@ -164,6 +169,49 @@ public final class Sumproduct implements Function {
 		return new NumberEval(acc);
 	}
 
+	/**
+	 * @return the cached values of all areas, or <code>null</code> if any area isn't cached
+	 */
+	private static NumericValues[] getNumericValues(TwoDEval[] args) {
+		NumericValues[] result = new NumericValues[args.length];
+		for (int i = 0; i < args.length; i++) {
+			if (!(args[i] instanceof IndexedArea)) {
+				return null;
+			}
+			result[i] = ((IndexedArea) args[i]).getNumericValues();
+			if (result[i] == null) {
+				return null;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Same as the cell by cell loop of {@link #evaluateAreaSumProduct(ValueEval[])}:
+	 * text and blank values count as zero and the first error is thrown.
+	 */
+	private static double sumProducts(NumericValues[] values) throws EvaluationException {
+		int size = values[0].getSize();
+		double acc = 0;
+		for (int i = 0; i < size; i++) {
+			double term = 1D;
+			for (NumericValues nv : values) {
+				switch (nv.getTypes()[i]) {
+					case NumericValues.NUMBER:
+					case NumericValues.BOOLEAN:
+						term *= nv.getNumbers()[i];
+						break;
+					case NumericValues.ERROR:
+						throw new EvaluationException(nv.getError(i));
+					default:
+						term *= 0;
+				}
+			}
+			acc += term;
+		}
+		return acc;
+	}
+
 	private static void throwFirstError(TwoDEval areaEval) throws EvaluationException {
 		int height = areaEval.getHeight();
 		int width = areaEval.getWidth();
@@ -70,4 +70,19 @@ public class AggregatingUDFFinder implements UDFFinder {
     public void add(UDFFinder toolPack){
         _usedToolPacks.add(toolPack);
     }
+
+    /**
+     * Creates a finder with the same tool packs, which can be used by another thread. Tool packs
+     * added later on to either of the finders aren't added to the other one.
+     * Subclasses with their own state should override this method.
+     *
+     * @return the new finder
+     */
+    public AggregatingUDFFinder copy() {
+        return new AggregatingUDFFinder(getToolPacks());
+    }
+
+    /* package */ UDFFinder[] getToolPacks() {
+        return _usedToolPacks.toArray(new UDFFinder[0]);
+    }
 }
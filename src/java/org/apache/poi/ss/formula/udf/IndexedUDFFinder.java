@@ -45,6 +45,13 @@ public class IndexedUDFFinder extends AggregatingUDFFinder {
         return func;
     }
 
+    @Override
+    public IndexedUDFFinder copy() {
+        IndexedUDFFinder result = new IndexedUDFFinder(getToolPacks());
+        result._funcMap.putAll(_funcMap);
+        return result;
+    }
+
     public String getFunctionName(int idx) {
         return _funcMap.get(idx);
     }
@@ -77,7 +77,9 @@ public final class DocumentHelper {
             logger.log(type, sb.toString(), ex);
         }
     }
-    
+
+    private static final ErrorHandler ERROR_HANDLER = new DocHelperErrorHandler();
+
     /**
      * Creates a new document builder, with sensible defaults
      *
@@ -88,7 +90,7 @@ public final class DocumentHelper {
         try {
             DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
             documentBuilder.setEntityResolver(SAXHelper.IGNORING_ENTITY_RESOLVER);
-            documentBuilder.setErrorHandler(new DocHelperErrorHandler());
+            documentBuilder.setErrorHandler(ERROR_HANDLER);
             return documentBuilder;
         } catch (ParserConfigurationException e) {
             throw new IllegalStateException("cannot create a DocumentBuilder", e);
@@ -144,7 +146,7 @@ public final class DocumentHelper {
      * @return the parsed Document 
      */
     public static Document readDocument(InputStream inp) throws IOException, SAXException {
-        return newDocumentBuilder().parse(inp);
+        return readDocument(new InputSource(inp));
     }
 
     /**
@@ -154,7 +156,37 @@ public final class DocumentHelper {
      * @return the parsed Document 
      */
     public static Document readDocument(InputSource inp) throws IOException, SAXException {
-        return newDocumentBuilder().parse(inp);
+        // take the builder of this thread, so a nested call would get a new one
+        DocumentBuilder documentBuilder = cachedDocumentBuilder.get();
+        if (documentBuilder == null) {
+            documentBuilder = newDocumentBuilder();
+        } else {
+            cachedDocumentBuilder.remove();
+        }
+        try {
+            return documentBuilder.parse(inp);
+        } finally {
+            releaseDocumentBuilder(documentBuilder);
+        }
+    }
+
+    /**
+     * Document builders are expensive to create, so the builder used for parsing
+     * is kept per thread and reset to its initial configuration for the next parse
+     */
+    private static final ThreadLocal<DocumentBuilder> cachedDocumentBuilder = new ThreadLocal<>();
+
+    private static void releaseDocumentBuilder(DocumentBuilder documentBuilder) {
+        try {
+            // reset() also drops the entity resolver and error handler
+            documentBuilder.reset();
+            documentBuilder.setEntityResolver(SAXHelper.IGNORING_ENTITY_RESOLVER);
+            documentBuilder.setErrorHandler(ERROR_HANDLER);
+            cachedDocumentBuilder.set(documentBuilder);
+        } catch (UnsupportedOperationException e) {
+            // old parsers without reset support can't be reused
+            logger.log(POILogger.DEBUG, "DocumentBuilder can't be reset and won't be reused", e);
+        }
     }
 
     // must only be used to create empty documents, do not use it for parsing!
@@ -376,6 +376,28 @@ public abstract class OPCPackage implements RelationshipSource, Closeable {
 		return pkg;
 	}
 
+	/**
+	 * Creates a new write-once package, which streams its parts into the given
+	 * output stream as soon as their output streams are closed, instead of
+	 * keeping them in memory until the package is saved.
+	 * <p>
+	 * Each part can only be written once and can't be read back afterwards.
+	 * The content types part and the relationships are written when the
+	 * package is closed, which also closes the output stream.
+	 *
+	 * @param output
+	 *            The stream to write the package to.
+	 * @return A newly created streaming package ready to use.
+	 */
+	public static OPCPackage createStreaming(OutputStream output) {
+		OPCPackage pkg = new ZipPackage(output);
+		pkg.originalPackagePath = null;
+		pkg.output = output;
+
+		configurePackage(pkg);
+		return pkg;
+	}
+
 	private static void configurePackage(OPCPackage pkg) {
 		try {
 			// Content type manager
@@ -687,20 +709,15 @@ public abstract class OPCPackage implements RelationshipSource, Closeable {
 	 *            The part relationship uses to retrieve the part.
 	 */
 	public PackagePart getPart(PackageRelationship partRel) {
-		PackagePart retPart = null;
 		ensureRelationships();
-		for (PackageRelationship rel : relationships) {
-			if (rel.getRelationshipType().equals(partRel.getRelationshipType())) {
-				try {
-					retPart = getPart(PackagingURIHelper.createPartName(rel
-							.getTargetURI()));
-				} catch (InvalidFormatException e) {
-					continue;
-				}
-				break;
+		for (PackageRelationship rel : relationships.getRelationshipsOfType(partRel.getRelationshipType())) {
+			try {
+				return getPart(PackagingURIHelper.createPartName(rel.getTargetURI()));
+			} catch (InvalidFormatException e) {
+				// try the next relationship of the same type
 			}
 		}
-		return retPart;
+		return null;
 	}
 
 	/**
@@ -1356,12 +1373,7 @@ public abstract class OPCPackage implements RelationshipSource, Closeable {
 	 */
 	@Override
     public boolean isRelationshipExists(PackageRelationship rel) {
-        for (PackageRelationship r : relationships) {
-            if (r == rel) {
-                return true;
-            }
-        }
-        return false;
+        return rel != null && relationships.getRelationshipByID(rel.getId()) == rel;
 	}
 
 	/**
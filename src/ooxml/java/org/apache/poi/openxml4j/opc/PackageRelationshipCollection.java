@@ -48,14 +48,14 @@ public final class PackageRelationshipCollection implements
     private final TreeMap<String, PackageRelationship> relationshipsByID = new TreeMap<>();
 
     /**
-     * Package relationships ordered by type.
+     * Package relationships grouped by type, each group ordered by ID.
      */
-    private final TreeMap<String, PackageRelationship> relationshipsByType = new TreeMap<>();
+    private final HashMap<String, TreeMap<String, PackageRelationship>> relationshipsByType = new HashMap<>();
 
     /**
      * A lookup of internal relationships to avoid
      */
-    private HashMap<String, PackageRelationship> internalRelationshipsByTargetName = new HashMap<>();
+    private final HashMap<String, PackageRelationship> internalRelationshipsByTargetName = new HashMap<>();
 
 
     /**
@@ -105,9 +105,17 @@ public final class PackageRelationshipCollection implements
     public PackageRelationshipCollection(PackageRelationshipCollection coll,
             String filter) {
         this();
-        for (PackageRelationship rel : coll.relationshipsByID.values()) {
-            if (filter == null || rel.getRelationshipType().equals(filter))
+        if (filter == null) {
+            for (PackageRelationship rel : coll.relationshipsByID.values()) {
                 addRelationship(rel);
+            }
+        } else {
+            TreeMap<String, PackageRelationship> typed = coll.relationshipsByType.get(filter);
+            if (typed != null) {
+                for (PackageRelationship rel : typed.values()) {
+                    addRelationship(rel);
+                }
+            }
         }
     }
 
@@ -196,8 +204,23 @@ public final class PackageRelationshipCollection implements
         if (relPart == null || relPart.getId() == null || relPart.getId().isEmpty()) {
             throw new IllegalArgumentException("invalid relationship part/id");
         }
-        relationshipsByID.put(relPart.getId(), relPart);
-        relationshipsByType.put(relPart.getRelationshipType(), relPart);
+        PackageRelationship replaced = relationshipsByID.put(relPart.getId(), relPart);
+        if (replaced != null) {
+            removeFromTypeIndex(replaced);
+        }
+        TreeMap<String, PackageRelationship> typed = relationshipsByType.get(relPart.getRelationshipType());
+        if (typed == null) {
+            typed = new TreeMap<>();
+            relationshipsByType.put(relPart.getRelationshipType(), typed);
+        }
+        typed.put(relPart.getId(), relPart);
+    }
+
+    private void removeFromTypeIndex(PackageRelationship rel) {
+        TreeMap<String, PackageRelationship> typed = relationshipsByType.get(rel.getRelationshipType());
+        if (typed != null && typed.remove(rel.getId()) != null && typed.isEmpty()) {
+            relationshipsByType.remove(rel.getRelationshipType());
+        }
     }
 
     /**
@@ -244,11 +267,13 @@ public final class PackageRelationshipCollection implements
      *            The relationship ID to remove.
      */
     public void removeRelationship(String id) {
-        if (relationshipsByID != null && relationshipsByType != null) {
-            PackageRelationship rel = relationshipsByID.get(id);
-            if (rel != null) {
-                relationshipsByID.remove(rel.getId());
-                relationshipsByType.values().remove(rel);
+        PackageRelationship rel = relationshipsByID.remove(id);
+        if (rel != null) {
+            removeFromTypeIndex(rel);
+            // internal targets are keyed by their unresolved URI, which is
+            // the resolved one for all relationships added via the API
+            if (rel.getTargetMode() == TargetMode.INTERNAL
+                    && !internalRelationshipsByTargetName.remove(rel.getTargetURI().toASCIIString(), rel)) {
                 internalRelationshipsByTargetName.values().remove(rel);
             }
         }
@@ -284,6 +309,17 @@ public final class PackageRelationshipCollection implements
         return relationshipsByID.get(id);
     }
 
+    /**
+     * Retrieves a read-only view of the relationships of the given type,
+     * ordered by ID, without copying them into a new collection.
+     */
+    Collection<PackageRelationship> getRelationshipsOfType(String type) {
+        TreeMap<String, PackageRelationship> typed = relationshipsByType.get(type);
+        return (typed == null)
+                ? Collections.<PackageRelationship>emptyList()
+                : Collections.unmodifiableCollection(typed.values());
+    }
+
     /**
      * Get the numbe rof relationships in the collection.
      */
@@ -390,12 +426,11 @@ public final class PackageRelationshipCollection implements
      *         specified type contain in this collection.
      */
     public Iterator<PackageRelationship> iterator(String typeFilter) {
-        ArrayList<PackageRelationship> retArr = new ArrayList<>();
-        for (PackageRelationship rel : relationshipsByID.values()) {
-            if (rel.getRelationshipType().equals(typeFilter))
-                retArr.add(rel);
+        TreeMap<String, PackageRelationship> typed = relationshipsByType.get(typeFilter);
+        if (typed == null) {
+            return Collections.<PackageRelationship>emptyList().iterator();
         }
-        return retArr.iterator();
+        return new ArrayList<>(typed.values()).iterator();
     }
 
     /**
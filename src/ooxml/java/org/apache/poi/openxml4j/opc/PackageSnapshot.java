@@ -0,0 +1,95 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.openxml4j.opc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.internal.ZipHelper;
+import org.apache.poi.openxml4j.util.ZipArchiveSnapshot;
+import org.apache.poi.openxml4j.util.ZipFileZipEntrySource;
+import org.apache.poi.openxml4j.util.ZipSecureFile;
+import org.apache.poi.util.IOUtils;
+
+/**
+ * An immutable snapshot of a package, which is read and decompressed once and
+ * can then be shared by many threads, e.g. for a template which is instantiated
+ * on each request.<p>
+ *
+ * {@link #fork()} opens a new, modifiable package on the snapshot, which can be
+ * passed to the constructors of XSSFWorkbook, XMLSlideShow or XWPFDocument.
+ * The parts of the fork are read from the shared buffers and only copied, when
+ * they are written to, so the snapshot itself is never modified.
+ */
+public final class PackageSnapshot {
+    private final ZipArchiveSnapshot archive;
+
+    private PackageSnapshot(ZipArchiveSnapshot archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Reads the package file into a snapshot
+     *
+     * @param file the package file
+     * @return the snapshot
+     * @throws IOException if the file can't be read or exceeds the zip bomb limits
+     */
+    public static PackageSnapshot open(File file) throws IOException {
+        try (ZipSecureFile zipFile = ZipHelper.openZipFile(file);
+             ZipFileZipEntrySource source = new ZipFileZipEntrySource(zipFile)) {
+            return new PackageSnapshot(new ZipArchiveSnapshot(source));
+        }
+    }
+
+    /**
+     * Reads the package stream into a snapshot and closes the stream
+     *
+     * @param is the package data
+     * @return the snapshot
+     * @throws IOException if the stream can't be read or exceeds the zip bomb limits
+     */
+    public static PackageSnapshot open(InputStream is) throws IOException {
+        try {
+            return new PackageSnapshot(new ZipArchiveSnapshot(ZipHelper.openZipStream(is)));
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Opens a new package on the snapshot data. The package can be modified and
+     * saved to a stream or a file, without affecting the snapshot or other forks.
+     * Use {@link OPCPackage#revert()} to discard it.
+     *
+     * @return the new package
+     * @throws InvalidFormatException if the snapshot isn't a valid package
+     */
+    public OPCPackage fork() throws InvalidFormatException {
+        OPCPackage pack = new ZipPackage(archive, PackageAccess.READ_WRITE);
+        try {
+            pack.getParts();
+            return pack;
+        } catch (InvalidFormatException | RuntimeException e) {
+            pack.revert();
+            throw e;
+        }
+    }
+}
@@ -44,6 +44,8 @@ import org.apache.poi.openxml4j.opc.internal.ContentTypeManager;
 import org.apache.poi.openxml4j.opc.internal.FileHelper;
 import org.apache.poi.openxml4j.opc.internal.MemoryPackagePart;
 import org.apache.poi.openxml4j.opc.internal.PartMarshaller;
+import org.apache.poi.openxml4j.opc.internal.StreamingPackagePart;
+import org.apache.poi.openxml4j.opc.internal.StreamingZipOutput;
 import org.apache.poi.openxml4j.opc.internal.ZipContentTypeManager;
 import org.apache.poi.openxml4j.opc.internal.ZipHelper;
 import org.apache.poi.openxml4j.opc.internal.marshallers.ZipPartMarshaller;
@@ -71,12 +73,35 @@ public final class ZipPackage extends OPCPackage {
      */
     private final ZipEntrySource zipArchive;
 
+    /**
+     * Archive the parts of a streaming package are written to,
+     *  or null if the parts are kept in memory until saving
+     */
+    private final StreamingZipOutput streamingOutput;
+
     /**
      * Constructor. Creates a new, empty ZipPackage.
      */
     public ZipPackage() {
+        this((StreamingZipOutput)null);
+    }
+
+    /**
+     * Constructor. Creates a new, empty ZipPackage, which writes
+     *  its parts into the given stream as soon as they are closed.
+     *
+     * @param output
+     *            The stream to write the package to.
+     */
+    ZipPackage(OutputStream output) {
+        this(new StreamingZipOutput((output instanceof ZipOutputStream)
+            ? (ZipOutputStream) output : new ZipOutputStream(output)));
+    }
+
+    private ZipPackage(StreamingZipOutput streamingOutput) {
         super(defaultPackageAccess);
         this.zipArchive = null;
+        this.streamingOutput = streamingOutput;
 
         try {
             this.contentTypeManager = new ZipContentTypeManager(null, this);
@@ -101,6 +126,7 @@ public final class ZipPackage extends OPCPackage {
      */
     ZipPackage(InputStream in, PackageAccess access) throws IOException {
         super(access);
+        this.streamingOutput = null;
         ZipArchiveThresholdInputStream zis = ZipHelper.openZipStream(in);
         try {
             this.zipArchive = new ZipInputStreamZipEntrySource(zis);
@@ -134,6 +160,7 @@ public final class ZipPackage extends OPCPackage {
      */
     ZipPackage(File file, PackageAccess access) throws InvalidOperationException {
         super(access);
+        this.streamingOutput = null;
 
         ZipEntrySource ze;
         try {
@@ -228,6 +255,7 @@ public final class ZipPackage extends OPCPackage {
     ZipPackage(ZipEntrySource zipEntry, PackageAccess access) {
         super(access);
         this.zipArchive = zipEntry;
+        this.streamingOutput = null;
     }
 
     /**
@@ -367,6 +395,9 @@ public final class ZipPackage extends OPCPackage {
         }
 
         try {
+            if (streamingOutput != null) {
+                return new StreamingPackagePart(this, partName, contentType, loadRelationships, streamingOutput);
+            }
             return new MemoryPackagePart(this, partName, contentType, loadRelationships);
         } catch (InvalidFormatException e) {
             LOG.log(POILogger.WARN, e);
@@ -483,31 +514,15 @@ public final class ZipPackage extends OPCPackage {
 		// Check that the document was open in write mode
 		throwExceptionIfReadOnly();
 
+		if (streamingOutput != null) {
+			saveStreamingImpl(outputStream);
+			return;
+		}
+
 		try (final ZipOutputStream zos = (outputStream instanceof ZipOutputStream)
                 ? (ZipOutputStream) outputStream : new ZipOutputStream(outputStream)) {
 
-			// If the core properties part does not exist in the part list,
-			// we save it as well
-			if (this.getPartsByRelationshipType(PackageRelationshipTypes.CORE_PROPERTIES).size() == 0 &&
-                this.getPartsByRelationshipType(PackageRelationshipTypes.CORE_PROPERTIES_ECMA376).size() == 0    ) {
-				LOG.log(POILogger.DEBUG,"Save core properties part");
-				
-				// Ensure that core properties are added if missing
-				getPackageProperties();
-				// Add core properties to part list ...
-				addPackagePart(this.packageProperties);
-				// ... and to add its relationship ...
-				this.relationships.addRelationship(this.packageProperties
-						.getPartName().getURI(), TargetMode.INTERNAL,
-						PackageRelationshipTypes.CORE_PROPERTIES, null);
-				// ... and the content if it has not been added yet.
-				if (!this.contentTypeManager
-						.isContentTypeRegister(ContentTypes.CORE_PROPERTIES_PART)) {
-					this.contentTypeManager.addContentType(
-							this.packageProperties.getPartName(),
-							ContentTypes.CORE_PROPERTIES_PART);
-				}
-			}
+			addCorePropertiesIfMissing();
 
             // Save content type part.
             LOG.log(POILogger.DEBUG,"Save content types part");
@@ -547,6 +562,95 @@ public final class ZipPackage extends OPCPackage {
 		}
     }
 
+	/**
+	 * Finish a streaming package: the parts which haven't been streamed yet
+	 * are written first, followed by the relationships of all parts, the
+	 * content types part and the package relationships.
+	 *
+	 * @param outputStream
+	 *            The stream the package was created with.
+	 */
+	private void saveStreamingImpl(OutputStream outputStream) {
+		final ZipOutputStream zos = streamingOutput.getZipOutputStream();
+		if (outputStream != this.output && outputStream != zos) {
+			throw new InvalidOperationException(
+				"A streaming package can only be saved to the stream it was created with.");
+		}
+		streamingOutput.checkAllPartsClosed();
+
+		try {
+			addCorePropertiesIfMissing();
+
+			for (PackagePart part : getParts()) {
+				if (part.isRelationshipPart()) {
+					continue;
+				}
+
+				final PackagePartName ppn = part.getPartName();
+				if (part instanceof StreamingPackagePart && ((StreamingPackagePart)part).isWritten()) {
+					// only the relationships are left to be saved
+					if (part.hasRelationships()) {
+						ZipPartMarshaller.marshallRelationshipPart(part.getRelationships(),
+							PackagingURIHelper.getRelationshipPartName(ppn), zos);
+					}
+					continue;
+				}
+
+				LOG.log(POILogger.DEBUG,"Save part '" + ZipHelper.getZipItemNameFromOPCName(ppn.getName()) + "'");
+				final PartMarshaller marshaller = partMarshallers.get(part._contentType);
+				final PartMarshaller pm = (marshaller != null) ? marshaller : defaultPartMarshaller;
+				if (!pm.marshall(part, zos)) {
+					String errMsg = "The part " + ppn.getURI() + " failed to be saved in the stream with marshaller ";
+					throw new OpenXML4JException(errMsg + pm);
+				}
+			}
+
+			LOG.log(POILogger.DEBUG,"Save content types part");
+			this.contentTypeManager.save(zos);
+
+			LOG.log(POILogger.DEBUG,"Save package relationships");
+			ZipPartMarshaller.marshallRelationshipPart(this.getRelationships(),
+					PackagingURIHelper.PACKAGE_RELATIONSHIPS_ROOT_PART_NAME,
+					zos);
+
+			zos.close();
+		} catch (OpenXML4JRuntimeException e) {
+			// no need to wrap this type of Exception
+			throw e;
+		} catch (Exception e) {
+			throw new OpenXML4JRuntimeException(
+				"Fail to save: an error occurs while saving the package : "
+				+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * If the core properties part does not exist in the part list,
+	 * it's added, so it is saved as well
+	 */
+	private void addCorePropertiesIfMissing() throws InvalidFormatException {
+		if (this.getPartsByRelationshipType(PackageRelationshipTypes.CORE_PROPERTIES).size() == 0 &&
+			this.getPartsByRelationshipType(PackageRelationshipTypes.CORE_PROPERTIES_ECMA376).size() == 0    ) {
+			LOG.log(POILogger.DEBUG,"Save core properties part");
+
+			// Ensure that core properties are added if missing
+			getPackageProperties();
+			// Add core properties to part list ...
+			addPackagePart(this.packageProperties);
+			// ... and to add its relationship ...
+			this.relationships.addRelationship(this.packageProperties
+					.getPartName().getURI(), TargetMode.INTERNAL,
+					PackageRelationshipTypes.CORE_PROPERTIES, null);
+			// ... and the content if it has not been added yet.
+			if (!this.contentTypeManager
+					.isContentTypeRegister(ContentTypes.CORE_PROPERTIES_PART)) {
+				this.contentTypeManager.addContentType(
+						this.packageProperties.getPartName(),
+						ContentTypes.CORE_PROPERTIES_PART);
+			}
+		}
+	}
+
     /**
      * Get the zip archive
      *
@@ -0,0 +1,121 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.openxml4j.opc.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.InvalidOperationException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackagePartName;
+import org.apache.poi.openxml4j.opc.internal.marshallers.ZipPartMarshaller;
+import org.apache.poi.util.IOUtils;
+
+/**
+ * Write-once package part of a streaming package. Instead of being buffered
+ * until the package is saved, the part data is written into the output archive
+ * when the part output stream is closed. Therefore the part can only be written
+ * once and its content can't be read back afterwards.
+ *
+ * @see OPCPackage#createStreaming(OutputStream)
+ */
+public final class StreamingPackagePart extends PackagePart {
+
+    private final StreamingZipOutput zipOutput;
+
+    private boolean written;
+
+    private long size;
+
+    public StreamingPackagePart(OPCPackage pack, PackagePartName partName,
+            String contentType, boolean loadRelationships, StreamingZipOutput zipOutput)
+            throws InvalidFormatException {
+        super(pack, partName, new ContentType(contentType), loadRelationships);
+        this.zipOutput = zipOutput;
+    }
+
+    /**
+     * @return true, if the part data has been handed over to the archive
+     */
+    public boolean isWritten() {
+        return written;
+    }
+
+    void addSize(long len) {
+        size += len;
+    }
+
+    @Override
+    protected InputStream getInputStreamImpl() {
+        // the data of a written part isn't available anymore
+        return written ? null : new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    protected OutputStream getOutputStreamImpl() {
+        if (written) {
+            throw new InvalidOperationException("The part " + getPartName().getName()
+                + " has already been written to the streaming package.");
+        }
+        written = true;
+        return zipOutput.openPartStream(this);
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        if (written) {
+            throw new InvalidOperationException("The part " + getPartName().getName()
+                + " has already been written to the streaming package.");
+        }
+    }
+
+    @Override
+    public boolean save(OutputStream os) throws OpenXML4JException {
+        return new ZipPartMarshaller().marshall(this, os);
+    }
+
+    @Override
+    public boolean load(InputStream ios) throws InvalidFormatException {
+        try (OutputStream os = getOutputStreamImpl()) {
+            IOUtils.copy(ios, os);
+        } catch (IOException e) {
+            throw new InvalidFormatException(e.getMessage());
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // Do nothing
+    }
+
+    @Override
+    public void flush() {
+        // Do nothing
+    }
+}
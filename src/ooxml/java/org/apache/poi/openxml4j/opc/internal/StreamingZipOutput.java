@@ -0,0 +1,170 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.openxml4j.opc.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.poi.openxml4j.exceptions.InvalidOperationException;
+import org.apache.poi.openxml4j.opc.PackagePartName;
+
+/**
+ * Zip archive shared by the {@link StreamingPackagePart}s of a package, which
+ * are written to it as soon as their output stream is closed.
+ * <p>
+ * A zip archive can only have one entry open at a time. The first part output
+ * stream is therefore written directly into the archive, while parts which are
+ * written at the same time are buffered and appended once the current entry
+ * has been closed.
+ */
+public final class StreamingZipOutput {
+
+    private final ZipOutputStream zos;
+
+    private final Deque<PendingEntry> pending = new ArrayDeque<>();
+
+    private PackagePartName openEntry;
+
+    /** parts whose buffered output stream hasn't been closed yet */
+    private final Set<PackagePartName> openBufferedParts = new LinkedHashSet<>();
+
+    public StreamingZipOutput(ZipOutputStream zos) {
+        this.zos = zos;
+    }
+
+    /**
+     * @return the archive the parts are streamed into
+     */
+    public ZipOutputStream getZipOutputStream() {
+        return zos;
+    }
+
+    /**
+     * Opens an output stream for the given part. The part data is written into
+     * the archive when the returned stream is closed at the latest.
+     *
+     * @param part the part to write
+     * @return the part output stream
+     */
+    OutputStream openPartStream(final StreamingPackagePart part) {
+        if (openEntry != null) {
+            openBufferedParts.add(part.getPartName());
+            return new ByteArrayOutputStream() {
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    openBufferedParts.remove(part.getPartName());
+                    pending.add(new PendingEntry(part, toByteArray()));
+                    writePending();
+                }
+            };
+        }
+
+        try {
+            zos.putNextEntry(new ZipEntry(getZipItemName(part.getPartName())));
+        } catch (IOException e) {
+            throw new InvalidOperationException("Can't create zip entry for " + part.getPartName(), e);
+        }
+        openEntry = part.getPartName();
+
+        return new FilterOutputStream(zos) {
+            private boolean closed;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                part.addSize(len);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                part.addSize(1);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                // close the entry, but not the archive itself
+                zos.closeEntry();
+                openEntry = null;
+                writePending();
+            }
+        };
+    }
+
+    /**
+     * Writes all buffered parts, unless another part is currently written.
+     */
+    private void writePending() throws IOException {
+        while (openEntry == null && !pending.isEmpty()) {
+            PendingEntry pe = pending.poll();
+            zos.putNextEntry(new ZipEntry(getZipItemName(pe.part.getPartName())));
+            zos.write(pe.data);
+            zos.closeEntry();
+            pe.part.addSize(pe.data.length);
+        }
+    }
+
+    /**
+     * Checks that all part output streams have been closed, before the
+     * trailing package entries are written.
+     *
+     * @throws InvalidOperationException if a part output stream is still open
+     */
+    public void checkAllPartsClosed() {
+        PackagePartName openPart = openEntry;
+        if (openPart == null && !openBufferedParts.isEmpty()) {
+            openPart = openBufferedParts.iterator().next();
+        }
+        if (openPart != null) {
+            throw new InvalidOperationException("The output stream of part " + openPart.getName()
+                + " needs to be closed before the package is saved.");
+        }
+    }
+
+    private static String getZipItemName(PackagePartName partName) {
+        return ZipHelper.getZipItemNameFromOPCName(partName.getURI().getPath());
+    }
+
+    private static final class PendingEntry {
+        final StreamingPackagePart part;
+        final byte[] data;
+
+        PendingEntry(StreamingPackagePart part, byte[] data) {
+            this.part = part;
+            this.data = data;
+        }
+    }
+}
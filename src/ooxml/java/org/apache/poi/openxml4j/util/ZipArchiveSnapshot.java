@@ -0,0 +1,121 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.openxml4j.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.collections4.IteratorUtils;
+
+/**
+ * An immutable, in-memory copy of the decompressed entries of a zip archive.
+ * Opposed to {@link ZipInputStreamZipEntrySource}, the entries aren't freed
+ * on {@link #close()}, so the same snapshot can be shared by any number of
+ * packages, which may read it concurrently from different threads.
+ */
+public final class ZipArchiveSnapshot implements ZipEntrySource {
+    private final Map<String, ZipArchiveFakeEntry> zipEntries;
+
+    /**
+     * Reads all the entries of the given source into memory.
+     * The source is not closed.
+     *
+     * @param source the archive to copy
+     * @throws IOException if an entry can't be read
+     */
+    public ZipArchiveSnapshot(ZipEntrySource source) throws IOException {
+        Map<String, ZipArchiveFakeEntry> entries = new HashMap<>();
+        Enumeration<? extends ZipEntry> en = source.getEntries();
+        while (en.hasMoreElements()) {
+            ZipEntry zipEntry = en.nextElement();
+            try (InputStream is = source.getInputStream(zipEntry)) {
+                entries.put(zipEntry.getName(), new ZipArchiveFakeEntry(zipEntry, is));
+            }
+        }
+        zipEntries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Reads all the entries from the zip stream into memory,
+     * and closes the stream.
+     *
+     * @param inp the zip stream
+     * @throws IOException if an entry can't be read
+     */
+    public ZipArchiveSnapshot(ZipArchiveThresholdInputStream inp) throws IOException {
+        Map<String, ZipArchiveFakeEntry> entries = new HashMap<>();
+        try {
+            for (;;) {
+                final ZipEntry zipEntry = inp.getNextEntry();
+                if (zipEntry == null) {
+                    break;
+                }
+                entries.put(zipEntry.getName(), new ZipArchiveFakeEntry(zipEntry, inp));
+            }
+        } finally {
+            inp.close();
+        }
+        zipEntries = Collections.unmodifiableMap(entries);
+    }
+
+    @Override
+    public Enumeration<? extends ZipEntry> getEntries() {
+        return IteratorUtils.asEnumeration(zipEntries.values().iterator());
+    }
+
+    @Override
+    public InputStream getInputStream(ZipEntry zipEntry) {
+        assert (zipEntry instanceof ZipArchiveFakeEntry);
+        return ((ZipArchiveFakeEntry)zipEntry).getInputStream();
+    }
+
+    /**
+     * The data is shared with other packages, so closing doesn't free anything
+     */
+    @Override
+    public void close() {
+        // Do nothing
+    }
+
+    @Override
+    public boolean isClosed() {
+        return false;
+    }
+
+    @Override
+    public ZipEntry getEntry(final String path) {
+        final String normalizedPath = path.replace('\\', '/');
+        final ZipEntry ze = zipEntries.get(normalizedPath);
+        if (ze != null) {
+            return ze;
+        }
+
+        for (final Map.Entry<String, ZipArchiveFakeEntry> fze : zipEntries.entrySet()) {
+            if (normalizedPath.equalsIgnoreCase(fze.getKey())) {
+                return fze.getValue();
+            }
+        }
+
+        return null;
+    }
+}
@@ -56,6 +56,11 @@ public class ZipArchiveThresholdInputStream extends PushbackInputStream {
         "Counter: %d, cis.counter: %d, ratio: %f\n" +
         "Limits: MIN_INFLATE_RATIO: %f, Entry: %s";
 
+    private static final String DECLARED_SIZE_MSG =
+        "Zip bomb detected! The file inflates to more data than the size declared in the zip-file.\n" +
+        "This may indicate that the file is used to inflate memory usage and thus could pose a security risk.\n" +
+        "Counter: %d, declared size: %d, Entry: %s";
+
     private static final String SECURITY_BLOCKED =
         "SecurityManager doesn't allow manipulation via reflection for zipbomb detection - continue with original input stream";
 
@@ -69,9 +74,16 @@ public class ZipArchiveThresholdInputStream extends PushbackInputStream {
     private final ZipArchiveThresholdInputStream cis;
     private boolean guardState = true;
 
+    /**
+     * the declared uncompressed size of an entry, which already passed the checks, or -1
+     * if the inflated bytes need to be checked against the compressed bytes while reading
+     */
+    private final long declaredSize;
+
 
     public ZipArchiveThresholdInputStream(final InputStream zipIS) throws IOException {
         super(zipIS);
+        declaredSize = -1;
         if (zipIS instanceof InflaterInputStream) {
             cis = AccessController.doPrivileged(inject(zipIS));
         } else {
@@ -83,6 +95,54 @@ public class ZipArchiveThresholdInputStream extends PushbackInputStream {
     private ZipArchiveThresholdInputStream(InputStream is, ZipArchiveThresholdInputStream cis) {
         super(is);
         this.cis = cis;
+        this.declaredSize = -1;
+    }
+
+    /**
+     * Creates a stream for a zip file entry, whose declared sizes already passed
+     * {@link #checkDeclaredSizes(ZipEntry)}. As the compressed data of a zip file entry
+     * is limited to its declared compressed size, the inflated bytes only need to be
+     * checked against the declared uncompressed size instead of tracking the
+     * compressed bytes read by the inflater.
+     *
+     * @param zipIS the entry input stream
+     * @param entry the zip file entry
+     */
+    ZipArchiveThresholdInputStream(InputStream zipIS, ZipEntry entry) {
+        super(zipIS);
+        this.cis = null;
+        this.entry = entry;
+        this.declaredSize = entry.getSize();
+    }
+
+    /**
+     * Checks the sizes of a zip entry, as declared in the central directory of the
+     * zip file, against the limits before any data is inflated.
+     *
+     * @param entry the zip file entry
+     * @return {@code true}, if the declared sizes are known and within the limits,
+     *  {@code false} if the sizes are unknown and need to be checked while reading
+     * @throws IOException if the declared sizes exceed the limits
+     */
+    static boolean checkDeclaredSizes(ZipEntry entry) throws IOException {
+        final long size = entry.getSize();
+        final long compressedSize = entry.getCompressedSize();
+        if (size < 0 || compressedSize < 0) {
+            return false;
+        }
+
+        if (size > MAX_ENTRY_SIZE) {
+            throw new IOException(String.format(Locale.ROOT, MAX_ENTRY_SIZE_MSG, size, compressedSize, MAX_ENTRY_SIZE, entry.getName()));
+        }
+
+        if (size > GRACE_ENTRY_SIZE) {
+            double ratio = (double)compressedSize/(double)size;
+            if (ratio < MIN_INFLATE_RATIO) {
+                throw new IOException(String.format(Locale.ROOT, MIN_INFLATE_RATIO_MSG, size, compressedSize, ratio, MIN_INFLATE_RATIO, entry.getName()));
+            }
+        }
+
+        return true;
     }
 
     @SuppressForbidden
@@ -92,7 +152,7 @@ public class ZipArchiveThresholdInputStream extends PushbackInputStream {
                 final Field f = FilterInputStream.class.getDeclaredField("in");
                 f.setAccessible(true);
                 final InputStream oldInner = (InputStream)f.get(zipIS);
-                final ZipArchiveThresholdInputStream inner = new ZipArchiveThresholdInputStream(oldInner, null);
+                final ZipArchiveThresholdInputStream inner = new ZipArchiveThresholdInputStream(oldInner, (ZipArchiveThresholdInputStream)null);
                 f.set(zipIS, inner);
                 return inner;
             } catch (Exception ex) {
@@ -150,12 +210,19 @@ public class ZipArchiveThresholdInputStream extends PushbackInputStream {
             return;
         }
 
-        final String entryName = entry == null ? "not set" : entry.getName();
+        // the declared sizes were already checked, so the entry must not inflate beyond them
+        if (declaredSize >= 0) {
+            if (counter > declaredSize) {
+                throw new IOException(String.format(Locale.ROOT, DECLARED_SIZE_MSG, counter, declaredSize, getEntryName()));
+            }
+            return;
+        }
+
         final long cisCount = (cis == null ? 0 : cis.counter);
 
         // check the file size first, in case we are working on uncompressed streams
         if(counter > MAX_ENTRY_SIZE) {
-            throw new IOException(String.format(Locale.ROOT, MAX_ENTRY_SIZE_MSG, counter, cisCount, MAX_ENTRY_SIZE, entryName));
+            throw new IOException(String.format(Locale.ROOT, MAX_ENTRY_SIZE_MSG, counter, cisCount, MAX_ENTRY_SIZE, getEntryName()));
         }
 
         // no expanded size?
@@ -174,7 +241,11 @@ public class ZipArchiveThresholdInputStream extends PushbackInputStream {
         }
 
         // one of the limits was reached, report it
-        throw new IOException(String.format(Locale.ROOT, MIN_INFLATE_RATIO_MSG, counter, cisCount, ratio, MIN_INFLATE_RATIO, entryName));
+        throw new IOException(String.format(Locale.ROOT, MIN_INFLATE_RATIO_MSG, counter, cisCount, ratio, MIN_INFLATE_RATIO, getEntryName()));
+    }
+
+    private String getEntryName() {
+        return entry == null ? "not set" : entry.getName();
     }
 
     public ZipEntry getNextEntry() throws IOException {
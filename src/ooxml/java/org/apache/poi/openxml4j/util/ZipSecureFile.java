@@ -19,6 +19,8 @@ package org.apache.poi.openxml4j.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Locale;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -28,12 +30,23 @@ import java.util.zip.ZipFile;
  * entries for <a href="https://en.wikipedia.org/wiki/Zip_bomb">zip bombs</a>
  * while reading the archive.<p>
  *
- * The alert limits can be globally defined via {@link #setMaxEntrySize(long)}
- * and {@link #setMinInflateRatio(double)}.
+ * The alert limits can be globally defined via {@link #setMaxEntrySize(long)},
+ * {@link #setMinInflateRatio(double)} and {@link #setMaxEntryCount(long)}.<p>
+ *
+ * The sizes declared in the central directory are checked before an entry is
+ * inflated. {@link #validate()} applies these checks to all entries up front,
+ * e.g. to reject untrusted uploads before any part is read.
  */
 public class ZipSecureFile extends ZipFile {
     /* package */ static double MIN_INFLATE_RATIO = 0.01d;
     /* package */ static long MAX_ENTRY_SIZE = 0xFFFFFFFFL;
+    /* package */ static long MAX_ENTRY_COUNT = 0xFFFFFFFFL;
+
+    private static final String MAX_ENTRY_COUNT_MSG =
+        "Zip bomb detected! The file would exceed the max. number of entries in the zip-file.\n" +
+        "This may indicate that the file is used to inflate memory usage and thus could pose a security risk.\n" +
+        "You can adjust this limit via ZipSecureFile.setMaxEntryCount() if you need to work with files which exceed this limit.\n" +
+        "Entries: %d, Limits: MAX_ENTRY_COUNT: %d, File: %s";
     
     // The default maximum size of extracted text
     private static long MAX_TEXT_SIZE = 10*1024*1024L;
@@ -90,6 +103,30 @@ public class ZipSecureFile extends ZipFile {
         return MAX_ENTRY_SIZE;
     }
 
+    /**
+     * Sets the maximum number of entries of a zip file, which is checked by
+     * {@link #validate()}. It defaults to 4G, i.e. no practical limit.
+     *
+     * @param maxEntryCount the max. number of entries in a zip file
+     */
+    public static void setMaxEntryCount(long maxEntryCount) {
+        if (maxEntryCount < 0 || maxEntryCount > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("Max entry count is bounded [0-4G], but had " + maxEntryCount);
+        }
+        MAX_ENTRY_COUNT = maxEntryCount;
+    }
+
+    /**
+     * Returns the current maximum allowed number of entries.
+     *
+     * See setMaxEntryCount() for details.
+     *
+     * @return The max accepted number of entries.
+     */
+    public static long getMaxEntryCount() {
+        return MAX_ENTRY_COUNT;
+    }
+
     /**
      * Sets the maximum number of characters of text that are
      * extracted before an exception is thrown during extracting
@@ -144,11 +181,30 @@ public class ZipSecureFile extends ZipFile {
     @Override
     @SuppressWarnings("resource")
     public ZipArchiveThresholdInputStream getInputStream(ZipEntry entry) throws IOException {
+        if (ZipArchiveThresholdInputStream.checkDeclaredSizes(entry)) {
+            return new ZipArchiveThresholdInputStream(super.getInputStream(entry), entry);
+        }
         ZipArchiveThresholdInputStream zatis = new ZipArchiveThresholdInputStream(super.getInputStream(entry));
         zatis.setEntry(entry);
         return zatis;
     }
 
+    /**
+     * Checks the number of entries and the declared sizes and compression ratios
+     * of all entries against the limits, without inflating any data.
+     *
+     * @throws IOException if a limit is exceeded
+     */
+    public void validate() throws IOException {
+        if (size() > MAX_ENTRY_COUNT) {
+            throw new IOException(String.format(Locale.ROOT, MAX_ENTRY_COUNT_MSG, size(), MAX_ENTRY_COUNT, fileName));
+        }
+        Enumeration<? extends ZipEntry> entries = entries();
+        while (entries.hasMoreElements()) {
+            ZipArchiveThresholdInputStream.checkDeclaredSizes(entries.nextElement());
+        }
+    }
+
     /**
      * Returns the path name of the ZIP file.
      * @return the path name of the ZIP file
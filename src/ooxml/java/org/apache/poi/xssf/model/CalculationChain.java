@@ -85,8 +85,8 @@ public class CalculationChain extends POIXMLDocumentPart {
      * @param ref  A1 style reference to the cell containing the formula.
      */
     public void removeItem(int sheetId, String ref){
-        //sheet Id of a sheet the cell belongs to
-        int id = -1;
+        //sheet Id of a sheet the cell belongs to, which defaults to 0 for the first cell
+        int id = 0;
         CTCalcCell[] c = chain.getCArray();
 
         for (int i = 0; i < c.length; i++){
@@ -102,4 +102,18 @@ public class CalculationChain extends POIXMLDocumentPart {
             }
         }
     }
+
+    /**
+     * Append a formula reference to the calculation chain
+     *
+     * @param sheetId  the sheet Id of a sheet the formula belongs to.
+     * @param ref  A1 style reference to the cell containing the formula.
+     * @param isArray  whether the cell contains an array formula
+     */
+    public void addItem(int sheetId, String ref, boolean isArray){
+        CTCalcCell c = chain.addNewC();
+        c.setR(ref);
+        c.setI(sheetId);
+        if(isArray) c.setA(true);
+    }
 }
\ No newline at end of file
@@ -18,6 +18,7 @@
 package org.apache.poi.xssf.streaming;
 
 import org.apache.poi.ss.formula.EvaluationCell;
+import org.apache.poi.ss.formula.EvaluationWorkbook;
 import org.apache.poi.ss.formula.IStabilityClassifier;
 import org.apache.poi.ss.formula.WorkbookEvaluator;
 import org.apache.poi.ss.formula.udf.UDFFinder;
@@ -69,6 +70,13 @@ public final class SXSSFFormulaEvaluator extends BaseXSSFFormulaEvaluator {
     }
 
 
+    @Override
+    protected EvaluationWorkbook createEvaluationWorkbook() {
+        SXSSFEvaluationWorkbook result = SXSSFEvaluationWorkbook.create(wb);
+        result.isolateUDFFinder();
+        return result;
+    }
+
     /**
      * Turns a SXSSFCell into a SXSSFEvaluationCell
      */
@@ -53,6 +53,8 @@ import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDefinedName;
 @Internal
 public abstract class BaseXSSFEvaluationWorkbook implements FormulaRenderingWorkbook, EvaluationWorkbook, FormulaParsingWorkbook {
     protected final XSSFWorkbook _uBook;
+    /** own copy of the workbook's UDF finder, or <code>null</code> to use the workbook's one */
+    private IndexedUDFFinder _udfFinder;
 
     // lazily populated. This should only be accessed through getTableCache
     // keys are lower-case to make this a quasi-case-insensitive map
@@ -399,7 +401,16 @@ public abstract class BaseXSSFEvaluationWorkbook implements FormulaRenderingWork
     
     @Override
     public UDFFinder getUDFFinder(){
-        return _uBook.getUDFFinder();
+        return _udfFinder != null ? _udfFinder : _uBook.getUDFFinder();
+    }
+
+    /**
+     * Makes this evaluation workbook use its own copy of the workbook's UDF finder, which isn't
+     * thread-safe, so it can be used by another thread. Tool packs added to the workbook later
+     * on aren't seen by this evaluation workbook.
+     */
+    public void isolateUDFFinder() {
+        _udfFinder = ((IndexedUDFFinder)_uBook.getUDFFinder()).copy();
     }
 
     @Override
@@ -269,6 +269,7 @@ public final class XSSFCell implements Cell {
     public void setCellValue(boolean value) {
         _cell.setT(STCellType.B);
         _cell.setV(value ? TRUE_AS_STRING : FALSE_AS_STRING);
+        onValueChanged();
     }
 
     /**
@@ -333,6 +334,7 @@ public final class XSSFCell implements Cell {
             _cell.setT(STCellType.N);
             _cell.setV(String.valueOf(value));
         }
+        onValueChanged();
     }
 
     /**
@@ -456,6 +458,7 @@ public final class XSSFCell implements Cell {
                 }
                 break;
         }
+        onValueChanged();
     }
 
     /**
@@ -563,6 +566,7 @@ public final class XSSFCell implements Cell {
                 _row.getSheet().onDeleteFormula(this);
                 _cell.unsetF();
             }
+            wb.getChangeTracker().onCellChanged(this);
             return;
         }
 
@@ -587,6 +591,7 @@ public final class XSSFCell implements Cell {
         if(_cell.isSetV()) {
             _cell.unsetV();
         }
+        wb.getChangeTracker().onCellChanged(this);
     }
 
     /**
@@ -917,6 +922,17 @@ public final class XSSFCell implements Cell {
     public void setCellErrorValue(FormulaError error) {
         _cell.setT(STCellType.E);
         _cell.setV(error.getString());
+        onValueChanged();
+    }
+
+    /**
+     * Reports the change of the value of this cell to the change tracker of the workbook.
+     * The cached results of formula cells aren't tracked, as they're recalculated from the formula.
+     */
+    private void onValueChanged() {
+        if (!_cell.isSetF()) {
+            getSheet().getWorkbook().getChangeTracker().onCellChanged(this);
+        }
     }
 
     /**
@@ -1015,6 +1031,7 @@ public final class XSSFCell implements Cell {
         if (cellType != CellType.FORMULA && _cell.isSetF()) {
             _cell.unsetF();
         }
+        getSheet().getWorkbook().getChangeTracker().onCellChanged(this);
     }
 
     /**
@@ -17,12 +17,22 @@
 
 package org.apache.poi.xssf.usermodel;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.formula.EvaluationCell;
 import org.apache.poi.ss.formula.EvaluationSheet;
 import org.apache.poi.ss.formula.FormulaParser;
 import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.SharedFormula;
 import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.Pxg3D;
+import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.util.Internal;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCellFormula;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.STCellFormulaType;
 
 /**
  * Internal POI use only
@@ -30,6 +40,40 @@ import org.apache.poi.util.Internal;
 @Internal
 public final class XSSFEvaluationWorkbook extends BaseXSSFEvaluationWorkbook {
     private XSSFEvaluationSheet[] _sheetCache;
+
+    /**
+     * Parsed formula, which is valid as long as the formula text and the location it has been
+     * parsed for don't change
+     */
+    private static final class FormulaTokens {
+        final String _formula;
+        final int _sheetIndex;
+        final int _rowIndex;
+        final int _columnIndex;
+        final Ptg[] _tokens;
+
+        FormulaTokens(String formula, int sheetIndex, int rowIndex, int columnIndex, Ptg[] tokens) {
+            _formula = formula;
+            _sheetIndex = sheetIndex;
+            _rowIndex = rowIndex;
+            _columnIndex = columnIndex;
+            _tokens = tokens;
+        }
+
+        boolean isValid(String formula, int sheetIndex, int rowIndex, int columnIndex) {
+            return _sheetIndex == sheetIndex && _rowIndex == rowIndex && _columnIndex == columnIndex
+                    && _formula.equals(formula);
+        }
+    }
+
+    /**
+     * parsed formulas of the formula cells, which are not part of a shared formula. Not cleared
+     * with the cached results, since the formulas are validated by their text, and weak, since
+     * the cells may be removed
+     */
+    private final Map<XSSFCell, FormulaTokens> _formulaTokens = new WeakHashMap<>();
+    /** parsed master formulas of the shared formulas of each sheet by their shared group indexes */
+    private final Map<XSSFSheet, Map<Integer, FormulaTokens>> _sharedFormulaTokens = new WeakHashMap<>();
     
     public static XSSFEvaluationWorkbook create(XSSFWorkbook book) {
         if (book == null) {
@@ -49,6 +93,8 @@ public final class XSSFEvaluationWorkbook extends BaseXSSFEvaluationWorkbook {
     public void clearAllCachedResultValues() {
         super.clearAllCachedResultValues();
         _sheetCache = null;
+        _formulaTokens.clear();
+        _sharedFormulaTokens.clear();
     }
     
     @Override
@@ -77,11 +123,77 @@ public final class XSSFEvaluationWorkbook extends BaseXSSFEvaluationWorkbook {
         return _sheetCache[sheetIndex];
     }
 
+    /**
+     * The formulas are parsed only once, as long as their text doesn't change, unless they
+     * contain structured or external references, which depend on the tables and linked workbooks
+     * at the time they are parsed. The cells of
+     * a shared formula get the parsed master formula with their relative references moved,
+     * instead of parsing the formula text of each cell.
+     *
+     * @return the tokens of the formula, which must not be modified
+     */
     @Override    
     public Ptg[] getFormulaTokens(EvaluationCell evalCell) {
         final XSSFCell cell = ((XSSFEvaluationCell)evalCell).getXSSFCell();
         final int sheetIndex = _uBook.getSheetIndex(cell.getSheet());
         final int rowIndex = cell.getRowIndex();
-        return FormulaParser.parse(cell.getCellFormula(this), this, FormulaType.CELL, sheetIndex, rowIndex);
+        final int columnIndex = cell.getColumnIndex();
+
+        CTCellFormula f = cell.getCTCell().getF();
+        if (f != null && f.getT() == STCellFormulaType.SHARED && !cell.isPartOfArrayFormulaGroup()) {
+            Ptg[] tokens = getSharedFormulaTokens(cell.getSheet(), sheetIndex, (int)f.getSi(), rowIndex, columnIndex);
+            if (tokens != null) {
+                return tokens;
+            }
+        }
+
+        String formula = cell.getCellFormula(this);
+        if (formula.indexOf('[') >= 0) {
+            // structured and external references are resolved when the formula is parsed
+            return FormulaParser.parse(formula, this, FormulaType.CELL, sheetIndex, rowIndex);
+        }
+        FormulaTokens cached = _formulaTokens.get(cell);
+        if (cached == null || !cached.isValid(formula, sheetIndex, rowIndex, columnIndex)) {
+            Ptg[] tokens = FormulaParser.parse(formula, this, FormulaType.CELL, sheetIndex, rowIndex);
+            cached = new FormulaTokens(formula, sheetIndex, rowIndex, columnIndex, tokens);
+            _formulaTokens.put(cell, cached);
+        }
+        return cached._tokens;
+    }
+
+    /**
+     * @return the tokens of the given cell of a shared formula, or <code>null</code> if
+     *  the formula has to be parsed for each cell
+     */
+    private Ptg[] getSharedFormulaTokens(XSSFSheet sheet, int sheetIndex, int si, int rowIndex, int columnIndex) {
+        CTCellFormula master = sheet.getSharedFormula(si);
+        if (master == null) {
+            return null;
+        }
+        String formula = master.getStringValue();
+        if (formula.indexOf('[') >= 0) {
+            // structured and external references are resolved for the row they are parsed for
+            return null;
+        }
+        CellRangeAddress ref = CellRangeAddress.valueOf(master.getRef());
+        Map<Integer, FormulaTokens> sheetFormulas = _sharedFormulaTokens.get(sheet);
+        if (sheetFormulas == null) {
+            sheetFormulas = new HashMap<>();
+            _sharedFormulaTokens.put(sheet, sheetFormulas);
+        }
+        FormulaTokens cached = sheetFormulas.get(si);
+        if (cached == null || !cached.isValid(formula, sheetIndex, ref.getFirstRow(), ref.getFirstColumn())) {
+            Ptg[] tokens = FormulaParser.parse(formula, this, FormulaType.CELL, sheetIndex, ref.getFirstRow());
+            cached = new FormulaTokens(formula, sheetIndex, ref.getFirstRow(), ref.getFirstColumn(), tokens);
+            sheetFormulas.put(si, cached);
+        }
+        for (Ptg ptg : cached._tokens) {
+            if (ptg instanceof Pxg3D) {
+                // SharedFormula moves only references to the same sheet
+                return null;
+            }
+        }
+        SharedFormula sf = new SharedFormula(SpreadsheetVersion.EXCEL2007);
+        return sf.convertSharedFormulas(cached._tokens, rowIndex - cached._rowIndex, columnIndex - cached._columnIndex);
     }
 }
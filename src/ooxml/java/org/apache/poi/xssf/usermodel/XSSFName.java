@@ -197,6 +197,7 @@ public final class XSSFName implements Name {
         FormulaParser.parse(formulaText, fpb, FormulaType.NAMEDRANGE, getSheetIndex(), -1);
 
         _ctName.setStringValue(formulaText);
+        _workbook.getChangeTracker().onUntrackedChange();
     }
 
     public boolean isDeleted(){
@@ -226,6 +227,7 @@ public final class XSSFName implements Name {
         } else {
             _ctName.setLocalSheetId(index);
         }
+        _workbook.getChangeTracker().onUntrackedChange();
     }
 
     /**
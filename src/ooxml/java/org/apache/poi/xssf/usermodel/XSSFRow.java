@@ -224,6 +224,9 @@ public class XSSFRow implements Row, Comparable<XSSFRow> {
             xcell.setCellType(type);
         }
         _cells.put(colI, xcell);
+        if (prev != null) {
+            _sheet.getWorkbook().getChangeTracker().onCellChanged(xcell);
+        }
         return xcell;
     }
     /**
@@ -480,6 +483,7 @@ public class XSSFRow implements Row, Comparable<XSSFRow> {
         // Performance optimization for bug 57840: explicit boxing is slightly faster than auto-unboxing, though may use more memory
         final Integer colI = Integer.valueOf(cell.getColumnIndex()); // NOSONAR
         _cells.remove(colI);
+        _sheet.getWorkbook().getChangeTracker().onUntrackedChange();
     }
 
     /**
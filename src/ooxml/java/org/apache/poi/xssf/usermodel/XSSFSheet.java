@@ -3000,6 +3000,7 @@ public class XSSFSheet extends POIXMLDocumentPart implements Sheet  {
         rowShifter.updateFormulas(formulaShifter);
         rowShifter.updateConditionalFormatting(formulaShifter);
         rowShifter.updateHyperlinks(formulaShifter);
+        getWorkbook().getChangeTracker().onUntrackedChange();
 
         //rebuild the _rows map
         Map<Integer, XSSFRow> map = new HashMap<>();
@@ -3033,6 +3034,7 @@ public class XSSFSheet extends POIXMLDocumentPart implements Sheet  {
         columnShifter.updateConditionalFormatting(formulaShifter);
         columnShifter.updateHyperlinks(formulaShifter);
         columnShifter.updateNamedRanges(formulaShifter);
+        getWorkbook().getChangeTracker().onUntrackedChange();
 
         //rebuild the _rows map
         Map<Integer, XSSFRow> map = new HashMap<>();
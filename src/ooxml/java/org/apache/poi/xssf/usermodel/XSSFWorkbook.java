@@ -31,12 +31,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import javax.xml.namespace.QName;
@@ -63,10 +65,12 @@ import org.apache.poi.poifs.filesystem.DirectoryNode;
 import org.apache.poi.poifs.filesystem.Ole10Native;
 import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.CellChangeTracker;
 import org.apache.poi.ss.formula.SheetNameFormatter;
 import org.apache.poi.ss.formula.udf.AggregatingUDFFinder;
 import org.apache.poi.ss.formula.udf.IndexedUDFFinder;
 import org.apache.poi.ss.formula.udf.UDFFinder;
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Name;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Row.MissingCellPolicy;
@@ -97,7 +101,9 @@ import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.XmlOptions;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTBookView;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTBookViews;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCalcCell;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCalcPr;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCell;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDefinedName;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDefinedNames;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDialogsheet;
@@ -111,6 +117,7 @@ import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbookPr;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbookProtection;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorksheet;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.STCalcMode;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.STCellFormulaType;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.STSheetState;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.WorkbookDocument;
 
@@ -187,6 +194,11 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook {
      */
     private CalculationChain calcChain;
 
+    /**
+     * The cells changed since a formula evaluator has built its dependency graph
+     */
+    private final CellChangeTracker changeTracker = new CellChangeTracker();
+
     /**
      * External Links, for referencing names or cells in other workbooks.
      */
@@ -1313,6 +1325,7 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook {
                 || !namedRanges.remove(name)) {
             throw new IllegalArgumentException("Name was not found: " + name);
         }
+        changeTracker.onUntrackedChange();
     }
 
     void updateName(XSSFName name, String oldName) {
@@ -1355,6 +1368,7 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook {
         validateSheetIndex(index);
 
         onSheetDelete(index);
+        changeTracker.onUntrackedChange();
 
         XSSFSheet sheet = getSheetAt(index);
         removeRelation(sheet);
@@ -1636,6 +1650,7 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook {
         utils.updateSheetName(sheetIndex, oldSheetName, sheetname);
 
         workbook.getSheets().getSheetArray(sheetIndex).setName(sheetname);
+        changeTracker.onUntrackedChange();
     }
 
     /**
@@ -1665,6 +1680,7 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook {
 
         updateNamedRangesAfterSheetReorder(idx, pos);
         updateActiveSheetAfterSheetReorder(idx, pos);
+        changeTracker.onUntrackedChange();
     }
 
     /**
@@ -1964,6 +1980,46 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook {
         }
     }
 
+    /**
+     * Returns the tracker of the cells whose value or formula has changed, which is started
+     * when a formula evaluator builds its dependency graph.
+     */
+    /* package */ CellChangeTracker getChangeTracker() {
+        return changeTracker;
+    }
+
+    /**
+     * Adds the formula cells missing in the calculation chain, e.g. the formulas set since the
+     * workbook was loaded, so Excel doesn't need to rebuild the chain. The cells whose formulas
+     * were removed are already removed from the chain by {@link #onDeleteFormula(XSSFCell)}.
+     */
+    /* package */ void updateCalculationChain() {
+        if(calcChain == null) {
+            // Excel builds the chain if it's missing
+            return;
+        }
+        Set<String> chainedCells = new HashSet<>();
+        // the default sheet Id of the first cell, like in CalculationChain.removeItem()
+        int sheetId = 0;
+        for (CTCalcCell c : calcChain.getCTCalcChain().getCList()) {
+            // if the sheet Id is omitted, it is the same as the one of the previous cell
+            if(c.isSetI()) sheetId = c.getI();
+            chainedCells.add(sheetId + "!" + c.getR());
+        }
+        for (XSSFSheet sheet : sheets) {
+            int id = (int)sheet.sheet.getSheetId();
+            for (Row row : sheet) {
+                for (Cell c : row) {
+                    XSSFCell cell = (XSSFCell)c;
+                    CTCell ctCell = cell.getCTCell();
+                    if (ctCell.isSetF() && !chainedCells.contains(id + "!" + cell.getReference())) {
+                        calcChain.addItem(id, cell.getReference(), ctCell.getF().getT() == STCellFormulaType.ARRAY);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Return the {@link CalculationChain} object for this workbook
      * <p>
@@ -0,0 +1,264 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.benchmark;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.profile.StackProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates generated workloads, each stressing another part of the formula engine, for
+ * every spreadsheet format, i.e. one run of a benchmark method recalculates all formulas
+ * of one workload from scratch. The GC profiler reports the allocation rates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS )
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class FormulaEvaluationBench {
+
+    private static final int CHAIN_LENGTH = 500;
+    private static final int DATA_ROWS = 5000;
+    private static final int AGGREGATE_FORMULAS = 100;
+    private static final int LOOKUP_ROWS = 2000;
+    private static final int LOOKUP_FORMULAS = 500;
+    private static final int ARRAY_ROWS = 1000;
+    private static final int ARRAY_FORMULAS = 100;
+    private static final int FILLED_FORMULAS = 5000;
+
+    @Param({"HSSF", "XSSF", "SXSSF"})
+    public String format;
+
+    private Workbook workbook;
+    private FormulaEvaluator evaluator;
+    private List<Cell> chainFormulas;
+    private List<Cell> aggregateFormulas;
+    private List<Cell> lookupFormulas;
+    private List<Cell> arrayFormulas;
+    private List<Cell> filledFormulas;
+
+    @Setup(Level.Trial)
+    public void createWorkbook() {
+        switch (format) {
+            case "HSSF":
+                workbook = new HSSFWorkbook();
+                break;
+            case "XSSF":
+                workbook = new XSSFWorkbook();
+                break;
+            case "SXSSF":
+                // keeps all rows in memory, as the evaluator can't read flushed rows
+                workbook = new SXSSFWorkbook(-1);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+        chainFormulas = createChain(workbook.createSheet("Chain"));
+        aggregateFormulas = createAggregates(workbook.createSheet("Aggregates"));
+        lookupFormulas = createLookups(workbook.createSheet("Lookups"));
+        arrayFormulas = createArrayFormulas(workbook.createSheet("Arrays"));
+        filledFormulas = createFilledFormulas(workbook.createSheet("Filled"));
+        evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeWorkbook() throws IOException {
+        if (workbook instanceof SXSSFWorkbook) {
+            ((SXSSFWorkbook) workbook).dispose();
+        }
+        workbook.close();
+    }
+
+    private static Cell getCell(Sheet sheet, int rowIndex, int columnIndex) {
+        Row row = sheet.getRow(rowIndex);
+        if (row == null) {
+            row = sheet.createRow(rowIndex);
+        }
+        return row.createCell(columnIndex);
+    }
+
+    /**
+     * Each cell adds one to the previous one. The last cell is evaluated first, so the
+     * evaluation recurses through the whole chain.
+     */
+    private static List<Cell> createChain(Sheet sheet) {
+        List<Cell> formulas = new ArrayList<>();
+        getCell(sheet, 0, 0).setCellValue(1);
+        for (int i = 1; i < CHAIN_LENGTH; i++) {
+            Cell cell = getCell(sheet, i, 0);
+            cell.setCellFormula("A" + i + "+1");
+            formulas.add(cell);
+        }
+        Collections.reverse(formulas);
+        return formulas;
+    }
+
+    /**
+     * SUM, SUMIFS and COUNTIF over long columns
+     */
+    private static List<Cell> createAggregates(Sheet sheet) {
+        List<Cell> formulas = new ArrayList<>();
+        for (int i = 0; i < DATA_ROWS; i++) {
+            getCell(sheet, i, 0).setCellValue(i);
+            getCell(sheet, i, 1).setCellValue("cat" + (i % 10));
+            getCell(sheet, i, 2).setCellValue(i % 7);
+        }
+        for (int i = 0; i < AGGREGATE_FORMULAS; i++) {
+            Cell cell = getCell(sheet, i, 4);
+            switch (i % 3) {
+                case 0:
+                    cell.setCellFormula("SUM($A$1:$A$" + (DATA_ROWS - i) + ")");
+                    break;
+                case 1:
+                    cell.setCellFormula("SUMIFS($A$1:$A$" + DATA_ROWS + ",$B$1:$B$" + DATA_ROWS + ",\"cat" + (i % 10)
+                            + "\",$C$1:$C$" + DATA_ROWS + ",\">" + (i % 7) + "\")");
+                    break;
+                default:
+                    cell.setCellFormula("COUNTIF($C$1:$C$" + DATA_ROWS + "," + (i % 7) + ")");
+                    break;
+            }
+            formulas.add(cell);
+        }
+        return formulas;
+    }
+
+    /**
+     * Exact VLOOKUPs of text keys and approximate VLOOKUPs of numbers in sorted keys
+     */
+    private static List<Cell> createLookups(Sheet sheet) {
+        List<Cell> formulas = new ArrayList<>();
+        for (int i = 0; i < LOOKUP_ROWS; i++) {
+            getCell(sheet, i, 0).setCellValue("K" + i);
+            getCell(sheet, i, 1).setCellValue(i * 2);
+        }
+        String table = "$A$1:$B$" + LOOKUP_ROWS;
+        for (int i = 0; i < LOOKUP_FORMULAS; i++) {
+            getCell(sheet, i, 3).setCellValue("K" + (i * 7 % LOOKUP_ROWS));
+            Cell exact = getCell(sheet, i, 4);
+            exact.setCellFormula("VLOOKUP(D" + (i + 1) + "," + table + ",2,FALSE)");
+            formulas.add(exact);
+            Cell approximate = getCell(sheet, i, 5);
+            approximate.setCellFormula("VLOOKUP(" + (i * 3.5) + ",$B$1:$B$" + LOOKUP_ROWS + ",1,TRUE)");
+            formulas.add(approximate);
+        }
+        return formulas;
+    }
+
+    /**
+     * Conditional sums of products over whole columns. SXSSF can't write array formulas,
+     * so the arrays are evaluated with INDEX(...,0) there.
+     */
+    private List<Cell> createArrayFormulas(Sheet sheet) {
+        List<Cell> formulas = new ArrayList<>();
+        for (int i = 0; i < ARRAY_ROWS; i++) {
+            getCell(sheet, i, 0).setCellValue(i);
+            getCell(sheet, i, 1).setCellValue(i % 13);
+        }
+        String products = "(A1:A" + ARRAY_ROWS + ">%d)*B1:B" + ARRAY_ROWS;
+        for (int i = 0; i < ARRAY_FORMULAS; i++) {
+            String array = String.format(products, i * ARRAY_ROWS / ARRAY_FORMULAS);
+            if (workbook instanceof SXSSFWorkbook) {
+                Cell cell = getCell(sheet, i, 3);
+                cell.setCellFormula("SUM(INDEX(" + array + ",0))");
+                formulas.add(cell);
+            } else {
+                getCell(sheet, i, 3);
+                for (Cell cell : sheet.setArrayFormula("SUM(" + array + ")", new CellRangeAddress(i, i, 3, 3))) {
+                    formulas.add(cell);
+                }
+            }
+        }
+        return formulas;
+    }
+
+    /**
+     * The same relative formula filled down a column, as stored in shared formulas by Excel
+     */
+    private static List<Cell> createFilledFormulas(Sheet sheet) {
+        List<Cell> formulas = new ArrayList<>();
+        getCell(sheet, 0, 4).setCellValue(1.5);
+        for (int i = 0; i < FILLED_FORMULAS; i++) {
+            getCell(sheet, i, 0).setCellValue(i);
+            getCell(sheet, i, 1).setCellValue(FILLED_FORMULAS - i);
+            Cell cell = getCell(sheet, i, 2);
+            cell.setCellFormula("A" + (i + 1) + "*$E$1+IF(B" + (i + 1) + ">A" + (i + 1) + ",B" + (i + 1) + ",0)");
+            formulas.add(cell);
+        }
+        return formulas;
+    }
+
+    private void evaluate(List<Cell> formulas, Blackhole bh) {
+        evaluator.clearAllCachedResultValues();
+        for (Cell cell : formulas) {
+            bh.consume(evaluator.evaluateFormulaCell(cell));
+        }
+    }
+
+    @Benchmark
+    public void benchDeepChain(Blackhole bh) {
+        evaluate(chainFormulas, bh);
+    }
+
+    @Benchmark
+    public void benchAggregates(Blackhole bh) {
+        evaluate(aggregateFormulas, bh);
+    }
+
+    @Benchmark
+    public void benchLookups(Blackhole bh) {
+        evaluate(lookupFormulas, bh);
+    }
+
+    @Benchmark
+    public void benchArrayFormulas(Blackhole bh) {
+        evaluate(arrayFormulas, bh);
+    }
+
+    @Benchmark
+    public void benchFilledFormulas(Blackhole bh) {
+        evaluate(filledFormulas, bh);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(".*" + FormulaEvaluationBench.class.getSimpleName() + ".*")
+                .addProfiler(StackProfiler.class)
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
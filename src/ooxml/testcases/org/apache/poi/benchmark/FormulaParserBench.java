@@ -0,0 +1,144 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.benchmark;
+
+import org.apache.poi.hssf.HSSFTestDataSamples;
+import org.apache.poi.hssf.usermodel.HSSFEvaluationWorkbook;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.FormulaParseException;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaParsingWorkbook;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.XSSFTestDataSamples;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.profile.StackProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the formulas of the sample workbooks, i.e. one run of a benchmark
+ * method parses every formula of the corpus once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS )
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class FormulaParserBench {
+
+    private static final class SampleFormula {
+        private final String formula;
+        private final int sheetIndex;
+        private final int rowIndex;
+
+        SampleFormula(String formula, int sheetIndex, int rowIndex) {
+            this.formula = formula;
+            this.sheetIndex = sheetIndex;
+            this.rowIndex = rowIndex;
+        }
+    }
+
+    private HSSFWorkbook hssfWorkbook;
+    private XSSFWorkbook xssfWorkbook;
+    private FormulaParsingWorkbook hssfParsingWorkbook;
+    private FormulaParsingWorkbook xssfParsingWorkbook;
+    private List<SampleFormula> hssfFormulas;
+    private List<SampleFormula> xssfFormulas;
+
+    @Setup(Level.Trial)
+    public void loadCorpus() {
+        hssfWorkbook = HSSFTestDataSamples.openSampleWorkbook("FormulaEvalTestData.xls");
+        hssfParsingWorkbook = HSSFEvaluationWorkbook.create(hssfWorkbook);
+        hssfFormulas = collectFormulas(hssfWorkbook, hssfParsingWorkbook);
+
+        xssfWorkbook = XSSFTestDataSamples.openSampleWorkbook("FormulaEvalTestData_Copy.xlsx");
+        xssfParsingWorkbook = XSSFEvaluationWorkbook.create(xssfWorkbook);
+        xssfFormulas = collectFormulas(xssfWorkbook, xssfParsingWorkbook);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeWorkbooks() throws IOException {
+        hssfWorkbook.close();
+        xssfWorkbook.close();
+    }
+
+    /**
+     * Collects the formulas of all sheets, skipping the few ones which don't parse back
+     */
+    private static List<SampleFormula> collectFormulas(Workbook wb, FormulaParsingWorkbook fpb) {
+        List<SampleFormula> formulas = new ArrayList<>();
+        for (int sheetIndex = 0; sheetIndex < wb.getNumberOfSheets(); sheetIndex++) {
+            for (Row row : wb.getSheetAt(sheetIndex)) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() != CellType.FORMULA) {
+                        continue;
+                    }
+                    SampleFormula sample = new SampleFormula(cell.getCellFormula(), sheetIndex, row.getRowNum());
+                    try {
+                        parse(sample, fpb);
+                    } catch (FormulaParseException e) {
+                        continue;
+                    }
+                    formulas.add(sample);
+                }
+            }
+        }
+        return formulas;
+    }
+
+    private static Object parse(SampleFormula sample, FormulaParsingWorkbook fpb) {
+        return FormulaParser.parse(sample.formula, fpb, FormulaType.CELL, sample.sheetIndex, sample.rowIndex);
+    }
+
+    @Benchmark
+    public void benchParseHSSF(Blackhole bh) {
+        for (SampleFormula sample : hssfFormulas) {
+            bh.consume(parse(sample, hssfParsingWorkbook));
+        }
+    }
+
+    @Benchmark
+    public void benchParseXSSF(Blackhole bh) {
+        for (SampleFormula sample : xssfFormulas) {
+            bh.consume(parse(sample, xssfParsingWorkbook));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(".*" + FormulaParserBench.class.getSimpleName() + ".*")
+                .addProfiler(StackProfiler.class)
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,63 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ooxml.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXParseException;
+
+public class TestDocumentHelper {
+    private static final String ENTITY_BOMB =
+        "<?xml version=\"1.0\"?>\n" +
+        "<!DOCTYPE lolz [\n" +
+        " <!ENTITY lol \"lol\">\n" +
+        " <!ENTITY lol1 \"&lol;&lol;&lol;&lol;&lol;&lol;&lol;&lol;&lol;&lol;\">\n" +
+        " <!ENTITY lol2 \"&lol1;&lol1;&lol1;&lol1;&lol1;&lol1;&lol1;&lol1;&lol1;&lol1;\">\n" +
+        " <!ENTITY lol3 \"&lol2;&lol2;&lol2;&lol2;&lol2;&lol2;&lol2;&lol2;&lol2;&lol2;\">\n" +
+        " <!ENTITY lol4 \"&lol3;&lol3;&lol3;&lol3;&lol3;&lol3;&lol3;&lol3;&lol3;&lol3;\">\n" +
+        "]>\n" +
+        "<lolz>&lol4;</lolz>";
+
+    @Test
+    public void testReadDocumentReusesSecureBuilder() throws Exception {
+        // the cached builder must keep its limits and recover from failed parses
+        for (int i = 0; i < 3; i++) {
+            try {
+                DocumentHelper.readDocument(stream(ENTITY_BOMB));
+                fail("entity expansion limit should have been exceeded");
+            } catch (SAXParseException e) {
+                // expected
+            }
+
+            Document doc = DocumentHelper.readDocument(stream("<ns:xml xmlns:ns=\"urn:poi\"><ns:a/></ns:xml>"));
+            assertEquals("urn:poi", doc.getDocumentElement().getNamespaceURI());
+            assertEquals(1, doc.getDocumentElement().getChildNodes().getLength());
+        }
+    }
+
+    private static InputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -28,6 +28,7 @@ import org.junit.runners.Suite;
     , TestPackage.class
     , TestPackageCoreProperties.class
     , TestPackagePartName.class
+    , TestPackageSnapshot.class
     , TestPackageThumbnail.class
     , TestPackagingURIHelper.class
     , TestRelationships.class
@@ -207,6 +207,85 @@ public final class TestPackage {
         assertTrue(targetFile.delete());
 	}
 
+	/**
+	 * Test streaming package creation, where the parts are written
+	 *  into the output stream as soon as they are closed
+	 */
+    @Test
+	public void createStreamingPackage() throws IOException, InvalidFormatException {
+		final String docType = "application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml";
+		final String imgRelType = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/image";
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OPCPackage pkg = OPCPackage.createStreaming(bos);
+		PackagePartName corePartName = PackagingURIHelper.createPartName("/word/document.xml");
+		PackagePartName imgPartName = PackagingURIHelper.createPartName("/word/media/image1.png");
+		pkg.addRelationship(corePartName, TargetMode.INTERNAL, PackageRelationshipTypes.CORE_DOCUMENT, "rId1");
+
+		PackagePart corePart = pkg.createPart(corePartName, docType);
+		PackagePart imgPart = pkg.createPart(imgPartName, "image/png");
+		corePart.addRelationship(imgPartName, TargetMode.INTERNAL, imgRelType, "rId1");
+
+		OutputStream coreOut = corePart.getOutputStream();
+		coreOut.write("<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\"/>".getBytes("UTF-8"));
+		// a part written while another one is open is appended after it
+		try (OutputStream imgOut = imgPart.getOutputStream()) {
+			imgOut.write(new byte[]{1, 2, 3});
+		}
+		coreOut.close();
+
+		// streamed parts are write-once
+		try {
+			imgPart.getOutputStream();
+			fail("a streamed part can't be written twice");
+		} catch (InvalidOperationException e) {
+			// expected
+		}
+		assertEquals(3, imgPart.getSize());
+
+		pkg.close();
+
+		try (OPCPackage pkg2 = OPCPackage.open(new ByteArrayInputStream(bos.toByteArray()))) {
+			PackagePart corePart2 = pkg2.getPartsByRelationshipType(PackageRelationshipTypes.CORE_DOCUMENT).get(0);
+			assertEquals(corePartName, corePart2.getPartName());
+			assertEquals(docType, corePart2.getContentType());
+
+			PackageRelationship rel = corePart2.getRelationshipsByType(imgRelType).getRelationship(0);
+			PackagePart imgPart2 = corePart2.getRelatedPart(rel);
+			assertEquals("image/png", imgPart2.getContentType());
+			try (InputStream is = imgPart2.getInputStream()) {
+				assertTrue(Arrays.equals(new byte[]{1, 2, 3}, IOUtils.toByteArray(is)));
+			}
+			assertNotNull(pkg2.getPackageProperties().getCreatorProperty().getValue());
+		}
+	}
+
+	/**
+	 * A part output stream, which was buffered while another part was written,
+	 *  must be closed before the streaming package is saved
+	 */
+    @Test
+	public void streamingPackageWithUnclosedPart() throws IOException, InvalidFormatException {
+		OPCPackage pkg = OPCPackage.createStreaming(new ByteArrayOutputStream());
+		PackagePart corePart = pkg.createPart(PackagingURIHelper.createPartName("/word/document.xml"),
+				"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml");
+		PackagePart imgPart = pkg.createPart(PackagingURIHelper.createPartName("/word/media/image1.png"), "image/png");
+
+		OutputStream coreOut = corePart.getOutputStream();
+		OutputStream imgOut = imgPart.getOutputStream();
+		imgOut.write(new byte[]{1, 2, 3});
+		coreOut.close();
+
+		try {
+			pkg.close();
+			fail("the image part output stream is still open");
+		} catch (InvalidOperationException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("/word/media/image1.png"));
+		}
+		imgOut.close();
+		pkg.close();
+	}
+
 	/**
 	 * Tests that we can create a new package, add a core
 	 *  document and another part, save and re-load and
@@ -910,6 +989,35 @@ public final class TestPackage {
 		});
 	}
 
+	@Test
+	public void zipBombValidateUpfront() throws IOException {
+		final File file = XSSFTestDataSamples.getSampleFile("poc-shared-strings.xlsx");
+		try (ZipSecureFile zf = ZipHelper.openZipFile(file)) {
+			// within the default limits
+			zf.validate();
+
+			ZipSecureFile.setMaxEntryCount(zf.size() - 1);
+			try {
+				zf.validate();
+				fail("entry count should exceed the limit");
+			} catch (IOException e) {
+				POITestCase.assertContains(e.getMessage(), "ZipSecureFile.setMaxEntryCount()");
+			} finally {
+				ZipSecureFile.setMaxEntryCount(0xFFFFFFFFL);
+			}
+
+			ZipSecureFile.setMinInflateRatio(0.5);
+			try {
+				zf.validate();
+				fail("inflate ratio should exceed the limit");
+			} catch (IOException e) {
+				POITestCase.assertContains(e.getMessage(), "ZipSecureFile.setMinInflateRatio()");
+			} finally {
+				ZipSecureFile.setMinInflateRatio(0.01d);
+			}
+		}
+	}
+
 	private void getZipStatsAndConsume(BiConsumer<Long,Double> ratioCon) throws IOException, InvalidFormatException {
     	// use a test file with a xml file bigger than 100k (ZipArchiveThresholdInputStream.GRACE_ENTRY_SIZE)
 		final File file = XSSFTestDataSamples.getSampleFile("poc-shared-strings.xlsx");
@@ -0,0 +1,93 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.openxml4j.opc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.poi.POIDataSamples;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+public final class TestPackageSnapshot {
+    private static final POIDataSamples _ssTests = POIDataSamples.getSpreadSheetInstance();
+
+    @Test
+    public void forksAreIndependent() throws Exception {
+        PackageSnapshot snapshot = PackageSnapshot.open(_ssTests.getFile("sample.xlsx"));
+
+        String original;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (XSSFWorkbook wb1 = new XSSFWorkbook(snapshot.fork());
+             XSSFWorkbook wb2 = new XSSFWorkbook(snapshot.fork())) {
+            assertNotSame(wb1.getPackage(), wb2.getPackage());
+            original = wb1.getSheetAt(0).getRow(0).getCell(0).getStringCellValue();
+
+            wb1.getSheetAt(0).getRow(0).getCell(0).setCellValue("changed");
+            wb1.write(bos);
+
+            assertEquals(original, wb2.getSheetAt(0).getRow(0).getCell(0).getStringCellValue());
+        }
+
+        try (XSSFWorkbook wb = new XSSFWorkbook(new ByteArrayInputStream(bos.toByteArray()))) {
+            assertEquals("changed", wb.getSheetAt(0).getRow(0).getCell(0).getStringCellValue());
+        }
+
+        // neither the snapshot nor later forks see the modification
+        try (XSSFWorkbook wb = new XSSFWorkbook(snapshot.fork())) {
+            assertEquals(original, wb.getSheetAt(0).getRow(0).getCell(0).getStringCellValue());
+        }
+    }
+
+    @Test
+    public void concurrentForks() throws Exception {
+        final PackageSnapshot snapshot = PackageSnapshot.open(
+            _ssTests.openResourceAsStream("sample.xlsx"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final String value = "fork" + i;
+                results.add(executor.submit(() -> {
+                    try (XSSFWorkbook wb = new XSSFWorkbook(snapshot.fork())) {
+                        wb.getSheetAt(0).getRow(0).getCell(0).setCellValue(value);
+                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                        wb.write(bos);
+                        try (XSSFWorkbook wb2 = new XSSFWorkbook(new ByteArrayInputStream(bos.toByteArray()))) {
+                            return wb2.getSheetAt(0).getRow(0).getCell(0).getStringCellValue();
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("fork" + i, results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -442,4 +442,38 @@ public class TestRelationships extends TestCase {
         assertTrue("Document not found in " + p.getParts(), foundDocument);
         assertTrue("Theme1 not found in " + p.getParts(), foundTheme1);
     }
+
+    /**
+     * Checks that relationships fetched by type stay in sync
+     *  when relationships are added, replaced and removed
+     */
+    public void testRelationshipsByTypeAfterUpdates() throws Exception {
+        OPCPackage pkg = OPCPackage.create(new ByteArrayOutputStream());
+        PackageRelationshipCollection rels = new PackageRelationshipCollection(pkg);
+        URI target1 = new URI("/xl/worksheets/sheet1.xml");
+        URI target2 = new URI("/xl/worksheets/sheet2.xml");
+        rels.addRelationship(target1, TargetMode.INTERNAL, HYPERLINK_REL_TYPE, "rId1");
+        rels.addRelationship(target2, TargetMode.INTERNAL, HYPERLINK_REL_TYPE, "rId2");
+        rels.addRelationship(target1, TargetMode.INTERNAL, COMMENTS_REL_TYPE, "rId3");
+
+        assertEquals(2, rels.getRelationships(HYPERLINK_REL_TYPE).size());
+        assertEquals(1, rels.getRelationships(COMMENTS_REL_TYPE).size());
+        assertEquals(0, rels.getRelationships("nonexisting").size());
+
+        // replacing an id moves it to the new type
+        rels.addRelationship(target2, TargetMode.INTERNAL, COMMENTS_REL_TYPE, "rId2");
+        assertEquals(3, rels.size());
+        assertEquals(1, rels.getRelationships(HYPERLINK_REL_TYPE).size());
+        assertEquals(2, rels.getRelationships(COMMENTS_REL_TYPE).size());
+        assertEquals("rId2", rels.iterator(COMMENTS_REL_TYPE).next().getId());
+
+        rels.removeRelationship("rId1");
+        assertEquals(0, rels.getRelationships(HYPERLINK_REL_TYPE).size());
+        assertFalse(rels.iterator(HYPERLINK_REL_TYPE).hasNext());
+        assertEquals(2, rels.getRelationships(COMMENTS_REL_TYPE).size());
+
+        rels.clear();
+        assertEquals(0, rels.getRelationships(COMMENTS_REL_TYPE).size());
+        pkg.revert();
+    }
 }
@@ -16,16 +16,26 @@
 ==================================================================== */
 package org.apache.poi.openxml4j.util;
 
+import org.apache.poi.POITestCase;
 import org.apache.poi.util.IOUtils;
+import org.apache.poi.util.TempFile;
 import org.apache.poi.xssf.XSSFTestDataSamples;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestZipSecureFile {
     @Test
@@ -47,4 +57,56 @@ public class TestZipSecureFile {
             }
         }
     }
+
+    @Test
+    public void declaredSizeExceedsLimit() throws IOException {
+        File file = TempFile.createTempFile("declared-size", ".zip");
+        try {
+            try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+                zos.putNextEntry(new ZipEntry("data.xml"));
+                zos.write(new byte[10000]);
+                zos.closeEntry();
+            }
+            // corrupt the compressed data after the local header, so inflating it fails
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(30 + "data.xml".length());
+                raf.write(new byte[]{(byte)0xFF, (byte)0xFF});
+            }
+
+            long maxEntrySize = ZipSecureFile.getMaxEntrySize();
+            ZipSecureFile.setMaxEntrySize(5000);
+            try (ZipSecureFile secureFile = new ZipSecureFile(file)) {
+                ZipEntry entry = secureFile.getEntry("data.xml");
+                assertEquals(10000, entry.getSize());
+                // rejected by the size in the central directory, before a stream is returned
+                // and any data is inflated
+                try {
+                    secureFile.getInputStream(entry).close();
+                    fail("declared entry size should exceed the limit");
+                } catch (IOException e) {
+                    POITestCase.assertContains(e.getMessage(), "ZipSecureFile.setMaxEntrySize()");
+                    POITestCase.assertContains(e.getMessage(), "Counter: 10000, cis.counter: ");
+                }
+                try {
+                    secureFile.validate();
+                    fail("declared entry size should exceed the limit");
+                } catch (IOException e) {
+                    POITestCase.assertContains(e.getMessage(), "ZipSecureFile.setMaxEntrySize()");
+                }
+            } finally {
+                ZipSecureFile.setMaxEntrySize(maxEntrySize);
+            }
+
+            // within the limits, the data is inflated and the corruption is detected
+            try (ZipSecureFile secureFile = new ZipSecureFile(file);
+                 InputStream is = secureFile.getInputStream(secureFile.getEntry("data.xml"))) {
+                IOUtils.toByteArray(is);
+                fail("the corrupt data should fail to inflate");
+            } catch (ZipException e) {
+                // expected
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
 }
@@ -20,6 +20,7 @@ package org.apache.poi.ss.usermodel;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.poi.ss.formula.ConditionalFormattingEvaluator;
 import org.apache.poi.ss.formula.EvaluationConditionalFormatRule;
@@ -189,6 +190,66 @@ public class ConditionalFormattingEvalTest {
         assertEquals("wrong # of matching rules", 0, getRulesFor(2, 6).size());
     }
     
+    @Test
+    public void testSheetEvaluation() throws Exception {
+        checkSheetEvaluation();
+
+        wb.close();
+        wb = XSSFTestDataSamples.openSampleWorkbook("conditional_formatting_multiple_ranges.xlsx");
+        formulaEval = new XSSFFormulaEvaluator(wb);
+        cfe = new ConditionalFormattingEvaluator(wb, formulaEval);
+        checkSheetEvaluation();
+    }
+
+    @Test
+    public void testSheetEvaluationAfterChange() {
+        sheet = wb.getSheet("Products2");
+        Map<CellReference, List<EvaluationConditionalFormatRule>> formats = cfe.getConditionalFormattingForSheet(sheet);
+        assertEquals(1, formats.get(new CellReference(sheet.getSheetName(), 15, 1, false, false)).size());
+        assertNull(formats.get(new CellReference(sheet.getSheetName(), 20, 3, false, false)));
+
+        Cell cell = sheet.getRow(1).getCell(6);
+        cell.setCellValue("Dairy");
+        formulaEval.notifyUpdateCell(cell);
+        cell = sheet.getRow(4).getCell(6);
+        cell.setCellValue(500);
+        formulaEval.notifyUpdateCell(cell);
+        cfe.clearAllCachedValues();
+
+        formats = cfe.getConditionalFormattingForSheet(sheet);
+        assertNull(formats.get(new CellReference(sheet.getSheetName(), 15, 1, false, false)));
+        assertEquals(1, formats.get(new CellReference(sheet.getSheetName(), 20, 3, false, false)).size());
+    }
+
+    /**
+     * The batch evaluation of every sheet must match the evaluation cell by cell
+     */
+    private void checkSheetEvaluation() {
+        ConditionalFormattingEvaluator cellEvaluator =
+                new ConditionalFormattingEvaluator(wb, new XSSFFormulaEvaluator(wb));
+        for (Sheet s : wb) {
+            Map<CellReference, List<EvaluationConditionalFormatRule>> formats = cfe.getConditionalFormattingForSheet(s);
+            int matchingCells = 0;
+            for (Row row : s) {
+                for (Cell cell : row) {
+                    CellReference cellRef = ConditionalFormattingEvaluator.getRef(cell);
+                    List<EvaluationConditionalFormatRule> expected = cellEvaluator.getConditionalFormattingForCell(cellRef);
+                    if (expected.isEmpty()) {
+                        assertNull("unexpected rules for " + cellRef, formats.get(cellRef));
+                    } else {
+                        assertEquals("wrong rules for " + cellRef, expected, formats.get(cellRef));
+                        matchingCells++;
+                    }
+                }
+            }
+            assertEquals(matchingCells, formats.size());
+            // the cached results are returned for single cells
+            for (Map.Entry<CellReference, List<EvaluationConditionalFormatRule>> e : formats.entrySet()) {
+                assertEquals(e.getValue(), cfe.getConditionalFormattingForCell(e.getKey()));
+            }
+        }
+    }
+
     private List<EvaluationConditionalFormatRule> getRulesFor(int row, int col) {
         ref = new CellReference(sheet.getSheetName(), row, col, false, false);
         return rules = cfe.getConditionalFormattingForCell(ref);
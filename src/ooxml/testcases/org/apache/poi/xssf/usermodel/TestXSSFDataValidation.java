@@ -17,9 +17,12 @@
 package org.apache.poi.xssf.usermodel;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.poi.ss.formula.DataValidationEvaluator;
@@ -380,4 +383,82 @@ public class TestXSSFDataValidation extends BaseTestDataValidation {
             assertEquals("wrong # of valid values", 32, values.size());
         }
     }
+
+    @Test
+    public void testValidateSheetMatchesSingleCells() throws IOException {
+        try (XSSFWorkbook wb = XSSFTestDataSamples.openSampleWorkbook("DataValidationEvaluations.xlsx")) {
+            XSSFFormulaEvaluator fEval = wb.getCreationHelper().createFormulaEvaluator();
+            DataValidationEvaluator dve = new DataValidationEvaluator(wb, fEval);
+            Sheet sheet = wb.getSheetAt(0);
+
+            List<CellReference> expected = new ArrayList<>();
+            for (Row row : sheet) {
+                for (Cell cell : row) {
+                    CellReference ref = new CellReference(sheet.getSheetName(), cell.getRowIndex(), cell.getColumnIndex(), false, false);
+                    if (!dve.isValidCell(ref)) {
+                        expected.add(ref);
+                    }
+                }
+            }
+            assertNotEquals(0, expected.size());
+
+            assertEquals(expected, getTargets(dve.validateSheet(sheet)));
+            assertEquals(expected, getTargets(dve.validateColumn(sheet, 1)));
+            assertEquals(0, dve.validateColumn(sheet, 0).size());
+        }
+    }
+
+    @Test
+    public void testValidateSheet() throws IOException {
+        try (XSSFWorkbook wb = new XSSFWorkbook()) {
+            XSSFSheet sheet = wb.createSheet("Upload");
+            DataValidationHelper helper = sheet.getDataValidationHelper();
+            sheet.addValidationData(helper.createValidation(
+                    helper.createExplicitListConstraint(new String[] {"Yes", "No"}), new CellRangeAddressList(0, 999, 0, 0)));
+            sheet.addValidationData(helper.createValidation(
+                    helper.createIntegerConstraint(OperatorType.BETWEEN, "1", "10"), new CellRangeAddressList(0, 999, 1, 1)));
+            sheet.addValidationData(helper.createValidation(
+                    helper.createFormulaListConstraint("$E$1:$E$3"), new CellRangeAddressList(0, 999, 2, 2)));
+            sheet.addValidationData(helper.createValidation(
+                    helper.createTextLengthConstraint(OperatorType.LESS_OR_EQUAL, "3", null), new CellRangeAddressList(0, 999, 3, 3)));
+
+            for (int i = 0; i < 1000; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(i % 3 == 0 ? "yes" : i % 3 == 1 ? "NO" : "maybe");
+                row.createCell(1).setCellValue(i % 12);
+                row.createCell(2).setCellValue(i % 5);
+                row.createCell(3).setCellValue(i % 7 == 0 ? "long text" : "abc");
+            }
+            for (int i = 0; i < 3; i++) {
+                sheet.getRow(i).createCell(4).setCellValue(i + 1);
+            }
+
+            XSSFFormulaEvaluator fEval = wb.getCreationHelper().createFormulaEvaluator();
+            DataValidationEvaluator dve = new DataValidationEvaluator(wb, fEval);
+            List<DataValidationEvaluator.DataValidationContext> violations = dve.validateSheet(sheet);
+
+            int[] counts = new int[4];
+            for (DataValidationEvaluator.DataValidationContext violation : violations) {
+                CellReference ref = violation.getTarget();
+                assertEquals("Upload", ref.getSheetName());
+                assertEquals(ref.getCol(), violation.getRegion().getFirstColumn());
+                assertFalse(dve.isValidCell(ref));
+                counts[ref.getCol()]++;
+            }
+            // "maybe", 0 and 11, 0 and 4, "long text"
+            assertEquals(333, counts[0]);
+            assertEquals(167, counts[1]);
+            assertEquals(400, counts[2]);
+            assertEquals(143, counts[3]);
+            assertEquals(400, dve.validateColumn(sheet, 2).size());
+        }
+    }
+
+    private static List<CellReference> getTargets(List<DataValidationEvaluator.DataValidationContext> contexts) {
+        List<CellReference> targets = new ArrayList<>();
+        for (DataValidationEvaluator.DataValidationContext context : contexts) {
+            targets.add(context.getTarget());
+        }
+        return targets;
+    }
 }
@@ -24,6 +24,8 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.poi.hssf.HSSFTestDataSamples;
+import org.apache.poi.ss.formula.FormulaRenderer;
+import org.apache.poi.ss.formula.ptg.Ptg;
 import org.apache.poi.ss.usermodel.BaseTestFormulaEvaluator;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellValue;
@@ -36,6 +38,8 @@ import org.apache.poi.xssf.XSSFITestDataProvider;
 import org.apache.poi.xssf.XSSFTestDataSamples;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCalcChain;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCalcPr;
 
 public final class TestXSSFFormulaEvaluation extends BaseTestFormulaEvaluator {
 
@@ -76,6 +80,61 @@ public final class TestXSSFFormulaEvaluation extends BaseTestFormulaEvaluator {
         wb.close();
     }
 
+    /**
+     * The evaluation workbook parses formulas only once, until their text changes
+     * or the cached values are cleared
+     */
+    @Test
+    public void testFormulaTokensAreCached() throws IOException {
+        XSSFWorkbook wb = new XSSFWorkbook();
+        XSSFSheet sheet = wb.createSheet("Sheet1");
+        wb.createSheet("Sheet2");
+        XSSFCell a1 = sheet.createRow(0).createCell(0);
+        a1.setCellFormula("B1+Sheet2!B1");
+        XSSFEvaluationWorkbook ewb = XSSFEvaluationWorkbook.create(wb);
+        XSSFEvaluationCell evalCell = new XSSFEvaluationCell(a1);
+
+        Ptg[] tokens = ewb.getFormulaTokens(evalCell);
+        assertSame(tokens, ewb.getFormulaTokens(evalCell));
+        ewb.clearAllCachedResultValues();
+        Ptg[] reparsed = ewb.getFormulaTokens(evalCell);
+        assertNotSame(tokens, reparsed);
+        assertEquals("B1+Sheet2!B1", FormulaRenderer.toFormulaString(ewb, reparsed));
+        assertSame(reparsed, ewb.getFormulaTokens(evalCell));
+
+        a1.setCellFormula("C1*2");
+        assertEquals("C1*2", FormulaRenderer.toFormulaString(ewb, ewb.getFormulaTokens(evalCell)));
+
+        sheet.shiftRows(0, 0, 1);
+        assertEquals("C2*2", FormulaRenderer.toFormulaString(ewb, ewb.getFormulaTokens(evalCell)));
+
+        wb.close();
+    }
+
+    /**
+     * The cells of a shared formula get the parsed master formula with moved references
+     */
+    @Test
+    public void testSharedFormulaTokens() throws IOException {
+        XSSFWorkbook wb = (XSSFWorkbook)_testDataProvider.openSampleWorkbook("49872.xlsx");
+        XSSFEvaluationWorkbook ewb = XSSFEvaluationWorkbook.create(wb);
+        XSSFRow row = wb.getSheetAt(0).getRow(2);
+
+        // B3:        <f t="shared" ref="B3:D3" si="0">B1+B2</f>
+        // C3 and D3: <f t="shared" si="0"/>
+        assertEquals("B1+B2", FormulaRenderer.toFormulaString(ewb, ewb.getFormulaTokens(new XSSFEvaluationCell(row.getCell(1)))));
+        assertEquals("C1+C2", FormulaRenderer.toFormulaString(ewb, ewb.getFormulaTokens(new XSSFEvaluationCell(row.getCell(2)))));
+        assertEquals("D1+D2", FormulaRenderer.toFormulaString(ewb, ewb.getFormulaTokens(new XSSFEvaluationCell(row.getCell(3)))));
+
+        // the master formula is moved to C3
+        FormulaEvaluator evaluator = wb.getCreationHelper().createFormulaEvaluator();
+        evaluator.evaluateInCell(row.getCell(1));
+        assertEquals("C1+C2", FormulaRenderer.toFormulaString(ewb, ewb.getFormulaTokens(new XSSFEvaluationCell(row.getCell(2)))));
+        assertEquals("D1+D2", FormulaRenderer.toFormulaString(ewb, ewb.getFormulaTokens(new XSSFEvaluationCell(row.getCell(3)))));
+
+        wb.close();
+    }
+
     /**
      * Evaluation of cell references with column indexes greater than 255. See bugzilla 50096
      */
@@ -442,4 +501,113 @@ public final class TestXSSFFormulaEvaluation extends BaseTestFormulaEvaluator {
         
         assertEquals("D 0,068", evaluator.evaluate(wb.getSheetAt(0).getRow(1).getCell(1)));
     }
+
+    @Test
+    public void evaluateDirtyForSave() throws IOException {
+        XSSFWorkbook wb = XSSFTestDataSamples.openSampleWorkbook("49966.xlsx");
+        XSSFFormulaEvaluator fe = wb.getCreationHelper().createFormulaEvaluator();
+        // the results saved by Excel are up to date
+        fe.buildDependencyGraph();
+        wb.getCTWorkbook().getCalcPr().setFullCalcOnLoad(true);
+        XSSFSheet sheet = wb.getSheetAt(0);
+        sheet.setForceFormulaRecalculation(true);
+
+        XSSFRow row = sheet.getRow(0);
+        XSSFCell a1 = row.getCell(0);
+        a1.setCellValue(5);
+        fe.notifyUpdateCell(a1);
+        XSSFCell f1 = row.createCell(5);
+        f1.setCellFormula("C1*2");
+        fe.notifySetFormula(f1);
+
+        // C1, E1 and F1, the result of COUNTA in D1 is the same
+        assertEquals(3, fe.evaluateDirtyForSave().size());
+        assertEquals(7, row.getCell(2).getNumericCellValue(), 0);
+        assertEquals(7, row.getCell(4).getNumericCellValue(), 0);
+        assertEquals(14, f1.getNumericCellValue(), 0);
+
+        CTCalcPr calcPr = wb.getCTWorkbook().getCalcPr();
+        assertFalse(calcPr.isSetFullCalcOnLoad());
+        assertEquals(125725, calcPr.getCalcId());
+        assertFalse(sheet.getForceFormulaRecalculation());
+        CTCalcChain chain = wb.getCalculationChain().getCTCalcChain();
+        assertEquals(4, chain.sizeOfCArray());
+        assertEquals("F1", chain.getCArray(3).getR());
+        assertEquals(1, chain.getCArray(3).getI());
+
+        // nothing changed since
+        assertTrue(fe.evaluateDirtyForSave().isEmpty());
+        assertEquals(4, chain.sizeOfCArray());
+
+        XSSFWorkbook wb2 = XSSFTestDataSamples.writeOutAndReadBack(wb);
+        wb.close();
+        assertEquals(4, wb2.getCalculationChain().getCTCalcChain().sizeOfCArray());
+        assertFalse(wb2.getCTWorkbook().getCalcPr().isSetFullCalcOnLoad());
+        assertEquals(14, wb2.getSheetAt(0).getRow(0).getCell(5).getNumericCellValue(), 0);
+        wb2.close();
+    }
+
+    @Test
+    public void evaluateDirtyForSaveWithoutNotify() throws IOException {
+        XSSFWorkbook wb = XSSFTestDataSamples.openSampleWorkbook("49966.xlsx");
+        XSSFFormulaEvaluator fe = wb.getCreationHelper().createFormulaEvaluator();
+        fe.buildDependencyGraph();
+        CTCalcPr calcPr = wb.getCTWorkbook().getCalcPr();
+        calcPr.setFullCalcOnLoad(true);
+
+        // the changed cells are tracked by the workbook
+        XSSFRow row = wb.getSheetAt(0).getRow(0);
+        row.getCell(0).setCellValue(5);
+        assertEquals(2, fe.evaluateDirtyForSave().size());
+        assertEquals(7, row.getCell(2).getNumericCellValue(), 0);
+        assertEquals(7, row.getCell(4).getNumericCellValue(), 0);
+        assertFalse(calcPr.isSetFullCalcOnLoad());
+
+        // removed cells aren't tracked, so all formulas are recalculated
+        row.removeCell(row.getCell(1));
+        assertEquals(3, fe.evaluateDirtyForSave().size());
+        assertEquals(5, row.getCell(2).getNumericCellValue(), 0);
+        assertEquals(2, row.getCell(3).getNumericCellValue(), 0);
+        assertEquals(5, row.getCell(4).getNumericCellValue(), 0);
+
+        // the saved results aren't changes
+        assertTrue(fe.evaluateDirtyForSave().isEmpty());
+        wb.close();
+    }
+
+    @Test
+    public void evaluateDirtyForSaveKeepsChainedCells() throws IOException {
+        XSSFWorkbook wb = XSSFTestDataSamples.openSampleWorkbook("49966.xlsx");
+        // the sheet Id of the first cell of the chain is omitted, so it's the default 0
+        wb.getSheetAt(0).sheet.setSheetId(0);
+        CTCalcChain chain = wb.getCalculationChain().getCTCalcChain();
+        assertEquals(1, chain.getCArray(0).getI());
+        chain.getCArray(0).unsetI();
+        int chainSize = chain.sizeOfCArray();
+
+        XSSFWorkbook wb2 = XSSFTestDataSamples.writeOutAndReadBack(wb);
+        wb.close();
+        XSSFFormulaEvaluator fe = wb2.getCreationHelper().createFormulaEvaluator();
+        fe.buildDependencyGraph();
+        fe.evaluateDirtyForSave();
+        // all the formula cells are in the chain already
+        chain = wb2.getCalculationChain().getCTCalcChain();
+        assertEquals(chainSize, chain.sizeOfCArray());
+        assertFalse(chain.getCArray(0).isSetI());
+
+        // a new formula is appended to the chain of its sheet
+        XSSFCell cell = wb2.getSheetAt(0).getRow(0).createCell(10);
+        cell.setCellFormula("C1+1");
+        fe.notifySetFormula(cell);
+        fe.evaluateDirtyForSave();
+        assertEquals(chainSize + 1, chain.sizeOfCArray());
+        assertEquals("K1", chain.getCArray(chainSize).getR());
+        assertEquals(0, chain.getCArray(chainSize).getI());
+
+        // the first cell is resolved the same way when it's removed from the chain
+        wb2.getCalculationChain().removeItem(0, "E1");
+        assertEquals(chainSize, chain.sizeOfCArray());
+        assertEquals("D1", chain.getCArray(0).getR());
+        wb2.close();
+    }
 }
@@ -1622,4 +1622,40 @@ public final class TestFormulaParser {
         
         wb.close();
     }    
+
+    @Test
+    public void testCellReferenceScanning() throws IOException {
+        Ptg[] ptgs = confirmTokenClasses("$a$1+b$2+$C3",
+                RefPtg.class, RefPtg.class, AddPtg.class, RefPtg.class, AddPtg.class);
+        assertEquals("$A$1", ptgs[0].toFormulaString());
+        assertEquals("B$2", ptgs[1].toFormulaString());
+        assertEquals("$C3", ptgs[3].toFormulaString());
+
+        ptgs = confirmTokenClasses("IV65536", RefPtg.class);
+        assertEquals("IV65536", ptgs[0].toFormulaString());
+        ptgs = confirmTokenClasses("a1:$c$3", AreaPtg.class);
+        assertEquals("A1:$C$3", ptgs[0].toFormulaString());
+        ptgs = confirmTokenClasses("3:$5", AreaPtg.class);
+        assertEquals("$A3:$IV$5", ptgs[0].toFormulaString());
+        ptgs = confirmTokenClasses("$b:c", AreaPtg.class);
+        AreaPtg columns = (AreaPtg) ptgs[0];
+        assertEquals(1, columns.getFirstColumn());
+        assertFalse(columns.isFirstColRelative());
+        assertEquals(2, columns.getLastColumn());
+        assertTrue(columns.isLastColRelative());
+
+        // out of range or malformed references are names
+        HSSFWorkbook wb = new HSSFWorkbook();
+        wb.createSheet("Sheet1");
+        for (String name : new String[] { "IW1", "A65537", "A0", "A1B" }) {
+            try {
+                HSSFFormulaParser.parse(name + "+1", wb);
+                fail("Expected parse exception for " + name);
+            } catch (FormulaParseException e) {
+                assertEquals("Specified named range '" + name + "' does not exist in the current workbook.",
+                        e.getMessage());
+            }
+        }
+        wb.close();
+    }
 }
@@ -17,7 +17,9 @@
 
 package org.apache.poi.ss.formula;
 
+import org.apache.poi.ss.formula.eval.forked.TestConcurrentEvaluator;
 import org.apache.poi.ss.formula.eval.forked.TestForkedEvaluator;
+import org.apache.poi.ss.formula.eval.forked.TestScenarioEvaluator;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
@@ -27,9 +29,14 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
     TestCellCacheEntry.class,
+    TestCompiledFormula.class,
     TestEvaluationCache.class,
+    TestEvaluationProfiler.class,
+    TestFormulaDependencyGraph.class,
     TestWorkbookEvaluator.class,
-    TestForkedEvaluator.class
+    TestForkedEvaluator.class,
+    TestScenarioEvaluator.class,
+    TestConcurrentEvaluator.class
 })
 public class AllSSFormulaTests {
 }
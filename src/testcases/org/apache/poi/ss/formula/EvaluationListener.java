@@ -18,6 +18,7 @@
 package org.apache.poi.ss.formula;
 
 import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.ptg.OperationPtg;
 
 /**
  * Tests should extend this class if they need to track the internal working of the {@link WorkbookEvaluator}.<br>
@@ -44,6 +45,14 @@ public abstract class EvaluationListener implements IEvaluationListener {
 		// do nothing
 	}
 	@Override
+    public void onStartFunction(OperationPtg ptg) {
+		// do nothing
+	}
+	@Override
+    public void onEndFunction(OperationPtg ptg, ValueEval result) {
+		// do nothing
+	}
+	@Override
     public void onClearWholeCache() {
 		// do nothing
 	}
@@ -0,0 +1,130 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.poi.hssf.model.HSSFFormulaParser;
+import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFEvaluationWorkbook;
+import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.ptg.AttrPtg;
+import org.apache.poi.ss.formula.ptg.IntPtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.junit.Test;
+
+/**
+ * Tests {@link CompiledFormula} against the token interpreter of {@link WorkbookEvaluator}
+ */
+public final class TestCompiledFormula {
+
+    private static HSSFWorkbook createWorkbook() {
+        HSSFWorkbook wb = new HSSFWorkbook();
+        HSSFSheet sheet = wb.createSheet("Sheet1");
+        sheet.createRow(0).createCell(0).setCellValue(1);
+        sheet.createRow(1).createCell(0).setCellValue(2);
+        sheet.createRow(2).createCell(0).setCellValue("three");
+        sheet.getRow(0).createCell(1).setCellFormula("A1+A2");
+        return wb;
+    }
+
+    private static void confirmSameResult(HSSFWorkbook wb, String formula) {
+        confirmSameResult(wb, HSSFFormulaParser.parse(formula, wb, FormulaType.CELL, 0));
+    }
+
+    private static void confirmSameResult(HSSFWorkbook wb, Ptg[] ptgs) {
+        EvaluationWorkbook ewb = HSSFEvaluationWorkbook.create(wb);
+        WorkbookEvaluator evaluator = new WorkbookEvaluator(ewb, null, null);
+
+        ValueEval expected = evaluator.evaluateFormula(createContext(evaluator, ewb), ptgs);
+
+        CompiledFormula compiled = CompiledFormula.compile(ptgs);
+        assertTrue(compiled.isCompiled());
+        ValueEval actual = WorkbookEvaluator.dereferenceResult(
+            compiled.evaluate(evaluator, createContext(evaluator, ewb)), 4, 2);
+
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    private static OperationEvaluationContext createContext(WorkbookEvaluator evaluator, EvaluationWorkbook ewb) {
+        EvaluationTracker tracker = new EvaluationTracker(new EvaluationCache(null));
+        return new OperationEvaluationContext(evaluator, ewb, 0, 4, 2, tracker);
+    }
+
+    @Test
+    public void sameResultsAsInterpreter() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            confirmSameResult(wb, "A1*2+A2/4-1");
+            confirmSameResult(wb, "-A1%&\"x\"");
+            confirmSameResult(wb, "SUM(A1:A3)");
+            confirmSameResult(wb, "SUM((A1:A2 A2:A3))");
+            confirmSameResult(wb, "A3+1");
+            confirmSameResult(wb, "B1*10");
+            confirmSameResult(wb, "Sheet1!A1:A2");
+            confirmSameResult(wb, "INDEX(A1:A2,2)");
+            confirmSameResult(wb, "{1,2;3,4}");
+            confirmSameResult(wb, "INDIRECT(\"A2\")");
+            confirmSameResult(wb, new Ptg[] { new IntPtg(42), AttrPtg.SUM });
+        }
+    }
+
+    @Test
+    public void ifAndChoose() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            confirmSameResult(wb, "IF(A1>1,A2*2,A3+1)");
+            confirmSameResult(wb, "IF(A1<2,A2*2,A3+1)");
+            confirmSameResult(wb, "IF(A1>1,A2)");
+            confirmSameResult(wb, "IF(A1,,1)");
+            confirmSameResult(wb, "IF(A3,1,2)");
+            confirmSameResult(wb, "IF(A1,IF(A2>1,\"a\",\"b\"),\"c\")");
+            confirmSameResult(wb, "CHOOSE(2,A1,A2,A3)");
+            confirmSameResult(wb, "CHOOSE(4,A1,A2,A3)");
+            confirmSameResult(wb, "CHOOSE(A3,A1,A2)");
+        }
+    }
+
+    @Test
+    public void incompleteTokensAreInterpreted() {
+        assertFalse(CompiledFormula.compile(new Ptg[] { new IntPtg(1), new IntPtg(2) }).isCompiled());
+    }
+
+    @Test
+    public void changedFormulaIsCompiledAgain() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            HSSFCell a1 = wb.getSheet("Sheet1").getRow(0).getCell(0);
+            HSSFCell b1 = wb.getSheet("Sheet1").getRow(0).getCell(1);
+            assertEquals(3, fe.evaluate(b1).getNumberValue(), 0);
+
+            a1.setCellValue(5);
+            fe.notifyUpdateCell(a1);
+            assertEquals(7, fe.evaluate(b1).getNumberValue(), 0);
+
+            b1.setCellFormula("A1*A2");
+            fe.notifySetFormula(b1);
+            assertEquals(10, fe.evaluate(b1).getNumberValue(), 0);
+        }
+    }
+}
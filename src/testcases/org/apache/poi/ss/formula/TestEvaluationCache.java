@@ -219,8 +219,16 @@ public class TestEvaluationCache extends TestCase {
 		private final EvalListener _evalListener;
 
 		public MySheet() {
+			this(true);
+		}
+
+		/**
+		 * @param logEvaluations <code>false</code> for cached areas of lookup and aggregate
+		 * functions, which the listener can't log
+		 */
+		public MySheet(boolean logEvaluations) {
 			_wb = new HSSFWorkbook();
-			_evalListener = new EvalListener(_wb);
+			_evalListener = logEvaluations ? new EvalListener(_wb) : null;
 			_evaluator = WorkbookEvaluatorTestHelper.createEvaluator(_wb, _evalListener);
 			_sheet = _wb.createSheet("Sheet1");
 		}
@@ -275,6 +283,18 @@ public class TestEvaluationCache extends TestCase {
 		public void clearAllCachedResultValues() {
 			_evaluator.clearAllCachedResultValues();
 		}
+
+		public int refreshVolatileFormulas() {
+			return _evaluator.refreshVolatileFormulas();
+		}
+
+		public int getAreaEntryCount() {
+			return _evaluator.getAreaEntryCount();
+		}
+
+		public int getNumericValueCount() {
+			return _evaluator.getNumericValueCount();
+		}
 	}
 
 	private static MySheet createMediumComplex() {
@@ -653,6 +673,133 @@ public class TestEvaluationCache extends TestCase {
 		});
 	}
 
+	/**
+	 * Only the volatile formula cells and the cells depending on them are recalculated
+	 */
+	public void testRefreshVolatileFormulas() {
+		MySheet ms = new MySheet();
+		ms.setCellFormula("A1", "INT(RAND())");
+		ms.setCellFormula("B1", "A1+1");
+		ms.setCellFormula("C1", "D1+1");
+		ms.setCellValue("D1", 5);
+		ms.setCellFormula("E1", "B1+C1");
+		ms.clearAllCachedResultValues();
+		confirmEvaluate(ms, "E1", 7);
+		ms.getAndClearLog();
+
+		assertEquals(1, ms.refreshVolatileFormulas());
+		confirmLog(ms, new String[] {
+			"clear A1",
+			"clear1 B1 1",
+			"clear2 E1 7",
+		});
+		confirmEvaluate(ms, "E1", 7);
+		confirmLog(ms, new String[] {
+			"start E1 B1+C1",
+				"start B1 A1+1",
+					"start A1 INT(RAND())",
+					"end A1 0",
+				"end B1 1",
+				"hit C1 6",
+			"end E1 7",
+		});
+
+		// nothing is cleared before the volatile cell has been evaluated again
+		ms.refreshVolatileFormulas();
+		ms.getAndClearLog();
+		assertEquals(0, ms.refreshVolatileFormulas());
+		confirmLog(ms, new String[] {});
+	}
+
+	/**
+	 * The cells referred by INDIRECT are recorded like any other reference when the formula is evaluated
+	 */
+	public void testIndirectReferences() {
+		MySheet ms = new MySheet();
+		ms.setCellFormula("A1", "INDIRECT(\"C\"&B1)");
+		ms.setCellValue("B1", 1);
+		ms.setCellValue("C1", 10);
+		ms.setCellValue("C2", 20);
+		ms.clearAllCachedResultValues();
+		confirmEvaluate(ms, "A1", 10);
+		assertEquals(0, ms.refreshVolatileFormulas());
+
+		ms.setCellValue("C2", 25);
+		ms.getAndClearLog();
+		confirmEvaluate(ms, "A1", 10);
+		confirmLog(ms, new String[] {
+			"hit A1 10",
+		});
+
+		ms.setCellValue("C1", 15);
+		confirmEvaluate(ms, "A1", 15);
+		ms.setCellValue("B1", 2);
+		confirmEvaluate(ms, "A1", 25);
+	}
+
+	/**
+	 * The cached areas of the aggregate functions are removed, once no formula uses them
+	 */
+	public void testUnusedAreasAreRemoved() {
+		MySheet ms = new MySheet(false);
+		for (int i = 1; i <= 20; i++) {
+			ms.setCellValue("A" + i, i);
+		}
+		// the values of the areas are cached, as each area is read twice
+		for (int i = 1; i <= 100; i++) {
+			ms.setCellFormula("B" + i, "SUM(A1:A" + (i + 15) + ")");
+			ms.setCellFormula("D" + i, "SUM(A1:A" + (i + 15) + ")");
+		}
+		for (int i = 1; i <= 100; i++) {
+			ms.evaluateCell("B" + i);
+			ms.evaluateCell("D" + i);
+		}
+		assertEquals(100, ms.getAreaEntryCount());
+
+		for (int i = 51; i <= 100; i++) {
+			ms.setCellValue("B" + i, i);
+			ms.setCellValue("D" + i, i);
+		}
+		// changing a blank cell checks the areas, which may contain the cell
+		ms.setCellValue("C1", 1);
+		assertEquals(50, ms.getAreaEntryCount());
+		confirmEvaluate(ms, "B1", 136);
+		confirmEvaluate(ms, "B50", 210);
+		assertEquals(50, ms.getAreaEntryCount());
+
+		// changed input cells discard the values of the areas
+		ms.setCellValue("A1", 2);
+		ms.setCellValue("C2", 1);
+		assertEquals(0, ms.getAreaEntryCount());
+		assertEquals(0, ms.getNumericValueCount());
+		confirmEvaluate(ms, "B1", 137);
+		assertEquals(1, ms.getAreaEntryCount());
+	}
+
+	/**
+	 * The values of areas read only once, like those of running totals, aren't cached
+	 */
+	public void testAreasReadOnceAreNotCached() {
+		MySheet ms = new MySheet(false);
+		for (int i = 1; i <= 100; i++) {
+			ms.setCellValue("A" + i, i);
+			ms.setCellFormula("B" + i, "SUM(A$1:A" + i + ")");
+		}
+		ms.setCellFormula("C1", "AVERAGE(A1:A100)");
+		for (int i = 1; i <= 100; i++) {
+			confirmEvaluate(ms, "B" + i, i * (i + 1) / 2);
+		}
+		assertEquals(0, ms.getNumericValueCount());
+
+		// the second read of the same cells caches their values
+		confirmEvaluate(ms, "C1", 50.5);
+		assertEquals(100, ms.getNumericValueCount());
+
+		ms.setCellValue("A1", 2);
+		confirmEvaluate(ms, "B100", 5051);
+		confirmEvaluate(ms, "C1", 50.51);
+	}
+
 	private static void confirmEvaluate(MySheet ms, String cellRefText, double expectedValue) {
 		ValueEval v = ms.evaluateCell(cellRefText);
 		assertEquals(NumberEval.class, v.getClass());
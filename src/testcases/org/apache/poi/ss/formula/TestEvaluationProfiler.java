@@ -0,0 +1,142 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.EvaluationProfiler.CellStatistics;
+import org.apache.poi.ss.formula.EvaluationProfiler.FunctionStatistics;
+import org.apache.poi.ss.util.CellReference;
+import org.junit.Test;
+
+/**
+ * Tests {@link EvaluationProfiler}
+ */
+public final class TestEvaluationProfiler {
+
+    /**
+     * A1 holds a number, B1 to D1 a chain of formulas and E1 sums them up.
+     */
+    private static HSSFWorkbook createWorkbook() {
+        HSSFWorkbook wb = new HSSFWorkbook();
+        HSSFSheet sheet = wb.createSheet("Sheet1");
+        HSSFRow row = sheet.createRow(0);
+        row.createCell(0).setCellValue(1);
+        row.createCell(1).setCellFormula("A1*2");
+        row.createCell(2).setCellFormula("B1+1");
+        row.createCell(3).setCellFormula("C1*10");
+        row.createCell(4).setCellFormula("SUM(A1:D1)");
+        return wb;
+    }
+
+    private static FunctionStatistics getFunctionStatistics(EvaluationProfiler profiler, String name) {
+        for (FunctionStatistics stats : profiler.getFunctionStatistics()) {
+            if (stats.getName().equals(name)) {
+                return stats;
+            }
+        }
+        throw new AssertionError("No statistics for " + name);
+    }
+
+    @Test
+    public void cellsAndFunctions() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            EvaluationProfiler profiler = EvaluationProfiler.attach(fe);
+            HSSFRow row = wb.getSheet("Sheet1").getRow(0);
+            assertEquals(30, fe.evaluate(row.getCell(3)).getNumberValue(), 0);
+            assertEquals(36, fe.evaluate(row.getCell(4)).getNumberValue(), 0);
+
+            assertEquals(4, profiler.getFormulaEvaluationCount());
+            assertEquals(1, profiler.getPlainValueReadCount());
+            // A1 to D1 are read from the cache by the SUM
+            assertEquals(4, profiler.getCacheHitCount());
+            assertEquals(3, profiler.getMaxDependencyDepth());
+
+            List<CellStatistics> cells = profiler.getCellStatistics();
+            assertEquals(4, cells.size());
+            CellStatistics d1 = profiler.getCellStatistics(new CellReference("Sheet1!D1"));
+            assertEquals("Sheet1!D1", d1.toString());
+            assertEquals(1, d1.getEvaluationCount());
+            assertEquals(3, d1.getDependencyDepth());
+            assertTrue(d1.getTotalTime() >= d1.getSelfTime());
+
+            assertEquals(2, getFunctionStatistics(profiler, "*").getInvocationCount());
+            assertEquals(1, getFunctionStatistics(profiler, "+").getInvocationCount());
+            assertEquals(1, getFunctionStatistics(profiler, "SUM").getInvocationCount());
+            assertTrue(profiler.getEvaluationTime() >= d1.getTotalTime());
+        }
+    }
+
+    @Test
+    public void slowestChains() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            EvaluationProfiler profiler = EvaluationProfiler.attach(fe);
+            fe.evaluate(wb.getSheet("Sheet1").getRow(0).getCell(3));
+
+            List<List<CellStatistics>> chains = profiler.getSlowestChains(5);
+            assertEquals(1, chains.size());
+            assertEquals("[Sheet1!D1, Sheet1!C1, Sheet1!B1]", chains.get(0).toString());
+            assertTrue(profiler.formatReport(5).contains("Sheet1!D1 <- Sheet1!C1 <- Sheet1!B1"));
+        }
+    }
+
+    @Test
+    public void changedCellsAndDetach() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            EvaluationProfiler profiler = EvaluationProfiler.attach(fe);
+            HSSFSheet sheet = wb.getSheet("Sheet1");
+            HSSFCell e1 = sheet.getRow(0).getCell(4);
+            fe.evaluate(e1);
+            assertEquals(4, profiler.getFormulaEvaluationCount());
+
+            HSSFCell a1 = sheet.getRow(0).getCell(0);
+            a1.setCellValue(2);
+            fe.notifyUpdateCell(a1);
+            // the value of A1 and the results of B1 to E1
+            assertTrue(profiler.getClearedValueCount() >= 5);
+            assertEquals(61, fe.evaluate(e1).getNumberValue(), 0);
+            assertEquals(8, profiler.getFormulaEvaluationCount());
+
+            Map<String, Number> metrics = profiler.getMetrics();
+            assertEquals(8, metrics.get("cache.misses"));
+            assertEquals(2, metrics.get("function.SUM.count"));
+
+            profiler.detach();
+            fe.clearAllCachedResultValues();
+            fe.evaluate(e1);
+            assertEquals(8, profiler.getFormulaEvaluationCount());
+
+            profiler.reset();
+            assertEquals(0, profiler.getCellStatistics().size());
+            assertEquals(0, profiler.getMetrics().get("cache.misses"));
+        }
+    }
+}
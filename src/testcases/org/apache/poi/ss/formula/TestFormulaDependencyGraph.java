@@ -0,0 +1,356 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.poi.hssf.HSSFTestDataSamples;
+import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.eval.EvaluationException;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.OperandResolver;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.functions.FreeRefFunction;
+import org.apache.poi.ss.formula.udf.DefaultUDFFinder;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.util.CellReference;
+import org.junit.Test;
+
+/**
+ * Tests the incremental recalculation based on {@link FormulaDependencyGraph}
+ */
+public final class TestFormulaDependencyGraph {
+
+    private static final double EPSILON = 0.0000001;
+
+    private static HSSFWorkbook createWorkbook() {
+        HSSFWorkbook wb = new HSSFWorkbook();
+        HSSFSheet sheet1 = wb.createSheet("Sheet1");
+        HSSFSheet sheet2 = wb.createSheet("Sheet2");
+
+        sheet1.createRow(0).createCell(0).setCellValue(1);
+        sheet1.createRow(1).createCell(0).setCellValue(2);
+        sheet1.getRow(0).createCell(1).setCellFormula("A1*2");
+        sheet1.getRow(1).createCell(1).setCellFormula("SUM(A1:A2)");
+        sheet1.getRow(0).createCell(2).setCellFormula("B1+1");
+        sheet1.getRow(0).createCell(3).setCellFormula("A2*10");
+        sheet1.getRow(0).createCell(4).setCellFormula("C1+D1");
+        sheet2.createRow(0).createCell(0).setCellFormula("Sheet1!C1*100");
+        return wb;
+    }
+
+    private static Set<String> toRefs(List<Cell> cells) {
+        Set<String> result = new HashSet<>();
+        for (Cell c : cells) {
+            result.add(new CellReference(c.getSheet().getSheetName(), c.getRowIndex(), c.getColumnIndex(), false, false).formatAsString());
+        }
+        return result;
+    }
+
+    private static Set<String> refs(String... refs) {
+        Set<String> result = new HashSet<>();
+        for (String ref : refs) {
+            result.add(ref);
+        }
+        return result;
+    }
+
+    private static double getValue(HSSFWorkbook wb, String sheetName, int row, int col) {
+        return wb.getSheet(sheetName).getRow(row).getCell(col).getNumericCellValue();
+    }
+
+    @Test
+    public void evaluateDirtyOnlyAffectedCells() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            // no graph yet - all formulas are evaluated
+            assertEquals(refs("Sheet1!B1", "Sheet1!B2", "Sheet1!C1", "Sheet1!D1", "Sheet1!E1", "Sheet2!A1"),
+                toRefs(fe.evaluateDirty()));
+            assertEquals(23, getValue(wb, "Sheet1", 0, 4), EPSILON);
+
+            // nothing changed
+            assertTrue(fe.evaluateDirty().isEmpty());
+
+            Cell a1 = wb.getSheet("Sheet1").getRow(0).getCell(0);
+            a1.setCellValue(5);
+            fe.notifyUpdateCell(a1);
+            assertEquals(refs("Sheet1!B1", "Sheet1!B2", "Sheet1!C1", "Sheet1!E1", "Sheet2!A1"),
+                toRefs(fe.evaluateDirty()));
+            assertEquals(10, getValue(wb, "Sheet1", 0, 1), EPSILON);
+            assertEquals(7, getValue(wb, "Sheet1", 1, 1), EPSILON);
+            assertEquals(11, getValue(wb, "Sheet1", 0, 2), EPSILON);
+            assertEquals(31, getValue(wb, "Sheet1", 0, 4), EPSILON);
+            assertEquals(1100, getValue(wb, "Sheet2", 0, 0), EPSILON);
+
+            // changed formula
+            Cell b1 = wb.getSheet("Sheet1").getRow(0).getCell(1);
+            b1.setCellFormula("A2*3");
+            fe.notifySetFormula(b1);
+            assertEquals(refs("Sheet1!B1", "Sheet1!C1", "Sheet1!E1", "Sheet2!A1"),
+                toRefs(fe.evaluateDirty()));
+            assertEquals(27, getValue(wb, "Sheet1", 0, 4), EPSILON);
+
+            // the old reference of B1 is gone
+            a1.setCellValue(6);
+            fe.notifyUpdateCell(a1);
+            assertEquals(refs("Sheet1!B2"), toRefs(fe.evaluateDirty()));
+        }
+    }
+
+    @Test
+    public void cachedResultsOfUnaffectedCellsAreUsed() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            // the cached results haven't been calculated (all zero), but are trusted
+            fe.buildDependencyGraph();
+
+            Cell a1 = wb.getSheet("Sheet1").getRow(0).getCell(0);
+            a1.setCellValue(5);
+            fe.notifyUpdateCell(a1);
+            fe.evaluateDirty();
+
+            assertEquals(10, getValue(wb, "Sheet1", 0, 1), EPSILON);
+            assertEquals(11, getValue(wb, "Sheet1", 0, 2), EPSILON);
+            // D1 isn't affected and therefore not evaluated
+            assertEquals(0, getValue(wb, "Sheet1", 0, 3), EPSILON);
+            assertEquals(11, getValue(wb, "Sheet1", 0, 4), EPSILON);
+        }
+    }
+
+    @Test
+    public void evaluateDirtyForSave() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            fe.evaluateDirty();
+            HSSFSheet sheet = wb.getSheet("Sheet1");
+            sheet.setForceFormulaRecalculation(true);
+
+            Cell a2 = sheet.getRow(1).getCell(0);
+            a2.setCellValue(3);
+            fe.notifyUpdateCell(a2);
+            assertEquals(refs("Sheet1!B2", "Sheet1!D1", "Sheet1!E1"), toRefs(fe.evaluateDirtyForSave()));
+            assertFalse(sheet.getForceFormulaRecalculation());
+
+            try (HSSFWorkbook wb2 = HSSFTestDataSamples.writeOutAndReadBack(wb)) {
+                assertFalse(wb2.getSheet("Sheet1").getForceFormulaRecalculation());
+                assertEquals(33, getValue(wb2, "Sheet1", 0, 4), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void evaluateDirtyForSaveWithoutNotify() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            fe.evaluateDirty();
+            HSSFSheet sheet = wb.getSheet("Sheet1");
+
+            // the changed cells are tracked by the workbook
+            Cell a2 = sheet.getRow(1).getCell(0);
+            a2.setCellValue(3);
+            assertEquals(refs("Sheet1!B2", "Sheet1!D1", "Sheet1!E1"), toRefs(fe.evaluateDirtyForSave()));
+            assertEquals(33, getValue(wb, "Sheet1", 0, 4), EPSILON);
+
+            sheet.getRow(0).getCell(1).setCellFormula("A1*3");
+            sheet.setForceFormulaRecalculation(true);
+            assertEquals(refs("Sheet1!B1", "Sheet1!C1", "Sheet1!E1", "Sheet2!A1"), toRefs(fe.evaluateDirtyForSave()));
+            assertEquals(400, getValue(wb, "Sheet2", 0, 0), EPSILON);
+            assertFalse(sheet.getForceFormulaRecalculation());
+
+            // removed cells aren't tracked, so all formulas are recalculated
+            sheet.getRow(1).removeCell(a2);
+            assertEquals(refs("Sheet1!B2", "Sheet1!D1", "Sheet1!E1"), toRefs(fe.evaluateDirtyForSave()));
+            assertEquals(4, getValue(wb, "Sheet1", 0, 4), EPSILON);
+
+            // the saved results aren't changes
+            assertTrue(fe.evaluateDirtyForSave().isEmpty());
+        }
+    }
+
+    /**
+     * The values of the area cached for the lookups and aggregates must be discarded when
+     * a cell of the area is recalculated, even if its result has been read from the cell.
+     * The lookup index and the numeric values of the same area are discarded together.
+     */
+    @Test
+    public void cachedAreasAfterRepeatedChanges() throws IOException {
+        try (HSSFWorkbook wb = new HSSFWorkbook()) {
+            HSSFSheet sheet = wb.createSheet("Sheet1");
+            for (int i = 0; i < 20; i++) {
+                HSSFRow row = sheet.createRow(i);
+                row.createCell(0).setCellValue(i + 1);
+                row.createCell(1).setCellFormula("A" + (i + 1) + "*2");
+            }
+            String[] formulas = {
+                "MATCH(100,B1:B20,0)",
+                "VLOOKUP(100,B1:B20,1,FALSE)",
+                "COUNTIF(B1:B20,100)",
+                "SUMIF(B1:B20,\">20\")",
+                "SUM(B1:B20)",
+                "SUMPRODUCT(B1:B20,A1:A20)",
+            };
+            for (int i = 0; i < formulas.length; i++) {
+                sheet.getRow(i).createCell(3).setCellFormula(formulas[i]);
+            }
+
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            fe.evaluateDirty();
+            int[] changedRows = { 4, 6, 8, 6, 4 };
+            double[] newValues = { 17, 50, 33, 7, 50 };
+            for (int i = 0; i < changedRows.length; i++) {
+                Cell cell = sheet.getRow(changedRows[i]).getCell(0);
+                cell.setCellValue(newValues[i]);
+                fe.notifyUpdateCell(cell);
+                fe.evaluateDirty();
+
+                HSSFFormulaEvaluator fresh = new HSSFFormulaEvaluator(wb);
+                for (int j = 0; j < formulas.length; j++) {
+                    Cell formulaCell = sheet.getRow(j).getCell(3);
+                    String message = formulas[j] + " after change " + (i + 1);
+                    assertEquals(message, fresh.evaluate(formulaCell).toString(),
+                        fe.evaluate(formulaCell).toString());
+                    assertEquals(message, fresh.evaluate(formulaCell).getCellType(),
+                        formulaCell.getCachedFormulaResultType());
+                }
+            }
+            // A5 is 50, A7 back at 7 and A9 is 33
+            assertEquals(5, getValue(wb, "Sheet1", 0, 3), EPSILON);
+            assertEquals(1, getValue(wb, "Sheet1", 2, 3), EPSILON);
+            assertEquals(2 * (210 - 5 + 50 - 9 + 33), getValue(wb, "Sheet1", 4, 3), EPSILON);
+        }
+    }
+
+    @Test
+    public void volatileFormulas() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFSheet sheet = wb.getSheet("Sheet1");
+            sheet.createRow(2).createCell(0).setCellFormula("INDIRECT(\"A2\")+1");
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            fe.evaluateDirty();
+            assertEquals(3, getValue(wb, "Sheet1", 2, 0), EPSILON);
+
+            Cell a2 = sheet.getRow(1).getCell(0);
+            a2.setCellValue(4);
+            fe.notifyUpdateCell(a2);
+            assertTrue(toRefs(fe.evaluateDirty()).contains("Sheet1!A3"));
+            assertEquals(5, getValue(wb, "Sheet1", 2, 0), EPSILON);
+        }
+    }
+
+    @Test
+    public void clearAllCachedResultValuesDiscardsGraph() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            fe.evaluateDirty();
+
+            // change without notification
+            wb.getSheet("Sheet1").getRow(1).getCell(0).setCellValue(3);
+            fe.clearAllCachedResultValues();
+            assertEquals(refs("Sheet1!B2", "Sheet1!D1", "Sheet1!E1"), toRefs(fe.evaluateDirty()));
+            assertEquals(33, getValue(wb, "Sheet1", 0, 4), EPSILON);
+        }
+    }
+
+    @Test
+    public void evaluateAllInParallel() throws IOException {
+        try (HSSFWorkbook wb = new HSSFWorkbook()) {
+            HSSFSheet sheet = wb.createSheet("Sheet1");
+            for (int i = 0; i < 1000; i++) {
+                HSSFRow row = sheet.createRow(i);
+                row.createCell(0).setCellValue(i);
+                row.createCell(1).setCellFormula("A" + (i + 1) + "*2");
+                row.createCell(2).setCellFormula("B" + (i + 1) + "+A" + (i + 1));
+            }
+            sheet.getRow(0).createCell(3).setCellFormula("SUM(C1:C1000)");
+            sheet.getRow(0).createCell(4).setCellFormula("INDIRECT(\"A5\")+D1");
+            sheet.getRow(0).createCell(5).setCellFormula("F2+1");
+            sheet.getRow(1).createCell(5).setCellFormula("F1+1");
+
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                fe.evaluateAll(pool);
+            } finally {
+                pool.shutdown();
+            }
+
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i * 2, getValue(wb, "Sheet1", i, 1), EPSILON);
+                assertEquals(i * 3, getValue(wb, "Sheet1", i, 2), EPSILON);
+            }
+            assertEquals(1498500, getValue(wb, "Sheet1", 0, 3), EPSILON);
+            assertEquals(1498504, getValue(wb, "Sheet1", 0, 4), EPSILON);
+            assertEquals(CellType.ERROR, sheet.getRow(0).getCell(5).getCachedFormulaResultType());
+
+            // the dependency graph is ready for incremental recalculation
+            Cell a2 = sheet.getRow(1).getCell(0);
+            a2.setCellValue(11);
+            fe.notifyUpdateCell(a2);
+            assertEquals(refs("Sheet1!B2", "Sheet1!C2", "Sheet1!D1", "Sheet1!E1"), toRefs(fe.evaluateDirty()));
+            assertEquals(1498534, getValue(wb, "Sheet1", 0, 4), EPSILON);
+        }
+    }
+
+    @Test
+    public void evaluateAllInParallelWithUDF() throws IOException {
+        try (HSSFWorkbook wb = new HSSFWorkbook()) {
+            FreeRefFunction twice = new FreeRefFunction() {
+                @Override
+                public ValueEval evaluate(ValueEval[] args, OperationEvaluationContext ec) {
+                    try {
+                        ValueEval arg = OperandResolver.getSingleValue(args[0], ec.getRowIndex(), ec.getColumnIndex());
+                        return new NumberEval(2 * OperandResolver.coerceValueToDouble(arg));
+                    } catch (EvaluationException e) {
+                        return e.getErrorEval();
+                    }
+                }
+            };
+            wb.addToolPack(new DefaultUDFFinder(new String[] { "twice" }, new FreeRefFunction[] { twice }));
+            HSSFSheet sheet = wb.createSheet("Sheet1");
+            for (int i = 0; i < 1000; i++) {
+                HSSFRow row = sheet.createRow(i);
+                row.createCell(0).setCellValue(i);
+                row.createCell(1).setCellFormula("twice(A" + (i + 1) + ")");
+            }
+
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                fe.evaluateAll(pool);
+            } finally {
+                pool.shutdown();
+            }
+
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i * 2, getValue(wb, "Sheet1", i, 1), EPSILON);
+            }
+        }
+    }
+}
@@ -20,12 +20,17 @@
 package org.apache.poi.ss.formula;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.TestCase;
 
 import org.apache.poi.hssf.HSSFTestDataSamples;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.FormulaEvaluator;
@@ -130,4 +135,120 @@ public class TestMissingWorkbook extends TestCase {
 		assertEquals("Apache rocks!", lB1Cell.getStringCellValue());
 		assertEquals(false, lC1Cell.getBooleanCellValue());
 	}
+
+	/**
+	 * Opens the source workbook for the dummy name, counting the loads
+	 */
+	private final class SourceLoader implements ExternalWorkbookLoader {
+		private final boolean _available;
+		private int _loadCount;
+
+		SourceLoader(boolean available) {
+			_available = available;
+		}
+
+		@Override
+		public Workbook loadWorkbook(String workbookName) {
+			_loadCount++;
+			if (!_available || !SOURCE_DUMMY_WORKBOOK_FILENAME.equals(workbookName)) {
+				return null;
+			}
+			return sourceWorkbook;
+		}
+	}
+
+	/**
+	 * Creates a new workbook for each load, with the number in the name as value of Sheet1!A1
+	 */
+	private static final class NumberWorkbookLoader implements ExternalWorkbookLoader {
+		private final List<String> _loadedNames = new ArrayList<>();
+
+		@Override
+		public Workbook loadWorkbook(String workbookName) {
+			_loadedNames.add(workbookName);
+			return createNumberWorkbook(workbookName);
+		}
+	}
+
+	private static Workbook createNumberWorkbook(String workbookName) {
+		Workbook wb = new HSSFWorkbook();
+		double value = Double.parseDouble(workbookName.substring(0, workbookName.indexOf('.')));
+		wb.createSheet("Sheet1").createRow(0).createCell(0).setCellValue(value);
+		return wb;
+	}
+
+	public void testLoadedWorkbookEvicted() throws IOException {
+		try (Workbook wb = new HSSFWorkbook()) {
+			wb.linkExternalWorkbook("10.xls", createNumberWorkbook("10.xls"));
+			wb.linkExternalWorkbook("20.xls", createNumberWorkbook("20.xls"));
+			Row row = wb.createSheet("Main").createRow(0);
+			Cell a1 = row.createCell(0);
+			a1.setCellFormula("[10.xls]Sheet1!A1*2");
+			Cell b1 = row.createCell(1);
+			b1.setCellFormula("[20.xls]Sheet1!A1+1");
+
+			BaseFormulaEvaluator evaluator = (BaseFormulaEvaluator) wb.getCreationHelper().createFormulaEvaluator();
+			NumberWorkbookLoader loader = new NumberWorkbookLoader();
+			evaluator.setupReferencedWorkbooks("main.xls", loader, 1);
+			CollaboratingWorkbooksEnvironment env = evaluator._getWorkbookEvaluator().getEnvironment();
+
+			assertEquals(20.0, evaluator.evaluate(a1).getNumberValue(), 0);
+			assertEquals(Collections.singleton("10.xls"), env.getLoadedWorkbookNames());
+			// closes the least recently used workbook
+			assertEquals(21.0, evaluator.evaluate(b1).getNumberValue(), 0);
+			assertEquals(Collections.singleton("20.xls"), env.getLoadedWorkbookNames());
+
+			// the results of the main workbook are kept
+			assertEquals(20.0, evaluator.evaluate(a1).getNumberValue(), 0);
+			assertEquals(Arrays.asList("10.xls", "20.xls"), loader._loadedNames);
+
+			// the evicted workbook is loaded again when a formula using it is evaluated
+			a1.setCellFormula("[10.xls]Sheet1!A1*3");
+			evaluator.notifySetFormula(a1);
+			assertEquals(30.0, evaluator.evaluate(a1).getNumberValue(), 0);
+			assertEquals(Collections.singleton("10.xls"), env.getLoadedWorkbookNames());
+			assertEquals(21.0, evaluator.evaluate(b1).getNumberValue(), 0);
+			assertEquals(Arrays.asList("10.xls", "20.xls", "10.xls"), loader._loadedNames);
+		}
+	}
+
+	public void testLoadedWorkbook() throws IOException {
+		Sheet lSheet = mainWorkbook.getSheetAt(0);
+		Cell lA1Cell = lSheet.getRow(0).getCell(0);
+		Cell lB1Cell = lSheet.getRow(1).getCell(0);
+		Cell lC1Cell = lSheet.getRow(2).getCell(0);
+
+		BaseFormulaEvaluator lMainWorkbookEvaluator = (BaseFormulaEvaluator) mainWorkbook.getCreationHelper().createFormulaEvaluator();
+		SourceLoader loader = new SourceLoader(true);
+		lMainWorkbookEvaluator.setupReferencedWorkbooks(MAIN_WORKBOOK_FILENAME, loader);
+		assertEquals(0, loader._loadCount);
+
+		assertEquals(CellType.NUMERIC, lMainWorkbookEvaluator.evaluateFormulaCell(lA1Cell));
+		assertEquals(CellType.STRING, lMainWorkbookEvaluator.evaluateFormulaCell(lB1Cell));
+		assertEquals(CellType.BOOLEAN, lMainWorkbookEvaluator.evaluateFormulaCell(lC1Cell));
+
+		assertEquals(20.0d, lA1Cell.getNumericCellValue(), 0.00001d);
+		assertEquals("Apache rocks!", lB1Cell.getStringCellValue());
+		assertEquals(false, lC1Cell.getBooleanCellValue());
+		// loaded once, on first use
+		assertEquals(1, loader._loadCount);
+	}
+
+	public void testLoadedWorkbookMissing() throws IOException {
+		BaseFormulaEvaluator evaluator = (BaseFormulaEvaluator) mainWorkbook.getCreationHelper().createFormulaEvaluator();
+		evaluator.setupReferencedWorkbooks(MAIN_WORKBOOK_FILENAME, new SourceLoader(false));
+
+		Cell lA1Cell = mainWorkbook.getSheetAt(0).getRow(0).getCell(0);
+		try {
+			evaluator.evaluateFormulaCell(lA1Cell);
+			fail("Missing external workbook reference exception expected!");
+		} catch(RuntimeException re) {
+			assertTrue("Unexpected exception: " + re, re.getMessage().contains(SOURCE_DUMMY_WORKBOOK_FILENAME));
+		}
+
+		// cached values are used for the workbooks which the loader doesn't find
+		evaluator.setIgnoreMissingWorkbooks(true);
+		assertEquals(CellType.NUMERIC, evaluator.evaluateFormulaCell(lA1Cell));
+		assertEquals(10.0d, lA1Cell.getNumericCellValue(), 0.00001d);
+	}
 }
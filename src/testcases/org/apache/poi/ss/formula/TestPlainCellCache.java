@@ -19,6 +19,10 @@
 
 package org.apache.poi.ss.formula;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
 import junit.framework.TestCase;
 import org.apache.poi.ss.formula.PlainCellCache.Loc;
 import org.apache.poi.ss.formula.eval.*;
@@ -62,4 +66,33 @@ public class TestPlainCellCache extends TestCase {
 
         }
     }
+
+    public void testPutAndRemoveMany() {
+        PlainCellCache cache = new PlainCellCache();
+        Map<Loc, PlainValueCellCacheEntry> expected = new HashMap<>();
+        Random random = new Random(12345);
+        for (int i = 0; i < 20000; i++) {
+            // few distinct cells, so that removals hit existing entries and probe sequences
+            int rowIndex = random.nextInt(200);
+            int columnIndex = random.nextInt(10);
+            int sheetIndex = random.nextInt(2);
+            Loc loc = new Loc(0, sheetIndex, rowIndex, columnIndex);
+            if (random.nextInt(3) == 0) {
+                cache.remove(0, sheetIndex, rowIndex, columnIndex);
+                expected.remove(loc);
+            } else {
+                PlainValueCellCacheEntry entry = new PlainValueCellCacheEntry(new NumberEval(i));
+                cache.put(0, sheetIndex, rowIndex, columnIndex, entry);
+                expected.put(loc, entry);
+            }
+        }
+        for (int sheetIndex = 0; sheetIndex < 2; sheetIndex++) {
+            for (int rowIndex = 0; rowIndex < 200; rowIndex++) {
+                for (int columnIndex = 0; columnIndex < 10; columnIndex++) {
+                    Loc loc = new Loc(0, sheetIndex, rowIndex, columnIndex);
+                    assertSame(expected.get(loc), cache.get(0, sheetIndex, rowIndex, columnIndex));
+                }
+            }
+        }
+    }
 }
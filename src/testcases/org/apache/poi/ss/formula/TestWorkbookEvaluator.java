@@ -24,14 +24,21 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.poi.hssf.HSSFTestDataSamples;
 import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFEvaluationTestHelper;
 import org.apache.poi.hssf.usermodel.HSSFEvaluationWorkbook;
 import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
 import org.apache.poi.hssf.usermodel.HSSFRow;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.IEvaluationListener.ICacheEntry;
 import org.apache.poi.ss.formula.eval.BlankEval;
 import org.apache.poi.ss.formula.eval.ErrorEval;
 import org.apache.poi.ss.formula.eval.MissingArgEval;
@@ -46,6 +53,7 @@ import org.apache.poi.ss.usermodel.Name;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -295,7 +303,96 @@ public class TestWorkbookEvaluator {
         assertEquals(10.0, fe.evaluate(row1.getCell(2)).getNumberValue(), EPSILON);
         assertEquals(15.0, fe.evaluate(row2.getCell(2)).getNumberValue(), EPSILON);
         assertEquals(28.14, fe.evaluate(row3.getCell(2)).getNumberValue(), EPSILON);
-        
+
+        wb.close();
+    }
+
+    /**
+     * Long chains of formulas, each referencing the previous one, must not overflow the stack
+     */
+    @Test
+    public void testLongDependencyChains() throws IOException {
+        final int rows = 30000;
+        HSSFWorkbook wb = new HSSFWorkbook();
+        HSSFSheet sheet1 = wb.createSheet("Sheet1");
+        HSSFSheet sheet2 = wb.createSheet("Sheet2");
+        for (int i = 0; i < rows; i++) {
+            HSSFRow row = sheet1.createRow(i);
+            row.createCell(0).setCellValue(1);
+            // running balance
+            row.createCell(1).setCellFormula(i == 0 ? "A1" : "B" + i + "+A" + (i + 1));
+            // alternating between the sheets
+            sheet2.createRow(i).createCell(0).setCellFormula(i == 0 ? "1" : "Sheet1!C" + i + "+1");
+            row.createCell(2).setCellFormula("Sheet2!A" + (i + 1) + "+1");
+        }
+
+        HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+        HSSFCell lastBalance = sheet1.getRow(rows - 1).getCell(1);
+        assertEquals(rows, fe.evaluate(lastBalance).getNumberValue(), EPSILON);
+        assertEquals(2 * rows, fe.evaluate(sheet1.getRow(rows - 1).getCell(2)).getNumberValue(), EPSILON);
+
+        // the dependencies of the iteratively evaluated cells are tracked
+        HSSFCell a1 = sheet1.getRow(0).getCell(0);
+        a1.setCellValue(10);
+        fe.notifyUpdateCell(a1);
+        assertEquals(rows + 9, fe.evaluate(lastBalance).getNumberValue(), EPSILON);
+        assertEquals(rows + 9, fe.evaluate(sheet1.getRow(rows / 2).getCell(1)).getNumberValue() + rows - rows / 2 - 1, EPSILON);
+
+        wb.close();
+    }
+
+    /**
+     * The cells evaluated in advance for a long chain are only recorded as inputs of the cells
+     * reading them, and the arguments of IF, which may not be taken, aren't evaluated in advance
+     */
+    @Test
+    public void testLongDependencyChainInputs() throws IOException {
+        final int rows = 200;
+        HSSFWorkbook wb = new HSSFWorkbook();
+        HSSFSheet sheet = wb.createSheet("Sheet1");
+        for (int i = 1; i <= rows; i++) {
+            HSSFRow row = sheet.createRow(i - 1);
+            row.createCell(0).setCellValue(1);
+            row.createCell(1).setCellFormula(i == 1 ? "E1" : "B" + (i - 1) + "+E" + i + "+IF(A" + i + ">0,0,D" + i + ")");
+            row.createCell(3).setCellFormula("A" + i + "*10");
+            row.createCell(4).setCellFormula("F" + i + "+1");
+            row.createCell(5).setCellFormula("G" + i + "*1");
+            row.createCell(6).setCellValue(i);
+        }
+
+        final Map<ICacheEntry, EvaluationCell> cellsByEntry = new HashMap<>();
+        final Set<String> evaluatedCells = new HashSet<>();
+        final Set<String> directConsumers = new HashSet<>();
+        EvaluationListener listener = new EvaluationListener() {
+            @Override
+            public void onStartEvaluate(EvaluationCell cell, ICacheEntry entry) {
+                cellsByEntry.put(entry, cell);
+                evaluatedCells.add(new CellReference(cell.getRowIndex(), cell.getColumnIndex()).formatAsString());
+            }
+            @Override
+            public void onClearDependentCachedValue(ICacheEntry entry, int depth) {
+                EvaluationCell cell = cellsByEntry.get(entry);
+                if (depth == 2 && cell != null) {
+                    directConsumers.add(new CellReference(cell.getRowIndex(), cell.getColumnIndex()).formatAsString());
+                }
+            }
+        };
+        WorkbookEvaluator evaluator = WorkbookEvaluatorTestHelper.createEvaluator(wb, listener);
+        HSSFCell last = sheet.getRow(rows - 1).getCell(1);
+        ValueEval result = evaluator.evaluate(HSSFEvaluationTestHelper.wrapCell(last));
+        assertEquals(rows * (rows + 3) / 2, ((NumberEval) result).getNumberValue(), EPSILON);
+        for (int i = 1; i <= rows; i++) {
+            assertFalse(evaluatedCells.contains("D" + i));
+        }
+
+        // G1 is read by F1, which is read by E1 only
+        HSSFCell g1 = sheet.getRow(0).getCell(6);
+        g1.setCellValue(2);
+        evaluator.notifyUpdateCell(HSSFEvaluationTestHelper.wrapCell(g1));
+        assertEquals(Collections.singleton("E1"), directConsumers);
+        result = evaluator.evaluate(HSSFEvaluationTestHelper.wrapCell(last));
+        assertEquals(rows * (rows + 3) / 2 + 1, ((NumberEval) result).getNumberValue(), EPSILON);
+
         wb.close();
     }
 
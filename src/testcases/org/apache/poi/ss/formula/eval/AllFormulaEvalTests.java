@@ -26,6 +26,7 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
     TestAreaEval.class,
+    TestArrayArithmetic.class,
     TestHSSFCircularReferences.class,
     TestDivideEval.class,
     TestEqualEval.class,
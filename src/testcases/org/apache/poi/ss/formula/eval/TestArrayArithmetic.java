@@ -0,0 +1,132 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula.eval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.functions.ArrayFunction;
+import org.apache.poi.ss.formula.functions.EvalFactory;
+import org.apache.poi.ss.formula.functions.Function;
+import org.apache.poi.ss.formula.functions.IndexedArea;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.junit.Test;
+
+/**
+ * Tests the arithmetic operators applied to whole arrays
+ */
+public final class TestArrayArithmetic {
+
+    private static AreaEval evaluateArray(Function op, ValueEval arg0, ValueEval arg1) {
+        ValueEval result = ((ArrayFunction) op).evaluateArray(new ValueEval[] { arg0, arg1, }, 0, 0);
+        assertTrue(result instanceof AreaEval);
+        return (AreaEval) result;
+    }
+
+    private static void confirmValues(AreaEval ae, ValueEval... expected) {
+        assertEquals(expected.length, ae.getHeight() * ae.getWidth());
+        for (int i = 0; i < expected.length; i++) {
+            ValueEval actual = ae.getRelativeValue(i / ae.getWidth(), i % ae.getWidth());
+            if (expected[i] instanceof NumberEval) {
+                assertTrue(actual instanceof NumberEval);
+                assertEquals(((NumberEval) expected[i]).getNumberValue(), ((NumberEval) actual).getNumberValue(), 0);
+            } else {
+                assertEquals(expected[i], actual);
+            }
+        }
+    }
+
+    private static NumberEval num(double value) {
+        return new NumberEval(value);
+    }
+
+    @Test
+    public void errorsOnlyAffectTheirElements() {
+        AreaEval divisors = EvalFactory.createAreaEval("A1:A6", new ValueEval[] {
+                num(2), NumberEval.ZERO, BlankEval.instance, new StringEval("4"), new StringEval("abc"), ErrorEval.NA, });
+        AreaEval result = evaluateArray(EvalInstances.Divide, num(12), divisors);
+        confirmValues(result, num(6), ErrorEval.DIV_ZERO, ErrorEval.DIV_ZERO, num(3),
+                ErrorEval.VALUE_INVALID, ErrorEval.NA);
+
+        AreaEval bases = EvalFactory.createAreaEval("B1:B2", new ValueEval[] { NumberEval.ZERO, BoolEval.TRUE, });
+        result = evaluateArray(EvalInstances.Power, bases, num(-1));
+        confirmValues(result, ErrorEval.NUM_ERROR, num(1));
+    }
+
+    @Test
+    public void singleRowsAndColumnsAreRepeated() {
+        AreaEval square = EvalFactory.createAreaEval("A1:B2", new ValueEval[] { num(1), num(2), num(3), num(4), });
+        AreaEval row = EvalFactory.createAreaEval("D1:E1", new ValueEval[] { num(10), num(20), });
+        AreaEval column = EvalFactory.createAreaEval("F1:F3", new ValueEval[] { num(100), num(200), num(300), });
+
+        AreaEval result = evaluateArray(EvalInstances.Add, square, row);
+        confirmValues(result, num(11), num(22), num(13), num(24));
+        assertEquals(0, result.getFirstRow());
+        assertEquals(0, result.getFirstColumn());
+
+        // the third row is beyond the square area
+        result = evaluateArray(EvalInstances.Subtract, square, column);
+        confirmValues(result, num(-99), num(-98), num(-197), num(-196), ErrorEval.NA, ErrorEval.NA);
+
+        // a row and a column span all combinations
+        result = evaluateArray(EvalInstances.Multiply, column, row);
+        confirmValues(result, num(1000), num(2000), num(2000), num(4000), num(3000), num(6000));
+
+        // the results of nested operations are kept in primitive arrays
+        assertNotNull(((IndexedArea) result).getNumericValues());
+        result = evaluateArray(EvalInstances.Add, result, square);
+        confirmValues(result, num(1001), num(2002), num(2003), num(4004), ErrorEval.NA, ErrorEval.NA);
+    }
+
+    @Test
+    public void sumOfProducts() throws IOException {
+        try (HSSFWorkbook wb = new HSSFWorkbook()) {
+            Sheet sheet = wb.createSheet();
+            int count = 5000;
+            for (int i = 0; i < count; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(i + 1);
+                if (i % 2 == 0) {
+                    row.createCell(1).setCellValue(2);
+                } else {
+                    row.createCell(1).setCellFormula("1+1");
+                }
+            }
+            Cell cell = sheet.getRow(0).createCell(2);
+            sheet.setArrayFormula("SUM(A1:A5000*B1:B5000)", CellRangeAddress.valueOf("C1"));
+            Cell errorCell = sheet.getRow(1).createCell(2);
+            sheet.setArrayFormula("SUM(A1:A5000/(B1:B5000-2))", CellRangeAddress.valueOf("C2"));
+
+            FormulaEvaluator fe = wb.getCreationHelper().createFormulaEvaluator();
+            assertEquals(count * (count + 1.0), fe.evaluate(cell).getNumberValue(), 0);
+            assertEquals(ErrorEval.DIV_ZERO.getErrorCode(), fe.evaluate(errorCell).getErrorValue());
+
+            sheet.getRow(count - 1).getCell(0).setCellValue(0);
+            fe.notifyUpdateCell(sheet.getRow(count - 1).getCell(0));
+            assertEquals(count * (count + 1.0) - 2 * count, fe.evaluate(cell).getNumberValue(), 0);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula.eval.forked;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.OperationEvaluationContext;
+import org.apache.poi.ss.formula.eval.EvaluationException;
+import org.apache.poi.ss.formula.eval.NotImplementedException;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.OperandResolver;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.functions.FreeRefFunction;
+import org.apache.poi.ss.formula.udf.DefaultUDFFinder;
+import org.apache.poi.ss.formula.udf.UDFFinder;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+import org.junit.Test;
+
+public final class TestConcurrentEvaluator {
+
+    /**
+     * Calculations!A1 and B1 only depend on the data sheet, C1 and D1 on the inputs as well
+     */
+    private static Workbook createWorkbook() {
+        Workbook wb = new HSSFWorkbook();
+        Sheet inputs = wb.createSheet("Inputs");
+        Sheet data = wb.createSheet("Data");
+        Sheet calculations = wb.createSheet("Calculations");
+        for (int i = 0; i < 100; i++) {
+            data.createRow(i).createCell(0).setCellValue(i + 1);
+        }
+        Row row = calculations.createRow(0);
+        row.createCell(0).setCellFormula("SUM(Data!A1:A100)");
+        row.createCell(1).setCellFormula("A1/100");
+        row.createCell(2).setCellFormula("A1*Inputs!A1+Inputs!B1");
+        row.createCell(3).setCellFormula("C1*B1");
+        row.createCell(4);
+
+        row = inputs.createRow(0);
+        row.createCell(0).setCellValue(2.0);
+        row.createCell(1);
+        return wb;
+    }
+
+    private static CellReference[] refs(String... refs) {
+        CellReference[] result = new CellReference[refs.length];
+        for (int i = 0; i < refs.length; i++) {
+            result[i] = new CellReference(refs[i]);
+        }
+        return result;
+    }
+
+    private static double getNumber(ValueEval value) {
+        return ((NumberEval) value).getNumberValue();
+    }
+
+    @Test
+    public void concurrentRequests() throws Exception {
+        try (Workbook wb = createWorkbook()) {
+            final ConcurrentEvaluator ce = ConcurrentEvaluator.create(wb, refs("Inputs!A1", "Inputs!B1"), null, null);
+            final CellReference[] outputCells = refs("Calculations!A1", "Calculations!C1",
+                    "Calculations!D1", "Calculations!E1");
+
+            List<Callable<ValueEval[]>> requests = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final Map<CellReference, ValueEval> inputValues = new HashMap<>();
+                inputValues.put(new CellReference("Inputs!$A$1"), new NumberEval(i));
+                inputValues.put(new CellReference("Inputs!B1"), new NumberEval(i % 7));
+                requests.add(new Callable<ValueEval[]>() {
+                    @Override
+                    public ValueEval[] call() {
+                        return ce.evaluate(inputValues, outputCells);
+                    }
+                });
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<ValueEval[]>> results;
+            try {
+                results = executor.invokeAll(requests);
+            } finally {
+                executor.shutdown();
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                ValueEval[] result = results.get(i).get();
+                double c1 = 5050 * i + i % 7;
+                assertEquals(5050, getNumber(result[0]), 0);
+                assertEquals(c1, getNumber(result[1]), 0);
+                assertEquals(c1 * 50.5, getNumber(result[2]), 0.000001);
+                assertNull(result[3]);
+            }
+            // Calculations!A1 and B1
+            assertEquals(2, ce.getSharedResultCount());
+
+            // the input cells not overridden by a request keep their values in the workbook
+            ValueEval[] result = ce.evaluate(Collections.<CellReference, ValueEval>emptyMap(), outputCells);
+            assertEquals(10100, getNumber(result[1]), 0);
+            result = ce.evaluate(Collections.<CellReference, ValueEval>singletonMap(
+                    new CellReference("Inputs!B1"), new NumberEval(1)), outputCells);
+            assertEquals(10101, getNumber(result[1]), 0);
+
+            // the workbook is unchanged
+            ForkedEvaluator fe = ForkedEvaluator.create(wb, null, null);
+            assertEquals(10100, getNumber(fe.evaluate("Calculations", 0, 2)), 0);
+        }
+    }
+
+    /**
+     * Counts its calls and returns the value of its argument
+     */
+    private static final class CountingFunction implements FreeRefFunction {
+        private final AtomicInteger _callCount = new AtomicInteger();
+
+        @Override
+        public ValueEval evaluate(ValueEval[] args, OperationEvaluationContext ec) {
+            _callCount.incrementAndGet();
+            try {
+                return OperandResolver.getSingleValue(args[0], ec.getRowIndex(), ec.getColumnIndex());
+            } catch (EvaluationException e) {
+                return e.getErrorEval();
+            }
+        }
+    }
+
+    @Test
+    public void unchangedInputsKeepDependentResults() throws IOException {
+        CountingFunction counted = new CountingFunction();
+        UDFFinder udfFinder = new DefaultUDFFinder(new String[] { "COUNTED" }, new FreeRefFunction[] { counted });
+        try (Workbook wb = createWorkbook()) {
+            wb.addToolPack(udfFinder);
+            Row row = wb.getSheet("Calculations").getRow(0);
+            row.createCell(5).setCellFormula("COUNTED(Inputs!A1)*2");
+            row.createCell(6).setCellFormula("COUNTED(Data!A1)");
+            // Inputs!B1 is blank in the workbook
+            row.createCell(7).setCellFormula("COUNTED(Inputs!B1)+1");
+
+            ConcurrentEvaluator ce = ConcurrentEvaluator.create(wb, refs("Inputs!A1", "Inputs!B1"), null, udfFinder);
+            CellReference[] outputCells = refs("Calculations!F1", "Calculations!G1", "Calculations!H1");
+            Map<CellReference, ValueEval> inputValues = Collections.<CellReference, ValueEval>singletonMap(
+                    new CellReference("Inputs!A1"), new NumberEval(3));
+
+            ValueEval[] result = ce.evaluate(inputValues, outputCells);
+            assertEquals(6, getNumber(result[0]), 0);
+            assertEquals(1, getNumber(result[1]), 0);
+            assertEquals(1, getNumber(result[2]), 0);
+            assertEquals(3, counted._callCount.get());
+            // Calculations!G1
+            assertEquals(1, ce.getSharedResultCount());
+
+            // the same inputs again, nothing is evaluated
+            result = ce.evaluate(inputValues, outputCells);
+            assertEquals(6, getNumber(result[0]), 0);
+            assertEquals(1, getNumber(result[2]), 0);
+            assertEquals(3, counted._callCount.get());
+
+            // only the cell depending on the changed input is evaluated
+            result = ce.evaluate(Collections.<CellReference, ValueEval>singletonMap(
+                    new CellReference("Inputs!A1"), new NumberEval(4)), outputCells);
+            assertEquals(8, getNumber(result[0]), 0);
+            assertEquals(1, getNumber(result[2]), 0);
+            assertEquals(4, counted._callCount.get());
+
+            // a value for the blank input cell
+            Map<CellReference, ValueEval> blankInputValues = new HashMap<>();
+            blankInputValues.put(new CellReference("Inputs!A1"), new NumberEval(4));
+            blankInputValues.put(new CellReference("Inputs!B1"), new NumberEval(5));
+            result = ce.evaluate(blankInputValues, outputCells);
+            assertEquals(8, getNumber(result[0]), 0);
+            assertEquals(6, getNumber(result[2]), 0);
+            assertEquals(5, counted._callCount.get());
+            assertEquals(1, ce.getSharedResultCount());
+        }
+    }
+
+    @Test
+    public void udfFinderIsNotAddedToWorkbook() throws IOException {
+        CountingFunction counted = new CountingFunction();
+        UDFFinder udfFinder = new DefaultUDFFinder(new String[] { "COUNTED" }, new FreeRefFunction[] { counted });
+        try (Workbook wb = createWorkbook()) {
+            Cell f1 = wb.getSheet("Calculations").getRow(0).createCell(5);
+            f1.setCellFormula("COUNTED(Inputs!A1)*2");
+            ConcurrentEvaluator ce = ConcurrentEvaluator.create(wb, refs("Inputs!A1"), null, udfFinder);
+            ValueEval[] result = ce.evaluate(Collections.<CellReference, ValueEval>singletonMap(
+                    new CellReference("Inputs!A1"), new NumberEval(3)), refs("Calculations!F1"));
+            assertEquals(6, getNumber(result[0]), 0);
+
+            // the function is only known by the evaluators of the concurrent evaluator
+            try {
+                wb.getCreationHelper().createFormulaEvaluator().evaluate(f1);
+                fail("Expected NotImplementedException");
+            } catch (NotImplementedException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onlyInputCellsCanBeOverridden() throws IOException {
+        try (Workbook wb = createWorkbook()) {
+            ConcurrentEvaluator ce = ConcurrentEvaluator.create(wb, refs("Inputs!A1"), null, null);
+            ce.evaluate(Collections.<CellReference, ValueEval>singletonMap(
+                    new CellReference("Inputs!B1"), NumberEval.ZERO), refs("Calculations!C1"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void inputCellsMustNotBeFormulas() throws IOException {
+        try (Workbook wb = createWorkbook()) {
+            ConcurrentEvaluator.create(wb, refs("Calculations!A1"), null, null);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula.eval.forked;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.OperationEvaluationContext;
+import org.apache.poi.ss.formula.eval.EvaluationException;
+import org.apache.poi.ss.formula.eval.NotImplementedException;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.OperandResolver;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.functions.FreeRefFunction;
+import org.apache.poi.ss.formula.udf.DefaultUDFFinder;
+import org.apache.poi.ss.formula.udf.UDFFinder;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+import org.junit.Test;
+
+public final class TestScenarioEvaluator {
+
+    /**
+     * Calculations!A1 and B1 only depend on the data sheet, C1 and D1 on the inputs as well
+     */
+    private static Workbook createWorkbook() {
+        Workbook wb = new HSSFWorkbook();
+        Sheet inputs = wb.createSheet("Inputs");
+        Sheet data = wb.createSheet("Data");
+        Sheet calculations = wb.createSheet("Calculations");
+        for (int i = 0; i < 100; i++) {
+            data.createRow(i).createCell(0).setCellValue(i + 1);
+        }
+        Row row = calculations.createRow(0);
+        row.createCell(0).setCellFormula("SUM(Data!A1:A100)");
+        row.createCell(1).setCellFormula("A1/100");
+        row.createCell(2).setCellFormula("A1*Inputs!A1+Inputs!B1");
+        row.createCell(3).setCellFormula("C1*B1");
+        row.createCell(4);
+
+        row = inputs.createRow(0);
+        row.createCell(0).setCellValue(2.0);
+        row.createCell(1);
+        return wb;
+    }
+
+    private static CellReference[] refs(String... refs) {
+        CellReference[] result = new CellReference[refs.length];
+        for (int i = 0; i < refs.length; i++) {
+            result[i] = new CellReference(refs[i]);
+        }
+        return result;
+    }
+
+    @Test
+    public void evaluateScenarios() throws IOException {
+        try (Workbook wb = createWorkbook()) {
+            ScenarioEvaluator se = ScenarioEvaluator.create(wb,
+                    refs("Inputs!A1", "Inputs!B1"),
+                    refs("Calculations!A1", "Calculations!C1", "Calculations!D1", "Calculations!E1"),
+                    null, null);
+            assertEquals(2, se.getSharedResultCount());
+
+            ValueEval[][] scenarios = new ValueEval[100][];
+            for (int i = 0; i < scenarios.length; i++) {
+                scenarios[i] = new ValueEval[] { new NumberEval(i), new NumberEval(i % 7) };
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            ValueEval[][] results;
+            try {
+                results = se.evaluate(scenarios, executor);
+            } finally {
+                executor.shutdown();
+            }
+
+            assertEquals(scenarios.length, results.length);
+            for (int i = 0; i < scenarios.length; i++) {
+                double c1 = 5050 * i + i % 7;
+                assertEquals(5050, ((NumberEval) results[i][0]).getNumberValue(), 0);
+                assertEquals(c1, ((NumberEval) results[i][1]).getNumberValue(), 0);
+                assertEquals(c1 * 50.5, ((NumberEval) results[i][2]).getNumberValue(), 0.000001);
+                assertNull(results[i][3]);
+            }
+
+            // the workbook is unchanged
+            ForkedEvaluator fe = ForkedEvaluator.create(wb, null, null);
+            assertEquals(10100, ((NumberEval) fe.evaluate("Calculations", 0, 2)).getNumberValue(), 0);
+        }
+    }
+
+    @Test
+    public void udfFinderIsNotAddedToWorkbook() throws IOException {
+        FreeRefFunction twice = new FreeRefFunction() {
+            @Override
+            public ValueEval evaluate(ValueEval[] args, OperationEvaluationContext ec) {
+                try {
+                    ValueEval arg = OperandResolver.getSingleValue(args[0], ec.getRowIndex(), ec.getColumnIndex());
+                    return new NumberEval(2 * OperandResolver.coerceValueToDouble(arg));
+                } catch (EvaluationException e) {
+                    return e.getErrorEval();
+                }
+            }
+        };
+        UDFFinder udfFinder = new DefaultUDFFinder(new String[] { "TWICE" }, new FreeRefFunction[] { twice });
+        try (Workbook wb = createWorkbook()) {
+            Cell f1 = wb.getSheet("Calculations").getRow(0).createCell(5);
+            f1.setCellFormula("TWICE(Inputs!A1)");
+            ScenarioEvaluator se = ScenarioEvaluator.create(wb, refs("Inputs!A1"), refs("Calculations!F1"), null, udfFinder);
+
+            ValueEval[][] scenarios = new ValueEval[100][];
+            for (int i = 0; i < scenarios.length; i++) {
+                scenarios[i] = new ValueEval[] { new NumberEval(i) };
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            ValueEval[][] results;
+            try {
+                results = se.evaluate(scenarios, executor);
+            } finally {
+                executor.shutdown();
+            }
+            for (int i = 0; i < scenarios.length; i++) {
+                assertEquals(2 * i, ((NumberEval) results[i][0]).getNumberValue(), 0);
+            }
+
+            // the function is only known by the evaluators of the scenario evaluator
+            try {
+                wb.getCreationHelper().createFormulaEvaluator().evaluate(f1);
+                fail("Expected NotImplementedException");
+            } catch (NotImplementedException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void inputValuesMustMatchInputCells() throws IOException {
+        try (Workbook wb = createWorkbook()) {
+            ScenarioEvaluator se = ScenarioEvaluator.create(wb, refs("Inputs!A1"), refs("Calculations!C1"), null, null);
+            se.evaluate(new ValueEval[][] { { NumberEval.ZERO, NumberEval.ZERO } }, null);
+        }
+    }
+}
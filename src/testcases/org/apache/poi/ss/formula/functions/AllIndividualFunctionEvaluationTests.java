@@ -37,10 +37,12 @@ import org.junit.runners.Suite;
     TestIsBlank.class,
     TestLen.class,
     TestLookupFunctionsFromSpreadsheet.class,
+    TestLookupIndex.class,
     TestMatch.class,
     TestMathX.class,
     TestMid.class,
     TestNper.class,
+    TestNumericValues.class,
     TestOffset.class,
     TestPmt.class,
     TestRoundFuncs.class,
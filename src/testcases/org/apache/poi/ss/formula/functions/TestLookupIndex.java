@@ -0,0 +1,212 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula.functions;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.eval.BoolEval;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.StringEval;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.junit.Test;
+
+/**
+ * Tests lookups into ranges which are indexed by the evaluator
+ */
+public final class TestLookupIndex {
+
+    private static final int ROWS = 200;
+    private static final String[] FRUITS = { "Apples", "apples", "pears", "123" };
+
+    /**
+     * Column A holds "key0" to "key199" (A151 is left blank), column B the row numbers,
+     * column C the keys as formulas and column D repeats "Apples", "apples", "pears", "123".
+     */
+    private static HSSFWorkbook createWorkbook() {
+        HSSFWorkbook wb = new HSSFWorkbook();
+        HSSFSheet sheet = wb.createSheet("Sheet1");
+        for (int i = 0; i < ROWS; i++) {
+            HSSFRow row = sheet.createRow(i);
+            if (i != 150) {
+                row.createCell(0).setCellValue("key" + i);
+            }
+            row.createCell(1).setCellValue(i + 1);
+            row.createCell(2).setCellFormula("\"f\"&B" + (i + 1));
+            row.createCell(3).setCellValue(FRUITS[i % FRUITS.length]);
+        }
+        return wb;
+    }
+
+    private static CellValue evaluate(HSSFWorkbook wb, HSSFFormulaEvaluator fe, String formula) {
+        HSSFCell cell = wb.getSheet("Sheet1").getRow(0).createCell(5);
+        cell.setCellFormula(formula);
+        fe.notifySetFormula(cell);
+        return fe.evaluate(cell);
+    }
+
+    private static void confirmNumber(HSSFWorkbook wb, HSSFFormulaEvaluator fe, double expected, String formula) {
+        assertEquals(formula, expected, evaluate(wb, fe, formula).getNumberValue(), 0);
+    }
+
+    @Test
+    public void exactLookups() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            confirmNumber(wb, fe, 124, "VLOOKUP(\"key123\",A1:B200,2,FALSE)");
+            confirmNumber(wb, fe, 124, "VLOOKUP(\"KEY123\",A1:B200,2,FALSE)");
+            confirmNumber(wb, fe, 1, "MATCH(\"key0\",A1:A200,0)");
+            confirmNumber(wb, fe, 200, "MATCH(\"key199\",A1:A200,0)");
+            confirmNumber(wb, fe, 42, "MATCH(42,B1:B200,0)");
+            confirmNumber(wb, fe, 11, "MATCH(\"key1?\",A1:A200,0)");
+            confirmNumber(wb, fe, 77, "MATCH(\"f77\",C1:C200,0)");
+            assertEquals("#N/A", evaluate(wb, fe, "MATCH(\"\",A1:A200,0)").formatAsString());
+            assertEquals("#N/A", evaluate(wb, fe, "MATCH(\"key500\",A1:A200,0)").formatAsString());
+            assertEquals("#N/A", evaluate(wb, fe, "MATCH(\"42\",B1:B200,0)").formatAsString());
+        }
+    }
+
+    @Test
+    public void approximateLookups() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            confirmNumber(wb, fe, 100, "MATCH(100.5,B1:B200,1)");
+            confirmNumber(wb, fe, 200, "VLOOKUP(1000,B1:B200,1,TRUE)");
+            confirmNumber(wb, fe, 100, "LOOKUP(100.5,B1:B200)");
+        }
+    }
+
+    /**
+     * Lookups which don't reach a cell that can't be evaluated succeed, when the
+     * repeated lookups try to index the cells
+     */
+    @Test
+    public void cellWhichCantBeEvaluated() throws IOException {
+        try (HSSFWorkbook wb = new HSSFWorkbook()) {
+            HSSFSheet sheet = wb.createSheet("Sheet1");
+            for (int i = 0; i < 20; i++) {
+                sheet.createRow(i).createCell(0).setCellValue(i + 1);
+            }
+            // unregistered function
+            sheet.getRow(15).getCell(0).setCellFormula("MYFUNC(1)");
+
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            for (int i = 0; i < 3; i++) {
+                confirmNumber(wb, fe, 3, "MATCH(3,A1:A20,0)");
+                confirmNumber(wb, fe, 3, "VLOOKUP(3,A1:A20,1,TRUE)");
+            }
+        }
+    }
+
+    @Test
+    public void indexIsRebuiltWhenCellsChange() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            HSSFSheet sheet = wb.getSheet("Sheet1");
+            confirmNumber(wb, fe, 101, "MATCH(\"key100\",A1:A200,0)");
+
+            HSSFCell a10 = sheet.getRow(9).getCell(0);
+            a10.setCellValue("key100");
+            fe.notifyUpdateCell(a10);
+            confirmNumber(wb, fe, 10, "MATCH(\"key100\",A1:A200,0)");
+
+            HSSFCell a151 = sheet.getRow(150).createCell(0);
+            a151.setCellValue("new");
+            fe.notifyUpdateCell(a151);
+            confirmNumber(wb, fe, 151, "MATCH(\"new\",A1:A200,0)");
+
+            HSSFCell b5 = sheet.getRow(4).getCell(1);
+            b5.setCellValue(999);
+            fe.notifyUpdateCell(b5);
+            confirmNumber(wb, fe, 5, "MATCH(\"f999\",C1:C200,0)");
+        }
+    }
+
+    @Test
+    public void indexMatchesLikeComparer() {
+        ValueEval[] values = {
+            new StringEval("abc"), new NumberEval(1), BoolEval.TRUE, new StringEval("ABC"), new NumberEval(1),
+        };
+        LookupIndex index = new LookupIndex(values);
+        assertEquals(0, index.indexOfExactValue(new StringEval("aBc")));
+        assertEquals(1, index.indexOfExactValue(new NumberEval(1)));
+        assertEquals(2, index.indexOfExactValue(BoolEval.TRUE));
+        assertEquals(-1, index.indexOfExactValue(BoolEval.FALSE));
+        assertEquals(-1, index.indexOfExactValue(new StringEval("1")));
+    }
+
+    @Test
+    public void criteriaFunctions() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            double apples = 0;
+            double bigApples = 0;
+            for (int i = 0; i < ROWS; i++) {
+                if (i % 4 < 2) {
+                    apples += i + 1;
+                    bigApples += (i + 1 > 100) ? i + 1 : 0;
+                }
+            }
+            confirmNumber(wb, fe, apples, "SUMIFS(B1:B200,D1:D200,\"APPLES\")");
+            confirmNumber(wb, fe, bigApples, "SUMIFS(B1:B200,D1:D200,\"apples\",B1:B200,\">100\")");
+            confirmNumber(wb, fe, 50, "COUNTIFS(D1:D200,\"123\")");
+            confirmNumber(wb, fe, 50, "COUNTIF(D1:D200,123)");
+            confirmNumber(wb, fe, 150, "COUNTIFS(D1:D200,\"<>pears\")");
+            confirmNumber(wb, fe, 1, "COUNTIF(A1:A200,\"\")");
+            confirmNumber(wb, fe, 110, "COUNTIF(A1:A200,\"key1*\")");
+            confirmNumber(wb, fe, 1, "COUNTIFS(C1:C200,\"f42\",B1:B200,42)");
+            confirmNumber(wb, fe, 0, "SUMIFS(B1:B200,D1:D200,TRUE)");
+
+            HSSFCell d1 = wb.getSheet("Sheet1").getRow(0).getCell(3);
+            d1.setCellValue("pears");
+            fe.notifyUpdateCell(d1);
+            confirmNumber(wb, fe, apples - 1, "SUMIFS(B1:B200,D1:D200,\"APPLES\")");
+        }
+    }
+
+    /**
+     * The criteria functions only read the cells of the other ranges at the rows matching
+     * the first criteria, also when the repeated calls try to index the ranges
+     */
+    @Test
+    public void criteriaFunctionsWithCellWhichCantBeEvaluated() throws IOException {
+        try (HSSFWorkbook wb = new HSSFWorkbook()) {
+            HSSFSheet sheet = wb.createSheet("Sheet1");
+            for (int i = 0; i < 20; i++) {
+                HSSFRow row = sheet.createRow(i);
+                row.createCell(0).setCellValue(i + 1);
+                row.createCell(1).setCellValue(10 * (i + 1));
+            }
+            // unregistered function
+            sheet.getRow(15).getCell(1).setCellFormula("MYFUNC(1)");
+
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            for (int i = 0; i < 3; i++) {
+                confirmNumber(wb, fe, 30, "SUMIFS(B1:B20,A1:A20,3)");
+                confirmNumber(wb, fe, 1, "COUNTIFS(A1:A20,3,B1:B20,30)");
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula.functions;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.eval.BoolEval;
+import org.apache.poi.ss.formula.eval.ErrorEval;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.StringEval;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.junit.Test;
+
+/**
+ * Tests aggregate functions over areas, whose values are cached by the evaluator
+ */
+public final class TestNumericValues {
+
+    private static final int ROWS = 50;
+
+    /**
+     * A1:B50 hold the numbers 1 to 100 row by row, C1:C50 the numbers as formulas
+     * except for a text in C10, a boolean in C20 and a blank C30.
+     */
+    private static HSSFWorkbook createWorkbook() {
+        HSSFWorkbook wb = new HSSFWorkbook();
+        HSSFSheet sheet = wb.createSheet("Sheet1");
+        for (int i = 0; i < ROWS; i++) {
+            HSSFRow row = sheet.createRow(i);
+            row.createCell(0).setCellValue(2 * i + 1);
+            row.createCell(1).setCellValue(2 * i + 2);
+            if (i == 9) {
+                row.createCell(2).setCellValue("10");
+            } else if (i == 19) {
+                row.createCell(2).setCellValue(true);
+            } else if (i != 29) {
+                row.createCell(2).setCellFormula("A" + (i + 1) + "*1");
+            }
+        }
+        return wb;
+    }
+
+    private static CellValue evaluate(HSSFWorkbook wb, HSSFFormulaEvaluator fe, String formula) {
+        HSSFCell cell = wb.getSheet("Sheet1").getRow(0).createCell(5);
+        cell.setCellFormula(formula);
+        fe.notifySetFormula(cell);
+        return fe.evaluate(cell);
+    }
+
+    private static void confirmNumber(HSSFWorkbook wb, HSSFFormulaEvaluator fe, double expected, String formula) {
+        assertEquals(formula, expected, evaluate(wb, fe, formula).getNumberValue(), 0);
+    }
+
+    @Test
+    public void aggregates() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            confirmNumber(wb, fe, 5050, "SUM(A1:B50)");
+            confirmNumber(wb, fe, 50.5, "AVERAGE(A1:B50)");
+            confirmNumber(wb, fe, 1, "MIN(A1:B50)");
+            confirmNumber(wb, fe, 100, "MAX(A1:B50)");
+            // the text, boolean and blank cell are ignored
+            confirmNumber(wb, fe, 2500 - 19 - 39 - 59, "SUM(C1:C50)");
+            confirmNumber(wb, fe, 47, "COUNT(C1:C50)");
+            // except for booleans by the A functions
+            confirmNumber(wb, fe, 99, "MAXA(C1:C50)");
+            confirmNumber(wb, fe, 0, "MINA(A1:A50,C1:C50)");
+            double products = 0;
+            for (int i = 0; i < ROWS; i++) {
+                products += (2 * i + 1) * (2 * i + 2);
+            }
+            confirmNumber(wb, fe, products, "SUMPRODUCT(A1:A50,B1:B50)");
+            confirmNumber(wb, fe, products - 19 * 20 - 39 * 40 + 40 - 59 * 60, "SUMPRODUCT(C1:C50,B1:B50)");
+        }
+    }
+
+    @Test
+    public void errors() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            HSSFCell c40 = wb.getSheet("Sheet1").getRow(39).getCell(2);
+            c40.setCellFormula("1/0");
+            fe.notifySetFormula(c40);
+            assertEquals("#DIV/0!", evaluate(wb, fe, "SUM(C1:C50)").formatAsString());
+            assertEquals("#DIV/0!", evaluate(wb, fe, "SUMPRODUCT(A1:A50,C1:C50)").formatAsString());
+        }
+    }
+
+    @Test
+    public void valuesAreReadAgainWhenCellsChange() throws IOException {
+        try (HSSFWorkbook wb = createWorkbook()) {
+            HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+            HSSFSheet sheet = wb.getSheet("Sheet1");
+            confirmNumber(wb, fe, 5050, "SUM(A1:B50)");
+
+            HSSFCell a1 = sheet.getRow(0).getCell(0);
+            a1.setCellValue(1001);
+            fe.notifyUpdateCell(a1);
+            confirmNumber(wb, fe, 6050, "SUM(A1:B50)");
+            // the formulas of C1:C50 depend on A1:A50
+            confirmNumber(wb, fe, 2500 - 19 - 39 - 59 + 1000, "SUM(C1:C50)");
+
+            HSSFCell c30 = sheet.getRow(29).createCell(2);
+            c30.setCellValue(7);
+            fe.notifyUpdateCell(c30);
+            confirmNumber(wb, fe, 2500 - 19 - 39 - 59 + 7 + 1000, "SUM(C1:C50)");
+        }
+    }
+
+    @Test
+    public void typesOfValues() {
+        NumericValues values = new NumericValues(2, 2);
+        values.setValue(0, new NumberEval(3));
+        values.setValue(3, BoolEval.TRUE);
+        assertEquals(false, values.isNumericOrBlank());
+        values.setValue(3, new NumberEval(4));
+        assertEquals(true, values.isNumericOrBlank());
+        values.setValue(1, new StringEval("x"));
+        values.setValue(2, ErrorEval.NA);
+        assertEquals(NumericValues.BLANK, new NumericValues(1, 1).getTypes()[0]);
+        assertEquals(NumericValues.STRING, values.getTypes()[1]);
+        assertEquals(ErrorEval.NA, values.getError(2));
+        assertEquals(4, values.getNumbers()[3], 0);
+    }
+}
@@ -16,7 +16,11 @@
 ==================================================================== */
 package org.apache.poi.ss.formula.udf;
 
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
 import org.apache.poi.ss.formula.atp.AnalysisToolPak;
+import org.apache.poi.ss.formula.functions.FreeRefFunction;
 import org.junit.Test;
 
 public class TestAggregatingUDFFinder extends BaseTestUDFFinder {
@@ -34,4 +38,15 @@ public class TestAggregatingUDFFinder extends BaseTestUDFFinder {
     public void add() {
         ((AggregatingUDFFinder)_instance).add(AnalysisToolPak.instance);
     }
+
+    @Test
+    public void copy() {
+        AggregatingUDFFinder finder = ((AggregatingUDFFinder)_instance).copy();
+        assertNotNull(finder.findFunction("BESSELJ"));
+
+        // tool packs added to the copy aren't added to the original finder
+        finder.add(new DefaultUDFFinder(new String[] { "myFunc" }, new FreeRefFunction[] { NotImplemented }));
+        assertNotNull(finder.findFunction("myFunc"));
+        assertNull(_instance.findFunction("myFunc"));
+    }
 }